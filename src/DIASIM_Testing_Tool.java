@@ -63,10 +63,20 @@ public class DIASIM_Testing_Tool {
         header("Create a Corpus File");
         corpusFilePath = new File(readString("Please enter the full path to where the corpus should be saved"));
         textTranscriptsDir = new File(readString("Please enter the folder path where the transcripts are located."));
-        p("Please press enter to create your corpus.");
-        WaitForEnter();
-        TestingTools.CreateCorpus(textTranscriptsDir,corpusFilePath);
-        p("Corpus created, and saved to " + corpusFilePath);
+        if (corpusFilePath.exists()
+                && yesno("That corpus already exists. Only add new or changed transcripts to it?")) {
+            boolean parse = yesno("Parse the new transcripts (may take a while)?");
+            if (TestingTools.UpdateCorpus(textTranscriptsDir,corpusFilePath,parse) == null) {
+                p("Corpus not updated.");
+                return;
+            }
+            p("Corpus updated, and saved to " + corpusFilePath);
+        } else {
+            p("Please press enter to create your corpus.");
+            WaitForEnter();
+            TestingTools.CreateCorpus(textTranscriptsDir,corpusFilePath);
+            p("Corpus created, and saved to " + corpusFilePath);
+        }
 
 
         p("Selecting this corpus in the menu.");
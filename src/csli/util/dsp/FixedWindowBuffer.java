@@ -6,31 +6,68 @@
  *******************************************************************************/
 package csli.util.dsp;
 
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
 
 /**
  * A {@link WindowBuffer} with a fixed length (number of rows/historical instances). Adding new rows causes the oldest
  * row to be dropped.
  * 
+ * Held as a ring buffer, so adding a row doesn't shift the others. Sums and products are kept as running totals
+ * (products as the product of non-zero values and a count of zeros), recalculated from scratch once per cycle of the
+ * buffer to stop rounding errors accumulating, and whenever non-finite values or over/underflow make the running
+ * totals unreliable. Maxima are kept in monotonic deques, and sort orders as primitive arrays updated by moving the
+ * replaced row to its new position.
+ * 
  * @author mpurver
  */
 public class FixedWindowBuffer implements WindowBuffer {
 
+	private int len;
+
+	private int wid;
+
+	// row i (oldest = 0) is held in slot (head + i) % len
 	private double[][] buffer;
 
+	private int head;
+
+	// the order in which each slot was filled (higher = more recent)
+	private long[] seq;
+
+	private long count;
+
 	private double[] bufsum;
 
+	// running sum and its (Neumaier) compensation term, so large values leaving don't wipe out small ones
+	private double[] runsum;
+
+	private double[] runcomp;
+
 	private double[] bufprd;
 
+	private double[] nzprd;
+
+	private int[] zeros;
+
+	private int[] nonfinite;
+
 	private double[] bufmax;
 
 	private int[] bufmaxind;
 
+	// per column, the slots which could become the max, values decreasing from front to back
+	private int[][] maxq;
+
+	private int[] maxqfront;
+
+	private int[] maxqsize;
+
+	// per column, the slots sorted by value (highest first, ties oldest first)
+	private int[][] sorted;
+
 	private Integer[][] bufsortind;
 
-	private MyComparator[] comps;
+	private boolean sortindvalid;
 
 	/**
 	 * A 2-dimensional buffer
@@ -41,19 +78,24 @@ public class FixedWindowBuffer implements WindowBuffer {
 	 *            the width of the buffer (number of columns/features per instance)
 	 */
 	public FixedWindowBuffer(int i, int j) {
+		len = i;
+		wid = j;
 		buffer = new double[i][j];
+		seq = new long[i];
 		bufsum = new double[j];
+		runsum = new double[j];
+		runcomp = new double[j];
 		bufprd = new double[j];
+		nzprd = new double[j];
+		zeros = new int[j];
+		nonfinite = new int[j];
 		bufmax = new double[j];
 		bufmaxind = new int[j];
+		maxq = new int[j][i];
+		maxqfront = new int[j];
+		maxqsize = new int[j];
+		sorted = new int[j][i];
 		bufsortind = new Integer[j][i];
-		comps = new MyComparator[j];
-		for (int k = 0; k < j; k++) {
-			comps[k] = new MyComparator(k);
-			for (int l = 0; l < i; l++) {
-				bufsortind[k][l] = l;
-			}
-		}
 		clear();
 	}
 
@@ -63,11 +105,25 @@ public class FixedWindowBuffer implements WindowBuffer {
 	 * @see csli.util.dsp.WindowBuffer#clear()
 	 */
 	public void clear() {
-		for (int i = 0; i < buffer.length; i++) {
-			for (int j = 0; j < buffer[i].length; j++) {
+		head = 0;
+		count = 0;
+		for (int i = 0; i < len; i++) {
+			for (int j = 0; j < wid; j++) {
 				buffer[i][j] = 0.0;
 			}
+			seq[i] = i - len;
+		}
+		for (int j = 0; j < wid; j++) {
+			recalculate(j);
+			maxqfront[j] = 0;
+			maxqsize[j] = 0;
+			for (int i = 0; i < len; i++) {
+				pushMax(j, i);
+				sorted[j][i] = i;
+			}
+			setMax(j);
 		}
+		sortindvalid = false;
 	}
 
 	/*
@@ -98,54 +154,158 @@ public class FixedWindowBuffer implements WindowBuffer {
 	 * @see csli.util.dsp.WindowBuffer#add(double[])
 	 */
 	public void add(double[] newValues) {
-		if (!(newValues.length == buffer[0].length)) {
-			throw new RuntimeException("Length mismatch: " + newValues.length + " " + buffer[0].length);
-		}
-		for (int j = 0; j < buffer[0].length; j++) {
-			bufsum[j] = 0.0;
-			bufprd[j] = 1.0;
-			bufmax[j] = Double.NEGATIVE_INFINITY;
-			bufmaxind[j] = -1;
+		if (!(newValues.length == wid)) {
+			throw new RuntimeException("Length mismatch: " + newValues.length + " " + wid);
 		}
-		// shift and refill buffer, summing as we go
-		for (int i = 0; i < buffer.length; i++) {
-			for (int j = 0; j < buffer[i].length; j++) {
-				// shift/refill
-				if (i < (buffer.length - 1)) {
-					// shift
-					buffer[i][j] = buffer[i + 1][j];
-				} else {
-					// fill
-					buffer[i][j] = newValues[j];
-				}
-				// store max for this subgroup (if tied, prefer more recent)
-				if (buffer[i][j] >= bufmax[j]) {
-					bufmax[j] = buffer[i][j];
-					bufmaxind[j] = i;
-				}
-				// sum/multiply scores over the window
-				bufsum[j] += buffer[i][j];
-				bufprd[j] *= buffer[i][j];
+		// overwrite the oldest slot, which becomes the newest
+		int slot = head;
+		head = (head + 1) % len;
+		long newSeq = count++;
+		seq[slot] = newSeq;
+		boolean cycled = (head == 0);
+		for (int j = 0; j < wid; j++) {
+			double oldValue = buffer[slot][j];
+			double newValue = newValues[j];
+			// move the slot to its new sort position: it was the oldest so came first among equal values, it's now the
+			// newest so goes last
+			int[] s = sorted[j];
+			int from = position(j, len, oldValue, Long.MIN_VALUE);
+			System.arraycopy(s, from + 1, s, from, len - 1 - from);
+			buffer[slot][j] = newValue;
+			int to = position(j, len - 1, newValue, newSeq);
+			System.arraycopy(s, to, s, to + 1, len - 1 - to);
+			s[to] = slot;
+			// max: drop the old slot if it was a candidate (it's the oldest, so at the front), add the new
+			if ((maxqsize[j] > 0) && (maxq[j][maxqfront[j]] == slot)) {
+				maxqfront[j] = (maxqfront[j] + 1) % len;
+				maxqsize[j]--;
+			}
+			pushMax(j, slot);
+			setMax(j);
+			// sums/products
+			if (isFinite(oldValue) != isFinite(newValue)) {
+				nonfinite[j] += (isFinite(newValue) ? -1 : 1);
+			}
+			if (cycled || (nonfinite[j] > 0)) {
+				recalculate(j);
+				continue;
+			}
+			addToSum(j, newValue);
+			addToSum(j, -oldValue);
+			bufsum[j] = runsum[j] + runcomp[j];
+			if (oldValue == 0.0) {
+				zeros[j]--;
+			} else {
+				nzprd[j] /= oldValue;
+			}
+			if (newValue == 0.0) {
+				zeros[j]++;
+			} else {
+				nzprd[j] *= newValue;
+			}
+			// if the value leaving (or the compensation) dwarfs what's left, small values may have been lost
+			double left = Math.abs(bufsum[j]);
+			if (!isFinite(bufsum[j]) || (Math.abs(oldValue) > 1e6 * left) || (Math.abs(runcomp[j]) > 1e-6 * left)
+					|| !isFinite(nzprd[j]) || (nzprd[j] == 0.0)) {
+				recalculate(j);
+			} else {
+				bufprd[j] = (zeros[j] > 0 ? 0.0 : nzprd[j]);
 			}
 		}
-		// get sort indices
-		for (int j = 0; j < buffer[0].length; j++) {
-			Arrays.sort(bufsortind[j], comps[j]);
+		sortindvalid = false;
+	}
+
+	private void addToSum(int j, double d) {
+		double t = runsum[j] + d;
+		if (Math.abs(runsum[j]) >= Math.abs(d)) {
+			runcomp[j] += (runsum[j] - t) + d;
+		} else {
+			runcomp[j] += (d - t) + runsum[j];
 		}
+		runsum[j] = t;
 	}
 
-	private class MyComparator implements Comparator<Integer> {
+	private static boolean isFinite(double d) {
+		return !(Double.isNaN(d) || Double.isInfinite(d));
+	}
 
-		private int ref;
+	/**
+	 * Recalculate the sum and product for a column from scratch
+	 */
+	private void recalculate(int j) {
+		bufsum[j] = 0.0;
+		runsum[j] = 0.0;
+		runcomp[j] = 0.0;
+		bufprd[j] = 1.0;
+		nzprd[j] = 1.0;
+		zeros[j] = 0;
+		nonfinite[j] = 0;
+		for (int i = 0; i < len; i++) {
+			double v = buffer[(head + i) % len][j];
+			bufsum[j] += v;
+			addToSum(j, v);
+			bufprd[j] *= v;
+			if (v == 0.0) {
+				zeros[j]++;
+			} else {
+				nzprd[j] *= v;
+			}
+			if (!isFinite(v)) {
+				nonfinite[j]++;
+			}
+		}
+	}
 
-		public MyComparator(int j) {
-			ref = j;
+	/**
+	 * Add a (newest) slot to the back of a column's max deque, first removing any candidates it beats (if tied, prefer
+	 * more recent)
+	 */
+	private void pushMax(int j, int slot) {
+		double v = buffer[slot][j];
+		if (Double.isNaN(v)) {
+			return;
+		}
+		int[] q = maxq[j];
+		while ((maxqsize[j] > 0) && (buffer[q[(maxqfront[j] + maxqsize[j] - 1) % len]][j] <= v)) {
+			maxqsize[j]--;
+		}
+		q[(maxqfront[j] + maxqsize[j]) % len] = slot;
+		maxqsize[j]++;
+	}
+
+	private void setMax(int j) {
+		if (maxqsize[j] == 0) {
+			bufmax[j] = Double.NEGATIVE_INFINITY;
+			bufmaxind[j] = -1;
+		} else {
+			int slot = maxq[j][maxqfront[j]];
+			bufmax[j] = buffer[slot][j];
+			bufmaxind[j] = row(slot);
 		}
+	}
 
-		public int compare(Integer i1, Integer i2) {
-			return Double.compare(buffer[i2][ref], buffer[i1][ref]);
+	/**
+	 * @return the first position in the first n entries of a column's sort order which doesn't sort before the given
+	 *         value and fill order
+	 */
+	private int position(int j, int n, double value, long order) {
+		int[] s = sorted[j];
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = Double.compare(value, buffer[s[mid]][j]);
+			if ((c < 0) || ((c == 0) && (seq[s[mid]] < order))) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
 		}
+		return lo;
+	}
 
+	private int row(int slot) {
+		return (slot - head + len) % len;
 	}
 
 	/*
@@ -154,7 +314,7 @@ public class FixedWindowBuffer implements WindowBuffer {
 	 * @see csli.util.dsp.WindowBuffer#getValue(int, int)
 	 */
 	public double getValue(int i, int j) {
-		return buffer[i][j];
+		return buffer[(head + i) % len][j];
 	}
 
 	/*
@@ -199,16 +359,37 @@ public class FixedWindowBuffer implements WindowBuffer {
 	 * @see csli.util.dsp.WindowBuffer#getSortInds()
 	 */
 	public Integer[][] getSortInds() {
+		if (!sortindvalid) {
+			for (int j = 0; j < wid; j++) {
+				for (int i = 0; i < len; i++) {
+					bufsortind[j][i] = row(sorted[j][i]);
+				}
+			}
+			sortindvalid = true;
+		}
 		return bufsortind;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see csli.util.dsp.WindowBuffer#getSortInds(int)
+	 */
+	public int[] getSortInds(int j) {
+		int[] inds = new int[len];
+		for (int i = 0; i < len; i++) {
+			inds[i] = row(sorted[j][i]);
+		}
+		return inds;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see csli.util.dsp.WindowBuffer#length()
 	 */
 	public int length() {
-		return buffer.length;
+		return len;
 	}
 
 	/*
@@ -217,7 +398,7 @@ public class FixedWindowBuffer implements WindowBuffer {
 	 * @see csli.util.dsp.WindowBuffer#width()
 	 */
 	public int width() {
-		return buffer[0].length;
+		return wid;
 	}
 
 	/*
@@ -227,10 +408,10 @@ public class FixedWindowBuffer implements WindowBuffer {
 	 */
 	public String toString() {
 		String out = "";
-		for (int i = 0; i < buffer.length; i++) {
+		for (int i = 0; i < len; i++) {
 			out += "Row " + i + ":";
-			for (int j = 0; j < buffer[i].length; j++) {
-				out += " " + buffer[i][j];
+			for (int j = 0; j < wid; j++) {
+				out += " " + getValue(i, j);
 			}
 			out += "\n";
 		}
@@ -29,4 +29,11 @@ public interface Smoother {
 	 */
 	public List<Double> smooth(List<Double> raw);
 
+	/**
+	 * @param raw
+	 *            a batch of data series (which may be of different lengths)
+	 * @return a smoothed version of each
+	 */
+	public double[][] smooth(double[][] raw);
+
 }
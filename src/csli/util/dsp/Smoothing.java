@@ -6,11 +6,29 @@
  *******************************************************************************/
 package csli.util.dsp;
 
+import java.util.Arrays;
+import java.util.HashMap;
+
 /**
  * @author mpurver
  */
 public class Smoothing {
 
+	private static int fftThreshold = 64;
+
+	/**
+	 * @param fftThreshold
+	 *            kernels and FIR filters longer than this are applied by FFT convolution, O(n log n), rather than
+	 *            directly, O(nk) (default 64)
+	 */
+	public static void setFFTThreshold(int fftThreshold) {
+		Smoothing.fftThreshold = fftThreshold;
+	}
+
+	private static boolean useFFT(int length, int kernelLength) {
+		return (kernelLength > fftThreshold) && (length > 0);
+	}
+
 	/**
 	 * Conglomerate nearby nonzero values within a window distance from one another into a conglomerate
 	 * 
@@ -144,6 +162,32 @@ public class Smoothing {
 	 * @return the smoothed output series
 	 */
 	public static double[] smoothFIR(double[] raw, double[] filter) {
+		return smoothFIR(raw, filter, null);
+	}
+
+	/**
+	 * Smooth a batch of series with a given FIR filter (for long filters, the filter's FFT is only done once)
+	 * 
+	 * @author mpurver
+	 * @param raw
+	 *            the unsmoothed input series (which may be of different lengths)
+	 * @param filter
+	 *            the filter (coeff 0 applied to current input, 1..n applied to previous input)
+	 * @return the smoothed output series
+	 */
+	public static double[][] smoothFIR(double[][] raw, double[] filter) {
+		HashMap<Integer, double[][]> spectra = new HashMap<Integer, double[][]>();
+		double[][] cooked = new double[raw.length][];
+		for (int i = 0; i < raw.length; i++) {
+			cooked[i] = smoothFIR(raw[i], filter, spectra);
+		}
+		return cooked;
+	}
+
+	private static double[] smoothFIR(double[] raw, double[] filter, HashMap<Integer, double[][]> spectra) {
+		if (useFFT(raw.length, filter.length)) {
+			return Arrays.copyOf(convolve(raw, filter, spectra), raw.length);
+		}
 		double[] cooked = new double[raw.length];
 		for (int i = 0; i < raw.length; i++) {
 			cooked[i] = 0.0;
@@ -188,6 +232,33 @@ public class Smoothing {
 	 * @return the smoothed output series
 	 */
 	public static double[] smooth(double[] raw, double[] kernel) {
+		return smooth(raw, kernel, null);
+	}
+
+	/**
+	 * Smooth a batch of series by convolution with a given kernel (for long kernels, the kernel's FFT is only done
+	 * once)
+	 * 
+	 * @author mpurver
+	 * @param raw
+	 *            the unsmoothed input series (which may be of different lengths)
+	 * @param kernel
+	 *            the 1-dimensional kernel
+	 * @return the smoothed output series
+	 */
+	public static double[][] smooth(double[][] raw, double[] kernel) {
+		HashMap<Integer, double[][]> spectra = new HashMap<Integer, double[][]>();
+		double[][] cooked = new double[raw.length][];
+		for (int i = 0; i < raw.length; i++) {
+			cooked[i] = smooth(raw[i], kernel, spectra);
+		}
+		return cooked;
+	}
+
+	private static double[] smooth(double[] raw, double[] kernel, HashMap<Integer, double[][]> spectra) {
+		if (useFFT(raw.length, kernel.length)) {
+			return smoothFFT(raw, kernel, spectra);
+		}
 		int x = raw.length;
 		int k = kernel.length;
 		int n = (k - 1) / 2;
@@ -209,6 +280,121 @@ public class Smoothing {
 		return cooked;
 	}
 
+	/**
+	 * As smooth(), but via FFT convolution: the series is extended at both ends by repeating its end values, as
+	 * smooth() does, and convolved with the reversed kernel
+	 */
+	private static double[] smoothFFT(double[] raw, double[] kernel, HashMap<Integer, double[][]> spectra) {
+		int x = raw.length;
+		int k = kernel.length;
+		int n = (k - 1) / 2;
+		double[] ext = new double[x + k - 1];
+		for (int p = 0; p < ext.length; p++) {
+			ext[p] = raw[Math.min(x - 1, Math.max(0, p - n))];
+		}
+		double[] rev = new double[k];
+		for (int j = 0; j < k; j++) {
+			rev[j] = kernel[k - 1 - j];
+		}
+		double[] full = convolve(ext, rev, spectra);
+		return Arrays.copyOfRange(full, k - 1, k - 1 + x);
+	}
+
+	/**
+	 * Linear convolution by FFT
+	 * 
+	 * @param a
+	 * @param b
+	 * @param spectra
+	 *            a cache of FFTs of b by transform size, to reuse over many a's with the same b; or null
+	 * @return the full convolution of a and b, of length a.length + b.length - 1
+	 */
+	public static double[] convolve(double[] a, double[] b, HashMap<Integer, double[][]> spectra) {
+		int len = a.length + b.length - 1;
+		int size = 2;
+		while (size < len) {
+			size <<= 1;
+		}
+		double[][] bf = (spectra == null ? null : spectra.get(size));
+		if (bf == null) {
+			bf = new double[][] { Arrays.copyOf(b, size), new double[size] };
+			fft(bf[0], bf[1], false);
+			if (spectra != null) {
+				spectra.put(size, bf);
+			}
+		}
+		double[] re = Arrays.copyOf(a, size);
+		double[] im = new double[size];
+		fft(re, im, false);
+		for (int i = 0; i < size; i++) {
+			double r = re[i] * bf[0][i] - im[i] * bf[1][i];
+			im[i] = re[i] * bf[1][i] + im[i] * bf[0][i];
+			re[i] = r;
+		}
+		fft(re, im, true);
+		return Arrays.copyOf(re, len);
+	}
+
+	/**
+	 * In-place iterative radix-2 complex FFT
+	 * 
+	 * @param re
+	 *            real parts (length must be a power of 2)
+	 * @param im
+	 *            imaginary parts
+	 * @param inverse
+	 *            if true, do the (scaled) inverse transform
+	 */
+	private static void fft(double[] re, double[] im, boolean inverse) {
+		int n = re.length;
+		// bit-reversal permutation
+		for (int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			j ^= bit;
+			if (i < j) {
+				double t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+		double[] cos = new double[n / 2];
+		double[] sin = new double[n / 2];
+		for (int i = 0; i < n / 2; i++) {
+			cos[i] = Math.cos(2 * Math.PI * i / n);
+			sin[i] = (inverse ? 1 : -1) * Math.sin(2 * Math.PI * i / n);
+		}
+		for (int len = 2; len <= n; len <<= 1) {
+			int half = len / 2;
+			int step = n / len;
+			for (int i = 0; i < n; i += len) {
+				for (int j = 0; j < half; j++) {
+					int a = i + j;
+					int b = a + half;
+					double wr = cos[j * step];
+					double wi = sin[j * step];
+					double xr = re[b] * wr - im[b] * wi;
+					double xi = re[b] * wi + im[b] * wr;
+					re[b] = re[a] - xr;
+					im[b] = im[a] - xi;
+					re[a] += xr;
+					im[a] += xi;
+				}
+			}
+		}
+		if (inverse) {
+			for (int i = 0; i < n; i++) {
+				re[i] /= n;
+				im[i] /= n;
+			}
+		}
+	}
+
 	/**
 	 * Produce a 1-dimensional Gaussian convolution kernel
 	 * 
@@ -45,10 +45,24 @@ public class SmoothingFactory {
 			return new ArrayList<Double>(raw);
 		}
 
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see csli.util.dsp.Smoother#smooth(double[][])
+		 */
+		@Override
+		public double[][] smooth(double[][] raw) {
+			double[][] cooked = new double[raw.length][];
+			for (int i = 0; i < raw.length; i++) {
+				cooked[i] = raw[i].clone();
+			}
+			return cooked;
+		}
+
 	}
 
 	/**
-	 * An abstract {@link Smoother} which provides the {@link List} method.
+	 * An abstract {@link Smoother} which provides the {@link List} and batch methods.
 	 * 
 	 * @author mpurver
 	 */
@@ -73,6 +87,20 @@ public class SmoothingFactory {
 			return cooked;
 		}
 
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see csli.util.dsp.Smoother#smooth(double[][])
+		 */
+		@Override
+		public double[][] smooth(double[][] raw) {
+			double[][] cooked = new double[raw.length][];
+			for (int i = 0; i < raw.length; i++) {
+				cooked[i] = smooth(raw[i]);
+			}
+			return cooked;
+		}
+
 	}
 
 	/**
@@ -97,6 +125,16 @@ public class SmoothingFactory {
 			return Smoothing.smooth(raw, kernel);
 		}
 
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see csli.util.dsp.SmoothingFactory.BasicSmoother#smooth(double[][])
+		 */
+		@Override
+		public double[][] smooth(double[][] raw) {
+			return Smoothing.smooth(raw, kernel);
+		}
+
 	}
 
 	/**
@@ -158,6 +196,16 @@ public class SmoothingFactory {
 			return Smoothing.smoothFIR(raw, filter);
 		}
 
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see csli.util.dsp.SmoothingFactory.BasicSmoother#smooth(double[][])
+		 */
+		@Override
+		public double[][] smooth(double[][] raw) {
+			return Smoothing.smoothFIR(raw, filter);
+		}
+
 	}
 
 	/**
@@ -211,6 +259,19 @@ public class SmoothingFactory {
 			return raw;
 		}
 
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see csli.util.dsp.SmoothingFactory.BasicSmoother#smooth(double[][])
+		 */
+		@Override
+		public double[][] smooth(double[][] raw) {
+			for (Smoother smoother : smoothers) {
+				raw = smoother.smooth(raw);
+			}
+			return raw;
+		}
+
 	}
 
 	private static SmoothingFactory factory = new SmoothingFactory();
@@ -7,14 +7,16 @@
 package csli.util.dsp;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * A {@link WindowBuffer} with a variable length (number of rows/historical instances). Adding new rows just increases
  * the length, no old data is dropped until the buffer is cleared.
  * 
+ * Sort orders are kept as primitive arrays, with each new row inserted at its place by binary search (after any equal
+ * values, so ties stay oldest first).
+ * 
  * @author mpurver
  */
 public class VariableWindowBuffer implements WindowBuffer {
@@ -29,9 +31,7 @@ public class VariableWindowBuffer implements WindowBuffer {
 
 	private int[] bufmaxind;
 
-	private List<?>[] bufsortind;
-
-	private MyComparator[] comps;
+	private int[][] bufsortind;
 
 	/**
 	 * A 2-dimensional buffer with variable length.
@@ -57,12 +57,7 @@ public class VariableWindowBuffer implements WindowBuffer {
 		bufprd = new double[j];
 		bufmax = new double[j];
 		bufmaxind = new int[j];
-		bufsortind = new ArrayList<?>[j];
-		comps = new MyComparator[j];
-		for (int k = 0; k < j; k++) {
-			comps[k] = new MyComparator(k);
-			bufsortind[k] = new ArrayList<Integer>(i);
-		}
+		bufsortind = new int[j][Math.max(i, 8)];
 		clear();
 	}
 
@@ -78,7 +73,6 @@ public class VariableWindowBuffer implements WindowBuffer {
 			bufprd[j] = 1.0;
 			bufmax[j] = Double.NEGATIVE_INFINITY;
 			bufmaxind[j] = -1;
-			bufsortind[j].clear();
 		}
 	}
 
@@ -119,7 +113,7 @@ public class VariableWindowBuffer implements WindowBuffer {
 		for (int j = 0; j < bufsum.length; j++) {
 			// fill
 			buffer.get(i)[j] = newValues[j];
-			((List<Integer>) bufsortind[j]).add(i);
+			insertSortInd(i, j);
 			// store max for this subgroup (if tied, prefer more recent)
 			if (newValues[j] >= bufmax[j]) {
 				bufmax[j] = newValues[j];
@@ -129,24 +123,29 @@ public class VariableWindowBuffer implements WindowBuffer {
 			bufsum[j] += newValues[j];
 			bufprd[j] *= newValues[j];
 		}
-		// get sort indices
-		for (int j = 0; j < bufsum.length; j++) {
-			Collections.sort((List<Integer>) bufsortind[j], comps[j]);
-		}
 	}
 
-	private class MyComparator implements Comparator<Integer> {
-
-		private int ref;
-
-		public MyComparator(int j) {
-			ref = j;
+	/**
+	 * Insert a new row i into the sort order for column j (the first i entries), after any rows with equal values
+	 */
+	private void insertSortInd(int i, int j) {
+		if (bufsortind[j].length <= i) {
+			bufsortind[j] = Arrays.copyOf(bufsortind[j], 2 * bufsortind[j].length);
 		}
-
-		public int compare(Integer i1, Integer i2) {
-			return Double.compare(buffer.get(i2)[ref], buffer.get(i1)[ref]);
+		int[] s = bufsortind[j];
+		double value = buffer.get(i)[j];
+		int lo = 0;
+		int hi = i;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (Double.compare(buffer.get(s[mid])[j], value) >= 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
 		}
-
+		System.arraycopy(s, lo, s, lo + 1, i - lo);
+		s[lo] = i;
 	}
 
 	/*
@@ -203,12 +202,21 @@ public class VariableWindowBuffer implements WindowBuffer {
 		Integer[][] bsi = new Integer[bufsum.length][buffer.size()];
 		for (int i = 0; i < buffer.size(); i++) {
 			for (int j = 0; j < bufsum.length; j++) {
-				bsi[j][i] = (Integer) bufsortind[j].get(i);
+				bsi[j][i] = bufsortind[j][i];
 			}
 		}
 		return bsi;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see csli.util.dsp.WindowBuffer#getSortInds(int)
+	 */
+	public int[] getSortInds(int j) {
+		return Arrays.copyOf(bufsortind[j], buffer.size());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
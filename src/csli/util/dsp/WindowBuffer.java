@@ -78,6 +78,13 @@ public interface WindowBuffer {
      */
     public abstract Integer[][] getSortInds();
 
+    /**
+     * @param j
+     *            the column (feature)
+     * @return the row indices of the sorted (highest first) values for this column, as a new primitive array
+     */
+    public abstract int[] getSortInds(int j);
+
     /**
      * @return the length of the buffer (number of rows/data instances)
      */
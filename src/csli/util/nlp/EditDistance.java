@@ -0,0 +1,516 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ ******************************************************************************/
+package csli.util.nlp;
+
+import java.util.Arrays;
+
+/**
+ * Edit distance and common subsequence/substring lengths between strings or sequences of int symbols (e.g. interned
+ * token ids), without the O(nm) tables of the textbook dynamic programs. Levenshtein distance uses Myers' bit-vector
+ * algorithm (with Hyyro's blocking for sequences longer than 64 symbols), and LCS length Allison & Dix's bit-vector
+ * algorithm, both O(nm/64); bounded ("banded") variants give up once the distance must exceed a threshold.
+ *
+ * An instance keeps and reuses its work buffers between calls, so is not thread-safe: use one per thread, e.g. via
+ * {@link #getInstance()}.
+ *
+ * @author mpurver
+ */
+public class EditDistance {
+
+    private static final ThreadLocal<EditDistance> instance = new ThreadLocal<EditDistance>() {
+        @Override
+        protected EditDistance initialValue() {
+            return new EditDistance();
+        }
+    };
+
+    // symbol -> match bit-vector table, open addressing; a slot is in use iff its stamp is the current generation
+    private int[] keys = new int[0];
+
+    private int[] stamps = new int[0];
+
+    private long[] peq = new long[0];
+
+    private int mask;
+
+    private int generation = 0;
+
+    private int blocks;
+
+    // per-block vertical deltas (Levenshtein) or LCS row vector
+    private long[] pv = new long[0];
+
+    private long[] mv = new long[0];
+
+    // symbol copies of char sequences, and DP rows for the banded & substring variants
+    private int[] symA = new int[0];
+
+    private int[] symB = new int[0];
+
+    private int[] row = new int[0];
+
+    private int[] row2 = new int[0];
+
+    /**
+     * @return a shared instance for the current thread
+     */
+    public static EditDistance getInstance() {
+        return instance.get();
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return the Levenshtein distance between a and b
+     */
+    public int levenshtein(CharSequence a, CharSequence b) {
+        symA = toSymbols(a, symA);
+        symB = toSymbols(b, symB);
+        return levenshtein(symA, a.length(), symB, b.length());
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @param maxDist
+     *            the largest distance of interest
+     * @return the Levenshtein distance between a and b, or maxDist+1 if it is greater than maxDist
+     */
+    public int levenshtein(CharSequence a, CharSequence b, int maxDist) {
+        symA = toSymbols(a, symA);
+        symB = toSymbols(b, symB);
+        return levenshtein(symA, a.length(), symB, b.length(), maxDist);
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return the Levenshtein distance between symbol sequences a and b
+     */
+    public int levenshtein(int[] a, int[] b) {
+        return levenshtein(a, a.length, b, b.length);
+    }
+
+    /**
+     * @param a
+     * @param n
+     *            the number of symbols of a to use
+     * @param b
+     * @param m
+     *            the number of symbols of b to use
+     * @return the Levenshtein distance between the first n symbols of a and the first m of b
+     */
+    public int levenshtein(int[] a, int n, int[] b, int m) {
+        if (n == 0) {
+            return m;
+        }
+        if (m == 0) {
+            return n;
+        }
+        // the shorter sequence is the pattern, to minimise the number of blocks
+        if (n < m) {
+            return myers(a, n, b, m);
+        } else {
+            return myers(b, m, a, n);
+        }
+    }
+
+    /**
+     * @param a
+     * @param n
+     *            the number of symbols of a to use
+     * @param b
+     * @param m
+     *            the number of symbols of b to use
+     * @param maxDist
+     *            the largest distance of interest
+     * @return the Levenshtein distance between the first n symbols of a and the first m of b, or maxDist+1 if it is
+     *         greater than maxDist
+     */
+    public int levenshtein(int[] a, int n, int[] b, int m, int maxDist) {
+        if (maxDist < 0) {
+            return 0;
+        }
+        if (Math.abs(n - m) > maxDist) {
+            return maxDist + 1;
+        }
+        // a bit-vector block step costs about two DP cells, so only use the band when it's narrower than that
+        int numBlocks = (Math.min(n, m) + 63) >>> 6;
+        if ((2 * maxDist + 1) >= 2 * numBlocks) {
+            return Math.min(levenshtein(a, n, b, m), maxDist + 1);
+        }
+        return banded(a, n, b, m, maxDist);
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return the length of the longest common subsequence of a and b
+     */
+    public int lcsLength(CharSequence a, CharSequence b) {
+        symA = toSymbols(a, symA);
+        symB = toSymbols(b, symB);
+        return lcsLength(symA, a.length(), symB, b.length());
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return the length of the longest common subsequence of symbol sequences a and b
+     */
+    public int lcsLength(int[] a, int[] b) {
+        return lcsLength(a, a.length, b, b.length);
+    }
+
+    /**
+     * @param a
+     * @param n
+     *            the number of symbols of a to use
+     * @param b
+     * @param m
+     *            the number of symbols of b to use
+     * @return the length of the longest common subsequence of the first n symbols of a and the first m of b
+     */
+    public int lcsLength(int[] a, int n, int[] b, int m) {
+        if ((n == 0) || (m == 0)) {
+            return 0;
+        }
+        if (n < m) {
+            return lcsBits(a, n, b, m);
+        } else {
+            return lcsBits(b, m, a, n);
+        }
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return a longest common subsequence of x and y (the same one as the textbook dynamic program which walks
+     *         forwards preferring to skip characters of x)
+     */
+    public String lcs(CharSequence x, CharSequence y) {
+        int xn = x.length();
+        int yn = y.length();
+        StringBuilder sb = new StringBuilder();
+        if ((xn == 0) || (yn == 0)) {
+            return sb.toString();
+        }
+        // bit-vector rows for the reversed strings, so that zeros(r, c) = LCS of the last r chars of x & last c of y
+        int[] p = new int[yn];
+        for (int j = 0; j < yn; j++) {
+            p[j] = y.charAt(yn - 1 - j);
+        }
+        prepare(p, yn);
+        int nb = blocks;
+        long[] rows = new long[(xn + 1) * nb];
+        for (int b = 0; b < nb; b++) {
+            rows[b] = -1L;
+        }
+        for (int i = 0; i < xn; i++) {
+            System.arraycopy(rows, i * nb, rows, (i + 1) * nb, nb);
+            lcsStep(rows, (i + 1) * nb, lookup(x.charAt(xn - 1 - i)));
+        }
+        int i = 0, j = 0;
+        while ((i < xn) && (j < yn)) {
+            if (x.charAt(i) == y.charAt(j)) {
+                sb.append(x.charAt(i));
+                i++;
+                j++;
+            } else if (zeros(rows, nb, xn - i - 1, yn - j) >= zeros(rows, nb, xn - i, yn - j - 1)) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return the length of the longest common substring of a and b
+     */
+    public int longestCommonSubstring(CharSequence a, CharSequence b) {
+        symA = toSymbols(a, symA);
+        symB = toSymbols(b, symB);
+        return longestCommonSubstring(symA, a.length(), symB, b.length());
+    }
+
+    /**
+     * @param a
+     * @param n
+     *            the number of symbols of a to use
+     * @param b
+     * @param m
+     *            the number of symbols of b to use
+     * @return the length of the longest common substring of the first n symbols of a and the first m of b
+     */
+    public int longestCommonSubstring(int[] a, int n, int[] b, int m) {
+        if (row.length < m + 1) {
+            row = new int[m + 1];
+        }
+        int[] r = row;
+        for (int j = 0; j <= m; j++) {
+            r[j] = 0;
+        }
+        int max = 0;
+        for (int i = 0; i < n; i++) {
+            int ai = a[i];
+            int diag = 0;
+            for (int j = 1; j <= m; j++) {
+                int up = r[j];
+                r[j] = (ai == b[j - 1]) ? diag + 1 : 0;
+                if (r[j] > max) {
+                    max = r[j];
+                }
+                diag = up;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Myers' algorithm, with pattern p of length m (the vertical axis) against text t of length n
+     */
+    private int myers(int[] p, int m, int[] t, int n) {
+        prepare(p, m);
+        int score = m;
+        long last = 1L << ((m - 1) & 63);
+        if (blocks == 1) {
+            long vp = -1L;
+            long vm = 0L;
+            for (int j = 0; j < n; j++) {
+                int s = lookup(t[j]);
+                long eq = (s < 0 ? 0L : peq[s]);
+                long xv = eq | vm;
+                long xh = (((eq & vp) + vp) ^ vp) | eq;
+                long hp = vm | ~(xh | vp);
+                long hm = vp & xh;
+                if ((hp & last) != 0) {
+                    score++;
+                } else if ((hm & last) != 0) {
+                    score--;
+                }
+                hp = (hp << 1) | 1L;
+                hm <<= 1;
+                vp = hm | ~(xv | hp);
+                vm = hp & xv;
+            }
+            return score;
+        }
+        int nb = blocks;
+        for (int b = 0; b < nb; b++) {
+            pv[b] = -1L;
+            mv[b] = 0L;
+        }
+        for (int j = 0; j < n; j++) {
+            int s = lookup(t[j]);
+            int base = s * nb;
+            // horizontal delta into the top of each block: +1 along the first row
+            int h = 1;
+            for (int b = 0; b < nb; b++) {
+                long eq = (s < 0 ? 0L : peq[base + b]);
+                long vp = pv[b];
+                long vm = mv[b];
+                long xv = eq | vm;
+                if (h < 0) {
+                    eq |= 1L;
+                }
+                long xh = (((eq & vp) + vp) ^ vp) | eq;
+                long hp = vm | ~(xh | vp);
+                long hm = vp & xh;
+                long high = (b == nb - 1 ? last : Long.MIN_VALUE);
+                int hout = ((hp & high) != 0 ? 1 : ((hm & high) != 0 ? -1 : 0));
+                hp <<= 1;
+                hm <<= 1;
+                if (h < 0) {
+                    hm |= 1L;
+                } else if (h > 0) {
+                    hp |= 1L;
+                }
+                pv[b] = hm | ~(xv | hp);
+                mv[b] = hp & xv;
+                h = hout;
+            }
+            score += h;
+        }
+        return score;
+    }
+
+    /**
+     * Ukkonen's banded dynamic program, only filling cells within maxDist of the diagonal (|n-m| <= maxDist)
+     */
+    private int banded(int[] a, int n, int[] b, int m, int maxDist) {
+        int inf = maxDist + 1;
+        if (row.length < m + 2) {
+            row = new int[m + 2];
+        }
+        if (row2.length < m + 2) {
+            row2 = new int[m + 2];
+        }
+        int[] prev = row;
+        int[] cur = row2;
+        for (int j = 0; j <= Math.min(m, maxDist + 1); j++) {
+            prev[j] = Math.min(j, inf);
+        }
+        for (int i = 1; i <= n; i++) {
+            int lo = Math.max(1, i - maxDist);
+            int hi = Math.min(m, i + maxDist);
+            cur[lo - 1] = (lo == 1 ? Math.min(i, inf) : inf);
+            int ai = a[i - 1];
+            int min = cur[lo - 1];
+            for (int j = lo; j <= hi; j++) {
+                int d = prev[j - 1] + (ai == b[j - 1] ? 0 : 1);
+                int ins = cur[j - 1] + 1;
+                if (ins < d) {
+                    d = ins;
+                }
+                int del = prev[j] + 1;
+                if (del < d) {
+                    d = del;
+                }
+                if (d > inf) {
+                    d = inf;
+                }
+                cur[j] = d;
+                if (d < min) {
+                    min = d;
+                }
+            }
+            if (hi < m) {
+                cur[hi + 1] = inf;
+            }
+            if (min > maxDist) {
+                return inf;
+            }
+            int[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        return Math.min(prev[m], inf);
+    }
+
+    /**
+     * Allison & Dix's algorithm, with pattern p of length m against text t of length n
+     */
+    private int lcsBits(int[] p, int m, int[] t, int n) {
+        prepare(p, m);
+        int nb = blocks;
+        for (int b = 0; b < nb; b++) {
+            pv[b] = -1L;
+        }
+        for (int j = 0; j < n; j++) {
+            lcsStep(pv, 0, lookup(t[j]));
+        }
+        return zeros(pv, nb, 0, m);
+    }
+
+    /**
+     * Advance the LCS row vector held in v[off..off+blocks) by one text symbol (with table slot s, or -1 if absent
+     * from the pattern)
+     */
+    private void lcsStep(long[] v, int off, int s) {
+        if (s < 0) {
+            return;
+        }
+        int base = s * blocks;
+        long carry = 0L;
+        for (int b = 0; b < blocks; b++) {
+            long x = v[off + b];
+            long u = x & peq[base + b];
+            long sum = x + u;
+            long c = (((sum ^ Long.MIN_VALUE) < (x ^ Long.MIN_VALUE)) ? 1L : 0L);
+            sum += carry;
+            if ((carry != 0L) && (sum == 0L)) {
+                c = 1L;
+            }
+            carry = c;
+            v[off + b] = sum | (x - u);
+        }
+    }
+
+    /**
+     * @return the number of zero bits among the first c bits of row r of a table of rows of nb blocks
+     */
+    private static int zeros(long[] rows, int nb, int r, int c) {
+        int off = r * nb;
+        int ones = 0;
+        int full = c >>> 6;
+        for (int b = 0; b < full; b++) {
+            ones += Long.bitCount(rows[off + b]);
+        }
+        if ((c & 63) != 0) {
+            ones += Long.bitCount(rows[off + full] & ((1L << (c & 63)) - 1));
+        }
+        return c - ones;
+    }
+
+    /**
+     * Build the match bit-vector table for pattern p of length m > 0
+     */
+    private void prepare(int[] p, int m) {
+        blocks = (m + 63) >>> 6;
+        int cap = Integer.highestOneBit(Math.max(2 * m, 16) - 1) << 1;
+        if (keys.length < cap) {
+            keys = new int[cap];
+            stamps = new int[cap];
+            generation = 0;
+        }
+        if (peq.length < cap * blocks) {
+            peq = new long[cap * blocks];
+        }
+        if (pv.length < blocks) {
+            pv = new long[blocks];
+            mv = new long[blocks];
+        }
+        mask = cap - 1;
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+        for (int i = 0; i < m; i++) {
+            int s = lookup(p[i]);
+            if (s < 0) {
+                s = ~s;
+                keys[s] = p[i];
+                stamps[s] = generation;
+                for (int b = 0; b < blocks; b++) {
+                    peq[s * blocks + b] = 0L;
+                }
+            }
+            peq[s * blocks + (i >>> 6)] |= 1L << (i & 63);
+        }
+    }
+
+    /**
+     * @return the table slot for symbol key, or the ones' complement of the free slot where it would go
+     */
+    private int lookup(int key) {
+        int h = key * 0x9E3779B9;
+        h = (h ^ (h >>> 16)) & mask;
+        while (stamps[h] == generation) {
+            if (keys[h] == key) {
+                return h;
+            }
+            h = (h + 1) & mask;
+        }
+        return ~h;
+    }
+
+    private static int[] toSymbols(CharSequence s, int[] buf) {
+        int n = s.length();
+        if (buf.length < n) {
+            buf = new int[Math.max(n, 2 * buf.length)];
+        }
+        for (int i = 0; i < n; i++) {
+            buf[i] = s.charAt(i);
+        }
+        return buf;
+    }
+
+}
@@ -87,7 +87,7 @@ public class StringComparison {
      * @return
      */
     public static double stoppedWordCompare(String key, String bag) {
-        return stoppedWordCompare(stringToWordBag(key), stringToWordBag(bag));
+        return rawWordCompare(stringToWordBag(key, false), stringToWordBag(bag, true));
     }
 
     /**
@@ -95,6 +95,14 @@ public class StringComparison {
      * lower case if caseSens is false
      */
     private static Collection stringToWordBag(String str) {
+        return stringToWordBag(str, false);
+    }
+
+    /**
+     * As stringToWordBag(str), but leaving out stop words if stopped is true (rather than copying the bag to remove
+     * them afterwards)
+     */
+    private static Collection stringToWordBag(String str, boolean stopped) {
         String[] strs;
         if (caseSens) {
             strs = str.split("\\s+");
@@ -105,78 +113,41 @@ public class StringComparison {
         if (useSet) {
             bag = new HashSet();
         } else {
-            bag = new ArrayList();
+            bag = new ArrayList(strs.length);
         }
         for (int i = 0; i < strs.length; i++) {
-            bag.add(strs[i]);
+            if (!stopped || !StopWords.contains(strs[i])) {
+                bag.add(strs[i]);
+            }
         }
         return bag;
     }
 
     /**
-     * Levenshtein string edit distance. From Michael Gilleland, Merriam Park Software
+     * Levenshtein string edit distance, via the bit-parallel {@link EditDistance} (no O(nm) matrix)
      * 
-     * @param s
-     * @param t
+     * @param string1
+     * @param string2
      * @return the distance
      */
     public static int levenshtein(String string1, String string2) {
-        int d[][]; // matrix
-        int n; // length of s
-        int m; // length of t
-        int i; // iterates through s
-        int j; // iterates through t
-        char s_i; // ith character of s
-        char t_j; // jth character of t
-        int cost; // cost
-
         String s = (caseSens ? string1 : string1.toLowerCase());
         String t = (caseSens ? string2 : string2.toLowerCase());
+        return EditDistance.getInstance().levenshtein(s, t);
+    }
 
-        // Step 1
-        n = s.length();
-        m = t.length();
-        if (n == 0) {
-            return m;
-        }
-        if (m == 0) {
-            return n;
-        }
-        d = new int[n + 1][m + 1];
-
-        // Step 2
-        for (i = 0; i <= n; i++) {
-            d[i][0] = i;
-        }
-        for (j = 0; j <= m; j++) {
-            d[0][j] = j;
-        }
-
-        // Step 3
-        for (i = 1; i <= n; i++) {
-            s_i = s.charAt(i - 1);
-
-            // Step 4
-            for (j = 1; j <= m; j++) {
-                t_j = t.charAt(j - 1);
-
-                // Step 5
-                if (s_i == t_j) {
-                    cost = 0;
-                } else {
-                    cost = 1;
-                }
-
-                // Step 6
-                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
-
-            }
-
-        }
-
-        // Step 7
-        return d[n][m];
-
+    /**
+     * Levenshtein string edit distance, giving up early once it is known to exceed maxDist
+     * 
+     * @param string1
+     * @param string2
+     * @param maxDist
+     * @return the distance, or maxDist+1 if it is greater than maxDist
+     */
+    public static int levenshtein(String string1, String string2, int maxDist) {
+        String s = (caseSens ? string1 : string1.toLowerCase());
+        String t = (caseSens ? string2 : string2.toLowerCase());
+        return EditDistance.getInstance().levenshtein(s, t, maxDist);
     }
 
     /**
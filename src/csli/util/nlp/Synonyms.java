@@ -7,6 +7,7 @@
 package csli.util.nlp;
 
 import java.io.FileInputStream;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -38,11 +39,35 @@ public class Synonyms {
 		}
 	}
 
+	private WordNetIndex index = null;
+
 	public Synonyms() {
+		this(propsFile);
+	}
+
+	/**
+	 * @param propsFile
+	 *            the JWNL properties file specifying the WordNet to use
+	 */
+	public Synonyms(String propsFile) {
+		initialize(propsFile);
+	}
+
+	/**
+	 * Answer similarityMetric() from a precomputed {@link WordNetIndex} rather than searching the WordNet pointer graph.
+	 * JWNL is only initialized (from the default properties file) if a word not in the index comes up.
+	 *
+	 * @param index
+	 */
+	public Synonyms(WordNetIndex index) {
+		this.index = index;
+	}
+
+	private static void initialize(String propsFile) {
 		System.out.println("Using WordNet as specified in " + propsFile);
 		try {
 			// initialize JWNL (this must be done before JWNL can be used)
-			JWNL.initialize(new FileInputStream(this.propsFile));
+			JWNL.initialize(new FileInputStream(propsFile));
 			System.out.println("Initialized JWNL.");
 		} catch (Exception ex) {
 			ex.printStackTrace();
@@ -52,6 +77,9 @@ public class Synonyms {
 	}
 
 	public double similarityMetric(String s1, String s2) throws JWNLException {
+		if (index != null) {
+			return indexSimilarityMetric(s1, s2);
+		}
 		IndexWordSet iws1 = Dictionary.getInstance().lookupAllIndexWords(s1);
 		IndexWordSet iws2 = Dictionary.getInstance().lookupAllIndexWords(s2);
 		List<?> pointerTypes = PointerType.getAllPointerTypes();
@@ -85,6 +113,54 @@ public class Synonyms {
 		return val;
 	}
 
+	/**
+	 * As similarityMetric(), but via the index: the mean over sense pairs of the index relatedness
+	 */
+	private double indexSimilarityMetric(String s1, String s2) throws JWNLException {
+		int[] senses1 = getIndexSenses(s1);
+		int[] senses2 = getIndexSenses(s2);
+		double val = 0.0;
+		for (int i : senses1) {
+			for (int j : senses2) {
+				val += index.relatedness(i, j);
+			}
+		}
+		val /= (senses1.length * senses2.length);
+		return val;
+	}
+
+	/**
+	 * @return the index synset ids for word, looked up via JWNL if not in the index
+	 */
+	private int[] getIndexSenses(String word) throws JWNLException {
+		int[] senses = index.getSenses(word);
+		if (senses != null) {
+			return senses;
+		}
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		IndexWordSet iws;
+		// JWNL's dictionary is not thread-safe, but the index is
+		synchronized (Synonyms.class) {
+			if (!JWNL.isInitialized()) {
+				initialize(propsFile);
+			}
+			iws = Dictionary.getInstance().lookupAllIndexWords(word);
+		}
+		for (Iterator it = iws.getIndexWordCollection().iterator(); it.hasNext();) {
+			for (Synset synset : ((IndexWord) it.next()).getSenses()) {
+				int id = index.getSynsetId(synset);
+				if (id >= 0) {
+					ids.add(id);
+				}
+			}
+		}
+		senses = new int[ids.size()];
+		for (int i = 0; i < senses.length; i++) {
+			senses[i] = ids.get(i);
+		}
+		return senses;
+	}
+
 	public boolean areSynonyms(String s1, String s2) throws JWNLException {
 		IndexWordSet iws1 = Dictionary.getInstance().lookupAllIndexWords(s1);
 		IndexWordSet iws2 = Dictionary.getInstance().lookupAllIndexWords(s2);
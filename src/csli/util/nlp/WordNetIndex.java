@@ -0,0 +1,554 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ ******************************************************************************/
+package csli.util.nlp;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import net.didion.jwnl.JWNLException;
+import net.didion.jwnl.data.IndexWord;
+import net.didion.jwnl.data.IndexWordSet;
+import net.didion.jwnl.data.POS;
+import net.didion.jwnl.data.PointerTarget;
+import net.didion.jwnl.data.PointerType;
+import net.didion.jwnl.data.Synset;
+import net.didion.jwnl.data.Word;
+import net.didion.jwnl.dictionary.Dictionary;
+
+/**
+ * A precomputed, memory-mapped table of the WordNet relationships used by {@link Synonyms#similarityMetric(String,
+ * String)}, so that the metric becomes a set of table lookups rather than a {@link
+ * net.didion.jwnl.data.relationship.RelationshipFinder} graph search per sense pair and pointer type.
+ *
+ * Built offline from the WordNet configured for JWNL (see main()). For each synset and each asymmetric pointer type
+ * (hypernym etc), the index holds every path of the pointer tree below the synset, stored top node first and sorted by
+ * top node; two synsets are related via every pair of paths which share a top node, at the depth given by their
+ * deepest common node, as in RelationshipFinder. For each symmetric pointer type (antonym etc), it holds the synsets
+ * one and two steps away. Pointer tree nodes are stored as synset id * 128 + word index + 1 (0 for the synset itself).
+ * Word forms are mapped to their synsets via JWNL's lookupAllIndexWords(), including its morphological processing, for
+ * all WordNet lemmas plus any extra word list(s) given (e.g. a corpus vocabulary).
+ *
+ * Unlike RelationshipFinder, tree paths are cut where they would revisit a synset, so cyclic pointers (e.g. also-see)
+ * give finite relationships rather than overflowing the stack.
+ *
+ * @author mpurver
+ */
+public class WordNetIndex {
+
+	private static final int MAGIC = 0x574e4958;
+	private static final int VERSION = 1;
+
+	private static final int WORD_BITS = 7;
+	private static final int MAX_WORDS = (1 << WORD_BITS) - 1;
+	// a safety limit on the paths kept for any one synset and pointer type
+	private static final int MAX_PATHS = 1 << 20;
+
+	private boolean[] symmetric;
+	private int numSynsets;
+	private HashMap<String, Integer> synsetIds = new HashMap<String, Integer>();
+	private HashMap<String, int[]> forms = new HashMap<String, int[]>();
+	// offsets into data for each synset and pointer type, plus an end marker
+	private IntBuffer offsets;
+	private IntBuffer data;
+
+	/**
+	 * Map an index built by build()
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public WordNetIndex(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if ((raf.readInt() != MAGIC) || (raf.readInt() != VERSION)) {
+				throw new IOException("Not a WordNet index (or wrong version): " + file);
+			}
+			byte[] header = new byte[raf.readInt()];
+			raf.readFully(header);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+			symmetric = new boolean[in.readInt()];
+			for (int t = 0; t < symmetric.length; t++) {
+				in.readUTF();
+				symmetric[t] = in.readBoolean();
+			}
+			int numPos = in.readInt();
+			for (int p = 0; p < numPos; p++) {
+				String pos = in.readUTF();
+				int n = in.readInt();
+				for (int i = 0; i < n; i++) {
+					synsetIds.put(pos + in.readLong(), numSynsets++);
+				}
+			}
+			int numForms = in.readInt();
+			for (int f = 0; f < numForms; f++) {
+				String form = in.readUTF();
+				int[] senses = new int[in.readInt()];
+				for (int i = 0; i < senses.length; i++) {
+					senses[i] = in.readInt();
+				}
+				forms.put(form, senses);
+			}
+			long start = headerEnd(header.length);
+			data = raf.getChannel().map(MapMode.READ_ONLY, start, raf.length() - start).asIntBuffer();
+			int numOffsets = numSynsets * symmetric.length + 1;
+			data.position(data.limit() - numOffsets);
+			offsets = data.slice();
+			data.position(0);
+			System.out.println("Mapped WordNet index " + file + " with " + numSynsets + " synsets, " + forms.size()
+					+ " word forms");
+		} finally {
+			// the mapping stays valid after closing
+			raf.close();
+		}
+	}
+
+	/**
+	 * @param form
+	 *            a word form
+	 * @return the ids of its synsets (across all parts of speech), or null if the form is not in the index
+	 */
+	public int[] getSenses(String form) {
+		return forms.get(form);
+	}
+
+	/**
+	 * @param synset
+	 * @return its id in this index, or -1 if not present (e.g. a different WordNet version)
+	 */
+	public int getSynsetId(Synset synset) {
+		Integer id = synsetIds.get(synset.getPOS().getKey() + synset.getOffset());
+		return (id == null ? -1 : id);
+	}
+
+	/**
+	 * @param s1
+	 *            a synset id
+	 * @param s2
+	 *            a synset id
+	 * @return the sum over all pointer types and all relationships between s1 and s2 of 1/(depth+1), as calculated per
+	 *         sense pair by {@link Synonyms#similarityMetric(String, String)}
+	 */
+	public double relatedness(int s1, int s2) {
+		double val = 0.0;
+		for (int t = 0; t < symmetric.length; t++) {
+			val += (symmetric[t] ? symmetricRelatedness(s1, s2, t) : asymmetricRelatedness(s1, s2, t));
+		}
+		return val;
+	}
+
+	/**
+	 * Symmetric relationships are found to depth 2: s1 itself at depth 0, its direct targets at depth 0, their targets
+	 * at depth 1
+	 */
+	private double symmetricRelatedness(int s1, int s2, int t) {
+		double val = (s1 == s2 ? 1.0 : 0.0);
+		int p = offsets.get(s1 * symmetric.length + t);
+		int n = data.get(p++);
+		for (int i = 0; i < n; i++) {
+			if (data.get(p++) == s2) {
+				val += 1.0;
+			}
+		}
+		n = data.get(p++);
+		for (int i = 0; i < n; i++) {
+			if (data.get(p++) == s2) {
+				val += 0.5;
+			}
+		}
+		return val;
+	}
+
+	/**
+	 * Asymmetric relationships come from every pair of tree paths with the same top node; a synset with no targets has
+	 * a single one-node path (stored as no paths), which only matches itself
+	 */
+	private double asymmetricRelatedness(int s1, int s2, int t) {
+		int[] paths1 = getPaths(s1, t);
+		int[] paths2 = getPaths(s2, t);
+		if ((paths1.length == 0) || (paths2.length == 0)) {
+			return ((paths1.length == 0) && (paths2.length == 0) && (s1 == s2)) ? 1.0 : 0.0;
+		}
+		double val = 0.0;
+		int j = 0;
+		for (int i = 0; i < paths1.length;) {
+			int top = data.get(paths1[i] + 1);
+			int iEnd = i + 1;
+			while ((iEnd < paths1.length) && (data.get(paths1[iEnd] + 1) == top)) {
+				iEnd++;
+			}
+			while ((j < paths2.length) && (data.get(paths2[j] + 1) < top)) {
+				j++;
+			}
+			int jEnd = j;
+			while ((jEnd < paths2.length) && (data.get(paths2[jEnd] + 1) == top)) {
+				jEnd++;
+			}
+			for (int a = i; a < iEnd; a++) {
+				for (int b = j; b < jEnd; b++) {
+					val += pathRelatedness(paths1[a], paths2[b]);
+				}
+			}
+			i = iEnd;
+			j = jEnd;
+		}
+		return val;
+	}
+
+	/**
+	 * @return 1/(depth+1) for the relationship between two paths with the same top node, via the deepest node of path
+	 *         1 which is also on path 2
+	 */
+	private double pathRelatedness(int p1, int p2) {
+		int len1 = data.get(p1);
+		int len2 = data.get(p2);
+		for (int i = len1 - 1; i >= 0; i--) {
+			int node = data.get(p1 + 1 + i);
+			for (int j = 0; j < len2; j++) {
+				if (data.get(p2 + 1 + j) == node) {
+					return 1.0 / ((len1 - 1 - i) + (len2 - j));
+				}
+			}
+		}
+		return 0.0;
+	}
+
+	/**
+	 * @return the data positions of the paths for synset s and pointer type t
+	 */
+	private int[] getPaths(int s, int t) {
+		int p = offsets.get(s * symmetric.length + t);
+		int[] paths = new int[data.get(p++)];
+		for (int i = 0; i < paths.length; i++) {
+			paths[i] = p;
+			p += data.get(p) + 1;
+		}
+		return paths;
+	}
+
+	private static long headerEnd(int headerLength) {
+		long end = 12 + headerLength;
+		return ((end + 3) / 4) * 4;
+	}
+
+	/**
+	 * Build an index from the WordNet currently loaded by JWNL
+	 *
+	 * @param file
+	 *            the index file to write
+	 * @param extraForms
+	 *            word forms to index as well as the WordNet lemmas (e.g. inflected forms from a corpus), or null
+	 * @throws JWNLException
+	 * @throws IOException
+	 */
+	public static void build(File file, Collection<String> extraForms) throws JWNLException, IOException {
+		Dictionary dict = Dictionary.getInstance();
+		List<?> types = PointerType.getAllPointerTypes();
+		int numTypes = types.size();
+
+		// number the synsets
+		System.out.println("Reading synsets ...");
+		List<?> allPos = POS.getAllPOS();
+		ArrayList<Synset> synsets = new ArrayList<Synset>();
+		HashMap<Synset, Integer> ids = new HashMap<Synset, Integer>();
+		int[] posCounts = new int[allPos.size()];
+		for (int p = 0; p < allPos.size(); p++) {
+			for (Iterator<?> it = dict.getSynsetIterator((POS) allPos.get(p)); it.hasNext();) {
+				Synset synset = (Synset) it.next();
+				ids.put(synset, synsets.size());
+				synsets.add(synset);
+				posCounts[p]++;
+			}
+		}
+
+		// the pointer graph as node keys
+		System.out.println("Reading pointers for " + synsets.size() + " synsets ...");
+		int[][][] targets = new int[synsets.size()][numTypes][];
+		for (int s = 0; s < synsets.size(); s++) {
+			for (int t = 0; t < numTypes; t++) {
+				PointerTarget[] pts = synsets.get(s).getTargets((PointerType) types.get(t));
+				targets[s][t] = new int[pts.length];
+				for (int i = 0; i < pts.length; i++) {
+					targets[s][t][i] = getKey(pts[i], ids);
+				}
+			}
+		}
+
+		// the word forms
+		System.out.println("Looking up word forms ...");
+		LinkedHashMap<String, int[]> forms = new LinkedHashMap<String, int[]>();
+		for (Object pos : allPos) {
+			for (Iterator<?> it = dict.getIndexWordIterator((POS) pos); it.hasNext();) {
+				addForm(((IndexWord) it.next()).getLemma(), forms, ids);
+			}
+		}
+		if (extraForms != null) {
+			for (String form : extraForms) {
+				addForm(form, forms, ids);
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(numTypes);
+		for (Object type : types) {
+			header.writeUTF(((PointerType) type).getKey());
+			header.writeBoolean(((PointerType) type).isSymmetric());
+		}
+		header.writeInt(allPos.size());
+		int s = 0;
+		for (int p = 0; p < allPos.size(); p++) {
+			header.writeUTF(((POS) allPos.get(p)).getKey());
+			header.writeInt(posCounts[p]);
+			for (int i = 0; i < posCounts[p]; i++) {
+				header.writeLong(synsets.get(s++).getOffset());
+			}
+		}
+		header.writeInt(forms.size());
+		for (String form : forms.keySet()) {
+			header.writeUTF(form);
+			header.writeInt(forms.get(form).length);
+			for (int id : forms.get(form)) {
+				header.writeInt(id);
+			}
+		}
+		header.close();
+
+		System.out.println("Writing relationship tables to " + file + " ...");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+		for (long i = 12 + bytes.size(); i < headerEnd(bytes.size()); i++) {
+			out.writeByte(0);
+		}
+		int[] offsets = new int[synsets.size() * numTypes + 1];
+		int pos = 0;
+		for (s = 0; s < synsets.size(); s++) {
+			for (int t = 0; t < numTypes; t++) {
+				offsets[s * numTypes + t] = pos;
+				if (((PointerType) types.get(t)).isSymmetric()) {
+					pos += writeSymmetric(out, targets, s, t);
+				} else {
+					pos += writeAsymmetric(out, targets, s, t, synsets.get(s));
+				}
+			}
+		}
+		offsets[offsets.length - 1] = pos;
+		for (int offset : offsets) {
+			out.writeInt(offset);
+		}
+		out.close();
+		System.out.println("Wrote " + (file.length() / (1024 * 1024)) + "Mb index for " + synsets.size() + " synsets, "
+				+ forms.size() + " word forms");
+	}
+
+	private static int getKey(PointerTarget target, HashMap<Synset, Integer> ids) {
+		if (target instanceof Word) {
+			Word word = (Word) target;
+			if ((word.getIndex() < 0) || (word.getIndex() >= MAX_WORDS)) {
+				throw new IllegalArgumentException("Word index out of range: " + word);
+			}
+			return (ids.get(word.getSynset()) << WORD_BITS) + word.getIndex() + 1;
+		}
+		return ids.get(target) << WORD_BITS;
+	}
+
+	private static void addForm(String form, LinkedHashMap<String, int[]> forms, HashMap<Synset, Integer> ids)
+			throws JWNLException {
+		if (forms.containsKey(form)) {
+			return;
+		}
+		ArrayList<Integer> senses = new ArrayList<Integer>();
+		IndexWordSet iws = Dictionary.getInstance().lookupAllIndexWords(form);
+		for (Object word : iws.getIndexWordCollection()) {
+			for (Synset synset : ((IndexWord) word).getSenses()) {
+				senses.add(ids.get(synset));
+			}
+		}
+		int[] a = new int[senses.size()];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = senses.get(i);
+		}
+		forms.put(form, a);
+	}
+
+	/**
+	 * Write [n1, synsets at depth 1 ..., n2, synsets at depth 2 ...], with no repeated nodes among the targets of any
+	 * one node, as in RelationshipFinder's non-redundant trees
+	 *
+	 * @return the number of ints written
+	 */
+	private static int writeSymmetric(DataOutputStream out, int[][][] targets, int s, int t) throws IOException {
+		int[] level1 = distinct(targets[s][t]);
+		ArrayList<Integer> level2 = new ArrayList<Integer>();
+		for (int key : level1) {
+			for (int key2 : distinct(targets[key >>> WORD_BITS][t])) {
+				level2.add(key2 >>> WORD_BITS);
+			}
+		}
+		out.writeInt(level1.length);
+		for (int key : level1) {
+			out.writeInt(key >>> WORD_BITS);
+		}
+		out.writeInt(level2.size());
+		for (int id : level2) {
+			out.writeInt(id);
+		}
+		return level1.length + level2.size() + 2;
+	}
+
+	private static int[] distinct(int[] keys) {
+		int[] d = new int[keys.length];
+		int n = 0;
+		for (int key : keys) {
+			boolean seen = false;
+			for (int i = 0; (i < n) && !seen; i++) {
+				seen = (d[i] == key);
+			}
+			if (!seen) {
+				d[n++] = key;
+			}
+		}
+		return Arrays.copyOf(d, n);
+	}
+
+	/**
+	 * Write [n, (length, nodes ...) ...] for the tree paths from synset s, top node first and sorted by top node
+	 *
+	 * @return the number of ints written
+	 */
+	private static int writeAsymmetric(DataOutputStream out, int[][][] targets, int s, int t, Synset synset)
+			throws IOException {
+		ArrayList<int[]> paths = new ArrayList<int[]>();
+		if (targets[s][t].length > 0) {
+			int[] stack = new int[16];
+			stack[0] = s << WORD_BITS;
+			addPaths(targets, t, stack, 1, paths);
+		}
+		if (paths.size() >= MAX_PATHS) {
+			System.out.println("WARNING: too many paths for " + synset + ", truncating to " + MAX_PATHS);
+		}
+		Collections.sort(paths, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] p1, int[] p2) {
+				return (p1[0] < p2[0] ? -1 : (p1[0] == p2[0] ? 0 : 1));
+			}
+		});
+		out.writeInt(paths.size());
+		int n = 1;
+		for (int[] path : paths) {
+			out.writeInt(path.length);
+			for (int key : path) {
+				out.writeInt(key);
+			}
+			n += path.length + 1;
+		}
+		return n;
+	}
+
+	/**
+	 * Depth-first expansion of the pointer tree below the node at stack[depth-1], adding a (reversed) path at each leaf
+	 */
+	private static int[] addPaths(int[][][] targets, int t, int[] stack, int depth, ArrayList<int[]> paths) {
+		int[] children = targets[stack[depth - 1] >>> WORD_BITS][t];
+		boolean leaf = true;
+		for (int child : children) {
+			if ((paths.size() >= MAX_PATHS) || onPath(stack, depth, child >>> WORD_BITS)) {
+				continue;
+			}
+			leaf = false;
+			if (depth == stack.length) {
+				stack = Arrays.copyOf(stack, 2 * depth);
+			}
+			stack[depth] = child;
+			stack = addPaths(targets, t, stack, depth + 1, paths);
+		}
+		if (leaf && (paths.size() < MAX_PATHS)) {
+			int[] path = new int[depth];
+			for (int i = 0; i < depth; i++) {
+				path[i] = stack[depth - 1 - i];
+			}
+			paths.add(path);
+		}
+		return stack;
+	}
+
+	private static boolean onPath(int[] stack, int depth, int synset) {
+		for (int i = 0; i < depth; i++) {
+			if ((stack[i] >>> WORD_BITS) == synset) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Build an index: WordNetIndex [-p&lt;jwnl properties file&gt;] &lt;index file&gt; [word list file ...]
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String propsFile = null;
+		ArrayList<String> files = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("-p")) {
+				propsFile = arg.substring(2);
+			} else {
+				files.add(arg);
+			}
+		}
+		if (files.isEmpty()) {
+			System.out.println("Usage: WordNetIndex [-p<jwnl properties file>] <index file> [word list file ...]");
+			System.exit(0);
+		}
+		try {
+			if (propsFile == null) {
+				new Synonyms();
+			} else {
+				new Synonyms(propsFile);
+			}
+			ArrayList<String> extraForms = new ArrayList<String>();
+			for (String wordFile : files.subList(1, files.size())) {
+				BufferedReader reader = new BufferedReader(new FileReader(wordFile));
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.trim().isEmpty()) {
+						extraForms.add(line.trim());
+					}
+				}
+				reader.close();
+			}
+			build(new File(files.get(0)), extraForms);
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+
+}
@@ -0,0 +1,354 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Matthew Purver, Queen Mary University of London - initial API and implementation
+ ******************************************************************************/
+package qmul.align;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import qmul.util.MathUtil;
+import qmul.util.RunningStatistics;
+
+/**
+ * The aggregated results of an {@link AlignmentTester} run over a corpus: per-speaker and per-genre score statistics
+ * for each window offset, speaker and dialogue metrics, construction counts, streaming statistics over all scores and
+ * all dialogue means, and (optionally) the per-dialogue scores themselves. Without the per-dialogue scores, memory
+ * doesn't grow with the length of the corpus. Results from runs over different shards of the same corpus (see
+ * {@link qmul.corpus.DialogueCorpus#writeShards(File, int)}) can be saved, read back and merged to give the same
+ * summary as a single run over the whole corpus.
+ * 
+ * @author mpurver
+ */
+public class AlignmentResults implements Serializable {
+
+	private static final long serialVersionUID = -7203315894177045627L;
+
+	private String corpusId;
+	private String winName;
+	private String simName;
+	private int leftWindowSize;
+	private boolean pairedCorpus;
+	private HashMap<String, String> genreMap = new HashMap<String, String>();
+	private HashMap<String, String> originalSpks = new HashMap<String, String>();
+	private MetricsMap spkMetrics = new MetricsMap();
+	private MetricsMap totMetrics = new MetricsMap();
+	private HashMap<String, OffsetStatistics> speakerStats = new HashMap<String, OffsetStatistics>();
+	// per genre, "" for all
+	private HashMap<String, OffsetStatistics> genreStats = new HashMap<String, OffsetStatistics>();
+	private RunningStatistics scoreStats = new RunningStatistics(true);
+	private RunningStatistics meanStats = new RunningStatistics(true);
+	private boolean retainScores = true;
+	// maps from genres to maps from objects to integers
+	private HashMap<String, HashMap<Object, Integer>> allCounts = new HashMap<String, HashMap<Object, Integer>>();
+	private HashMap<String, HashMap<Object, Integer>> commonCounts = new HashMap<String, HashMap<Object, Integer>>();
+	private ArrayList<String> dialogueIds = new ArrayList<String>();
+	private ArrayList<List<Double>> scores = new ArrayList<List<Double>>();
+
+	/**
+	 * @param corpusId
+	 *            the corpus ID
+	 * @param winName
+	 *            the windower description
+	 * @param simName
+	 *            the similarity measure description
+	 * @param leftWindowSize
+	 *            the windower's left window size
+	 * @param pairedCorpus
+	 *            true if the corpus is a {@link qmul.corpus.CombinedCorpus}
+	 * @param genreMap
+	 *            the corpus dialogue ID -> genre map
+	 */
+	public AlignmentResults(String corpusId, String winName, String simName, int leftWindowSize,
+			boolean pairedCorpus, HashMap<String, String> genreMap) {
+		this.corpusId = corpusId;
+		this.winName = winName;
+		this.simName = simName;
+		this.leftWindowSize = leftWindowSize;
+		this.pairedCorpus = pairedCorpus;
+		if (genreMap != null) {
+			this.genreMap.putAll(genreMap);
+		}
+	}
+
+	/**
+	 * @param retainScores
+	 *            if true (the default), keep every dialogue's scores for getScores(); if false, just the streaming
+	 *            statistics over them
+	 */
+	public void setRetainScores(boolean retainScores) {
+		this.retainScores = retainScores;
+	}
+
+	/**
+	 * Record the scores for a dialogue
+	 * 
+	 * @param id
+	 *            the dialogue ID
+	 * @param subScores
+	 *            the dialogue's scores
+	 */
+	public void addDialogue(String id, List<Double> subScores) {
+		dialogueIds.add(id);
+		scoreStats.addValues(subScores);
+		meanStats.addValue(MathUtil.mean(subScores));
+		if (retainScores) {
+			scores.add(subScores);
+		}
+	}
+
+	/**
+	 * Add in the results from another run with the same settings over a different set of dialogues
+	 * 
+	 * @param other
+	 */
+	public void addAll(AlignmentResults other) {
+		// (similarity measures don't all have a useful toString(), so can't check those)
+		if (!corpusId.equals(other.corpusId) || !winName.equals(other.winName)) {
+			System.err.println("WARNING merging results for different settings: " + corpusId + " " + winName + " vs "
+					+ other.corpusId + " " + other.winName);
+		}
+		leftWindowSize = Math.max(leftWindowSize, other.leftWindowSize);
+		genreMap.putAll(other.genreMap);
+		originalSpks.putAll(other.originalSpks);
+		spkMetrics.addAll(other.spkMetrics);
+		totMetrics.addAll(other.totMetrics);
+		addStats(speakerStats, other.speakerStats);
+		addStats(genreStats, other.genreStats);
+		scoreStats.addAll(other.scoreStats);
+		meanStats.addAll(other.meanStats);
+		addCounts(allCounts, other.allCounts);
+		addCounts(commonCounts, other.commonCounts);
+		if ((scores.size() != dialogueIds.size()) || (other.scores.size() != other.dialogueIds.size())) {
+			System.err.println("WARNING merging results without all per-dialogue scores, dropping them");
+			scores.clear();
+		} else {
+			scores.addAll(other.scores);
+		}
+		dialogueIds.addAll(other.dialogueIds);
+	}
+
+	private static void addStats(HashMap<String, OffsetStatistics> to, HashMap<String, OffsetStatistics> from) {
+		for (String key : from.keySet()) {
+			OffsetStatistics stats = to.get(key);
+			if (stats == null) {
+				to.put(key, new OffsetStatistics(from.get(key)));
+			} else {
+				stats.addAll(from.get(key));
+			}
+		}
+	}
+
+	private static void addCounts(HashMap<String, HashMap<Object, Integer>> to,
+			HashMap<String, HashMap<Object, Integer>> from) {
+		for (String genre : from.keySet()) {
+			if (!to.containsKey(genre)) {
+				to.put(genre, new HashMap<Object, Integer>());
+			}
+			HashMap<Object, Integer> toMap = to.get(genre);
+			HashMap<Object, Integer> fromMap = from.get(genre);
+			for (Object key : fromMap.keySet()) {
+				Integer n = toMap.get(key);
+				toMap.put(key, (n == null ? 0 : n) + fromMap.get(key));
+			}
+		}
+	}
+
+	/**
+	 * Put the dialogue IDs (and per-dialogue scores, if kept) into a given dialogue order (e.g. that of the original
+	 * unsharded corpus). Dialogues not in the list go at the end, in their current order
+	 * 
+	 * @param order
+	 *            a list of dialogue IDs
+	 */
+	public void sortDialogues(List<String> order) {
+		final HashMap<String, Integer> index = new HashMap<String, Integer>();
+		for (int i = 0; i < order.size(); i++) {
+			index.put(order.get(i), i);
+		}
+		ArrayList<Integer> positions = new ArrayList<Integer>();
+		for (int i = 0; i < dialogueIds.size(); i++) {
+			positions.add(i);
+		}
+		Collections.sort(positions, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				Integer ia = index.get(dialogueIds.get(a));
+				Integer ib = index.get(dialogueIds.get(b));
+				if (ia == null) {
+					return (ib == null ? a.compareTo(b) : 1);
+				}
+				return (ib == null ? -1 : ia.compareTo(ib));
+			}
+		});
+		ArrayList<String> newIds = new ArrayList<String>();
+		ArrayList<List<Double>> newScores = new ArrayList<List<Double>>();
+		boolean withScores = (scores.size() == dialogueIds.size());
+		for (int i : positions) {
+			newIds.add(dialogueIds.get(i));
+			if (withScores) {
+				newScores.add(scores.get(i));
+			}
+		}
+		dialogueIds = newIds;
+		scores = newScores;
+	}
+
+	/**
+	 * @param file
+	 * @return success saving these results to file
+	 */
+	public boolean writeToFile(File file) {
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+			out.writeObject(this);
+			out.close();
+			System.out.println("Saved results for " + dialogueIds.size() + " dialogues to file " + file);
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	/**
+	 * @param file
+	 * @return results read from a file previously saved by writeToFile(), null if the file can't be read
+	 */
+	public static AlignmentResults readFromFile(File file) {
+		try {
+			ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+			AlignmentResults r = (AlignmentResults) in.readObject();
+			in.close();
+			System.out.println("Read results for " + r.dialogueIds.size() + " dialogues from file " + file);
+			return r;
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	public String getCorpusId() {
+		return corpusId;
+	}
+
+	public String getWinName() {
+		return winName;
+	}
+
+	public String getSimName() {
+		return simName;
+	}
+
+	public int getLeftWindowSize() {
+		return leftWindowSize;
+	}
+
+	public boolean isPairedCorpus() {
+		return pairedCorpus;
+	}
+
+	public HashMap<String, String> getGenreMap() {
+		return genreMap;
+	}
+
+	public HashMap<String, String> getOriginalSpks() {
+		return originalSpks;
+	}
+
+	public MetricsMap getSpkMetrics() {
+		return spkMetrics;
+	}
+
+	public MetricsMap getTotMetrics() {
+		return totMetrics;
+	}
+
+	/**
+	 * @return a map from speaker keys to score statistics for each window offset
+	 */
+	public HashMap<String, OffsetStatistics> getSpeakerStats() {
+		return speakerStats;
+	}
+
+	/**
+	 * @return a map from genres ("" for all) to score statistics for each window offset
+	 */
+	public HashMap<String, OffsetStatistics> getGenreStats() {
+		return genreStats;
+	}
+
+	/**
+	 * @return statistics over all scores in all dialogues
+	 */
+	public RunningStatistics getScoreStats() {
+		return scoreStats;
+	}
+
+	/**
+	 * @return statistics over the dialogue mean scores
+	 */
+	public RunningStatistics getMeanStats() {
+		return meanStats;
+	}
+
+	public HashMap<String, HashMap<Object, Integer>> getAllCounts() {
+		return allCounts;
+	}
+
+	public HashMap<String, HashMap<Object, Integer>> getCommonCounts() {
+		return commonCounts;
+	}
+
+	/**
+	 * @return the dialogue IDs, in the same order as getScores()
+	 */
+	public ArrayList<String> getDialogueIds() {
+		return dialogueIds;
+	}
+
+	/**
+	 * @return a list of lists of scores (one list per dialogue), empty if not retaining scores
+	 */
+	public ArrayList<List<Double>> getScores() {
+		return scores;
+	}
+
+	/**
+	 * Merge the results files from runs over the shards of a corpus, writing the summary spreadsheets
+	 * 
+	 * @param args
+	 *            runId, shard order file (or "-" for none), results files
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: AlignmentResults runId orderFile|- resultsFile ...");
+			System.exit(0);
+		}
+		File orderFile = (args[1].equals("-") ? null : new File(args[1]));
+		List<File> files = new ArrayList<File>();
+		for (int i = 2; i < args.length; i++) {
+			files.add(new File(args[i]));
+		}
+		AlignmentTester.mergeResults(args[0], orderFile, files, true);
+	}
+
+}
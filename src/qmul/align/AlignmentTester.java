@@ -25,19 +25,6 @@ import java.util.List;
 
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.jfree.chart.ChartFactory;
-import org.jfree.chart.ChartPanel;
-import org.jfree.chart.JFreeChart;
-import org.jfree.chart.axis.AxisLocation;
-import org.jfree.chart.axis.NumberAxis;
-import org.jfree.chart.plot.CombinedDomainXYPlot;
-import org.jfree.chart.plot.PlotOrientation;
-import org.jfree.chart.plot.XYPlot;
-import org.jfree.chart.renderer.xy.StandardXYItemRenderer;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
-import org.jfree.ui.ApplicationFrame;
-import org.jfree.ui.RefineryUtilities;
 
 import csli.util.dsp.Smoother;
 import csli.util.dsp.SmoothingFactory;
@@ -50,12 +37,13 @@ import qmul.corpus.DialogueSentence;
 import qmul.corpus.DialogueSpeaker;
 import qmul.corpus.DialogueTurn;
 import qmul.corpus.DialogueUnit;
+import qmul.corpus.LexicalAnnotator;
 import qmul.corpus.RandomCorpus;
 import qmul.corpus.SwitchboardCorpus;
-import qmul.util.ApacheStatistics;
 import qmul.util.MapUtil;
 import qmul.util.MapUtil.DescendingComparator;
 import qmul.util.MathUtil;
+import qmul.util.RunningStatistics;
 import qmul.util.parse.CreateTreeFromDCPSE;
 import qmul.util.parse.CreateTreeFromSWBD;
 import qmul.util.similarity.SimilarityMeasure;
@@ -81,10 +69,20 @@ public class AlignmentTester<X extends DialogueUnit> {
 
 	private static int numTestsRun = 0; // Appended to summary.xlsx to indicate test number. e.g: summary 1.xlsx
 
+	private static final String[] DCPSE_VARIANTS = { "dcpse", "dcpse_nointj", "dcpsef", "dcpsefp" };
+	private static final String[] SWBD_VARIANTS = { "swbd", "swbd_nointj" };
+	private static boolean buildAllVariants = true;
+	private static boolean saveResults = false;
+	private static boolean retainScores = true;
+	private static File plotDir = null;
+	private static String plotFormat = ScorePlotter.PNG;
+	private static int permutationCandidates = 10;
+
 	private DialogueCorpus corpus;
 	private SimilarityMeasure<X> sim;
 	private DialogueWindower<X> win;
 	private OutputStream xls = null;
+	private File resultsFile = null;
 	private boolean counts = false;
 
 	private static final int NORM_NONE = 0;
@@ -121,10 +119,14 @@ public class AlignmentTester<X extends DialogueUnit> {
 	 *            the dialogue to process
 	 * @param wb
 	 *            the XLS workbook to write to, or null not to bother
+	 * @param speakerStats
+	 *            per-speaker score statistics for each window offset, added to
+	 * @param genreStats
+	 *            per-genre ("" for all) score statistics for each window offset, added to
 	 * @return a list of {@link Double} scores, one per {@link DialogueWindower} step (e.g. dialogue turn)
 	 */
-	public List<Double> processDialogue(Dialogue d, Workbook wb, HashMap<String, ArrayList<Double>> speakerScores,
-			HashMap<String, String> originalSpks, HashMap<String, ArrayList<Double>> speakerN, MetricsMap spkMetrics,
+	public List<Double> processDialogue(Dialogue d, Workbook wb, HashMap<String, OffsetStatistics> speakerStats,
+			HashMap<String, String> originalSpks, HashMap<String, OffsetStatistics> genreStats, MetricsMap spkMetrics,
 			MetricsMap totMetrics, Workbook wbcounts, HashMap<String, HashMap<Object, Integer>> allCounts,
 			HashMap<String, HashMap<Object, Integer>> commonCounts, HashMap<Object, Integer> diaAllCounts,
 			HashMap<Object, Integer> diaCommonCounts) {
@@ -147,6 +149,8 @@ public class AlignmentTester<X extends DialogueUnit> {
 		}
 		ArrayList<Double> scores = new ArrayList<Double>();
 		HashSet<X> counted = new HashSet<X>();
+		OffsetStatistics allStats = getGenreStats(genreStats, "");
+		OffsetStatistics diaGenreStats = (d.getGenre() == null ? null : getGenreStats(genreStats, d.getGenre()));
 		do {
 			List<X> left = win.getLeftWindow();
 			Collections.reverse(left); // windowers return things in dialogue order: we'll look progressively backwards
@@ -198,14 +202,9 @@ public class AlignmentTester<X extends DialogueUnit> {
 					row.setHeightInPoints(12);
 					sheet.setColumnWidth(iCol - 1, 2560);
 				}
-				if (!speakerScores.containsKey(spkKey)) {
-					speakerScores.put(spkKey, new ArrayList<Double>());
-					speakerN.put(spkKey, new ArrayList<Double>());
+				if (!speakerStats.containsKey(spkKey)) {
+					speakerStats.put(spkKey, new OffsetStatistics(win.getLeftWindowSize()));
 					originalSpks.put(spkKey, originalSpkKey);
-					for (int i = 0; i < win.getLeftWindowSize(); i++) {
-						speakerScores.get(spkKey).add(0.0);
-						speakerN.get(spkKey).add(0.0);
-					}
 					Boolean isTurns = null;
 					if (left.size() > 0) {
 						isTurns = (left.get(0) instanceof DialogueTurn);
@@ -254,8 +253,11 @@ public class AlignmentTester<X extends DialogueUnit> {
 					}
 					score += s;
 					n++;
-					speakerScores.get(spkKey).set(iLeft, speakerScores.get(spkKey).get(iLeft) + s);
-					speakerN.get(spkKey).set(iLeft, speakerN.get(spkKey).get(iLeft) + 1);
+					speakerStats.get(spkKey).add(iLeft, s);
+					allStats.add(iLeft, s);
+					if (diaGenreStats != null) {
+						diaGenreStats.add(iLeft, s);
+					}
 					if (!win.getClass().toString().contains("AllOther")) { // for "all other" windowers, actually
 						// average over "window"
 						iLeft++;
@@ -332,9 +334,8 @@ public class AlignmentTester<X extends DialogueUnit> {
 						.setCellValue(creationHelper.createRichTextString(originalSpks.get(spkKey)));
 				row.createCell(iCol++, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString("Mean"));
 				for (int i = 0; i < win.getLeftWindowSize(); i++) {
-					if (speakerN.get(spkKey).get(i) > 0) {
-						row.createCell(iCol++, Cell.CELL_TYPE_NUMERIC)
-								.setCellValue(speakerScores.get(spkKey).get(i) / speakerN.get(spkKey).get(i));
+					if (speakerStats.get(spkKey).getN(i) > 0) {
+						row.createCell(iCol++, Cell.CELL_TYPE_NUMERIC).setCellValue(speakerStats.get(spkKey).getMean(i));
 					} else {
 						iCol++;
 					}
@@ -379,6 +380,20 @@ public class AlignmentTester<X extends DialogueUnit> {
 		return scores;
 	}
 
+	/**
+	 * @param genreStats
+	 * @param genre
+	 * @return the score statistics for this genre, created (with quantile sketches) if necessary
+	 */
+	private OffsetStatistics getGenreStats(HashMap<String, OffsetStatistics> genreStats, String genre) {
+		OffsetStatistics stats = genreStats.get(genre);
+		if (stats == null) {
+			stats = new OffsetStatistics(win.getLeftWindowSize(), true);
+			genreStats.put(genre, stats);
+		}
+		return stats;
+	}
+
 	private int writeSheetHeader(CreationHelper creationHelper, Sheet sheet, int iRow, Dialogue d, List<DialogueSpeaker> spks) {
 		int iCol = 0;
 		Row row = sheet.createRow(iRow++);
@@ -486,24 +501,25 @@ public class AlignmentTester<X extends DialogueUnit> {
 	/**
 	 * Process all dialogues in the corpus
 	 * 
-	 * @return a list of lists of scores (one list per dialogue)
+	 * @return a list of lists of scores (one list per dialogue), empty if not retaining scores
 	 */
 	public List<List<Double>> processCorpus(String runId) {
-		ApacheStatistics stats = new ApacheStatistics();
 		Workbook wb = (xls == null ? null : new XSSFWorkbook());
 		Workbook wbcounts = (xls == null ? null : (counts ? new XSSFWorkbook() : null));
-		ArrayList<List<Double>> scores = new ArrayList<List<Double>>();
 		System.out.println("Similarity measure " + sim.getClass().getName() + ", windower " + win);
 		System.out.println("Smoothing " + smoother + ", normalisation=" + normalisation);
 		System.out.println("Processing corpus " + corpus.getId() + " with " + corpus.numDialogues() + " dialogues ...");
-		HashMap<String, String> originalSpks = new HashMap<String, String>();
-		MetricsMap spkMetrics = new MetricsMap();
-		MetricsMap totMetrics = new MetricsMap();
-		HashMap<String, ArrayList<Double>> speakerScores = new HashMap<String, ArrayList<Double>>();
-		HashMap<String, ArrayList<Double>> speakerN = new HashMap<String, ArrayList<Double>>();
+		AlignmentResults results = new AlignmentResults(corpus.getId(), win.toString(), sim.toString(),
+				win.getLeftWindowSize(), corpus instanceof CombinedCorpus, corpus.getGenreMap());
+		results.setRetainScores(retainScores);
+		HashMap<String, String> originalSpks = results.getOriginalSpks();
+		MetricsMap spkMetrics = results.getSpkMetrics();
+		MetricsMap totMetrics = results.getTotMetrics();
+		HashMap<String, OffsetStatistics> speakerStats = results.getSpeakerStats();
+		HashMap<String, OffsetStatistics> genreStats = results.getGenreStats();
 		// maps from genres to maps from objects to integers
-		HashMap<String, HashMap<Object, Integer>> allCounts = new HashMap<String, HashMap<Object, Integer>>();
-		HashMap<String, HashMap<Object, Integer>> commonCounts = new HashMap<String, HashMap<Object, Integer>>();
+		HashMap<String, HashMap<Object, Integer>> allCounts = results.getAllCounts();
+		HashMap<String, HashMap<Object, Integer>> commonCounts = results.getCommonCounts();
 		allCounts.put("", new HashMap<Object, Integer>());
 		commonCounts.put("", new HashMap<Object, Integer>());
 		for (String genre : corpus.getGenreCounts().keySet()) {
@@ -512,31 +528,29 @@ public class AlignmentTester<X extends DialogueUnit> {
 				commonCounts.put(genre, new HashMap<Object, Integer>());
 			}
 		}
-		ArrayList<Double> means = new ArrayList<Double>();
 		for (Dialogue d : corpus.getDialogues()) {
 			// if (!d.getId().startsWith("KB2")) {
 			// continue;
 			// }
 			HashMap<Object, Integer> diaAllCounts = new HashMap<Object, Integer>();
 			HashMap<Object, Integer> diaCommonCounts = new HashMap<Object, Integer>();
-			List<Double> subScores = processDialogue(d, wb, speakerScores, originalSpks, speakerN, spkMetrics,
+			List<Double> subScores = processDialogue(d, wb, speakerStats, originalSpks, genreStats, spkMetrics,
 					totMetrics, wbcounts, allCounts, commonCounts, diaAllCounts, diaCommonCounts);
 			System.out.println("Got " + subScores.size() + " scores for dialogue " + d.getId() + ": " + subScores);
-			scores.add(subScores);
+			results.addDialogue(d.getId(), subScores);
 			// get stats
-			Double mean = MathUtil.mean(subScores);
-			means.add(mean);
-			System.out.println("Mean for dialogue " + d.getId() + ": " + mean);
-			ApacheStatistics subStats = new ApacheStatistics(subScores);
+			System.out.println("Mean for dialogue " + d.getId() + ": " + MathUtil.mean(subScores));
+			RunningStatistics subStats = new RunningStatistics(subScores);
 			System.out.println("Mean, SD for dialogue " + d.getId() + " = " + subStats.getMean() + " "
 					+ subStats.getStandardDeviation());
-			stats.addValues(subScores);
+		}
+		if (resultsFile != null) {
+			results.writeToFile(resultsFile);
 		}
 		if (wb != null) {
-			printSummarySheet(wb, null, speakerScores, originalSpks, speakerN, spkMetrics, totMetrics,
-					corpus instanceof CombinedCorpus);
+			printSummarySheet(wb, null, results);
 			if (counts) {
-				printSummaryCountSheet(wbcounts, null, allCounts, commonCounts);
+				printSummaryCountSheet(wbcounts, null, results);
 			}
 			try {
 				wb.write(xls);
@@ -547,56 +561,150 @@ public class AlignmentTester<X extends DialogueUnit> {
 				e.printStackTrace();
 				System.exit(0);
 			}
-			File summaryXls = new File(numTestsRun + " summary.xlsx");
-			File countsXls = new File("counts.xlsx");
-			Workbook summaryWb = null;
-			Workbook countsWb = null;
-			try {
-				FileInputStream summaryXlsIn = new FileInputStream(summaryXls);
-				summaryWb = new XSSFWorkbook(summaryXlsIn);
-				if (counts) {
-					FileInputStream countsXlsIn = new FileInputStream(countsXls);
-					countsWb = new XSSFWorkbook(countsXlsIn);
-				}
-			} catch (FileNotFoundException e) {
-				summaryWb = new XSSFWorkbook();
-				if (counts) {
-					countsWb = new XSSFWorkbook();
+			writeSummary(results, runId, counts);
+		}
+		printStats(results);
+		return results.getScores();
+	}
+
+	/**
+	 * Add a sheet for this run to the overall summary (and counts) spreadsheets
+	 * 
+	 * @param results
+	 * @param runId
+	 * @param counts
+	 */
+	private static void writeSummary(AlignmentResults results, String runId, boolean counts) {
+		File summaryXls = new File(numTestsRun + " summary.xlsx");
+		File countsXls = new File("counts.xlsx");
+		Workbook summaryWb = null;
+		Workbook countsWb = null;
+		try {
+			FileInputStream summaryXlsIn = new FileInputStream(summaryXls);
+			summaryWb = new XSSFWorkbook(summaryXlsIn);
+			if (counts) {
+				FileInputStream countsXlsIn = new FileInputStream(countsXls);
+				countsWb = new XSSFWorkbook(countsXlsIn);
+			}
+		} catch (FileNotFoundException e) {
+			summaryWb = new XSSFWorkbook();
+			if (counts) {
+				countsWb = new XSSFWorkbook();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+		printSummarySheet(summaryWb, runId, results);
+		if (counts) {
+			printSummaryCountSheet(countsWb, runId, results);
+		}
+		try {
+			OutputStream summaryXlsOut = new FileOutputStream(summaryXls);
+			summaryWb.write(summaryXlsOut);
+			if (counts) {
+				OutputStream countsXlsOut = new FileOutputStream(countsXls);
+				countsWb.write(countsXlsOut);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * Print overall stats over all dialogues
+	 * 
+	 * @param results
+	 */
+	private static void printStats(AlignmentResults results) {
+		RunningStatistics stats = results.getScoreStats();
+		RunningStatistics meanStats = results.getMeanStats();
+		System.out.println("Mean over all dialogues: " + meanStats.getMean());
+		System.out.println("Mean, SD over all dialogues: " + stats.getMean() + " " + stats.getStandardDeviation());
+		System.out.println(
+				"Mean, SD over all dialogue means: " + meanStats.getMean() + " " + meanStats.getStandardDeviation());
+		System.out.println("Min, quartiles, max over all dialogues: " + stats.getMin() + " "
+				+ stats.getPercentile(25) + " " + stats.getPercentile(50) + " " + stats.getPercentile(75) + " "
+				+ stats.getMax());
+		List<String> genres = new ArrayList<String>(results.getGenreStats().keySet());
+		Collections.sort(genres);
+		for (String genre : genres) {
+			OffsetStatistics genreStats = results.getGenreStats().get(genre);
+			for (int i = 0; i < genreStats.size(); i++) {
+				if (genreStats.getN(i) > 0) {
+					System.out.println("Mean, SD, median for genre [" + genre + "] i-" + (i + 1) + ": "
+							+ genreStats.getMean(i) + " " + genreStats.getStandardDeviation(i) + " "
+							+ genreStats.getPercentile(i, 50));
 				}
-			} catch (IOException e) {
-				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Merge the results of runs over the shards of a corpus (see {@link DialogueCorpus#writeShards(File, int)} and
+	 * setSaveResults()), giving the same summary spreadsheet and stats as a single run over the whole corpus. The
+	 * per-dialogue sheets stay in the shard runs' own spreadsheets.
+	 * 
+	 * @param runId
+	 *            the ID to use for the merged run
+	 * @param orderFile
+	 *            the shard order file written along with the shards, to put the dialogues back in the original corpus
+	 *            order; or null to leave them in shard order
+	 * @param resultFiles
+	 *            the results files saved by the shard runs
+	 * @param xlsOutput
+	 *            whether to write the summary spreadsheets
+	 * @return a list of lists of scores (one list per dialogue)
+	 */
+	public static List<List<Double>> mergeResults(String runId, File orderFile, List<File> resultFiles,
+			boolean xlsOutput) {
+		numTestsRun++;
+		AlignmentResults results = null;
+		for (File file : resultFiles) {
+			AlignmentResults shard = AlignmentResults.readFromFile(file);
+			if (shard == null) {
+				System.err.println("Can't read results file " + file);
 				System.exit(0);
 			}
-			printSummarySheet(summaryWb, runId, speakerScores, originalSpks, speakerN, spkMetrics, totMetrics,
-					corpus instanceof CombinedCorpus);
-			if (counts) {
-				printSummaryCountSheet(countsWb, runId, allCounts, commonCounts);
+			if (results == null) {
+				results = shard;
+			} else {
+				results.addAll(shard);
 			}
+		}
+		if (results == null) {
+			return new ArrayList<List<Double>>();
+		}
+		if (orderFile != null) {
+			results.sortDialogues(DialogueCorpus.readShardOrder(orderFile));
+		}
+		System.out.println("Merged results for " + results.getDialogueIds().size() + " dialogues from "
+				+ resultFiles.size() + " files");
+		if (xlsOutput) {
+			HashMap<Object, Integer> allCounts = results.getAllCounts().get("");
+			boolean counts = (allCounts != null) && !allCounts.isEmpty();
+			Workbook wb = new XSSFWorkbook();
+			printSummarySheet(wb, null, results);
 			try {
-				OutputStream summaryXlsOut = new FileOutputStream(summaryXls);
-				summaryWb.write(summaryXlsOut);
-				if (counts) {
-					OutputStream countsXlsOut = new FileOutputStream(countsXls);
-					countsWb.write(countsXlsOut);
-				}
+				OutputStream xls = new FileOutputStream(new File(runId + ".xlsx"));
+				wb.write(xls);
+				xls.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 				System.exit(0);
 			}
+			writeSummary(results, runId, counts);
 		}
-		System.out.println("Mean over all dialogues: " + MathUtil.mean(means));
-		System.out.println("Mean, SD over all dialogues: " + stats.getMean() + " " + stats.getStandardDeviation());
-		ApacheStatistics meanStats = new ApacheStatistics(means);
-		System.out.println(
-				"Mean, SD over all dialogue means: " + meanStats.getMean() + " " + meanStats.getStandardDeviation());
-		return scores;
+		printStats(results);
+		return results.getScores();
 	}
 
 	/**
 	 * @param orig
 	 * @return a version which is less than 32 chars long, to keep the {@link Workbook} class restrictions happy
 	 */
-	String shorten(String orig) {
+	static String shorten(String orig) {
 		String shorter = new String(orig);
 		shorter = shorter.replace("stanford", "stn");
 		shorter = shorter.replace("random", "rd");
@@ -616,13 +724,15 @@ public class AlignmentTester<X extends DialogueUnit> {
 	 * 
 	 * @param wb
 	 * @param sheetName
-	 * @param speakerScores
-	 * @param originalSpks
-	 * @param speakerN
+	 * @param results
 	 */
-	private void printSummarySheet(Workbook wb, String sheetName, HashMap<String, ArrayList<Double>> speakerScores,
-			HashMap<String, String> originalSpks, HashMap<String, ArrayList<Double>> speakerN, MetricsMap spkMetrics,
-			MetricsMap totMetrics, boolean pairedCorpus) {
+	private static void printSummarySheet(Workbook wb, String sheetName, AlignmentResults results) {
+		HashMap<String, OffsetStatistics> speakerStats = results.getSpeakerStats();
+		HashMap<String, String> originalSpks = results.getOriginalSpks();
+		MetricsMap spkMetrics = results.getSpkMetrics();
+		MetricsMap totMetrics = results.getTotMetrics();
+		boolean pairedCorpus = results.isPairedCorpus();
+		HashMap<String, String> genreMap = results.getGenreMap();
 
 		CreationHelper creationHelper = wb.getCreationHelper();
 		sheetName = (sheetName == null ? "Summary" : shorten(sheetName));
@@ -638,13 +748,13 @@ public class AlignmentTester<X extends DialogueUnit> {
 		// first general identifying stuff
 		Row row = sheet.createRow(iRow++);
 		row.createCell(0, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString("Corpus"));
-		row.createCell(1, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString(getCorpus().getId()));
+		row.createCell(1, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString(results.getCorpusId()));
 		row = sheet.createRow(iRow++);
 		row.createCell(0, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString("Windower"));
-		row.createCell(1, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString(getWin().toString()));
+		row.createCell(1, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString(results.getWinName()));
 		row = sheet.createRow(iRow++);
 		row.createCell(0, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString("Similarity Measure"));
-		row.createCell(1, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString(getSim().toString()));
+		row.createCell(1, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString(results.getSimName()));
 		// now header
 		row = sheet.createRow(iRow++);
 		row = sheet.createRow(iRow++);
@@ -664,16 +774,16 @@ public class AlignmentTester<X extends DialogueUnit> {
 		row.createCell(iCol++, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString("Speaker avg wordrate"));
 		row.createCell(iCol++, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString("Dialogue avg wordrate"));
 		iCol++;
-		for (int i = 0; i < getWin().getLeftWindowSize(); i++) {
+		for (int i = 0; i < results.getLeftWindowSize(); i++) {
 			row.createCell(i + iCol, Cell.CELL_TYPE_STRING)
 					.setCellValue(creationHelper.createRichTextString("Mean i-" + (i + 1)));
 		}
 		// now means per speaker
-		List<String> spks = new ArrayList<String>(speakerScores.keySet());
+		List<String> spks = new ArrayList<String>(speakerStats.keySet());
 		Collections.sort(spks);
 		List<Double> means = new ArrayList<Double>();
 		List<Double> nums = new ArrayList<Double>();
-		for (int i = 0; i < getWin().getLeftWindowSize(); i++) {
+		for (int i = 0; i < results.getLeftWindowSize(); i++) {
 			means.add(0.0);
 			nums.add(0.0);
 		}
@@ -697,11 +807,11 @@ public class AlignmentTester<X extends DialogueUnit> {
 				String dId = spk.replaceFirst("(.*)_.*", "$1");
 				row.createCell(iCol++, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString(spk));
 				row.createCell(iCol++, Cell.CELL_TYPE_STRING)
-						.setCellValue(creationHelper.createRichTextString(corpus.getGenreMap().get(spk.split(":")[0])));
+						.setCellValue(creationHelper.createRichTextString(genreMap.get(spk.split(":")[0])));
 				row.createCell(iCol++, Cell.CELL_TYPE_STRING)
 						.setCellValue(creationHelper.createRichTextString(originalSpks.get(spk)));
 				row.createCell(iCol++, Cell.CELL_TYPE_STRING).setCellValue(
-						creationHelper.createRichTextString(corpus.getGenreMap().get(originalSpks.get(spk).split(":")[0])));
+						creationHelper.createRichTextString(genreMap.get(originalSpks.get(spk).split(":")[0])));
 				row.createCell(iCol++, Cell.CELL_TYPE_NUMERIC).setCellValue(spkMetrics.getNumUnits(spk));
 				row.createCell(iCol++, Cell.CELL_TYPE_NUMERIC).setCellValue(totMetrics.getNumUnits(dId));
 				row.createCell(iCol++, Cell.CELL_TYPE_NUMERIC).setCellValue(spkMetrics.getNumWords(spk));
@@ -733,9 +843,9 @@ public class AlignmentTester<X extends DialogueUnit> {
 							.setCellValue(totMetrics.getWordRate(dId) / (double) totMetrics.getNumWordRates(dId));
 				}
 				iCol++;
-				for (int i = 0; i < speakerScores.get(spk).size(); i++) {
-					if (speakerN.get(spk).get(i) > 0.0) {
-						double mean = speakerScores.get(spk).get(i) / speakerN.get(spk).get(i);
+				for (int i = 0; i < speakerStats.get(spk).size(); i++) {
+					if (speakerStats.get(spk).getN(i) > 0) {
+						double mean = speakerStats.get(spk).getMean(i);
 						row.createCell(i + iCol, Cell.CELL_TYPE_NUMERIC).setCellValue(mean);
 						means.set(i, means.get(i) + mean);
 						nums.set(i, nums.get(i) + 1);
@@ -748,7 +858,7 @@ public class AlignmentTester<X extends DialogueUnit> {
 		row = sheet.createRow(iRow++);
 		iCol = 14;
 		row.createCell(iCol++, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString("Overall"));
-		for (int i = 0; i < getWin().getLeftWindowSize(); i++) {
+		for (int i = 0; i < results.getLeftWindowSize(); i++) {
 			means.set(i, means.get(i) / nums.get(i));
 			row.createCell(i + iCol, Cell.CELL_TYPE_NUMERIC).setCellValue(means.get(i));
 		}
@@ -757,9 +867,9 @@ public class AlignmentTester<X extends DialogueUnit> {
 	/**
 	 * Print a summary sheet on the (gulp) excel spreadsheet
 	 */
-	private void printSummaryCountSheet(Workbook wb, String sheetName,
-			HashMap<String, HashMap<Object, Integer>> allCounts,
-			HashMap<String, HashMap<Object, Integer>> commonCounts) {
+	private static void printSummaryCountSheet(Workbook wb, String sheetName, AlignmentResults results) {
+		HashMap<String, HashMap<Object, Integer>> allCounts = results.getAllCounts();
+		HashMap<String, HashMap<Object, Integer>> commonCounts = results.getCommonCounts();
 
 		CreationHelper creationHelper = wb.getCreationHelper();
 		sheetName = (sheetName == null ? "Summary" : shorten(sheetName));
@@ -775,13 +885,13 @@ public class AlignmentTester<X extends DialogueUnit> {
 		// first general identifying stuff
 		Row row = sheet.createRow(iRow++);
 		row.createCell(0, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString("Corpus"));
-		row.createCell(1, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString(getCorpus().getId()));
+		row.createCell(1, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString(results.getCorpusId()));
 		row = sheet.createRow(iRow++);
 		row.createCell(0, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString("Windower"));
-		row.createCell(1, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString(getWin().toString()));
+		row.createCell(1, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString(results.getWinName()));
 		row = sheet.createRow(iRow++);
 		row.createCell(0, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString("Similarity Measure"));
-		row.createCell(1, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString(getSim().toString()));
+		row.createCell(1, Cell.CELL_TYPE_STRING).setCellValue(creationHelper.createRichTextString(results.getSimName()));
 		// now header
 		row = sheet.createRow(iRow++);
 		row = sheet.createRow(iRow++);
@@ -850,6 +960,15 @@ public class AlignmentTester<X extends DialogueUnit> {
 		this.win = win;
 	}
 
+	/**
+	 * @param resultsFile
+	 *            a file to save the {@link AlignmentResults} to after processCorpus(), for merging with those of other
+	 *            runs via mergeResults(); or null (the default) not to save them
+	 */
+	public void setResultsFile(File resultsFile) {
+		this.resultsFile = resultsFile;
+	}
+
 	/**
 	 * Normalise a data array depending on the normalisation setting
 	 * 
@@ -897,7 +1016,7 @@ public class AlignmentTester<X extends DialogueUnit> {
 	}
 
 	/**
-	 * Average and plot the scores
+	 * Average and plot the scores on screen
 	 * 
 	 * @param scores
 	 *            the scores from processCorpus
@@ -905,20 +1024,47 @@ public class AlignmentTester<X extends DialogueUnit> {
 	 *            number of data points (e.g. turns) per dialogue to interpolate to
 	 */
 	public void processScores(List<List<Double>> scores, int num) {
+		processScores(scores, num, new ScorePlotter());
+	}
+
+	/**
+	 * Average and plot the scores
+	 * 
+	 * @param scores
+	 *            the scores from processCorpus
+	 * @param num
+	 *            number of data points (e.g. turns) per dialogue to interpolate to
+	 * @param plotter
+	 *            the plotter to show or write the charts, finished (i.e. waited for) before returning
+	 */
+	public void processScores(List<List<Double>> scores, int num, ScorePlotter plotter) {
 		List<Double> means = new ArrayList<Double>();
 		for (int m = 0; m < num; m++) {
 			means.add(0.0);
 		}
+		// smooth all dialogues in one batch
+		double[][] batch = new double[scores.size()][];
+		for (int d = 0; d < scores.size(); d++) {
+			List<Double> subScores = scores.get(d);
+			System.out.println("Dialogue " + d + " raw  scores: " + subScores);
+			normalise(subScores);
+			System.out.println("Dialogue " + d + " norm scores: " + subScores);
+			batch[d] = new double[subScores.size()];
+			for (int m = 0; m < subScores.size(); m++) {
+				batch[d][m] = subScores.get(m);
+			}
+		}
+		batch = smoother.smooth(batch);
 		int i = 0;
 		for (List<Double> subScores : scores) {
-			System.out.println("Dialogue " + i + " raw  scores: " + subScores);
-			normalise(subScores);
-			System.out.println("Dialogue " + i + " norm scores: " + subScores);
-			List<Double> smoothScores = smoother.smooth(subScores);
+			List<Double> smoothScores = new ArrayList<Double>(batch[i].length);
+			for (double s : batch[i]) {
+				smoothScores.add(s);
+			}
 			System.out.println("Dialogue " + i + " smooth scores: " + smoothScores);
 			List<Double> intScores = interpolate(smoothScores, num);
 			System.out.println("Dialogue " + i + " intp scores: " + intScores);
-			plotScores("Dialogue " + i, subScores, smoothScores, intScores);
+			plotter.plotScores("Dialogue " + i, subScores, smoothScores, intScores);
 			for (int m = 0; m < num; m++) {
 				means.set(m, means.get(m) + intScores.get(m));
 			}
@@ -927,64 +1073,8 @@ public class AlignmentTester<X extends DialogueUnit> {
 		for (int m = 0; m < num; m++) {
 			means.set(m, means.get(m) / (double) i);
 		}
-		plotScores(means, "Mean over " + i + " dialogues");
-	}
-
-	/**
-	 * Plot a turn vs score chart
-	 * 
-	 * @param scores
-	 * @param title
-	 */
-	private void plotScores(List<Double> scores, String title) {
-		ApplicationFrame af = new ApplicationFrame(title);
-		final XYSeries series = new XYSeries("Coherence scores");
-		for (int x = 0; x < scores.size(); x++) {
-			series.add(x, scores.get(x));
-		}
-		final XYSeriesCollection data = new XYSeriesCollection(series);
-		final JFreeChart chart = ChartFactory.createXYLineChart(title, "Turn", "Score", data, PlotOrientation.VERTICAL,
-				true, true, false);
-
-		final ChartPanel chartPanel = new ChartPanel(chart);
-		chartPanel.setPreferredSize(new java.awt.Dimension(1000, 500));
-		af.setContentPane(chartPanel);
-		af.pack();
-		RefineryUtilities.centerFrameOnScreen(af);
-		af.setVisible(true);
-	}
-
-	/**
-	 * Plot a turn vs score chart with arbitrary subplots
-	 * 
-	 * @param scores1
-	 * @param title
-	 */
-	private void plotScores(String title, List<Double>... scores) {
-		ApplicationFrame af = new ApplicationFrame(title);
-		final CombinedDomainXYPlot plot = new CombinedDomainXYPlot(new NumberAxis());
-		plot.setGap(10.0);
-
-		for (int i = 0; i < scores.length; i++) {
-
-			final XYSeries series = new XYSeries("Coherence scores " + i);
-			for (int x = 0; x < scores[i].size(); x++) {
-				series.add(x, scores[i].get(x));
-			}
-			XYSeriesCollection data = new XYSeriesCollection(series);
-			XYPlot subplot = new XYPlot(data, null, new NumberAxis(), new StandardXYItemRenderer());
-			subplot.setRangeAxisLocation(i == 0 ? AxisLocation.TOP_OR_LEFT : AxisLocation.BOTTOM_OR_LEFT);
-			plot.add(subplot, 1);
-		}
-
-		plot.setOrientation(PlotOrientation.VERTICAL);
-		final JFreeChart chart = new JFreeChart(title, JFreeChart.DEFAULT_TITLE_FONT, plot, false);
-		final ChartPanel chartPanel = new ChartPanel(chart);
-		chartPanel.setPreferredSize(new java.awt.Dimension(1000, 500));
-		af.setContentPane(chartPanel);
-		af.pack();
-		RefineryUtilities.centerFrameOnScreen(af);
-		af.setVisible(true);
+		plotter.plotScores(means, "Mean over " + i + " dialogues");
+		plotter.finish();
 	}
 
 	/**
@@ -1007,7 +1097,7 @@ public class AlignmentTester<X extends DialogueUnit> {
 	 * @param xlsOutput
 	 *            whether to write XLS spreadsheet
 	 * @param plotGraphs
-	 *            whether to plot graphs
+	 *            whether to plot graphs (on screen, or to files if setPlotOutput() has been called)
 	 */
 	public static void runTest(String baseDir, String corpusRoot, String randType, String simType, String unitType,
 			String winType, int monteCarlo, boolean xlsOutput, boolean plotGraphs) {
@@ -1016,12 +1106,138 @@ public class AlignmentTester<X extends DialogueUnit> {
 		String runId = numTestsRun + " " + corpusRoot + randSuffix + "-" + simType + "-" + winType + "-" + unitType;
 		File xlsFile = new File(runId + ".xlsx");
 
+		AlignmentTester<? extends DialogueUnit> at = createTester(simType, unitType, winType, (xlsOutput ? xlsFile
+				: null));
+
+		// // use something like this to test on the original corpus (limiting to 2-speaker cases)
+		// at.setCorpus(new DCPSECorpus(2, 2, 0, 0));
+		// // use something like this if you're not running on the server
+		// at.setCorpus(new DCPSECorpus("C:/Documents and Settings/mpurver/My Documents/corpora", 2, 2, 0, 0));
+		// // use something like this to test on a randomised version
+		// at.setCorpus(new RandomCorpus(new DCPSECorpus(2, 2, 0, 0), RandomCorpus.RAND_ALL_TURNS, RandomCorpus.PAD_CUT,
+		// RandomCorpus.LENGTH_IN_TURNS));
+		// // use something like this to test on a randomised version and save it to file for later replication
+		// DialogueCorpus corpus = new RandomCorpus(new DCPSECorpus(2, 2, 0, 0), RandomCorpus.RAND_OTHER_SPEAKERS,
+		// RandomCorpus.PAD_CUT);
+		// corpus.writeToFile(new File(corpusName + ".corpus.gz"));
+		// at.setCorpus(corpus);
+		// // use something like this to use a previously generated random corpus
+		// at.setCorpus(DialogueCorpus.readFromFile(new File(corpusName + ".corpus.gz")));
+		// // use something like this to (re-)parse a corpus
+		// CorpusParser.parse(corpus);
+
+		DialogueCorpus corpus = getCorpus(baseDir, corpusRoot, randSuffix, randType);
+		if (randType.equals("random1") || randType.equals("random3") || randType.equals("random_same")) {
+			// for random1, must actually set up two corpora, one for each speaker A and B
+			ArrayList<DialogueCorpus> corpusPair = new ArrayList<DialogueCorpus>();
+			corpusPair.add(corpus);
+			corpusPair
+					.add(getCorpus(baseDir, corpusRoot, randSuffix.replace(randType, randType + "B"), randType + "B"));
+			corpus = new CombinedCorpus(corpusPair);
+		}
+		at.setCorpus(corpus);
+		if (saveResults) {
+			at.setResultsFile(new File(runId + ".results"));
+		}
+
+		setupProductions(simType, corpus);
+		setupLexicalForms(simType, corpus);
+
+		at.normalisation = NORM_NONE;
+		// at.smoother = SmoothingFactory.getSmoother("gaussian(5)");
+		int num = 300;
+
+		List<List<Double>> scores = at.processCorpus(runId);
+		if (plotGraphs && retainScores) {
+			at.processScores(scores, num, (plotDir == null ? new ScorePlotter() : new ScorePlotter(plotDir, runId,
+					plotFormat, 0)));
+		}
+
+	}
+
+	/**
+	 * Run a permutation test of the raw corpus against a randomisation type, via a {@link PermutationTest} rather than
+	 * building and processing a new random corpus for every Monte-Carlo round
+	 * 
+	 * @param baseDir
+	 *            the base corpus dir, or null if using default
+	 * @param corpusRoot
+	 *            "dcpse" or "swbd"
+	 * @param randType
+	 *            "random1", "random2" or "random3"
+	 * @param simType
+	 *            "lex" or "syn", or "syntop", "synbot" for top 10/other rules only
+	 * @param unitType
+	 *            "turn" (or "tuco")
+	 * @param winType
+	 *            "oth"
+	 * @param numPermutations
+	 *            the number of random replicates
+	 */
+	public static void runPermutationTest(String baseDir, String corpusRoot, String randType, String simType,
+			String unitType, String winType, int numPermutations) {
+		numTestsRun++;
+		String runId = numTestsRun + " " + corpusRoot + "_" + randType + "_perm" + numPermutations + "-" + simType
+				+ "-" + winType + "-" + unitType;
+
+		AlignmentTester<? extends DialogueUnit> at = createTester(simType, unitType, winType, null);
+		if (!at.getWin().getClass().equals(OtherSpeakerTurnWindower.class)) {
+			System.err.println("Permutation test only implemented for other-speaker turn windows, not " + unitType
+					+ " " + winType);
+			return;
+		}
+		int type;
+		if (randType.equals("random1")) {
+			type = RandomCorpus.RAND_OTHER_TURNS;
+		} else if (randType.equals("random2")) {
+			type = RandomCorpus.RAND_BEST_LENGTH_MATCH;
+		} else if (randType.equals("random3")) {
+			type = RandomCorpus.RAND_BEST_LENGTH_RAND;
+		} else {
+			System.err.println("Permutation test not implemented for " + randType);
+			return;
+		}
+		DialogueCorpus corpus = getCorpus(baseDir, corpusRoot, "", "");
+		setupProductions(simType, corpus);
+		setupLexicalForms(simType, corpus);
+
+		@SuppressWarnings("unchecked")
+		SimilarityMeasure<DialogueTurn> sim = (SimilarityMeasure<DialogueTurn>) at.getSim();
+		// random1 and random3 use a combined corpus with each speaker fixed in turn, see runTest()
+		// all but the last-construction measures are symmetric, so need only one direction precomputed
+		PermutationTest test = new PermutationTest(corpus, sim, at.getWin().getLeftWindowSize(), type,
+				!randType.equals("random2"), permutationCandidates, !simType.equals("gries"));
+		long time = System.currentTimeMillis();
+		test.run(numPermutations);
+		System.out.println("Ran " + numPermutations + " permutations in " + (System.currentTimeMillis() - time)
+				+ " ms");
+		for (int i = 0; i < test.getWindowSize(); i++) {
+			RunningStatistics stats = test.getNullStatistics(i);
+			System.out.println(runId + " i-" + (i + 1) + " observed " + test.getObserved(i) + " null mean "
+					+ stats.getMean() + " sd " + stats.getStandardDeviation() + " 95% " + stats.getPercentile(95)
+					+ " p " + test.getPValue(i));
+		}
+	}
+
+	/**
+	 * @param simType
+	 *            "lex" or "syn", or "syntop", "synbot" for top 10/other rules only
+	 * @param unitType
+	 *            "turn" or "sent"
+	 * @param winType
+	 *            "oth" or "same"
+	 * @param xlsFile
+	 *            the XLS spreadsheet to write, or null for none
+	 * @return a new {@link AlignmentTester} with the windower and similarity measure for these types
+	 */
+	private static AlignmentTester<? extends DialogueUnit> createTester(String simType, String unitType,
+			String winType, File xlsFile) {
 		AlignmentTester<? extends DialogueUnit> at;
 		int leftWindow = ((simType.equals("gries") || winType.startsWith("all")) ? 1 : 5);
 		int rightWindow = 1;
 		int stepWindow = 1;
 		if (unitType.equals("turn") || unitType.equals("tuco")) {
-			AlignmentTester<DialogueTurn> att = (xlsOutput ? new AlignmentTester<DialogueTurn>(xlsFile)
+			AlignmentTester<DialogueTurn> att = (xlsFile != null ? new AlignmentTester<DialogueTurn>(xlsFile)
 					: new AlignmentTester<DialogueTurn>());
 			if (winType.equals("oth")) {
 				att.setWin(new OtherSpeakerTurnWindower(null, leftWindow, rightWindow, stepWindow));
@@ -1048,6 +1264,15 @@ public class AlignmentTester<X extends DialogueUnit> {
 				} else {
 					att.setSim(new TurnAverageSimilarityMeasure(new SentenceLexicalTokenSimilarityMeasure()));
 				}
+			} else if (simType.startsWith("edit")) {
+				// "edit" for token Levenshtein, "editlcs" for token LCS
+				if (unitType.equals("tuco")) {
+					att.setSim(new TurnConcatSimilarityMeasure(new SentenceTokenEditSimilarityMeasure(simType
+							.equals("editlcs"))));
+				} else {
+					att.setSim(new TurnAverageSimilarityMeasure(new SentenceTokenEditSimilarityMeasure(simType
+							.equals("editlcs"))));
+				}
 			} else if (simType.startsWith("syn")) {
 				if (unitType.equals("tuco")) {
 					att.setSim(new TurnConcatSimilarityMeasure(
@@ -1088,7 +1313,7 @@ public class AlignmentTester<X extends DialogueUnit> {
 			}
 			at = att;
 		} else if (unitType.equals("sent")) {
-			AlignmentTester<DialogueSentence> ats = (xlsOutput ? new AlignmentTester<DialogueSentence>(xlsFile)
+			AlignmentTester<DialogueSentence> ats = (xlsFile != null ? new AlignmentTester<DialogueSentence>(xlsFile)
 					: new AlignmentTester<DialogueSentence>());
 			if (winType.equals("oth")) {
 				ats.setWin(new OtherSpeakerSentenceWindower(null, leftWindow, rightWindow, stepWindow));
@@ -1107,6 +1332,8 @@ public class AlignmentTester<X extends DialogueUnit> {
 				ats.setSim(new SentenceLexicalSimilarityMeasure());
 			} else if (simType.startsWith("tok")) {
 				ats.setSim(new SentenceLexicalTokenSimilarityMeasure());
+			} else if (simType.startsWith("edit")) {
+				ats.setSim(new SentenceTokenEditSimilarityMeasure(simType.equals("editlcs")));
 			} else if (simType.startsWith("syn")) {
 				ats.setSim(new SentenceSyntacticSimilarityMeasure(TreeKernel.SYN_TREES));
 			} else if (simType.equals("gries")) {
@@ -1128,35 +1355,16 @@ public class AlignmentTester<X extends DialogueUnit> {
 		} else {
 			throw new RuntimeException("unknown unit type " + unitType);
 		}
+		return at;
+	}
 
-		// // use something like this to test on the original corpus (limiting to 2-speaker cases)
-		// at.setCorpus(new DCPSECorpus(2, 2, 0, 0));
-		// // use something like this if you're not running on the server
-		// at.setCorpus(new DCPSECorpus("C:/Documents and Settings/mpurver/My Documents/corpora", 2, 2, 0, 0));
-		// // use something like this to test on a randomised version
-		// at.setCorpus(new RandomCorpus(new DCPSECorpus(2, 2, 0, 0), RandomCorpus.RAND_ALL_TURNS, RandomCorpus.PAD_CUT,
-		// RandomCorpus.LENGTH_IN_TURNS));
-		// // use something like this to test on a randomised version and save it to file for later replication
-		// DialogueCorpus corpus = new RandomCorpus(new DCPSECorpus(2, 2, 0, 0), RandomCorpus.RAND_OTHER_SPEAKERS,
-		// RandomCorpus.PAD_CUT);
-		// corpus.writeToFile(new File(corpusName + ".corpus.gz"));
-		// at.setCorpus(corpus);
-		// // use something like this to use a previously generated random corpus
-		// at.setCorpus(DialogueCorpus.readFromFile(new File(corpusName + ".corpus.gz")));
-		// // use something like this to (re-)parse a corpus
-		// CorpusParser.parse(corpus);
-
-		DialogueCorpus corpus = getCorpus(baseDir, corpusRoot, randSuffix, randType);
-		if (randType.equals("random1") || randType.equals("random3") || randType.equals("random_same")) {
-			// for random1, must actually set up two corpora, one for each speaker A and B
-			ArrayList<DialogueCorpus> corpusPair = new ArrayList<DialogueCorpus>();
-			corpusPair.add(corpus);
-			corpusPair
-					.add(getCorpus(baseDir, corpusRoot, randSuffix.replace(randType, randType + "B"), randType + "B"));
-			corpus = new CombinedCorpus(corpusPair);
-		}
-		at.setCorpus(corpus);
-
+	/**
+	 * Set the {@link TreeKernel} productions to allow or ban for the "syntop" and "synbot" similarity types
+	 * 
+	 * @param simType
+	 * @param corpus
+	 */
+	private static void setupProductions(String simType, DialogueCorpus corpus) {
 		TreeKernel.clearAllowedProductions();
 		TreeKernel.clearBannedProductions();
 		if (simType.equals("syntop")) {
@@ -1168,16 +1376,19 @@ public class AlignmentTester<X extends DialogueUnit> {
 				TreeKernel.addBannedProduction(bnf);
 			}
 		}
+	}
 
-		at.normalisation = NORM_NONE;
-		// at.smoother = SmoothingFactory.getSmoother("gaussian(5)");
-		int num = 300;
-
-		List<List<Double>> scores = at.processCorpus(runId);
-		if (plotGraphs) {
-			at.processScores(scores, num);
+	/**
+	 * For lexical similarity types, annotate the corpus with lexical forms up front (in parallel), rather than
+	 * sentence-by-sentence as they're compared
+	 * 
+	 * @param simType
+	 * @param corpus
+	 */
+	private static void setupLexicalForms(String simType, DialogueCorpus corpus) {
+		if (simType.equals("lex") || simType.startsWith("tok") || simType.startsWith("edit")) {
+			LexicalAnnotator.annotate(corpus);
 		}
-
 	}
 
 	private static DialogueCorpus getCorpus(String baseDir, String corpusRoot, String randSuffix, String randType) {
@@ -1188,34 +1399,17 @@ public class AlignmentTester<X extends DialogueUnit> {
 				corpus = DialogueCorpus.readFromFile(new File(baseDir + corpusRoot + ".corpus"));
 			}
 			if (corpus == null) {
-				if (corpusRoot.startsWith("dcpse")) {
-					CreateTreeFromDCPSE.setOption(CreateTreeFromDCPSE.INCLUDE_NO_PAUSE, true);
-					CreateTreeFromDCPSE.setOption(CreateTreeFromDCPSE.INCLUDE_NO_IGNORE, true);
-					CreateTreeFromDCPSE.setOption(CreateTreeFromDCPSE.INCLUDE_NO_UNCLEAR, true);
-					if (corpusRoot.endsWith("nointj")) {
-						CreateTreeFromDCPSE.setOption(CreateTreeFromDCPSE.INCLUDE_NO_UMM, true);
-						CreateTreeFromDCPSE.setOption(CreateTreeFromDCPSE.INCLUDE_NO_REACT, true);
-					} else {
-						CreateTreeFromDCPSE.setOption(CreateTreeFromDCPSE.INCLUDE_NO_UMM, false);
-						CreateTreeFromDCPSE.setOption(CreateTreeFromDCPSE.INCLUDE_NO_REACT, false);
-					}
-					if (corpusRoot.startsWith("dcpsef")) {
-						CreateTreeFromDCPSE.setOption(CreateTreeFromDCPSE.INCLUDE_NO_BRACKETS, false);
-					}
-					if (corpusRoot.startsWith("dcpsefp")) {
-						CreateTreeFromDCPSE.setOption(CreateTreeFromDCPSE.PP_LEXICAL_FEATURES, true);
-					}
-					corpus = (baseDir == null ? new DCPSECorpus(2, 2, 10, 0) : new DCPSECorpus(baseDir, 2, 2, 10, 0));
+				if (buildAllVariants && (Arrays.asList(DCPSE_VARIANTS).contains(corpusRoot)
+						|| Arrays.asList(SWBD_VARIANTS).contains(corpusRoot))) {
+					corpus = buildVariants(baseDir, corpusRoot);
+				} else if (corpusRoot.startsWith("dcpse")) {
+					CreateTreeFromDCPSE.Options options = getDCPSEOptions(corpusRoot);
+					corpus = (baseDir == null ? new DCPSECorpus(options, 2, 2, 10, 0) : new DCPSECorpus(baseDir, options, 2,
+							2, 10, 0));
 				} else if (corpusRoot.startsWith("swbd")) {
-					CreateTreeFromSWBD.setOption(CreateTreeFromSWBD.REPAIR_SELFREPAIRS, true);
-					CreateTreeFromSWBD.setOption(CreateTreeFromSWBD.SIMPLIFY_CATEGORIES, true);
-					if (corpusRoot.endsWith("nointj")) {
-						CreateTreeFromSWBD.setOption(CreateTreeFromSWBD.INCLUDE_NO_INTJ, true);
-					} else {
-						CreateTreeFromSWBD.setOption(CreateTreeFromSWBD.INCLUDE_NO_INTJ, false);
-					}
-					corpus = (baseDir == null ? new SwitchboardCorpus(2, 2, 10, 0)
-							: new SwitchboardCorpus(baseDir, 2, 2, 10, 0));
+					CreateTreeFromSWBD.Options options = getSWBDOptions(corpusRoot);
+					corpus = (baseDir == null ? new SwitchboardCorpus(options, 2, 2, 10, 0) : new SwitchboardCorpus(
+							baseDir, options, 2, 2, 10, 0));
 				} else if (corpusRoot.startsWith("bnc")) {
 					if (corpusRoot.endsWith("nointj")) {
 						throw new RuntimeException("not implemented yet");
@@ -1271,6 +1465,145 @@ public class AlignmentTester<X extends DialogueUnit> {
 		return corpus;
 	}
 
+	/**
+	 * @param corpusRoot
+	 *            "dcpse", "dcpse_nointj", "dcpsef", "dcpsefp" etc
+	 * @return the tree options for this DCPSE corpus variant
+	 */
+	private static CreateTreeFromDCPSE.Options getDCPSEOptions(String corpusRoot) {
+		CreateTreeFromDCPSE.Options options = CreateTreeFromDCPSE.getOptions();
+		options.set(CreateTreeFromDCPSE.INCLUDE_NO_PAUSE, true);
+		options.set(CreateTreeFromDCPSE.INCLUDE_NO_IGNORE, true);
+		options.set(CreateTreeFromDCPSE.INCLUDE_NO_UNCLEAR, true);
+		if (corpusRoot.endsWith("nointj")) {
+			options.set(CreateTreeFromDCPSE.INCLUDE_NO_UMM, true);
+			options.set(CreateTreeFromDCPSE.INCLUDE_NO_REACT, true);
+		} else {
+			options.set(CreateTreeFromDCPSE.INCLUDE_NO_UMM, false);
+			options.set(CreateTreeFromDCPSE.INCLUDE_NO_REACT, false);
+		}
+		if (corpusRoot.startsWith("dcpsef")) {
+			options.set(CreateTreeFromDCPSE.INCLUDE_NO_BRACKETS, false);
+		}
+		if (corpusRoot.startsWith("dcpsefp")) {
+			options.set(CreateTreeFromDCPSE.PP_LEXICAL_FEATURES, true);
+		}
+		return options;
+	}
+
+	/**
+	 * @param corpusRoot
+	 *            "swbd" or "swbd_nointj"
+	 * @return the tree options for this SWBD corpus variant
+	 */
+	private static CreateTreeFromSWBD.Options getSWBDOptions(String corpusRoot) {
+		CreateTreeFromSWBD.Options options = CreateTreeFromSWBD.getOptions();
+		options.set(CreateTreeFromSWBD.REPAIR_SELFREPAIRS, true);
+		options.set(CreateTreeFromSWBD.SIMPLIFY_CATEGORIES, true);
+		if (corpusRoot.endsWith("nointj")) {
+			options.set(CreateTreeFromSWBD.INCLUDE_NO_INTJ, true);
+		} else {
+			options.set(CreateTreeFromSWBD.INCLUDE_NO_INTJ, false);
+		}
+		return options;
+	}
+
+	/**
+	 * @param permutationCandidates
+	 *            for permutation tests, the number of other dialogues closest in length from which to take the
+	 *            replacement speaker (random2, random3) or turns (random1) (default 10); 0 or less means all dialogues
+	 *            of the same genre, which makes the precomputation quadratic
+	 */
+	public static void setPermutationCandidates(int permutationCandidates) {
+		AlignmentTester.permutationCandidates = permutationCandidates;
+	}
+
+	/**
+	 * @param buildAllVariants
+	 *            if true (the default), when a raw DCPSE or SWBD corpus has to be built from the original files, all
+	 *            its variants (see DCPSE_VARIANTS, SWBD_VARIANTS) are built in the same pass, and those not already on
+	 *            disk are saved for later runs
+	 */
+	public static void setBuildAllVariants(boolean buildAllVariants) {
+		AlignmentTester.buildAllVariants = buildAllVariants;
+	}
+
+	/**
+	 * @param saveResults
+	 *            if true, runTest() saves each run's {@link AlignmentResults} to a "runId.results" file, so that runs
+	 *            over the shards of a corpus (e.g. in separate processes) can be combined with mergeResults()
+	 */
+	public static void setSaveResults(boolean saveResults) {
+		AlignmentTester.saveResults = saveResults;
+	}
+
+	/**
+	 * @param retainScores
+	 *            if true (the default), keep every dialogue's scores in memory for processScores() and the returned
+	 *            lists; if false, keep only streaming statistics, so memory doesn't grow with corpus size (e.g. for
+	 *            large or Monte-Carlo runs), and don't plot graphs
+	 */
+	public static void setRetainScores(boolean retainScores) {
+		AlignmentTester.retainScores = retainScores;
+	}
+
+	/**
+	 * @param plotDir
+	 *            a directory for runTest() to write its graphs to as files, rendered offscreen (so no display is
+	 *            needed); or null (the default) to show them on screen
+	 * @param plotFormat
+	 *            {@link ScorePlotter#PNG} or {@link ScorePlotter#SVG}
+	 */
+	public static void setPlotOutput(File plotDir, String plotFormat) {
+		AlignmentTester.plotDir = plotDir;
+		AlignmentTester.plotFormat = plotFormat;
+	}
+
+	/**
+	 * Build all variants of the raw DCPSE or SWBD corpus in a single pass over the original files, saving all but the
+	 * one requested (if not already saved)
+	 * 
+	 * @param baseDir
+	 *            the base corpus dir, or null if using default
+	 * @param corpusRoot
+	 *            one of DCPSE_VARIANTS or SWBD_VARIANTS
+	 * @return the requested variant
+	 */
+	private static DialogueCorpus buildVariants(String baseDir, String corpusRoot) {
+		boolean dcpse = Arrays.asList(DCPSE_VARIANTS).contains(corpusRoot);
+		ArrayList<String> roots = new ArrayList<String>();
+		for (String root : (dcpse ? DCPSE_VARIANTS : SWBD_VARIANTS)) {
+			if (root.equals(corpusRoot) || !new File(root + ".corpus").exists()) {
+				roots.add(root);
+			}
+		}
+		List<? extends DialogueCorpus> corpora;
+		if (dcpse) {
+			ArrayList<CreateTreeFromDCPSE.Options> options = new ArrayList<CreateTreeFromDCPSE.Options>();
+			for (String root : roots) {
+				options.add(getDCPSEOptions(root));
+			}
+			corpora = DCPSECorpus.createVariants(baseDir == null ? DCPSECorpus.getDefaultBaseDir() : baseDir,
+					options, 2, 2, 10, 0);
+		} else {
+			ArrayList<CreateTreeFromSWBD.Options> options = new ArrayList<CreateTreeFromSWBD.Options>();
+			for (String root : roots) {
+				options.add(getSWBDOptions(root));
+			}
+			corpora = SwitchboardCorpus.createVariants(baseDir == null ? SwitchboardCorpus.getDefaultBaseDir()
+					: baseDir, options, 2, 2, 10, 0);
+		}
+		DialogueCorpus corpus = null;
+		for (int i = 0; i < roots.size(); i++) {
+			if (roots.get(i).equals(corpusRoot)) {
+				corpus = corpora.get(i);
+			} else {
+				corpora.get(i).writeToFile(new File(roots.get(i) + ".corpus"));
+			}
+		}
+		return corpus;
+	}
+
 	/**
 	 * Run a test
 	 * 
@@ -1302,6 +1635,9 @@ public class AlignmentTester<X extends DialogueUnit> {
 		String[] unit = { "turn", /* "tuco", "sent" */ };
 		String[] win = { "oth", "sam" /* , "any" */ };
 		int monteCarlo = 0; // number of repetitions for MC
+		int numShards = 0; // if >0, just split the corpora into this many shards
+		int permutations = 0; // if >0, use a permutation test with this many replicates instead of MC
+		boolean plotGraphs = false;
 
 		for (int i = 0; i < args.length; i++) {
 			if (args[i].startsWith("-C")) {
@@ -1322,7 +1658,38 @@ public class AlignmentTester<X extends DialogueUnit> {
 			} else if (args[i].startsWith("-M")) {
 				monteCarlo = Integer.parseInt(args[i].replaceFirst("-M", ""));
 				System.out.println("Got monte-carlo rounds: " + monteCarlo);
+			} else if (args[i].startsWith("-K")) {
+				numShards = Integer.parseInt(args[i].replaceFirst("-K", ""));
+				System.out.println("Got number of shards: " + numShards);
+			} else if (args[i].startsWith("-N")) {
+				permutations = Integer.parseInt(args[i].replaceFirst("-N", ""));
+				System.out.println("Got permutation test replicates: " + permutations);
+			} else if (args[i].equals("-P")) {
+				setSaveResults(true);
+				System.out.println("Saving results for merging");
+			} else if (args[i].equals("-Q")) {
+				setRetainScores(false);
+				System.out.println("Keeping streaming statistics only");
+			} else if (args[i].startsWith("-G")) {
+				// -Gdir or -Gdir,svg
+				String[] plot = args[i].replaceFirst("-G", "").split(",");
+				setPlotOutput(new File(plot[0]), (plot.length > 1 ? plot[1] : ScorePlotter.PNG));
+				plotGraphs = true;
+				System.out.println("Writing graphs to " + plotDir + " as " + plotFormat);
+			}
+		}
+
+		if (numShards > 0) {
+			// write shards (e.g. dcpse.shard0of4.corpus) to be run separately with -Cdcpse.shard0of4 -R -P etc, and
+			// merged with AlignmentResults
+			for (int i = 0; i < corpus.length; i++) {
+				File corpusFile = new File(base[i % base.length] + corpus[i] + ".corpus");
+				DialogueCorpus c = DialogueCorpus.readFromFile(corpusFile);
+				if ((c == null) || (c.writeShards(corpusFile, numShards) == null)) {
+					System.err.println("Failed to write shards for " + corpusFile);
+				}
 			}
+			return;
 		}
 
 		for (int i = 0; i < corpus.length; i++) {
@@ -1333,13 +1700,16 @@ public class AlignmentTester<X extends DialogueUnit> {
 							// no point doing random on same-person case
 							if (rand[j].isEmpty() || (!rand[j].contains("s2me") && !win[m].equals("sam"))
 									|| (rand[j].contains("s2me") && win[m].equals("sam"))) {
-								if ((monteCarlo < 1) || rand[j].isEmpty()) {
+								if ((permutations > 0) && !rand[j].isEmpty()) {
+									runPermutationTest(base[i % base.length], corpus[i], rand[j], sim[k], unit[l],
+											win[m], permutations);
+								} else if ((monteCarlo < 1) || rand[j].isEmpty()) {
 									runTest(base[i % base.length], corpus[i], rand[j], sim[k], unit[l], win[m], -1,
-											true, false);
+											true, plotGraphs);
 								} else {
 									for (int mc = 0; mc < monteCarlo; mc++) {
 										runTest(base[i % base.length], corpus[i], rand[j], sim[k], unit[l], win[m], mc,
-												true, false);
+												true, plotGraphs);
 									}
 								}
 							}
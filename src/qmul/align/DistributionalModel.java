@@ -0,0 +1,548 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Matthew Purver, Queen Mary University of London - initial API and implementation
+ ******************************************************************************/
+package qmul.align;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import qmul.corpus.Dialogue;
+import qmul.corpus.DialogueCorpus;
+import qmul.corpus.DialogueSentence;
+import qmul.util.parse.PennTreebankTokenizer;
+import edu.stanford.nlp.ling.HasWord;
+
+/**
+ * A distributional word space built from a {@link DialogueCorpus} itself, so that semantic similarity needs no web
+ * service: positive PMI of co-occurrence within a window of words in the same sentence, optionally reduced to a few
+ * hundred dimensions by truncated SVD (LSA-style, vectors are U*S). Vectors are stored normalised, so cosine similarity
+ * is a dot product, as floats in a file which is memory-mapped for use.
+ *
+ * @author mpurver
+ */
+public class DistributionalModel {
+
+	private static final int MAGIC = 0x50504d49;
+	private static final int VERSION = 1;
+
+	private static final int OVERSAMPLE = 10;
+	private static final int POWER_ITERATIONS = 2;
+
+	private HashMap<String, Integer> index = new HashMap<String, Integer>();
+	private int dims;
+	private FloatBuffer vectors;
+
+	/**
+	 * Map a model built by build()
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public DistributionalModel(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if ((raf.readInt() != MAGIC) || (raf.readInt() != VERSION)) {
+				throw new IOException("Not a distributional model (or wrong version): " + file);
+			}
+			byte[] header = new byte[raf.readInt()];
+			raf.readFully(header);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+			int n = in.readInt();
+			dims = in.readInt();
+			for (int i = 0; i < n; i++) {
+				index.put(in.readUTF(), i);
+			}
+			long start = headerEnd(header.length);
+			vectors = raf.getChannel().map(MapMode.READ_ONLY, start, raf.length() - start).asFloatBuffer();
+			System.out.println("Mapped distributional model " + file + " with " + n + " words, " + dims + " dimensions");
+		} finally {
+			// the mapping stays valid after closing
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the number of words with vectors
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return the vector length
+	 */
+	public int getDimensions() {
+		return dims;
+	}
+
+	/**
+	 * @param word
+	 * @return a copy of the (unit-length) vector for word (case-insensitive), or null if it has none
+	 */
+	public float[] getVector(String word) {
+		Integer i = index.get(word.toLowerCase());
+		if (i == null) {
+			return null;
+		}
+		float[] v = new float[dims];
+		for (int d = 0, p = i * dims; d < dims; d++) {
+			v[d] = vectors.get(p + d);
+		}
+		return v;
+	}
+
+	/**
+	 * @param w1
+	 * @param w2
+	 * @return the cosine similarity of the two words, NaN if either has no vector
+	 */
+	public double similarity(String w1, String w2) {
+		float[] v1 = getVector(w1);
+		float[] v2 = getVector(w2);
+		return (((v1 == null) || (v2 == null)) ? Double.NaN : dot(v1, v2));
+	}
+
+	/**
+	 * @param v1
+	 * @param v2
+	 * @return the dot product, i.e. cosine similarity for vectors from getVector()
+	 */
+	public static double dot(float[] v1, float[] v2) {
+		double sum = 0.0;
+		for (int d = 0; d < v1.length; d++) {
+			sum += v1[d] * v2[d];
+		}
+		return sum;
+	}
+
+	private static long headerEnd(int headerLength) {
+		long end = 12 + headerLength;
+		return ((end + 3) / 4) * 4;
+	}
+
+	/**
+	 * Build a model from a corpus and write it to file
+	 *
+	 * @param corpus
+	 * @param file
+	 * @param window
+	 *            co-occurrence window: words up to this many positions apart in a sentence
+	 * @param minCount
+	 *            ignore words occurring fewer times than this
+	 * @param dims
+	 *            the number of SVD dimensions to keep, which must be positive; if the vocabulary is no bigger than this,
+	 *            the full PPMI vectors are kept instead (full PPMI vectors for a larger vocabulary would need a dense
+	 *            vocabulary-squared matrix, in memory and on disk, so aren't allowed)
+	 * @throws IOException
+	 */
+	public static void build(DialogueCorpus corpus, File file, int window, int minCount, int dims) throws IOException {
+		if (dims <= 0) {
+			throw new IllegalArgumentException("number of dimensions must be positive, not " + dims);
+		}
+		// the corpus as lowercased word sequences, and the vocabulary, commonest first
+		ArrayList<String[]> sents = new ArrayList<String[]>();
+		final HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		for (Dialogue d : corpus.getDialogues()) {
+			for (DialogueSentence s : d.getSents()) {
+				List<? extends HasWord> tokens = s.getTokens();
+				if (tokens == null) {
+					tokens = new PennTreebankTokenizer(false).getWordsFromString(s.getTranscription());
+				}
+				ArrayList<String> words = new ArrayList<String>();
+				for (HasWord hw : tokens) {
+					String w = hw.word().toLowerCase();
+					if (w.matches(".*[\\p{L}\\p{N}].*")) {
+						words.add(w);
+						counts.put(w, (counts.containsKey(w) ? counts.get(w) + 1 : 1));
+					}
+				}
+				sents.add(words.toArray(new String[words.size()]));
+			}
+		}
+		ArrayList<String> vocab = new ArrayList<String>();
+		for (String w : counts.keySet()) {
+			if (counts.get(w) >= minCount) {
+				vocab.add(w);
+			}
+		}
+		Collections.sort(vocab, new Comparator<String>() {
+			@Override
+			public int compare(String w1, String w2) {
+				int c = counts.get(w2).compareTo(counts.get(w1));
+				return (c != 0 ? c : w1.compareTo(w2));
+			}
+		});
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		for (String w : vocab) {
+			ids.put(w, ids.size());
+		}
+		int n = vocab.size();
+		System.out.println("Counting co-occurrences for " + n + " words in " + sents.size() + " sentences ...");
+
+		// symmetric co-occurrence counts
+		ArrayList<HashMap<Integer, Integer>> cooc = new ArrayList<HashMap<Integer, Integer>>();
+		for (int i = 0; i < n; i++) {
+			cooc.add(new HashMap<Integer, Integer>());
+		}
+		for (String[] words : sents) {
+			int[] w = new int[words.length];
+			for (int i = 0; i < words.length; i++) {
+				Integer id = ids.get(words[i]);
+				w[i] = (id == null ? -1 : id);
+			}
+			for (int i = 0; i < w.length; i++) {
+				for (int j = i + 1; (j < w.length) && (j <= i + window); j++) {
+					if ((w[i] >= 0) && (w[j] >= 0)) {
+						increment(cooc.get(w[i]), w[j]);
+						increment(cooc.get(w[j]), w[i]);
+					}
+				}
+			}
+		}
+
+		// PPMI as a sparse row matrix
+		double total = 0.0;
+		double[] rowSum = new double[n];
+		for (int i = 0; i < n; i++) {
+			for (int c : cooc.get(i).values()) {
+				rowSum[i] += c;
+			}
+			total += rowSum[i];
+		}
+		int[] rowPtr = new int[n + 1];
+		ArrayList<Integer> colList = new ArrayList<Integer>();
+		ArrayList<Float> valList = new ArrayList<Float>();
+		for (int i = 0; i < n; i++) {
+			ArrayList<Integer> cols = new ArrayList<Integer>(cooc.get(i).keySet());
+			Collections.sort(cols);
+			for (int j : cols) {
+				double pmi = Math.log(cooc.get(i).get(j) * total / (rowSum[i] * rowSum[j]));
+				if (pmi > 0) {
+					colList.add(j);
+					valList.add((float) pmi);
+				}
+			}
+			rowPtr[i + 1] = colList.size();
+			cooc.set(i, null);
+		}
+		int[] cols = new int[colList.size()];
+		float[] vals = new float[valList.size()];
+		for (int p = 0; p < cols.length; p++) {
+			cols[p] = colList.get(p);
+			vals[p] = valList.get(p);
+		}
+		System.out.println("PPMI matrix has " + cols.length + " non-zero cells");
+
+		// the word vectors
+		double[][] vecs;
+		if (dims >= n) {
+			// small enough to keep whole
+			vecs = new double[n][n];
+			for (int i = 0; i < n; i++) {
+				for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+					vecs[i][cols[p]] = vals[p];
+				}
+			}
+		} else {
+			System.out.println("Truncated SVD to " + dims + " dimensions ...");
+			vecs = truncatedSVD(n, rowPtr, cols, vals, dims, new Random(n));
+		}
+
+		// write the vocabulary, then the normalised vectors, dropping any empty ones
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		ArrayList<Integer> keep = new ArrayList<Integer>();
+		for (int i = 0; i < n; i++) {
+			if (normalise(vecs[i])) {
+				keep.add(i);
+			}
+		}
+		header.writeInt(keep.size());
+		header.writeInt(vecs.length == 0 ? 0 : vecs[0].length);
+		for (int i : keep) {
+			header.writeUTF(vocab.get(i));
+		}
+		header.close();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+		for (long i = 12 + bytes.size(); i < headerEnd(bytes.size()); i++) {
+			out.writeByte(0);
+		}
+		for (int i : keep) {
+			for (double x : vecs[i]) {
+				out.writeFloat((float) x);
+			}
+		}
+		out.close();
+		System.out.println("Wrote " + keep.size() + " word vectors to " + file);
+	}
+
+	private static void increment(HashMap<Integer, Integer> map, int key) {
+		Integer c = map.get(key);
+		map.put(key, (c == null ? 1 : c + 1));
+	}
+
+	/**
+	 * @return false if v is all zeros
+	 */
+	private static boolean normalise(double[] v) {
+		double norm = 0.0;
+		for (double x : v) {
+			norm += x * x;
+		}
+		if (norm == 0.0) {
+			return false;
+		}
+		norm = Math.sqrt(norm);
+		for (int d = 0; d < v.length; d++) {
+			v[d] /= norm;
+		}
+		return true;
+	}
+
+	/**
+	 * Randomised truncated SVD (Halko, Martinsson &amp; Tropp 2011) of a sparse n x n matrix X: find an orthonormal basis
+	 * Q for the range of X (via a random projection plus power iterations), then the SVD of the small matrix Q'X via the
+	 * eigendecomposition of Q'XX'Q
+	 *
+	 * @return U*S for the top k singular values (n x k)
+	 */
+	private static double[][] truncatedSVD(int n, int[] rowPtr, int[] cols, float[] vals, int k, Random random) {
+		int l = Math.min(n, k + OVERSAMPLE);
+		double[][] y = new double[n][l];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < l; j++) {
+				y[i][j] = random.nextGaussian();
+			}
+		}
+		y = multiply(n, rowPtr, cols, vals, y, false);
+		orthonormalise(y);
+		for (int q = 0; q < POWER_ITERATIONS; q++) {
+			double[][] z = multiply(n, rowPtr, cols, vals, y, true);
+			orthonormalise(z);
+			y = multiply(n, rowPtr, cols, vals, z, false);
+			orthonormalise(y);
+		}
+		// B' = X'Q, and BB' = Q'XX'Q
+		double[][] bt = multiply(n, rowPtr, cols, vals, y, true);
+		double[][] bbt = new double[l][l];
+		for (int i = 0; i < n; i++) {
+			for (int a = 0; a < l; a++) {
+				double x = bt[i][a];
+				if (x != 0.0) {
+					for (int b = a; b < l; b++) {
+						bbt[a][b] += x * bt[i][b];
+					}
+				}
+			}
+		}
+		for (int a = 0; a < l; a++) {
+			for (int b = 0; b < a; b++) {
+				bbt[a][b] = bbt[b][a];
+			}
+		}
+		double[][] v = new double[l][l];
+		final double[] eig = jacobi(bbt, v);
+		Integer[] order = new Integer[l];
+		for (int a = 0; a < l; a++) {
+			order[a] = a;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(eig[b], eig[a]);
+			}
+		});
+		// U*S = QV*S
+		double[][] us = new double[n][k];
+		for (int d = 0; d < k; d++) {
+			int a = order[d];
+			double s = Math.sqrt(Math.max(eig[a], 0.0));
+			for (int i = 0; i < n; i++) {
+				double sum = 0.0;
+				for (int b = 0; b < l; b++) {
+					sum += y[i][b] * v[b][a];
+				}
+				us[i][d] = sum * s;
+			}
+		}
+		return us;
+	}
+
+	/**
+	 * @return XM, or X'M if transpose
+	 */
+	private static double[][] multiply(int n, int[] rowPtr, int[] cols, float[] vals, double[][] m, boolean transpose) {
+		int l = m[0].length;
+		double[][] out = new double[n][l];
+		for (int i = 0; i < n; i++) {
+			for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+				double[] src = (transpose ? m[i] : m[cols[p]]);
+				double[] dst = (transpose ? out[cols[p]] : out[i]);
+				double x = vals[p];
+				for (int j = 0; j < l; j++) {
+					dst[j] += x * src[j];
+				}
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Modified Gram-Schmidt on the columns of m (in place); columns which vanish are left as zeros
+	 */
+	private static void orthonormalise(double[][] m) {
+		int n = m.length;
+		int l = m[0].length;
+		for (int j = 0; j < l; j++) {
+			for (int k = 0; k < j; k++) {
+				double dot = 0.0;
+				for (int i = 0; i < n; i++) {
+					dot += m[i][j] * m[i][k];
+				}
+				for (int i = 0; i < n; i++) {
+					m[i][j] -= dot * m[i][k];
+				}
+			}
+			double norm = 0.0;
+			for (int i = 0; i < n; i++) {
+				norm += m[i][j] * m[i][j];
+			}
+			norm = Math.sqrt(norm);
+			for (int i = 0; i < n; i++) {
+				m[i][j] = (norm > 1e-12 ? m[i][j] / norm : 0.0);
+			}
+		}
+	}
+
+	/**
+	 * Cyclic Jacobi eigendecomposition of a small symmetric matrix a (destroyed)
+	 *
+	 * @param v
+	 *            set to the eigenvectors (as columns)
+	 * @return the eigenvalues
+	 */
+	private static double[] jacobi(double[][] a, double[][] v) {
+		int l = a.length;
+		for (int i = 0; i < l; i++) {
+			Arrays.fill(v[i], 0.0);
+			v[i][i] = 1.0;
+		}
+		for (int sweep = 0; sweep < 100; sweep++) {
+			double off = 0.0;
+			double diag = 0.0;
+			for (int p = 0; p < l; p++) {
+				diag += a[p][p] * a[p][p];
+				for (int q = p + 1; q < l; q++) {
+					off += a[p][q] * a[p][q];
+				}
+			}
+			if (off <= 1e-30 * diag) {
+				break;
+			}
+			for (int p = 0; p < l; p++) {
+				for (int q = p + 1; q < l; q++) {
+					if (a[p][q] == 0.0) {
+						continue;
+					}
+					double theta = (a[q][q] - a[p][p]) / (2.0 * a[p][q]);
+					double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1.0));
+					if (theta == 0.0) {
+						t = 1.0;
+					}
+					double c = 1.0 / Math.sqrt(t * t + 1.0);
+					double s = t * c;
+					for (int k = 0; k < l; k++) {
+						double akp = a[k][p];
+						double akq = a[k][q];
+						a[k][p] = c * akp - s * akq;
+						a[k][q] = s * akp + c * akq;
+					}
+					for (int k = 0; k < l; k++) {
+						double apk = a[p][k];
+						double aqk = a[q][k];
+						a[p][k] = c * apk - s * aqk;
+						a[q][k] = s * apk + c * aqk;
+					}
+					for (int k = 0; k < l; k++) {
+						double vkp = v[k][p];
+						double vkq = v[k][q];
+						v[k][p] = c * vkp - s * vkq;
+						v[k][q] = s * vkp + c * vkq;
+					}
+				}
+			}
+		}
+		double[] eig = new double[l];
+		for (int i = 0; i < l; i++) {
+			eig[i] = a[i][i];
+		}
+		return eig;
+	}
+
+	/**
+	 * Build a model: DistributionalModel [-w&lt;window&gt;] [-m&lt;minCount&gt;] [-d&lt;dims&gt;] &lt;corpus file&gt;
+	 * &lt;model file&gt;
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int window = 5;
+		int minCount = 2;
+		int dims = 300;
+		ArrayList<String> files = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("-w")) {
+				window = Integer.parseInt(arg.substring(2));
+			} else if (arg.startsWith("-m")) {
+				minCount = Integer.parseInt(arg.substring(2));
+			} else if (arg.startsWith("-d")) {
+				dims = Integer.parseInt(arg.substring(2));
+			} else {
+				files.add(arg);
+			}
+		}
+		if ((files.size() != 2) || (dims <= 0)) {
+			System.out.println("Usage: DistributionalModel [-w<window>] [-m<minCount>] [-d<dims>] <corpus file> <model file>");
+			System.exit(0);
+		}
+		DialogueCorpus corpus = DialogueCorpus.readFromFile(new File(files.get(0)));
+		if (corpus == null) {
+			System.out.println("Couldn't read corpus " + files.get(0));
+			System.exit(0);
+		}
+		try {
+			build(corpus, new File(files.get(1)), window, minCount, dims);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+
+}
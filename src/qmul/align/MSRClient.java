@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Matthew Purver, Queen Mary University of London - initial API and implementation
+ ******************************************************************************/
+package qmul.align;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import csli.util.Pair;
+
+/**
+ * A client for the RPI Measures of Semantic Relatedness (MSR) web service, which scores every term in one list against
+ * every term in another. Each job takes three steps: submit the term lists, poll the output page until it reports
+ * "Step N of N complete", then fetch the tab-separated scores. Requests go in bulk (long term lists are split into
+ * chunks of at most getMaxTerms() terms), jobs run on a bounded pool of threads, polling backs off exponentially, and
+ * connections are kept alive between requests (responses are always read to the end so that they can be reused).
+ *
+ * @author mpurver
+ */
+public class MSRClient {
+
+	public static final String MSR_SERVER = "http://cwl-projects.cogsci.rpi.edu";
+	public static final String MSR_SCRIPT = "/cgi-bin/msr/msr.cgi";
+
+	private static final Pattern LINK = Pattern.compile("^\\s*<a\\s+href=(.+?)>.*");
+	private static final Pattern COMPLETE = Pattern.compile("Step (\\d+) of \\1 complete");
+
+	private final String server;
+	private final String script;
+	private final ExecutorService executor;
+	private int maxTerms = 250;
+	private long initialDelay = 500;
+	private long maxDelay = 30000;
+	private long timeout = 30 * 60 * 1000;
+	private int numRequests = 0;
+
+	/**
+	 * A client for the RPI server, with 4 concurrent jobs
+	 */
+	public MSRClient() {
+		this(MSR_SERVER, MSR_SCRIPT, 4);
+	}
+
+	/**
+	 * @param server
+	 *            the server URL, e.g. MSR_SERVER (or a local stub for testing)
+	 * @param script
+	 *            the path of the query script on the server, e.g. MSR_SCRIPT
+	 * @param maxJobs
+	 *            the maximum number of jobs to run at once
+	 */
+	public MSRClient(String server, String script, int maxJobs) {
+		this.server = server;
+		this.script = script;
+		this.executor = Executors.newFixedThreadPool(Math.max(maxJobs, 1), new ThreadFactory() {
+			private int n = 0;
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, MSRClient.class.getSimpleName() + "-" + n++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * @return the maximum number of terms in each list sent in one job
+	 */
+	public int getMaxTerms() {
+		return maxTerms;
+	}
+
+	/**
+	 * @param maxTerms
+	 *            the maximum number of terms in each list sent in one job (longer lists are split, keeping URLs to a
+	 *            length servers will accept)
+	 */
+	public void setMaxTerms(int maxTerms) {
+		this.maxTerms = Math.max(maxTerms, 1);
+	}
+
+	/**
+	 * @param initialDelay
+	 *            the delay in ms before re-polling a job's output page the first time, doubled each time after
+	 * @param maxDelay
+	 *            the maximum delay in ms between polls
+	 * @param timeout
+	 *            the time in ms after which to give up on a job
+	 */
+	public void setPolling(long initialDelay, long maxDelay, long timeout) {
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return the number of HTTP requests made so far
+	 */
+	public synchronized int getNumRequests() {
+		return numRequests;
+	}
+
+	/**
+	 * Submit jobs scoring every term in terms against every term in terms2, and wait for them all to finish
+	 *
+	 * @param method
+	 *            the MSR measure name, e.g. "LSA-tasa"
+	 * @param terms
+	 * @param terms2
+	 * @return the scores (NaN where the service says "none", or gives something that isn't a number) keyed by term
+	 *         pair as returned by the service
+	 * @throws IOException
+	 *             if any job fails
+	 */
+	public HashMap<Pair<String, String>, Double> getSimilarities(String method, Collection<String> terms,
+			Collection<String> terms2) throws IOException {
+		ArrayList<Future<HashMap<Pair<String, String>, Double>>> futures = new ArrayList<Future<HashMap<Pair<String, String>, Double>>>();
+		for (List<String> chunk : split(terms)) {
+			for (List<String> chunk2 : split(terms2)) {
+				futures.add(submit(method, chunk, chunk2));
+			}
+		}
+		HashMap<Pair<String, String>, Double> sims = new HashMap<Pair<String, String>, Double>();
+		try {
+			for (Future<HashMap<Pair<String, String>, Double>> future : futures) {
+				sims.putAll(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for MSR jobs");
+		} catch (ExecutionException e) {
+			for (Future<HashMap<Pair<String, String>, Double>> future : futures) {
+				future.cancel(true);
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("MSR job failed: " + e.getCause());
+		}
+		return sims;
+	}
+
+	/**
+	 * Submit a single job, without splitting the term lists
+	 *
+	 * @param method
+	 *            the MSR measure name, e.g. "LSA-tasa"
+	 * @param terms
+	 * @param terms2
+	 * @return the scores (NaN where the service says "none", or gives something that isn't a number) keyed by term
+	 *         pair as returned by the service
+	 */
+	public Future<HashMap<Pair<String, String>, Double>> submit(final String method, final Collection<String> terms,
+			final Collection<String> terms2) {
+		return executor.submit(new Callable<HashMap<Pair<String, String>, Double>>() {
+			@Override
+			public HashMap<Pair<String, String>, Double> call() throws Exception {
+				return runJob(method, terms, terms2);
+			}
+		});
+	}
+
+	/**
+	 * Stop the job threads
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private List<List<String>> split(Collection<String> terms) {
+		List<List<String>> chunks = new ArrayList<List<String>>();
+		List<String> chunk = new ArrayList<String>();
+		for (String term : terms) {
+			if (chunk.size() == maxTerms) {
+				chunks.add(chunk);
+				chunk = new ArrayList<String>();
+			}
+			chunk.add(term);
+		}
+		if (!chunk.isEmpty()) {
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	private HashMap<Pair<String, String>, Double> runJob(String method, Collection<String> terms,
+			Collection<String> terms2) throws IOException, InterruptedException {
+		// step 1: submit the query, get the output page
+		String output = null;
+		for (String line : get(server + script + "?msr=" + encode(method) + "&terms=" + encode(quote(terms))
+				+ "&terms2=" + encode(quote(terms2)))) {
+			Matcher m = LINK.matcher(line);
+			if ((output == null) && m.matches()) {
+				output = server + m.group(1);
+			}
+		}
+		if (output == null) {
+			throw new IOException("No output link in MSR response for " + terms + " " + terms2);
+		}
+		// step 2: poll the output page until complete
+		long start = System.currentTimeMillis();
+		long delay = initialDelay;
+		while (!isComplete(get(output))) {
+			if (System.currentTimeMillis() - start > timeout) {
+				throw new IOException("Timed out waiting for MSR output " + output);
+			}
+			Thread.sleep(delay);
+			delay = Math.min(2 * delay, maxDelay);
+		}
+		// step 3: get the scores - tab-separated text, despite the .xls suffix
+		HashMap<Pair<String, String>, Double> sims = new HashMap<Pair<String, String>, Double>();
+		for (String line : get(output.endsWith(".txt") ? output.substring(0, output.length() - 4) : output)) {
+			if (!line.trim().isEmpty()) {
+				String[] fields = line.split("\\t");
+				if (fields.length < 3) {
+					continue;
+				}
+				sims.put(new Pair<String, String>(fields[0], fields[1]), parseScore(fields[2].trim()));
+			}
+		}
+		return sims;
+	}
+
+	/**
+	 * @param score
+	 * @return the score, or NaN if it is "none" or not a number (so one bad score doesn't sink the whole job)
+	 */
+	private static double parseScore(String score) {
+		if (score.equalsIgnoreCase("none")) {
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(score);
+		} catch (NumberFormatException e) {
+			System.err.println("WARNING: unparsable MSR score " + score);
+			return Double.NaN;
+		}
+	}
+
+	private boolean isComplete(List<String> lines) {
+		for (String line : lines) {
+			if (COMPLETE.matcher(line).find()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the lines of the response, read to the end so that the connection can be reused
+	 */
+	private List<String> get(String urlStr) throws IOException {
+		synchronized (this) {
+			numRequests++;
+		}
+		HttpURLConnection conn = (HttpURLConnection) new URL(urlStr).openConnection();
+		int code = conn.getResponseCode();
+		if (code >= 400) {
+			InputStream err = conn.getErrorStream();
+			if (err != null) {
+				drain(err);
+			}
+			throw new IOException("HTTP " + code + " from " + urlStr);
+		}
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			br.close();
+		}
+		return lines;
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buf = new byte[4096];
+		while (in.read(buf) >= 0) {
+			// discard
+		}
+		in.close();
+	}
+
+	private static String encode(String s) throws UnsupportedEncodingException {
+		return URLEncoder.encode(s, "UTF-8");
+	}
+
+	/**
+	 * @return the terms as a quoted list, e.g. ['a', "b's"]
+	 */
+	private static String quote(Collection<String> terms) {
+		ArrayList<String> out = new ArrayList<String>();
+		for (String term : terms) {
+			if (term.contains("'")) {
+				out.add("\"" + term.replaceAll("\"", "") + "\"");
+			} else {
+				out.add("'" + term + "'");
+			}
+		}
+		return out.toString();
+	}
+
+}
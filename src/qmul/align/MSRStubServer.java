@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Matthew Purver, Queen Mary University of London - initial API and implementation
+ ******************************************************************************/
+package qmul.align;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import csli.util.Pair;
+
+/**
+ * A local stand-in for the RPI MSR web service, for trying out {@link MSRClient} without the real server: it takes
+ * jobs in the same three steps (query, output page polled until "Step N of N complete", tab-separated scores) and
+ * answers with made-up but repeatable scores. Terms containing "none" get the score "none", and terms containing "bad"
+ * get an unparsable score.
+ *
+ * @author mpurver
+ */
+public class MSRStubServer {
+
+	private static final Pattern TERM = Pattern.compile("'([^']*)'|\"([^\"]*)\"");
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final HashMap<String, String> scores = new HashMap<String, String>();
+	private final HashMap<String, Integer> polls = new HashMap<String, Integer>();
+	private final AtomicInteger numJobs = new AtomicInteger(0);
+	private int pollsPerJob = 2;
+
+	/**
+	 * @param port
+	 *            the port to listen on (0 for any free one)
+	 * @throws IOException
+	 */
+	public MSRStubServer(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext(MSRClient.MSR_SCRIPT, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				query(exchange);
+			}
+		});
+		server.createContext("/msr/output/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				output(exchange);
+			}
+		});
+		server.setExecutor(executor);
+	}
+
+	/**
+	 * @param pollsPerJob
+	 *            the number of times each job's output page must be polled before it is complete (default 2)
+	 */
+	public void setPollsPerJob(int pollsPerJob) {
+		this.pollsPerJob = pollsPerJob;
+	}
+
+	/**
+	 * @return the server URL to give to {@link MSRClient}
+	 */
+	public String getURL() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * @return the number of jobs submitted so far
+	 */
+	public int getNumJobs() {
+		return numJobs.get();
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	/**
+	 * @param a
+	 * @param b
+	 * @return the score the stub gives for a term pair
+	 */
+	public static String getScore(String a, String b) {
+		if (a.contains("none") || b.contains("none")) {
+			return "none";
+		}
+		if (a.contains("bad") || b.contains("bad")) {
+			return "n/a";
+		}
+		if (a.equals(b)) {
+			return "1.0";
+		}
+		return Double.toString(((a + "\t" + b).hashCode() & 0xffff) / 65536.0);
+	}
+
+	private void query(HttpExchange exchange) throws IOException {
+		HashMap<String, String> params = getParams(exchange.getRequestURI().getRawQuery());
+		List<String> terms = getTerms(params.get("terms"));
+		List<String> terms2 = getTerms(params.get("terms2"));
+		StringBuilder text = new StringBuilder();
+		for (String a : terms) {
+			for (String b : terms2) {
+				text.append(a + "\t" + b + "\t" + getScore(a, b) + "\n");
+			}
+		}
+		String job = "job" + numJobs.incrementAndGet() + ".xls";
+		synchronized (this) {
+			scores.put(job, text.toString());
+			polls.put(job, 0);
+		}
+		respond(exchange, 200, "<html><body>\nQuery submitted\n<a href=/msr/output/" + job
+				+ ".txt>results</a>\n</body></html>\n");
+	}
+
+	private void output(HttpExchange exchange) throws IOException {
+		String name = exchange.getRequestURI().getPath().replaceFirst(".*/", "");
+		if (name.endsWith(".txt")) {
+			String job = name.substring(0, name.length() - 4);
+			int n;
+			synchronized (this) {
+				if (!polls.containsKey(job)) {
+					respond(exchange, 404, "no such job\n");
+					return;
+				}
+				n = polls.get(job) + 1;
+				polls.put(job, n);
+			}
+			respond(exchange, 200, "Step " + Math.min(n, pollsPerJob) + " of " + pollsPerJob + " complete\n");
+		} else {
+			String text;
+			synchronized (this) {
+				text = scores.get(name);
+			}
+			if (text == null) {
+				respond(exchange, 404, "no such job\n");
+			} else {
+				respond(exchange, 200, text);
+			}
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int code, String text) throws IOException {
+		byte[] bytes = text.getBytes("UTF-8");
+		exchange.sendResponseHeaders(code, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private static HashMap<String, String> getParams(String query) throws UnsupportedEncodingException {
+		HashMap<String, String> params = new HashMap<String, String>();
+		if (query != null) {
+			for (String param : query.split("&")) {
+				int eq = param.indexOf('=');
+				if (eq > 0) {
+					params.put(param.substring(0, eq), URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+				}
+			}
+		}
+		return params;
+	}
+
+	/**
+	 * @param list
+	 *            a quoted list as sent by {@link MSRClient}, e.g. ['a', "b's"]
+	 * @return the terms
+	 */
+	private static List<String> getTerms(String list) {
+		ArrayList<String> terms = new ArrayList<String>();
+		if (list != null) {
+			Matcher m = TERM.matcher(list);
+			while (m.find()) {
+				terms.add(m.group(1) != null ? m.group(1) : m.group(2));
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Start a stub server and run a few jobs against it
+	 *
+	 * @param args
+	 *            optionally, a port to leave the server running on (for testing other clients) rather than just
+	 *            running the demo
+	 */
+	public static void main(String[] args) {
+		try {
+			MSRStubServer stub = new MSRStubServer(args.length > 0 ? Integer.parseInt(args[0]) : 0);
+			stub.start();
+			if (args.length > 0) {
+				System.out.println("MSR stub server running at " + stub.getURL() + MSRClient.MSR_SCRIPT);
+				return;
+			}
+			MSRClient client = new MSRClient(stub.getURL(), MSRClient.MSR_SCRIPT, 2);
+			client.setMaxTerms(2);
+			client.setPolling(10, 100, 10000);
+			List<String> terms = Arrays.asList("cat", "dog", "none", "bad", "don't");
+			HashMap<Pair<String, String>, Double> sims = client.getSimilarities("LSA-tasa", terms, terms);
+			for (Pair<String, String> pair : sims.keySet()) {
+				System.out.println(pair.first() + "\t" + pair.second() + "\t" + sims.get(pair));
+			}
+			System.out.println(stub.getNumJobs() + " jobs, " + client.getNumRequests() + " requests");
+			client.shutdown();
+			stub.stop();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
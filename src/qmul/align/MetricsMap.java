@@ -1,5 +1,6 @@
 package qmul.align;
 
+import java.io.Serializable;
 import java.util.HashMap;
 
 /**
@@ -9,7 +10,9 @@ import java.util.HashMap;
  */
 public class MetricsMap extends HashMap<String, MetricsMap.Metrics> {
 
-	public class Metrics {
+	public static class Metrics implements Serializable {
+
+		private static final long serialVersionUID = -2174370838373716826L;
 
 		int numUnits;
 		int numWords;
@@ -262,4 +265,27 @@ public class MetricsMap extends HashMap<String, MetricsMap.Metrics> {
 		get(key).setNumWordRates(numWordRates);
 	}
 
+	/**
+	 * Add in the metrics from another map (e.g. one built over another part of the same corpus): counts and totals are
+	 * summed for keys in both
+	 * 
+	 * @param other
+	 */
+	public void addAll(MetricsMap other) {
+		for (String key : other.keySet()) {
+			Metrics m = other.get(key);
+			if (!containsKey(key)) {
+				put(key, new Metrics());
+			}
+			Metrics t = get(key);
+			t.numUnits += m.numUnits;
+			t.numWords += m.numWords;
+			t.numTokens += m.numTokens;
+			t.turnOffset += m.turnOffset;
+			t.numTurnOffsets += m.numTurnOffsets;
+			t.wordRate += m.wordRate;
+			t.numWordRates += m.numWordRates;
+		}
+	}
+
 }
\ No newline at end of file
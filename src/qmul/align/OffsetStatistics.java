@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Matthew Purver, Queen Mary University of London - initial API and implementation
+ ******************************************************************************/
+package qmul.align;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import qmul.util.QuantileSketch;
+import qmul.util.RunningStatistics;
+
+/**
+ * Streaming similarity score statistics (count, sum, mean, variance, min, max) for each window offset (i-1, i-2 etc),
+ * e.g. for one speaker or one genre: a {@link RunningStatistics} per offset, so that memory doesn't grow with the
+ * number of scores. Optionally keeps a {@link QuantileSketch} per offset too. Statistics from different runs (e.g. over
+ * corpus shards) can be merged.
+ *
+ * @author mpurver
+ */
+public class OffsetStatistics implements Serializable {
+
+	private static final long serialVersionUID = -1873460381227457925L;
+
+	private RunningStatistics[] stats;
+	private boolean quantiles;
+
+	/**
+	 * @param size
+	 *            the number of offsets (e.g. the windower's left window size)
+	 */
+	public OffsetStatistics(int size) {
+		this(size, false);
+	}
+
+	/**
+	 * @param size
+	 *            the number of offsets (e.g. the windower's left window size)
+	 * @param quantiles
+	 *            whether to keep a {@link QuantileSketch} per offset
+	 */
+	public OffsetStatistics(int size, boolean quantiles) {
+		this.quantiles = quantiles;
+		stats = new RunningStatistics[0];
+		grow(size);
+	}
+
+	/**
+	 * A copy of another set of statistics, which can then be added to without affecting the original
+	 *
+	 * @param other
+	 */
+	public OffsetStatistics(OffsetStatistics other) {
+		quantiles = other.quantiles;
+		stats = new RunningStatistics[other.stats.length];
+		for (int i = 0; i < stats.length; i++) {
+			stats[i] = new RunningStatistics(other.stats[i]);
+		}
+	}
+
+	/**
+	 * @return the number of offsets
+	 */
+	public int size() {
+		return stats.length;
+	}
+
+	/**
+	 * @param i
+	 *            the offset
+	 * @param value
+	 *            a score at that offset
+	 */
+	public void add(int i, double value) {
+		if (i >= stats.length) {
+			grow(i + 1);
+		}
+		stats[i].addValue(value);
+	}
+
+	/**
+	 * Merge in the statistics from another run. If this keeps quantiles but other doesn't, they are dropped
+	 *
+	 * @param other
+	 */
+	public void addAll(OffsetStatistics other) {
+		quantiles &= other.quantiles;
+		if (other.stats.length > stats.length) {
+			grow(other.stats.length);
+		}
+		for (int i = 0; i < other.stats.length; i++) {
+			stats[i].addAll(other.stats[i]);
+		}
+	}
+
+	private void grow(int size) {
+		int old = stats.length;
+		stats = Arrays.copyOf(stats, size);
+		for (int i = old; i < size; i++) {
+			stats[i] = new RunningStatistics(quantiles);
+		}
+	}
+
+	/**
+	 * @param i
+	 *            the offset
+	 * @return the number of scores at this offset
+	 */
+	public long getN(int i) {
+		return (i < stats.length ? stats[i].getN() : 0);
+	}
+
+	/**
+	 * @param i
+	 *            the offset
+	 * @return the sum of scores at this offset
+	 */
+	public double getSum(int i) {
+		return (i < stats.length ? stats[i].getSum() : 0.0);
+	}
+
+	/**
+	 * @param i
+	 *            the offset
+	 * @return the mean score at this offset (as sum/n), NaN if none
+	 */
+	public double getMean(int i) {
+		return (getN(i) == 0 ? Double.NaN : stats[i].getSum() / stats[i].getN());
+	}
+
+	/**
+	 * @param i
+	 *            the offset
+	 * @return the (n-1) sample variance of the scores at this offset, NaN if none
+	 */
+	public double getVariance(int i) {
+		return (getN(i) == 0 ? Double.NaN : stats[i].getVariance());
+	}
+
+	/**
+	 * @param i
+	 *            the offset
+	 * @return the sample standard deviation of the scores at this offset, NaN if none
+	 */
+	public double getStandardDeviation(int i) {
+		return Math.sqrt(getVariance(i));
+	}
+
+	/**
+	 * @param i
+	 *            the offset
+	 * @return the minimum score at this offset, NaN if none
+	 */
+	public double getMin(int i) {
+		return (getN(i) == 0 ? Double.NaN : stats[i].getMin());
+	}
+
+	/**
+	 * @param i
+	 *            the offset
+	 * @return the maximum score at this offset, NaN if none
+	 */
+	public double getMax(int i) {
+		return (getN(i) == 0 ? Double.NaN : stats[i].getMax());
+	}
+
+	/**
+	 * @param i
+	 *            the offset
+	 * @param p
+	 *            a percentile between 0 and 100
+	 * @return the approximate p-th percentile of the scores at this offset, NaN if none or not keeping quantiles
+	 */
+	public double getPercentile(int i, double p) {
+		return (i >= stats.length ? Double.NaN : stats[i].getPercentile(p));
+	}
+
+}
@@ -0,0 +1,531 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Matthew Purver, Queen Mary University of London - initial API and implementation
+ ******************************************************************************/
+package qmul.align;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import qmul.corpus.Dialogue;
+import qmul.corpus.DialogueCorpus;
+import qmul.corpus.DialogueSpeaker;
+import qmul.corpus.DialogueTurn;
+import qmul.corpus.RandomCorpus;
+import qmul.util.RunningStatistics;
+import qmul.util.similarity.SimilarityMeasure;
+
+/**
+ * A Monte-Carlo permutation test of other-speaker turn alignment against the {@link RandomCorpus} baselines which keep
+ * one speaker's turns and substitute the other's: RAND_OTHER_TURNS (random1), RAND_BEST_LENGTH_MATCH (random2) and
+ * RAND_BEST_LENGTH_RAND (random3). As these only ever recombine existing turns, the similarity of each fixed-speaker
+ * turn with each turn that could replace its partner's is computed once up front; each replicate then just draws a
+ * random recombination as turn indices and sums the precomputed similarities over an {@link OtherSpeakerTurnWindower}
+ * left window, so thousands of replicates cost about as much as one {@link AlignmentTester} run.
+ *
+ * The statistic is the mean similarity at each window offset (i-1, i-2 etc) over the whole corpus, as in the
+ * {@link AlignmentTester} summary. Only two-speaker dialogues are used. Replacement turns can be restricted to the
+ * same-genre dialogues closest in length, which keeps the precomputation linear in corpus size (for random1, this
+ * approximates drawing from the whole genre).
+ *
+ * @author mpurver
+ */
+public class PermutationTest {
+
+	/**
+	 * One dialogue with one speaker's turns fixed: the turn pattern plus the precomputed similarities between the fixed
+	 * turns and all the candidate turns which could fill the other speaker's slots
+	 */
+	private static class Recombination {
+
+		// for each position, the number of fixed turns and other-speaker slots before it; fixed[p] says which it is
+		private boolean[] fixed;
+		private int[] fixedBefore;
+		private int[] slotsBefore;
+		private int numFixed;
+		private int numSlots;
+		// candidate c's turns are pool indices start[c] to start[c+1]-1
+		private int[] start;
+		private int poolSize;
+		// sim(fixed turn i, pool turn j) at i*poolSize+j, fixed turn on the left (FP) or right (PF)
+		private float[] simFP;
+		private float[] simPF;
+		// per-replicate scratch: pool index for each slot, and used-turn markers
+		private int[] content;
+		private int[] used;
+		private int stamp = 0;
+
+	}
+
+	private Random random = new Random();
+
+	private SimilarityMeasure<DialogueTurn> sim;
+
+	private int windowSize;
+
+	private int randType;
+
+	private boolean bothSpeakers;
+
+	private boolean matchGenre = true;
+
+	private boolean avoidSelf = true;
+
+	private int maxCandidates;
+
+	private boolean symmetric;
+
+	private ArrayList<Recombination> recombinations = new ArrayList<Recombination>();
+
+	private double[] observed;
+
+	private ArrayList<double[]> nullMeans = new ArrayList<double[]>();
+
+	/**
+	 * Set up the test, precomputing all the similarities needed, with genre matching and speaker self-avoidance as in
+	 * {@link AlignmentTester}'s random corpora
+	 *
+	 * @param corpus
+	 *            the raw corpus
+	 * @param sim
+	 *            the turn similarity measure
+	 * @param windowSize
+	 *            the left window size (number of offsets)
+	 * @param randType
+	 *            RandomCorpus.RAND_OTHER_TURNS, RAND_BEST_LENGTH_MATCH or RAND_BEST_LENGTH_RAND
+	 * @param bothSpeakers
+	 *            if true, recombine each dialogue twice, keeping first one speaker and then the other (as
+	 *            {@link AlignmentTester} does for random1 and random3); if false, keep the first speaker only
+	 * @param maxCandidates
+	 *            if >0, only take replacement turns from this many other dialogues closest in length (in turns); if
+	 *            <=0, from every other dialogue of the same genre, which makes the precomputation quadratic in the
+	 *            size of the genre
+	 */
+	public PermutationTest(DialogueCorpus corpus, SimilarityMeasure<DialogueTurn> sim, int windowSize, int randType,
+			boolean bothSpeakers, int maxCandidates) {
+		this(corpus, sim, windowSize, randType, bothSpeakers, maxCandidates, false);
+	}
+
+	/**
+	 * As {@link #PermutationTest(DialogueCorpus, SimilarityMeasure, int, int, boolean, int)}, but if symmetric is true
+	 * sim(a,b) is assumed to equal sim(b,a), and only computed once for each pair of turns
+	 *
+	 * @param corpus
+	 * @param sim
+	 * @param windowSize
+	 * @param randType
+	 * @param bothSpeakers
+	 * @param maxCandidates
+	 * @param symmetric
+	 *            if true, the similarity measure is symmetric
+	 */
+	public PermutationTest(DialogueCorpus corpus, SimilarityMeasure<DialogueTurn> sim, int windowSize, int randType,
+			boolean bothSpeakers, int maxCandidates, boolean symmetric) {
+		if ((randType != RandomCorpus.RAND_OTHER_TURNS) && (randType != RandomCorpus.RAND_BEST_LENGTH_MATCH)
+				&& (randType != RandomCorpus.RAND_BEST_LENGTH_RAND)) {
+			throw new IllegalArgumentException("unsupported randomisation type " + randType);
+		}
+		this.sim = sim;
+		this.windowSize = windowSize;
+		this.randType = randType;
+		this.bothSpeakers = bothSpeakers;
+		this.maxCandidates = maxCandidates;
+		this.symmetric = symmetric;
+		precompute(corpus);
+	}
+
+	/**
+	 * @param seed
+	 *            a seed for the random recombinations, for replicable runs
+	 */
+	public void setSeed(long seed) {
+		random.setSeed(seed);
+	}
+
+	/**
+	 * @return the left window size (number of offsets)
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * @return the number of replicates run so far
+	 */
+	public int getNumReplicates() {
+		return nullMeans.size();
+	}
+
+	/**
+	 * @param i
+	 *            the offset
+	 * @return the observed mean similarity at this offset in the raw corpus, NaN if none
+	 */
+	public double getObserved(int i) {
+		return observed[i];
+	}
+
+	/**
+	 * @param i
+	 *            the offset
+	 * @return statistics of the null distribution of mean similarity at this offset, over the replicates run so far
+	 */
+	public RunningStatistics getNullStatistics(int i) {
+		RunningStatistics stats = new RunningStatistics(true);
+		for (double[] means : nullMeans) {
+			if (!Double.isNaN(means[i])) {
+				stats.addValue(means[i]);
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * @param i
+	 *            the offset
+	 * @return the (one-tailed, add-one) Monte-Carlo p-value of the observed mean similarity at this offset being as
+	 *         high as it is, over the replicates run so far
+	 */
+	public double getPValue(int i) {
+		int n = 0;
+		int above = 0;
+		for (double[] means : nullMeans) {
+			if (!Double.isNaN(means[i])) {
+				n++;
+				if (means[i] >= observed[i]) {
+					above++;
+				}
+			}
+		}
+		return (double) (above + 1) / (double) (n + 1);
+	}
+
+	/**
+	 * Run a number of replicates, adding to the null distribution
+	 *
+	 * @param numReplicates
+	 */
+	public void run(int numReplicates) {
+		for (int r = 0; r < numReplicates; r++) {
+			nullMeans.add(replicate());
+		}
+	}
+
+	/**
+	 * Draw one random recombination of the whole corpus and score it
+	 *
+	 * @return the mean similarity at each offset
+	 */
+	public double[] replicate() {
+		double[] sums = new double[windowSize];
+		long[] counts = new long[windowSize];
+		for (Recombination rec : recombinations) {
+			score(rec, draw(rec), sums, counts);
+		}
+		return means(sums, counts);
+	}
+
+	private static double[] means(double[] sums, long[] counts) {
+		double[] means = new double[sums.length];
+		for (int i = 0; i < sums.length; i++) {
+			means[i] = (counts[i] == 0 ? Double.NaN : sums[i] / counts[i]);
+		}
+		return means;
+	}
+
+	/**
+	 * Fill the other speaker's slots with random candidate turns as the {@link RandomCorpus} type would
+	 *
+	 * @param rec
+	 * @return the number of slots filled: with PAD_CUT, RAND_OTHER_TURNS stops the dialogue when it runs out of turns,
+	 *         the other types just leave out the remaining slots
+	 */
+	private int draw(Recombination rec) {
+		int numCands = rec.start.length - 1;
+		if (randType == RandomCorpus.RAND_OTHER_TURNS) {
+			// a random turn from a random dialogue for each slot, without reusing turns
+			rec.stamp++;
+			int n = Math.min(rec.numSlots, rec.poolSize);
+			for (int k = 0; k < n; k++) {
+				int j;
+				do {
+					int c = random.nextInt(numCands);
+					j = rec.start[c] + random.nextInt(rec.start[c + 1] - rec.start[c]);
+				} while (rec.used[j] == rec.stamp);
+				rec.used[j] = rec.stamp;
+				rec.content[k] = j;
+			}
+			return n;
+		}
+		// all of one random candidate speaker's turns, in order or shuffled
+		int c = random.nextInt(numCands);
+		int n = Math.min(rec.numSlots, rec.start[c + 1] - rec.start[c]);
+		for (int k = 0; k < n; k++) {
+			rec.content[k] = rec.start[c] + k;
+		}
+		if (randType == RandomCorpus.RAND_BEST_LENGTH_RAND) {
+			// shuffle the whole turn list, then take the first n
+			int size = rec.start[c + 1] - rec.start[c];
+			int[] order = new int[size];
+			for (int k = 0; k < size; k++) {
+				order[k] = k;
+			}
+			for (int k = size - 1; k > 0; k--) {
+				int k2 = random.nextInt(k + 1);
+				int tmp = order[k];
+				order[k] = order[k2];
+				order[k2] = tmp;
+			}
+			for (int k = 0; k < n; k++) {
+				rec.content[k] = rec.start[c] + order[k];
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Add the similarity scores for a recombined dialogue to the per-offset totals, as {@link AlignmentTester} would
+	 * with an {@link OtherSpeakerTurnWindower}
+	 *
+	 * @param rec
+	 * @param filled
+	 *            the number of slots filled by draw()
+	 * @param sums
+	 * @param counts
+	 */
+	private void score(Recombination rec, int filled, double[] sums, long[] counts) {
+		boolean cut = (randType == RandomCorpus.RAND_OTHER_TURNS) && (filled < rec.numSlots);
+		for (int p = 0; p < rec.fixed.length; p++) {
+			if (rec.fixed[p]) {
+				// left window = the nearest preceding slots (present ones only), nearest first
+				int i = rec.fixedBefore[p];
+				int end = Math.min(rec.slotsBefore[p], filled);
+				for (int k = 0; (k < windowSize) && (k < end); k++) {
+					sums[k] += rec.simPF[i * rec.poolSize + rec.content[end - 1 - k]];
+					counts[k]++;
+				}
+			} else {
+				int slot = rec.slotsBefore[p];
+				if (slot >= filled) {
+					if (cut) {
+						return;
+					}
+					continue;
+				}
+				// left window = the nearest preceding fixed turns, nearest first
+				int j = rec.content[slot];
+				int end = rec.fixedBefore[p];
+				for (int k = 0; (k < windowSize) && (k < end); k++) {
+					sums[k] += rec.simFP[(end - 1 - k) * rec.poolSize + j];
+					counts[k]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Set up a {@link Recombination} for every dialogue (and fixed speaker), and score the raw corpus. Only dialogues
+	 * which get at least one recombination count towards the observed score, so that the observed and null
+	 * distributions cover the same dialogues
+	 *
+	 * @param corpus
+	 */
+	private void precompute(DialogueCorpus corpus) {
+		double[] sums = new double[windowSize];
+		long[] counts = new long[windowSize];
+		long numSims = 0;
+		int numExcluded = 0;
+		long time = System.currentTimeMillis();
+		for (Dialogue d : corpus.getDialogues()) {
+			if (d.getSpeakers().size() != 2) {
+				System.out.println("Skipping dialogue " + d.getId() + " with " + d.getSpeakers().size() + " speakers");
+				continue;
+			}
+			ArrayList<Recombination> recs = new ArrayList<Recombination>();
+			for (int offset = 0; offset < (bothSpeakers ? 2 : 1); offset++) {
+				DialogueSpeaker fixedSpeaker = getSpeaker(d, offset);
+				ArrayList<List<DialogueTurn>> candidates = new ArrayList<List<DialogueTurn>>();
+				for (Dialogue c : getCandidates(corpus, d)) {
+					List<DialogueTurn> turns;
+					if (randType == RandomCorpus.RAND_OTHER_TURNS) {
+						turns = new ArrayList<DialogueTurn>();
+						for (DialogueTurn t : c.getTurns()) {
+							if (!avoidSelf || !fixedSpeaker.probablySameAs(t.getSpeaker())) {
+								turns.add(t);
+							}
+						}
+					} else {
+						// the candidate speaker in the same role as the one being replaced
+						DialogueSpeaker speaker = getSpeaker(c, 1 - offset);
+						if (avoidSelf && fixedSpeaker.probablySameAs(speaker)) {
+							continue;
+						}
+						turns = getTurns(c, speaker);
+					}
+					if (turns.size() > 0) {
+						candidates.add(turns);
+					}
+				}
+				if (candidates.isEmpty()) {
+					System.out.println("No candidate turns for dialogue " + d.getId() + " speaker " + offset);
+					continue;
+				}
+				Recombination rec = makeRecombination(d, fixedSpeaker, candidates);
+				numSims += (symmetric ? 1L : 2L) * rec.numFixed * rec.poolSize;
+				recs.add(rec);
+			}
+			if (recs.isEmpty()) {
+				numExcluded++;
+				continue;
+			}
+			recombinations.addAll(recs);
+			// the raw dialogue itself, for the observed score
+			ArrayList<List<DialogueTurn>> own = new ArrayList<List<DialogueTurn>>();
+			own.add(getTurns(d, getSpeaker(d, 1)));
+			Recombination self = makeRecombination(d, getSpeaker(d, 0), own);
+			numSims += (symmetric ? 1L : 2L) * self.numFixed * self.poolSize;
+			for (int k = 0; k < self.numSlots; k++) {
+				self.content[k] = k;
+			}
+			score(self, self.numSlots, sums, counts);
+		}
+		observed = means(sums, counts);
+		if (numExcluded > 0) {
+			System.out.println("Excluded " + numExcluded + " dialogues with no candidate turns from the test");
+		}
+		System.out.println("Precomputed " + numSims + " similarities for " + recombinations.size()
+				+ " recombined dialogues in " + (System.currentTimeMillis() - time) + " ms");
+	}
+
+	/**
+	 * @param corpus
+	 * @param d
+	 * @return the other dialogues whose turns may be used to recombine d, closest in length first
+	 */
+	private List<Dialogue> getCandidates(DialogueCorpus corpus, final Dialogue d) {
+		ArrayList<Dialogue> candidates = new ArrayList<Dialogue>();
+		for (Dialogue c : corpus.getDialogues()) {
+			if (c.equals(d)) {
+				continue;
+			}
+			if (matchGenre && ((d.getGenre() == null) ? (c.getGenre() != null) : !d.getGenre().equals(c.getGenre()))) {
+				continue;
+			}
+			if ((randType != RandomCorpus.RAND_OTHER_TURNS) && (c.getSpeakers().size() != 2)) {
+				continue;
+			}
+			candidates.add(c);
+		}
+		Collections.sort(candidates, new Comparator<Dialogue>() {
+			@Override
+			public int compare(Dialogue arg0, Dialogue arg1) {
+				return Double.compare(Math.abs(arg0.numTurns() - d.numTurns()),
+						Math.abs(arg1.numTurns() - d.numTurns()));
+			}
+		});
+		if ((maxCandidates > 0) && (candidates.size() > maxCandidates)) {
+			return candidates.subList(0, maxCandidates);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Work out the turn pattern of d with fixedSpeaker kept, and compute the similarities of its turns with all
+	 * candidate turns
+	 *
+	 * @param d
+	 * @param fixedSpeaker
+	 * @param candidates
+	 *            a list of turns for each candidate
+	 * @return the new {@link Recombination}
+	 */
+	private Recombination makeRecombination(Dialogue d, DialogueSpeaker fixedSpeaker,
+			List<List<DialogueTurn>> candidates) {
+		Recombination rec = new Recombination();
+		int length = d.numTurns();
+		rec.fixed = new boolean[length];
+		rec.fixedBefore = new int[length];
+		rec.slotsBefore = new int[length];
+		ArrayList<DialogueTurn> fixedTurns = new ArrayList<DialogueTurn>();
+		for (int p = 0; p < length; p++) {
+			DialogueTurn t = d.getTurns().get(p);
+			rec.fixedBefore[p] = rec.numFixed;
+			rec.slotsBefore[p] = rec.numSlots;
+			rec.fixed[p] = t.getSpeaker().equals(fixedSpeaker);
+			if (rec.fixed[p]) {
+				fixedTurns.add(t);
+				rec.numFixed++;
+			} else {
+				rec.numSlots++;
+			}
+		}
+		rec.start = new int[candidates.size() + 1];
+		ArrayList<DialogueTurn> pool = new ArrayList<DialogueTurn>();
+		for (int c = 0; c < candidates.size(); c++) {
+			rec.start[c] = pool.size();
+			pool.addAll(candidates.get(c));
+		}
+		rec.start[candidates.size()] = pool.size();
+		rec.poolSize = pool.size();
+		rec.simFP = new float[rec.numFixed * rec.poolSize];
+		rec.simPF = (symmetric ? rec.simFP : new float[rec.numFixed * rec.poolSize]);
+		sim.reset();
+		for (int i = 0; i < rec.numFixed; i++) {
+			DialogueTurn f = fixedTurns.get(i);
+			for (int j = 0; j < rec.poolSize; j++) {
+				rec.simFP[i * rec.poolSize + j] = (float) sim.similarity(f, pool.get(j));
+				if (!symmetric) {
+					rec.simPF[i * rec.poolSize + j] = (float) sim.similarity(pool.get(j), f);
+				}
+			}
+		}
+		rec.content = new int[rec.numSlots];
+		rec.used = new int[rec.poolSize];
+		return rec;
+	}
+
+	/**
+	 * @param d
+	 * @param offset
+	 * @return the offset-th speaker to take a turn in d (as {@link RandomCorpus}'s fixedSpeakerOffset)
+	 */
+	private static DialogueSpeaker getSpeaker(Dialogue d, int offset) {
+		DialogueSpeaker speaker = d.getTurns().get(0).getSpeaker();
+		int iS = 0;
+		for (DialogueTurn t : d.getTurns()) {
+			if (iS == offset) {
+				break;
+			}
+			if (!t.getSpeaker().equals(speaker)) {
+				speaker = t.getSpeaker();
+				iS++;
+			}
+		}
+		return speaker;
+	}
+
+	/**
+	 * @param d
+	 * @param speaker
+	 * @return the turns by speaker in d, in order
+	 */
+	private static List<DialogueTurn> getTurns(Dialogue d, DialogueSpeaker speaker) {
+		ArrayList<DialogueTurn> turns = new ArrayList<DialogueTurn>();
+		for (DialogueTurn t : d.getTurns()) {
+			if (t.getSpeaker().equals(speaker)) {
+				turns.add(t);
+			}
+		}
+		return turns;
+	}
+
+}
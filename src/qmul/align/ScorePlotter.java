@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Matthew Purver, Queen Mary University of London - initial API and implementation
+ ******************************************************************************/
+package qmul.align;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.ChartPanel;
+import org.jfree.chart.ChartUtilities;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.AxisLocation;
+import org.jfree.chart.axis.NumberAxis;
+import org.jfree.chart.plot.CombinedDomainXYPlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.StandardXYItemRenderer;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+import org.jfree.ui.ApplicationFrame;
+import org.jfree.ui.RefineryUtilities;
+
+/**
+ * Turn vs score charts for {@link AlignmentTester}, either shown on screen (one frame per chart, the default) or
+ * rendered offscreen to PNG or SVG files by a pool of worker threads, so that a whole corpus can be plotted on a
+ * headless machine. Long series are reduced by min/max decimation before plotting, so each chart has at most
+ * maxPoints points per series while keeping its peaks and troughs.
+ *
+ * @author mpurver
+ */
+public class ScorePlotter {
+
+	public static final String PNG = "png";
+	public static final String SVG = "svg";
+
+	private static final int WIDTH = 1000;
+	private static final int HEIGHT = 500;
+
+	private static final String[] COLOURS = { "red", "blue", "green", "orange", "purple" };
+
+	private File outputDir = null;
+	private String prefix = "";
+	private String format = PNG;
+	private int maxPoints = 2000;
+	private ExecutorService executor = null;
+	private LinkedList<Future<File>> pending = new LinkedList<Future<File>>();
+
+	/**
+	 * A plotter which shows charts on screen
+	 */
+	public ScorePlotter() {
+	}
+
+	/**
+	 * A plotter which writes charts to files "prefix title.format" in an output directory, without needing a display
+	 *
+	 * @param outputDir
+	 *            the output directory (created if necessary)
+	 * @param prefix
+	 *            a prefix for all file names (e.g. the run ID), or null for none
+	 * @param format
+	 *            PNG or SVG
+	 * @param numThreads
+	 *            the number of charts to render in parallel (0 or less means one per available processor)
+	 */
+	public ScorePlotter(File outputDir, String prefix, String format, int numThreads) {
+		if (!format.equals(PNG) && !format.equals(SVG)) {
+			throw new IllegalArgumentException("unknown plot format " + format);
+		}
+		// must be set before AWT starts up, so charts can be rendered without a display
+		System.setProperty("java.awt.headless", "true");
+		this.outputDir = outputDir;
+		this.prefix = (prefix == null ? "" : prefix);
+		this.format = format;
+		outputDir.mkdirs();
+		executor = Executors.newFixedThreadPool(numThreads > 0 ? numThreads : Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * @param maxPoints
+	 *            the maximum number of points to plot per series (longer series are decimated); 0 or less means no
+	 *            limit. Default 2000
+	 */
+	public void setMaxPoints(int maxPoints) {
+		this.maxPoints = maxPoints;
+	}
+
+	/**
+	 * Plot a turn vs score chart
+	 *
+	 * @param scores
+	 * @param title
+	 */
+	public void plotScores(List<Double> scores, final String title) {
+		final XYSeries series = decimate("Coherence scores", scores, maxPoints);
+		if (outputDir == null) {
+			show(title, createChart(title, series));
+			return;
+		}
+		submit(new Callable<File>() {
+			@Override
+			public File call() throws IOException {
+				return (format.equals(SVG) ? writeSVG(title, false, series) : writePNG(title,
+						createChart(title, series)));
+			}
+		});
+	}
+
+	/**
+	 * Plot a turn vs score chart with arbitrary subplots
+	 *
+	 * @param title
+	 * @param scores
+	 */
+	public void plotScores(final String title, List<Double>... scores) {
+		final XYSeries[] series = new XYSeries[scores.length];
+		for (int i = 0; i < scores.length; i++) {
+			series[i] = decimate("Coherence scores " + i, scores[i], maxPoints);
+		}
+		if (outputDir == null) {
+			show(title, createCombinedChart(title, series));
+			return;
+		}
+		submit(new Callable<File>() {
+			@Override
+			public File call() throws IOException {
+				return (format.equals(SVG) ? writeSVG(title, true, series) : writePNG(title,
+						createCombinedChart(title, series)));
+			}
+		});
+	}
+
+	/**
+	 * Wait for all charts to be written, and shut down the worker threads. The plotter can't be used after this
+	 *
+	 * @return the files written (empty if showing on screen)
+	 */
+	public List<File> finish() {
+		List<File> files = new ArrayList<File>();
+		if (executor == null) {
+			return files;
+		}
+		try {
+			while (!pending.isEmpty()) {
+				files.add(pending.removeFirst().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted while writing charts", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		System.out.println("Wrote " + files.size() + " charts to " + outputDir);
+		return files;
+	}
+
+	private void submit(Callable<File> task) {
+		pending.add(executor.submit(task));
+	}
+
+	/**
+	 * Min/max decimation: if there are more than maxPoints scores, split them into maxPoints/2 buckets and keep only
+	 * the minimum and maximum of each (in turn order), so the plotted line still reaches every extreme
+	 *
+	 * @param key
+	 *            the series key
+	 * @param scores
+	 * @param maxPoints
+	 *            0 or less for no limit
+	 * @return a series of (turn, score) points
+	 */
+	public static XYSeries decimate(String key, List<Double> scores, int maxPoints) {
+		int n = scores.size();
+		XYSeries series = new XYSeries(key, false, true);
+		if ((maxPoints <= 0) || (n <= maxPoints)) {
+			for (int x = 0; x < n; x++) {
+				series.add(x, scores.get(x), false);
+			}
+			return series;
+		}
+		int buckets = Math.max(1, maxPoints / 2);
+		for (int b = 0; b < buckets; b++) {
+			int from = (int) ((long) b * n / buckets);
+			int to = (int) ((long) (b + 1) * n / buckets);
+			int min = from;
+			int max = from;
+			for (int x = from + 1; x < to; x++) {
+				if (scores.get(x) < scores.get(min)) {
+					min = x;
+				}
+				if (scores.get(x) > scores.get(max)) {
+					max = x;
+				}
+			}
+			int first = Math.min(min, max);
+			int last = Math.max(min, max);
+			series.add(first, scores.get(first), false);
+			if (last != first) {
+				series.add(last, scores.get(last), false);
+			}
+		}
+		return series;
+	}
+
+	private static JFreeChart createChart(String title, XYSeries series) {
+		XYSeriesCollection data = new XYSeriesCollection(series);
+		return ChartFactory.createXYLineChart(title, "Turn", "Score", data, PlotOrientation.VERTICAL, true, true,
+				false);
+	}
+
+	private static JFreeChart createCombinedChart(String title, XYSeries... series) {
+		CombinedDomainXYPlot plot = new CombinedDomainXYPlot(new NumberAxis());
+		plot.setGap(10.0);
+		for (int i = 0; i < series.length; i++) {
+			XYSeriesCollection data = new XYSeriesCollection(series[i]);
+			XYPlot subplot = new XYPlot(data, null, new NumberAxis(), new StandardXYItemRenderer());
+			subplot.setRangeAxisLocation(i == 0 ? AxisLocation.TOP_OR_LEFT : AxisLocation.BOTTOM_OR_LEFT);
+			plot.add(subplot, 1);
+		}
+		plot.setOrientation(PlotOrientation.VERTICAL);
+		return new JFreeChart(title, JFreeChart.DEFAULT_TITLE_FONT, plot, false);
+	}
+
+	private static void show(String title, JFreeChart chart) {
+		ApplicationFrame af = new ApplicationFrame(title);
+		ChartPanel chartPanel = new ChartPanel(chart);
+		chartPanel.setPreferredSize(new java.awt.Dimension(WIDTH, HEIGHT));
+		af.setContentPane(chartPanel);
+		af.pack();
+		RefineryUtilities.centerFrameOnScreen(af);
+		af.setVisible(true);
+	}
+
+	private File getFile(String title) {
+		String name = (prefix.isEmpty() ? "" : prefix + " ") + title;
+		return new File(outputDir, name.replaceAll("[^\\w.-]+", "_") + "." + format);
+	}
+
+	private File writePNG(String title, JFreeChart chart) throws IOException {
+		File file = getFile(title);
+		ChartUtilities.saveChartAsPNG(file, chart, WIDTH, HEIGHT);
+		return file;
+	}
+
+	/**
+	 * Write a simple SVG line chart directly (JFreeChart has no SVG output of its own): one panel per series, stacked
+	 * vertically if combined, otherwise all in one panel
+	 */
+	private File writeSVG(String title, boolean combined, XYSeries... series) throws IOException {
+		File file = getFile(title);
+		int left = 60;
+		int right = 20;
+		int top = 40;
+		int bottom = 40;
+		int gap = 10;
+		int panels = (combined ? series.length : 1);
+		double panelHeight = (HEIGHT - top - bottom - gap * (panels - 1)) / (double) panels;
+		double plotWidth = WIDTH - left - right;
+		double maxX = 1.0;
+		for (XYSeries s : series) {
+			if (!s.isEmpty()) {
+				maxX = Math.max(maxX, s.getMaxX());
+			}
+		}
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		out.println("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + WIDTH + "\" height=\"" + HEIGHT
+				+ "\" font-family=\"sans-serif\" font-size=\"11\">");
+		out.println("<rect width=\"100%\" height=\"100%\" fill=\"white\"/>");
+		out.println("<text x=\"" + (WIDTH / 2) + "\" y=\"24\" text-anchor=\"middle\" font-size=\"16\">" + escape(title)
+				+ "</text>");
+		for (int p = 0; p < panels; p++) {
+			double y0 = top + p * (panelHeight + gap);
+			double minY = Double.POSITIVE_INFINITY;
+			double maxY = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < series.length; i++) {
+				if ((!combined || (i == p)) && !series[i].isEmpty()) {
+					minY = Math.min(minY, series[i].getMinY());
+					maxY = Math.max(maxY, series[i].getMaxY());
+				}
+			}
+			if (!(minY <= maxY)) {
+				minY = 0.0;
+				maxY = 1.0;
+			} else if (minY == maxY) {
+				minY -= 0.5;
+				maxY += 0.5;
+			}
+			out.println(String.format(Locale.US,
+					"<rect x=\"%d\" y=\"%.1f\" width=\"%.1f\" height=\"%.1f\" fill=\"none\" stroke=\"gray\"/>", left,
+					y0, plotWidth, panelHeight));
+			out.println(String.format(Locale.US, "<text x=\"%d\" y=\"%.1f\" text-anchor=\"end\">%.4g</text>",
+					left - 4, y0 + 10, maxY));
+			out.println(String.format(Locale.US, "<text x=\"%d\" y=\"%.1f\" text-anchor=\"end\">%.4g</text>",
+					left - 4, y0 + panelHeight, minY));
+			for (int i = 0; i < series.length; i++) {
+				if (combined && (i != p)) {
+					continue;
+				}
+				StringBuilder points = new StringBuilder();
+				for (int k = 0; k < series[i].getItemCount(); k++) {
+					double x = left + plotWidth * series[i].getX(k).doubleValue() / maxX;
+					double y = y0 + panelHeight * (maxY - series[i].getY(k).doubleValue()) / (maxY - minY);
+					points.append(String.format(Locale.US, "%.1f,%.1f ", x, y));
+				}
+				out.println("<polyline fill=\"none\" stroke=\"" + COLOURS[i % COLOURS.length] + "\" points=\""
+						+ points.toString().trim() + "\"/>");
+			}
+		}
+		out.println(String.format(Locale.US, "<text x=\"%d\" y=\"%d\">0</text>", left, HEIGHT - bottom + 14));
+		out.println(String.format(Locale.US, "<text x=\"%d\" y=\"%d\" text-anchor=\"end\">%.0f</text>", WIDTH - right,
+				HEIGHT - bottom + 14, maxX));
+		out.println("<text x=\"" + (left + (int) plotWidth / 2) + "\" y=\"" + (HEIGHT - 10)
+				+ "\" text-anchor=\"middle\">Turn</text>");
+		out.println("</svg>");
+		out.close();
+		if (out.checkError()) {
+			throw new IOException("Error writing " + file);
+		}
+		return file;
+	}
+
+	private static String escape(String s) {
+		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+
+}
@@ -10,15 +10,18 @@
  ******************************************************************************/
 package qmul.align;
 
+import java.util.Arrays;
 import java.util.HashMap;
 
 import qmul.corpus.DialogueSentence;
 import qmul.corpus.DialogueTurn;
+import qmul.corpus.LexicalAnnotator;
 import qmul.util.similarity.SimilarityMeasure;
 import qmul.util.similarity.StringSimilarityMeasure;
 
 /**
- * Lexical similarity for two sentences, using {@link StringSimilarityMeasure} on transcriptions
+ * Lexical similarity for two sentences, as {@link StringSimilarityMeasure} on transcriptions, but computed on the word
+ * ids stored by {@link LexicalAnnotator} rather than by re-splitting the strings for every pair
  * 
  * @author mpurver
  */
@@ -26,6 +29,10 @@ public class SentenceLexicalSimilarityMeasure implements SimilarityMeasure<Dialo
 
 	StringSimilarityMeasure sim;
 
+	private HashMap<String, Integer> countsA = new HashMap<String, Integer>();
+	private HashMap<String, Integer> countsB = new HashMap<String, Integer>();
+	private HashMap<String, Integer> countsAB = new HashMap<String, Integer>();
+
 	public SentenceLexicalSimilarityMeasure() {
 		super();
 		sim = new StringSimilarityMeasure();
@@ -38,17 +45,127 @@ public class SentenceLexicalSimilarityMeasure implements SimilarityMeasure<Dialo
 	 */
 	@Override
 	public double similarity(DialogueSentence a, DialogueSentence b) {
-		String t1 = getRelevantString(a);
-		String t2 = getRelevantString(b);
-		return sim.similarity(t1, t2);
+		// sorted, so that equal words are adjacent
+		int[] t1 = getRelevantIds(a).clone();
+		int[] t2 = getRelevantIds(b).clone();
+		Arrays.sort(t1);
+		Arrays.sort(t2);
+		if (sim.isKernelMeasure()) {
+			return wordKernel(t1, t2);
+		} else {
+			return proportionOfWords(t1, t2);
+		}
 	}
 
 	/**
 	 * @param s
-	 * @return the transcription (other classes may override this)
+	 * @return the ids of the lower-cased transcription words (other classes may override this)
+	 */
+	protected int[] getRelevantIds(DialogueSentence s) {
+		LexicalAnnotator.ensureAnnotated(s);
+		return s.getWordIds();
+	}
+
+	/**
+	 * As {@link StringSimilarityMeasure#wordKernel(String, String)}: (a,b)/sqrt((a,a)*(b,b)), where (a,b) is the number
+	 * of matching word pairs
+	 * 
+	 * @param a
+	 *            sorted word ids
+	 * @param b
+	 *            sorted word ids
+	 * @return the kernel value
+	 */
+	private double wordKernel(int[] a, int[] b) {
+		countsA.clear();
+		countsB.clear();
+		countsAB.clear();
+		double a2 = 0.0;
+		for (int i = 0; i < a.length;) {
+			int j = run(a, i);
+			countsA.put(label(a[i]), j - i);
+			a2 += (double) (j - i) * (j - i);
+			i = j;
+		}
+		double b2 = 0.0;
+		for (int i = 0; i < b.length;) {
+			int j = run(b, i);
+			countsB.put(label(b[i]), j - i);
+			b2 += (double) (j - i) * (j - i);
+			i = j;
+		}
+		double ab = 0.0;
+		for (int i = 0, j = 0; (i < a.length) && (j < b.length);) {
+			if (a[i] < b[j]) {
+				i = run(a, i);
+			} else if (a[i] > b[j]) {
+				j = run(b, j);
+			} else {
+				int ni = run(a, i);
+				int nj = run(b, j);
+				countsAB.put(label(a[i]), (ni - i) * (nj - j));
+				ab += (double) (ni - i) * (nj - j);
+				i = ni;
+				j = nj;
+			}
+		}
+		double denom = Math.sqrt(a2 * b2);
+		return ((denom == 0.0) ? 0.0 : (ab / denom));
+	}
+
+	/**
+	 * As {@link StringSimilarityMeasure#getProportionOfWordsOfAInBandBinA(String, String)}: the mean of the proportions
+	 * of distinct words in a which are also in b, and vice versa
+	 * 
+	 * @param a
+	 *            sorted word ids
+	 * @param b
+	 *            sorted word ids
+	 * @return the mean proportion
+	 */
+	private double proportionOfWords(int[] a, int[] b) {
+		int nA = 0;
+		int nB = 0;
+		int shared = 0;
+		for (int i = 0, j = 0; (i < a.length) || (j < b.length);) {
+			if ((j >= b.length) || ((i < a.length) && (a[i] < b[j]))) {
+				nA++;
+				i = run(a, i);
+			} else if ((i >= a.length) || (a[i] > b[j])) {
+				nB++;
+				j = run(b, j);
+			} else {
+				nA++;
+				nB++;
+				shared++;
+				i = run(a, i);
+				j = run(b, j);
+			}
+		}
+		if ((nA == 0) || (nB == 0)) {
+			return 0.0;
+		}
+		float pA = (float) shared / (float) nA;
+		float pB = (float) shared / (float) nB;
+		return ((double) pA + (double) pB) / 2.0;
+	}
+
+	/**
+	 * @return the word with this id (negative ids are unique stand-ins, see {@link SentenceLexicalTokenSimilarityMeasure})
+	 */
+	private static String label(int id) {
+		return (id < 0 ? "UNCLEAR" + id : LexicalAnnotator.getVocabulary().get(id));
+	}
+
+	/**
+	 * @return the index after the run of equal values starting at i
 	 */
-	protected String getRelevantString(DialogueSentence s) {
-		return s.getTranscription();
+	private static int run(int[] a, int i) {
+		int j = i + 1;
+		while ((j < a.length) && (a[j] == a[i])) {
+			j++;
+		}
+		return j;
 	}
 
 	/*
@@ -59,6 +176,9 @@ public class SentenceLexicalSimilarityMeasure implements SimilarityMeasure<Dialo
 	@Override
 	public void reset() {
 		sim.reset();
+		countsA.clear();
+		countsB.clear();
+		countsAB.clear();
 	}
 
 	/*
@@ -68,7 +188,7 @@ public class SentenceLexicalSimilarityMeasure implements SimilarityMeasure<Dialo
 	 */
 	@Override
 	public HashMap<? extends Object, Integer> rawCountsA() {
-		return sim.rawCountsA();
+		return countsA;
 	}
 
 	/*
@@ -78,7 +198,7 @@ public class SentenceLexicalSimilarityMeasure implements SimilarityMeasure<Dialo
 	 */
 	@Override
 	public HashMap<? extends Object, Integer> rawCountsB() {
-		return sim.rawCountsB();
+		return countsB;
 	}
 
 	/*
@@ -88,7 +208,7 @@ public class SentenceLexicalSimilarityMeasure implements SimilarityMeasure<Dialo
 	 */
 	@Override
 	public HashMap<? extends Object, Integer> rawCountsAB() {
-		return sim.rawCountsAB();
+		return countsAB;
 	}
 
 	public static void main(String[] args) {
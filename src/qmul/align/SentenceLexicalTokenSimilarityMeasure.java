@@ -10,36 +10,51 @@
  ******************************************************************************/
 package qmul.align;
 
-import java.util.Random;
-
 import qmul.corpus.DialogueSentence;
+import qmul.corpus.LexicalAnnotator;
 import qmul.util.similarity.StringSimilarityMeasure;
-import edu.stanford.nlp.ling.HasWord;
 
 /**
- * Lexical similarity for two sentences, using {@link StringSimilarityMeasure} on tokens not standard transcriptions
- * (i.e. as used for parsing) but with UNCLEAR given a random integer suffix so it will never match another UNCLEAR
+ * Lexical similarity for two sentences, as {@link StringSimilarityMeasure} on tokens not standard transcriptions (i.e.
+ * as used for parsing) but with each UNCLEAR given a unique id so it will never match another UNCLEAR. As before, the
+ * tokens are compared as words (their lower-cased letter/digit sequences), so punctuation tokens don't count
  * 
  * @author mpurver
  */
 public class SentenceLexicalTokenSimilarityMeasure extends SentenceLexicalSimilarityMeasure {
 
-	Random random = new Random();
+	private static final int[] NO_TOKENS = new int[0];
+
+	private int unclearId = -1;
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see qmul.align.SentenceLexicalSimilarityMeasure#getRelevantString(qmul.corpus.DialogueSentence)
+	 * @see qmul.align.SentenceLexicalSimilarityMeasure#getRelevantIds(qmul.corpus.DialogueSentence)
 	 */
 	@Override
-	protected String getRelevantString(DialogueSentence s) {
-		String str = "";
+	protected int[] getRelevantIds(DialogueSentence s) {
 		if (s.getTokens() == null) {
-			return str;
+			return NO_TOKENS;
+		}
+		LexicalAnnotator.ensureAnnotated(s);
+		int[] ids = s.getTokenIds();
+		int unclear = LexicalAnnotator.getVocabulary().lookup(LexicalAnnotator.UNCLEAR);
+		if (unclear < 0) {
+			return ids;
 		}
-		for (HasWord tok : s.getTokens()) {
-			str += " " + tok.word() + (tok.word().equals("UNCLEAR") ? random.nextInt() : "");
+		int[] unique = null;
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] == unclear) {
+				if (unique == null) {
+					unique = ids.clone();
+				}
+				unique[i] = unclearId--;
+				if (unclearId == Integer.MIN_VALUE) {
+					unclearId = -1;
+				}
+			}
 		}
-		return str.trim();
+		return (unique == null ? ids : unique);
 	}
 }
@@ -10,34 +10,42 @@
  ******************************************************************************/
 package qmul.align;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.URL;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import net.didion.jwnl.JWNLException;
 import qmul.corpus.DialogueSentence;
 import qmul.corpus.DialogueTurn;
 import qmul.util.parse.PennTreebankTokenizer;
 import qmul.util.similarity.SimilarityMeasure;
+import qmul.util.similarity.WordPairCache;
 import csli.util.Pair;
 import csli.util.nlp.Synonyms;
+import csli.util.nlp.WordNetIndex;
 import edu.stanford.nlp.ling.HasWord;
 import edu.stanford.nlp.ling.Word;
 
 /**
- * WordNet distance
+ * WordNet distance, or semantic relatedness from the RPI web services or a local {@link DistributionalModel}
  * 
  * @author mpurver
  */
 public class SentenceSemanticSimilarityMeasure implements SimilarityMeasure<DialogueSentence> {
 
 	private Synonyms syn;
-	private HashMap<String, HashMap<String, Double>> cache = new HashMap<String, HashMap<String, Double>>();
+	private static File wordNetIndexFile = null;
+	private static WordNetIndex wordNetIndex = null;
+	private static File distributionalModelFile = null;
+	private static DistributionalModel distributionalModel = null;
+	private static volatile WordPairCache wordPairCache = new WordPairCache(null);
+
+	private static boolean saveOnExit = false;
 
 	private int mode = SIM_JWNL;
 	public static final int SIM_JWNL = 0;
@@ -45,9 +53,12 @@ public class SentenceSemanticSimilarityMeasure implements SimilarityMeasure<Dial
 	public static final int SIM_RPI_PMI = 2;
 	public static final int SIM_RPI_LSA = 3;
 	public static final int SIM_RPI_WORDNET = 4;
+	public static final int SIM_LOCAL_DIST = 5;
+
+	public static final String MSR_SERVER = MSRClient.MSR_SERVER;
+	public static final String MSR_SCRIPT = MSRClient.MSR_SCRIPT;
 
-	public static final String MSR_SERVER = "http://cwl-projects.cogsci.rpi.edu";
-	public static final String MSR_SCRIPT = "/cgi-bin/msr/msr.cgi";
+	private static MSRClient msrClient = new MSRClient();
 
 	/**
 	 * use the defaults
@@ -57,6 +68,93 @@ public class SentenceSemanticSimilarityMeasure implements SimilarityMeasure<Dial
 		setMode(mode);
 	}
 
+	/**
+	 * @param file
+	 *            a {@link WordNetIndex} (built offline by its main()) to answer SIM_JWNL queries from, rather than
+	 *            searching the WordNet graph for every word pair; null (the default) to search WordNet directly
+	 */
+	public static void setWordNetIndexFile(File file) {
+		wordNetIndexFile = file;
+		wordNetIndex = null;
+	}
+
+	/**
+	 * @return the word-pair score cache shared by all instances (by default unbounded and in-memory only)
+	 */
+	public static WordPairCache getWordPairCache() {
+		return wordPairCache;
+	}
+
+	/**
+	 * @param cache
+	 *            a word-pair score cache to share between all instances, e.g. a bounded and/or persistent one. If it has
+	 *            a file, it is saved there when the JVM exits (if it is still the current cache then; a cache replaced
+	 *            by another call to this method should be saved by the caller if need be)
+	 */
+	public static synchronized void setWordPairCache(WordPairCache cache) {
+		wordPairCache = cache;
+		if (!saveOnExit) {
+			saveOnExit = true;
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					wordPairCache.save();
+				}
+			});
+		}
+	}
+
+	/**
+	 * @param client
+	 *            the client to use for the RPI modes, shared by all instances (default MSRClient())
+	 */
+	public static void setMSRClient(MSRClient client) {
+		msrClient = client;
+	}
+
+	/**
+	 * @param file
+	 *            a {@link DistributionalModel} (built offline by its main(), e.g. from the corpus being tested) for the
+	 *            SIM_LOCAL_DIST mode
+	 */
+	public static void setDistributionalModelFile(File file) {
+		distributionalModelFile = file;
+		distributionalModel = null;
+	}
+
+	/**
+	 * @return the (shared, mapped once) model given by setDistributionalModelFile()
+	 */
+	private static synchronized DistributionalModel getDistributionalModel() {
+		if (distributionalModel == null) {
+			if (distributionalModelFile == null) {
+				throw new IllegalStateException("No distributional model file set for SIM_LOCAL_DIST");
+			}
+			try {
+				distributionalModel = new DistributionalModel(distributionalModelFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(0);
+			}
+		}
+		return distributionalModel;
+	}
+
+	/**
+	 * @return the (shared, mapped once) index given by setWordNetIndexFile()
+	 */
+	private static synchronized WordNetIndex getWordNetIndex() {
+		if (wordNetIndex == null) {
+			try {
+				wordNetIndex = new WordNetIndex(wordNetIndexFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(0);
+			}
+		}
+		return wordNetIndex;
+	}
+
 	/**
 	 * @return the mode
 	 */
@@ -69,15 +167,10 @@ public class SentenceSemanticSimilarityMeasure implements SimilarityMeasure<Dial
 	 *            the mode to set
 	 */
 	public void setMode(int mode) {
-		if (this.mode != mode) {
-			for (String key : cache.keySet()) {
-				cache.get(key).clear();
-			}
-			cache.clear();
-			this.mode = mode;
-			if ((mode == SIM_JWNL) && (syn == null)) {
-				syn = new Synonyms();
-			}
+		// scores are cached per mode, so nothing to clear
+		this.mode = mode;
+		if ((mode == SIM_JWNL) && (syn == null)) {
+			syn = (wordNetIndexFile == null ? new Synonyms() : new Synonyms(getWordNetIndex()));
 		}
 	}
 
@@ -88,20 +181,20 @@ public class SentenceSemanticSimilarityMeasure implements SimilarityMeasure<Dial
 	 */
 	@Override
 	public double similarity(DialogueSentence a, DialogueSentence b) {
-		List<HasWord> aTokens = a.getTokens();
-		if (aTokens == null) {
-			aTokens = new ArrayList<HasWord>(new PennTreebankTokenizer(false).getWordsFromString(a.getTranscription()));
+		List<HasWord> aTokens = getTokens(a);
+		List<HasWord> bTokens = getTokens(b);
+		if (mode == SIM_LOCAL_DIST) {
+			return localSimilarity(aTokens, bTokens);
 		}
-		List<HasWord> bTokens = b.getTokens();
-		if (bTokens == null) {
-			bTokens = new ArrayList<HasWord>(new PennTreebankTokenizer(false).getWordsFromString(b.getTranscription()));
+		if (isRemote()) {
+			// if we're going to do a API call, might as well send the whole lot to avoid http overhead
+			fetch(getWords(aTokens), getWords(bTokens));
 		}
 		double s = 1.0;
 		for (HasWord aW : aTokens) {
 			for (HasWord bW : bTokens) {
 				Pair<String, String> ab = getWordPair(aW, bW);
-				Double ps = getSimilarity(ab, null, null);
-				// Double ps = getSimilarity(ab, aTokens, bTokens); // to do lookahead API calls
+				Double ps = getSimilarity(ab);
 				if (!ps.isNaN()) {
 					s *= ps;
 				}
@@ -110,6 +203,84 @@ public class SentenceSemanticSimilarityMeasure implements SimilarityMeasure<Dial
 		return Math.pow(s, 1.0 / ((double) (aTokens.size() + bTokens.size())));
 	}
 
+	/**
+	 * Fill the cache for every word pair in a set of sentences (e.g. a dialogue) - for the RPI modes, in as few web
+	 * service jobs as the vocabulary size allows, rather than one per word pair
+	 * 
+	 * @param sentences
+	 */
+	public void prefetch(Collection<DialogueSentence> sentences) {
+		if (mode == SIM_LOCAL_DIST) {
+			// nothing to fetch
+			return;
+		}
+		LinkedHashSet<String> words = new LinkedHashSet<String>();
+		for (DialogueSentence sentence : sentences) {
+			words.addAll(getWords(getTokens(sentence)));
+		}
+		if (isRemote()) {
+			fetch(words, words);
+		} else {
+			for (String w1 : words) {
+				for (String w2 : words) {
+					getSimilarity(getWordPair(new Word(w1), new Word(w2)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * As similarity(), but with word vectors from the local model: each sentence's vectors are read once, and word
+	 * pair similarities are just dot products. Non-positive cosines (possible after SVD, or for PPMI vectors with nothing
+	 * in common) are skipped, as NaN similarities are in the other modes, rather than zeroing the whole product
+	 */
+	private double localSimilarity(List<HasWord> aTokens, List<HasWord> bTokens) {
+		DistributionalModel model = getDistributionalModel();
+		float[][] bVectors = new float[bTokens.size()][];
+		for (int j = 0; j < bVectors.length; j++) {
+			bVectors[j] = model.getVector(bTokens.get(j).word());
+		}
+		double s = 1.0;
+		for (HasWord aW : aTokens) {
+			float[] aVector = model.getVector(aW.word());
+			if (aVector == null) {
+				continue;
+			}
+			for (float[] bVector : bVectors) {
+				if (bVector != null) {
+					double dot = DistributionalModel.dot(aVector, bVector);
+					if (dot > 0.0) {
+						s *= dot;
+					}
+				}
+			}
+		}
+		return Math.pow(s, 1.0 / ((double) (aTokens.size() + bTokens.size())));
+	}
+
+	/**
+	 * @return true if the current mode uses the RPI web services
+	 */
+	private boolean isRemote() {
+		return ((mode == SIM_RPI_NSS) || (mode == SIM_RPI_PMI) || (mode == SIM_RPI_LSA) || (mode == SIM_RPI_WORDNET));
+	}
+
+	private List<HasWord> getTokens(DialogueSentence s) {
+		List<HasWord> tokens = s.getTokens();
+		if (tokens == null) {
+			tokens = new ArrayList<HasWord>(new PennTreebankTokenizer(false).getWordsFromString(s.getTranscription()));
+		}
+		return tokens;
+	}
+
+	private Collection<String> getWords(List<HasWord> tokens) {
+		LinkedHashSet<String> words = new LinkedHashSet<String>();
+		for (HasWord hw : tokens) {
+			words.add(hw.word());
+		}
+		return words;
+	}
+
 	/**
 	 * @param a
 	 * @param b
@@ -123,7 +294,7 @@ public class SentenceSemanticSimilarityMeasure implements SimilarityMeasure<Dial
 		}
 	}
 
-	private Double getSimilarity(Pair<String, String> pair, List<HasWord> aTokens, List<HasWord> bTokens) {
+	private Double getSimilarity(Pair<String, String> pair) {
 		System.out.print("Checking pair " + pair + " ... ");
 		Double sim = getCache(pair);
 		if (sim != null) {
@@ -134,132 +305,98 @@ public class SentenceSemanticSimilarityMeasure implements SimilarityMeasure<Dial
 		sim = Double.NaN;
 		if (mode == SIM_JWNL) {
 			try {
-				sim = syn.similarityMetric(pair.first(), pair.second());
+				if (wordNetIndexFile == null) {
+					// JWNL's dictionary is not thread-safe
+					synchronized (Synonyms.class) {
+						sim = syn.similarityMetric(pair.first(), pair.second());
+					}
+				} else {
+					sim = syn.similarityMetric(pair.first(), pair.second());
+				}
 			} catch (JWNLException e) {
 				e.printStackTrace();
 				System.exit(0);
 			}
+		} else if (mode == SIM_LOCAL_DIST) {
+			sim = getDistributionalModel().similarity(pair.first(), pair.second());
 		} else {
-			// String apiURL = "http://cwl-projects.cogsci.rpi.edu/cgi-bin/msr/msr.cgi?msrs=1 ";
-			String method;
-			switch (mode) {
-			case SIM_RPI_LSA:
-				method = "LSA-tasa";
-				break;
-			case SIM_RPI_NSS:
-				method = "NSS-G";
-				break;
-			case SIM_RPI_PMI:
-				method = "PMI-G";
-				break;
-			case SIM_RPI_WORDNET:
-				method = "WordnetVector-UMN";
-				break;
-			default:
-				method = "NSS-G";
-				break;
-			}
-			// if we're going to do a API call, might as well send the whole lot to avoid http overhead
-			String quotedTermsA = (aTokens == null ? ("[" + quoteEscape(pair.first()) + "]") : quoteEscape(aTokens)
-					.toString());
-			String quotedTermsB = (bTokens == null ? ("[" + quoteEscape(pair.second()) + "]") : quoteEscape(bTokens)
-					.toString());
-			String urlStr = MSR_SERVER + MSR_SCRIPT + "?msr=" + method + "&terms=" + quotedTermsA + "&terms2="
-					+ quotedTermsB;
-			Pattern p1 = Pattern.compile("^\\s*<a\\s+href=(.+?)>.*");
-			Pattern p2 = Pattern.compile("Step (\\d+) of \\1 complete");
-			Pattern p3 = Pattern.compile("Please reload");
-			try {
-				// urlStr =
-				// "http://cwl-projects.cogsci.rpi.edu/output/2010-10-29-10-38-41-138.37.2.37-WordnetVector-UMN-output.xls.txt";
-				URL u = new URL(urlStr);
-				System.out.println("Writing query1 " + u);
-				BufferedReader br = new BufferedReader(new InputStreamReader(u.openStream()));
-				String res;
-				boolean found = false;
-				while (!found && ((res = br.readLine()) != null)) {
-					System.out.println(res);
-					Matcher m = p1.matcher(res);
-					if (m.matches()) {
-						urlStr = MSR_SERVER + m.group(1);
-						u = new URL(urlStr);
-						found = true;
-					}
-				}
-				br.close();
-				boolean ready = false;
-				while (!ready) {
-					System.out.println("Writing query2 " + u);
-					br = new BufferedReader(new InputStreamReader(u.openStream()));
-					while (!ready && ((res = br.readLine()) != null)) {
-						System.out.println(res);
-						Matcher m = p2.matcher(res);
-						if (m.find()) {
-							ready = true;
-						}
-						m = p3.matcher(res);
-						if (m.find()) {
-							Thread.sleep(10000);
-						}
-					}
-					br.close();
-				}
-				u = new URL(urlStr.replaceAll(".txt", ""));
-				System.out.println("Writing query3 " + u);
-				br = new BufferedReader(new InputStreamReader(u.openStream()));
-				while ((res = br.readLine()) != null) {
-					System.out.println(res);
-					// tab-separated text, despite the .xls suffix
-					if (!res.trim().isEmpty()) {
-						String[] fields = res.split("\\t");
-						String term1 = fields[0];
-						String term2 = fields[1];
-						Double termSim = (fields[2].equalsIgnoreCase("none") ? Double.NaN : new Double(fields[2]));
-						Pair<String, String> termPair = getWordPair(new Word(term1), new Word(term2));
-						setCache(termPair, termSim);
-						if (termPair.equals(pair)) {
-							sim = termSim;
-						}
-					}
-				}
-				br.close();
-			} catch (Exception e) {
-				e.printStackTrace();
-				System.exit(0);
+			fetch(Collections.singleton(pair.first()), Collections.singleton(pair.second()));
+			sim = getCache(pair);
+			if (sim != null) {
+				return sim;
 			}
+			sim = Double.NaN;
 		}
 		setCache(pair, sim);
 		return sim;
 	}
 
-	private Double getCache(Pair<String, String> pair) {
-		if (cache.containsKey(pair.first()) && cache.get(pair.first()).containsKey(pair.second())) {
-			return cache.get(pair.first()).get(pair.second());
+	/**
+	 * Get scores for all (uncached) pairs of terms from the RPI web service in one batch, and cache them; pairs the
+	 * service doesn't return are cached as NaN
+	 */
+	private void fetch(Collection<String> terms, Collection<String> terms2) {
+		LinkedHashSet<String> needA = new LinkedHashSet<String>();
+		LinkedHashSet<String> needB = new LinkedHashSet<String>();
+		for (String a : terms) {
+			for (String b : terms2) {
+				if (wordPairCache.get(getModeName(), a, b) == null) {
+					needA.add(a);
+					needB.add(b);
+				}
+			}
+		}
+		if (needA.isEmpty()) {
+			return;
+		}
+		System.out.println("Fetching " + getModeName() + " scores for " + needA.size() + " x " + needB.size()
+				+ " terms ...");
+		try {
+			HashMap<Pair<String, String>, Double> sims = msrClient.getSimilarities(getModeName(), needA, needB);
+			for (Pair<String, String> termPair : sims.keySet()) {
+				setCache(termPair, sims.get(termPair));
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+		for (String a : needA) {
+			for (String b : needB) {
+				if (wordPairCache.get(getModeName(), a, b) == null) {
+					wordPairCache.put(getModeName(), a, b, Double.NaN);
+				}
+			}
 		}
-		return null;
 	}
 
-	private void setCache(Pair<String, String> pair, Double val) {
-		if (!cache.containsKey(pair.first())) {
-			cache.put(pair.first(), new HashMap<String, Double>());
+	/**
+	 * @return the name under which the current mode's scores are cached (for the RPI modes, the MSR measure name)
+	 */
+	private String getModeName() {
+		switch (mode) {
+		case SIM_JWNL:
+			return "JWNL";
+		case SIM_RPI_LSA:
+			return "LSA-tasa";
+		case SIM_RPI_NSS:
+			return "NSS-G";
+		case SIM_RPI_PMI:
+			return "PMI-G";
+		case SIM_RPI_WORDNET:
+			return "WordnetVector-UMN";
+		case SIM_LOCAL_DIST:
+			return "local:" + distributionalModelFile;
+		default:
+			return "mode" + mode;
 		}
-		cache.get(pair.first()).put(pair.second(), val);
 	}
 
-	private List<String> quoteEscape(List<HasWord> in) {
-		ArrayList<String> out = new ArrayList<String>();
-		for (HasWord hw : in) {
-			out.add(quoteEscape(hw.word()));
-		}
-		return out;
+	private Double getCache(Pair<String, String> pair) {
+		return wordPairCache.get(getModeName(), pair.first(), pair.second());
 	}
 
-	private String quoteEscape(String s) {
-		if (s.contains("'")) {
-			return ("\"" + s.replaceAll("\"", "") + "\"");
-		} else {
-			return ("'" + s + "'");
-		}
+	private void setCache(Pair<String, String> pair, Double val) {
+		wordPairCache.put(getModeName(), pair.first(), pair.second(), val);
 	}
 
 	/*
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Matthew Purver, Queen Mary University of London - initial API and implementation
+ ******************************************************************************/
+package qmul.align;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import qmul.corpus.DialogueSentence;
+import qmul.corpus.DialogueTurn;
+import qmul.corpus.LexicalAnnotator;
+import qmul.distr.Vocabulary;
+import qmul.util.MapUtil;
+import qmul.util.similarity.SimilarityMeasure;
+import csli.util.nlp.EditDistance;
+import edu.stanford.nlp.ling.Word;
+
+/**
+ * Token-level edit similarity for two sentences, measuring verbatim (ordered) repetition rather than the bag-of-words
+ * overlap of {@link SentenceLexicalSimilarityMeasure}. Sentences are compared as the token word ids stored by
+ * {@link LexicalAnnotator} - or word ids, if they have no tokens - with the bit-parallel {@link EditDistance}: either
+ * 1 - d/max(|a|,|b|) for Levenshtein distance d, or 2*l/(|a|+|b|) for longest common subsequence length l. As in
+ * {@link SentenceLexicalTokenSimilarityMeasure}, UNCLEAR never matches another UNCLEAR.
+ *
+ * @author mpurver
+ */
+public class SentenceTokenEditSimilarityMeasure implements SimilarityMeasure<DialogueSentence> {
+
+	public static final String UNCLEAR = LexicalAnnotator.UNCLEAR;
+
+	private int unclearId = -1;
+
+	private boolean useLCS;
+
+	private int maxDistance = -1;
+
+	private EditDistance ed = new EditDistance();
+
+	private int[] idsA = new int[16];
+	private int[] idsB = new int[16];
+
+	private HashMap<String, Integer> countsA = new HashMap<String, Integer>();
+	private HashMap<String, Integer> countsB = new HashMap<String, Integer>();
+	private HashMap<String, Integer> countsAB = new HashMap<String, Integer>();
+
+	/**
+	 * Levenshtein-based similarity
+	 */
+	public SentenceTokenEditSimilarityMeasure() {
+		this(false);
+	}
+
+	/**
+	 * @param useLCS
+	 *            if true, use longest common subsequence length; if false, Levenshtein distance
+	 */
+	public SentenceTokenEditSimilarityMeasure(boolean useLCS) {
+		super();
+		this.useLCS = useLCS;
+	}
+
+	/**
+	 * @param maxDistance
+	 *            if >=0, score 0 for any pair of sentences more than this many token edits apart, which lets the
+	 *            distance computation give up early (Levenshtein only); if <0 (the default), no limit
+	 */
+	public void setMaxDistance(int maxDistance) {
+		this.maxDistance = maxDistance;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see qmul.util.similarity.SimilarityMeasure#similarity(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public double similarity(DialogueSentence a, DialogueSentence b) {
+		LexicalAnnotator.ensureAnnotated(a);
+		LexicalAnnotator.ensureAnnotated(b);
+		countsA.clear();
+		countsB.clear();
+		countsAB.clear();
+		int n = a.getTokenIds().length;
+		int m = b.getTokenIds().length;
+		if ((n == 0) || (m == 0)) {
+			return 0.0;
+		}
+		idsA = copyIds(a.getTokenIds(), idsA, countsA);
+		idsB = copyIds(b.getTokenIds(), idsB, countsB);
+		for (String w : countsA.keySet()) {
+			if (countsB.containsKey(w) && !w.equals(UNCLEAR)) {
+				countsAB.put(w, Math.min(countsA.get(w), countsB.get(w)));
+			}
+		}
+		if (useLCS) {
+			return 2.0 * (double) ed.lcsLength(idsA, n, idsB, m) / (double) (n + m);
+		}
+		int d;
+		if (maxDistance >= 0) {
+			d = ed.levenshtein(idsA, n, idsB, m, maxDistance);
+			if (d > maxDistance) {
+				return 0.0;
+			}
+		} else {
+			d = ed.levenshtein(idsA, n, idsB, m);
+		}
+		return 1.0 - (double) d / (double) Math.max(n, m);
+	}
+
+	/**
+	 * @param ids
+	 *            token ids
+	 * @param buf
+	 *            a buffer to reuse if big enough
+	 * @param counts
+	 *            token counts, to be updated
+	 * @return the ids copied into buf (or a bigger replacement), with a fresh id for every UNCLEAR
+	 */
+	private int[] copyIds(int[] ids, int[] buf, HashMap<String, Integer> counts) {
+		if (buf.length < ids.length) {
+			buf = new int[Math.max(ids.length, 2 * buf.length)];
+		}
+		Vocabulary vocab = LexicalAnnotator.getVocabulary();
+		int unclear = vocab.lookup(UNCLEAR);
+		for (int i = 0; i < ids.length; i++) {
+			MapUtil.increment(counts, vocab.get(ids[i]));
+			if (ids[i] == unclear) {
+				buf[i] = unclearId--;
+				if (unclearId == Integer.MIN_VALUE) {
+					unclearId = -1;
+				}
+			} else {
+				buf[i] = ids[i];
+			}
+		}
+		return buf;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see qmul.util.similarity.SimilarityMeasure#reset()
+	 */
+	@Override
+	public void reset() {
+		countsA.clear();
+		countsB.clear();
+		countsAB.clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see qmul.util.similarity.SimilarityMeasure#rawCountsA()
+	 */
+	@Override
+	public HashMap<? extends Object, Integer> rawCountsA() {
+		return countsA;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see qmul.util.similarity.SimilarityMeasure#rawCountsB()
+	 */
+	@Override
+	public HashMap<? extends Object, Integer> rawCountsB() {
+		return countsB;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see qmul.util.similarity.SimilarityMeasure#rawCountsAB()
+	 */
+	@Override
+	public HashMap<? extends Object, Integer> rawCountsAB() {
+		return countsAB;
+	}
+
+	public static void main(String[] args) {
+		SentenceTokenEditSimilarityMeasure sm = new SentenceTokenEditSimilarityMeasure();
+		SentenceTokenEditSimilarityMeasure sml = new SentenceTokenEditSimilarityMeasure(true);
+		DialogueTurn t = new DialogueTurn("t", 1, null, null);
+		DialogueSentence a = new DialogueSentence("a", 1, t, "the upstairs one is slightly larger");
+		DialogueSentence b = new DialogueSentence("b", 1, t, "The upstairs one's larger");
+		System.out.println("" + a + "\n" + b + "\n" + "sim = " + sm.similarity(a, b) + " lcs = " + sml.similarity(a, b));
+		b = new DialogueSentence("b", 1, t, "slightly larger is the upstairs one");
+		System.out.println("" + a + "\n" + b + "\n" + "sim = " + sm.similarity(a, b) + " lcs = " + sml.similarity(a, b));
+		System.out.println(sm.rawCountsA() + "\n" + sm.rawCountsB() + "\n" + sm.rawCountsAB());
+		a = new DialogueSentence("a", 1, t, "UNCLEAR UNCLEAR");
+		a.setTokens(Arrays.asList(new Word(UNCLEAR), new Word(UNCLEAR)));
+		b = new DialogueSentence("b", 1, t, "UNCLEAR UNCLEAR");
+		b.setTokens(Arrays.asList(new Word(UNCLEAR), new Word(UNCLEAR)));
+		System.out.println("" + a + "\n" + b + "\n" + "sim = " + sm.similarity(a, b) + " lcs = " + sml.similarity(a, b));
+	}
+
+}
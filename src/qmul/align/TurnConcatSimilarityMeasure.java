@@ -15,6 +15,7 @@ import java.util.HashMap;
 
 import qmul.corpus.DialogueSentence;
 import qmul.corpus.DialogueTurn;
+import qmul.corpus.LexicalAnnotator;
 import qmul.util.parse.StanfordParser;
 import qmul.util.similarity.SimilarityMeasure;
 import qmul.util.treekernel.TreeKernel;
@@ -101,10 +102,50 @@ public class TurnConcatSimilarityMeasure implements SimilarityMeasure<DialogueTu
 						.getSyntaxProb()));
 			}
 		}
+		concatLexicalForms(cs, t);
 		System.out.println(" done.");
 		return cs;
 	}
 
+	/**
+	 * If all the turn's sentences have lexical forms (see {@link LexicalAnnotator}), give the concatenation their
+	 * concatenated word and token forms, rather than leaving it to be annotated afresh every time it's compared (any
+	 * stems etc are derived from these if ever needed)
+	 * 
+	 * @param cs
+	 *            the concatenated sentence
+	 * @param t
+	 */
+	private void concatLexicalForms(DialogueSentence cs, DialogueTurn t) {
+		int nW = 0;
+		int nT = 0;
+		for (DialogueSentence s : t.getSents()) {
+			if (!s.hasLexicalForms()) {
+				return;
+			}
+			nW += s.getWordIds().length;
+			if (s.getTokens() != null) {
+				nT += s.getTokenIds().length;
+			}
+		}
+		int[] words = new int[nW];
+		// as for the tokens themselves, only sentences with tokens contribute, unless none have any
+		boolean hasTokens = (cs.getTokens() != null);
+		int[] tokens = (hasTokens ? new int[nT] : words);
+		int iW = 0;
+		int iT = 0;
+		for (DialogueSentence s : t.getSents()) {
+			int n = s.getWordIds().length;
+			System.arraycopy(s.getWordIds(), 0, words, iW, n);
+			iW += n;
+			if (hasTokens && (s.getTokens() != null)) {
+				System.arraycopy(s.getTokenIds(), 0, tokens, iT, s.getTokenIds().length);
+				iT += s.getTokenIds().length;
+			}
+		}
+		cs.setLexicalForms(words, tokens);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
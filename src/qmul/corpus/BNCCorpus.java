@@ -10,24 +10,24 @@
  ******************************************************************************/
 package qmul.corpus;
 
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import qmul.util.FilenameToolkit;
 import qmul.util.parse.ClarkCurranParser;
@@ -35,7 +35,6 @@ import qmul.util.parse.CreateTreeFromClarkCurranCCGProlog;
 import qmul.util.parse.PennTreebankTokenizer;
 import qmul.util.parse.RASPParser;
 import qmul.util.parse.StanfordParser;
-import csli.util.FileUtils;
 import edu.stanford.nlp.ling.HasWord;
 import edu.stanford.nlp.ling.TaggedWord;
 import edu.stanford.nlp.ling.Word;
@@ -58,7 +57,15 @@ public class BNCCorpus extends DialogueCorpus {
 	private static final String TIMING_DIR = "/import/imc-corpora/corpora/bnc/bnc-audio";
 	// private static final String TIMING_DIR = "/Users/mpurver/Documents/imc-corpora/corpora/bnc/bnc-audio";
 
-	private static final PennTreebankTokenizer tok = new PennTreebankTokenizer(true);
+	private static final Pattern GENRE_PAT = Pattern.compile("scgdom\\d+", Pattern.CASE_INSENSITIVE);
+	private static final Pattern NAME_PAT = Pattern.compile("^(.+)\\s+(.+)$");
+	private static final Pattern PAUSE_PAT = Pattern.compile("^\\{(LG|CG|BR|XX)\\}$");
+	private static final Pattern PAUSE_PAT_LC = Pattern.compile("^\\{(lg|cg|br|xx)\\}$");
+	private static final Pattern APOS_DOT_PAT = Pattern.compile("['.]");
+	private static final Pattern CONTRACTION_PAT = Pattern.compile("^(ve|re|ll|m|s|un|uns|all|dear|er)$");
+	private static final Pattern WORD_CHAR_PAT = Pattern.compile("\\w");
+
+	private static boolean debugTimings = false;
 
 	public static final String UNKNOWN_SINGLE_SPEAKER = "PSUNK";
 	public static final String UNKNOWN_GROUP_SPEAKER = "PSUGP";
@@ -199,6 +206,14 @@ public class BNCCorpus extends DialogueCorpus {
 		BNCCorpus.removeBackchannels = removeBackchannels;
 	}
 
+	/**
+	 * @param debugTimings
+	 *            if true, print every step of matching transcript tokens against TextGrid timings
+	 */
+	public static void setDebugTimings(boolean debugTimings) {
+		BNCCorpus.debugTimings = debugTimings;
+	}
+
 	/**
 	 * @param monologue
 	 *            if true, include monologue as well as dialogue
@@ -214,9 +229,6 @@ public class BNCCorpus extends DialogueCorpus {
 		BNCCorpus.removePunctuationTokens = removePunctuationTokens;
 	}
 
-	private static final DocumentBuilderFactory fact = DocumentBuilderFactory.newInstance();
-	private static DocumentBuilder docBuilder;
-
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -224,16 +236,12 @@ public class BNCCorpus extends DialogueCorpus {
 	 */
 	@Override
 	public boolean setupCorpus() {
-		try {
-			docBuilder = fact.newDocumentBuilder();
-		} catch (ParserConfigurationException e) {
-			e.printStackTrace();
-			System.exit(0);
-		}
 		// getMetaData();
 		System.out.println("Limiting number of dialogues: " + getMaxDialogues());
 		if (!isDynamic()) {
-			if (!processDir(getDir())) {
+			ArrayList<File> files = new ArrayList<File>();
+			listFiles(getDir(), files);
+			if (!processFiles(files)) {
 				return false;
 			}
 		}
@@ -245,54 +253,72 @@ public class BNCCorpus extends DialogueCorpus {
 	}
 
 	/**
-	 * Read in all files in dir recursively
+	 * Find all BNC XML files in dir recursively
 	 * 
 	 * @param dir
-	 * @return success
+	 * @param files
+	 *            the list to add them to, in (case-insensitive) filename order
 	 */
-	private boolean processDir(File dir) {
-		File[] files = dir.listFiles();
-		FilenameToolkit.sortByFileNameIgnoreCase(files);
-		for (File file : files) {
+	private void listFiles(File dir, List<File> files) {
+		File[] dirFiles = dir.listFiles();
+		FilenameToolkit.sortByFileNameIgnoreCase(dirFiles);
+		for (File file : dirFiles) {
 			if (file.isDirectory()) {
-				if (!processDir(file)) {
-					// failure below this may be due to hitting the dialogue limit
-					return (numDialogues() >= getMaxDialogues());
-				}
+				listFiles(file, files);
 			} else if (file.getName().matches("\\w{3}\\.xml")) {
-				if (!processFile(file)) {
-					return false;
-				}
+				files.add(file);
 			} else {
 				System.out.println("WARNING: NOT processing non-matching corpus file " + file);
 			}
 		}
-		return true;
 	}
 
 	/**
-	 * @param file
+	 * Read in files, in parallel if DialogueCorpus.setNumThreads() says so, adding their dialogues to the corpus in the
+	 * order given
+	 * 
+	 * @param files
 	 * @return success
 	 */
-	private boolean processFile(File file) {
-		Document xml = null;
-		System.out.println("Reading BNC corpus file " + file + " ...");
-		try {
-			xml = docBuilder.parse(file);
-		} catch (SAXException e1) {
-			e1.printStackTrace();
-			return false;
-		} catch (IOException e1) {
-			e1.printStackTrace();
-			return false;
+	private boolean processFiles(List<File> files) {
+		boolean carryOn = processFiles(files, new FileProcessor<FileLoader>() {
+			@Override
+			public FileLoader read(File file) {
+				return new FileLoader(file).load();
+			}
+
+			@Override
+			public boolean add(FileLoader loader) {
+				return addFile(loader);
+			}
+		});
+		// failure may be due to hitting the dialogue limit
+		return (carryOn || (numDialogues() >= getMaxDialogues()));
+	}
+
+	/**
+	 * Add the speakers, genre info and dialogues from a loaded file to the corpus
+	 * 
+	 * @param loader
+	 * @return whether to carry on or not
+	 */
+	private boolean addFile(FileLoader loader) {
+		getSpeakerMap().putAll(loader.speakers);
+		if (loader.genre != null) {
+			getGenreMap().put(loader.dialogueName, loader.genre);
 		}
-		String dialogueName = file.getName().replaceAll("\\.xml", "").toUpperCase();
-		System.out.println("Processing BNC XML doc " + file + " ...");
-		if (!getXML(dialogueName, xml)) {
-			// failure below this may be due to hitting the dialogue limit
-			return (numDialogues() >= getMaxDialogues());
+		for (String genre : loader.genreCounts) {
+			Integer n = getGenreCounts().get(genre);
+			getGenreCounts().put(genre, (n == null ? 0 : n) + 1);
 		}
-		return true;
+		for (Dialogue dialogue : loader.dialogues) {
+			getDialogues().add(dialogue);
+			getGenreMap().put(dialogue.getId(), dialogue.getGenre());
+			if (!checkDialogue(dialogue)) {
+				return false;
+			}
+		}
+		return loader.success;
 	}
 
 	/*
@@ -310,7 +336,7 @@ public class BNCCorpus extends DialogueCorpus {
 		if (!file.exists()) {
 			throw new RuntimeException("File not found " + file.getAbsolutePath());
 		}
-		if (!processFile(file)) {
+		if (!addFile(new FileLoader(file).load()) && (numDialogues() < getMaxDialogues())) {
 			return false;
 		}
 		if (!sanityCheck()) {
@@ -320,751 +346,905 @@ public class BNCCorpus extends DialogueCorpus {
 		return true;
 	}
 
-	/**
-	 * @param dialogueName
-	 * @param xml
-	 * @return whether to carry on or not
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see qmul.corpus.DialogueCorpus#addDialogue(java.lang.String, java.lang.String)
 	 */
-	private boolean getXML(String dialogueName, Document xml) {
-		NodeList list = xml.getChildNodes();
-		if ((list.getLength() != 1) || !xml.getFirstChild().getNodeName().equals("bncDoc")) {
-			System.err.println("strange top node " + xml.getFirstChild());
-			return false;
-		}
-		Node bncDoc = xml.getFirstChild();
-		list = bncDoc.getChildNodes();
-		for (int i = 0; i < list.getLength(); i++) {
-			if (list.item(i).getNodeName().equals("teiHeader")) {
-				if (!getMetadata(dialogueName, list.item(i).getChildNodes())) {
-					System.out.println("Ignoring dialogue " + dialogueName);
-					return true;
-				}
-			} else if (list.item(i).getNodeName().equals("stext")) {
-				if (!getDivs(dialogueName, list.item(i).getChildNodes())) {
-					if (numDialogues() < getMaxDialogues()) {
-						System.err.println("error reading divs " + dialogueName);
-					}
-					return false;
-				}
-			}
-		}
-		return true;
+	@Override
+	public Dialogue addDialogue(String id, String genre) {
+		// ensure it's a BNCDialogue that gets added
+		Dialogue dialogue = new BNCDialogue(this, id, genre);
+		this.getDialogues().add(dialogue);
+		this.getGenreMap().put(id, genre);
+		return dialogue;
 	}
 
 	/**
-	 * Set speaker information for speaker IDs
-	 * 
-	 * @param dialogueName
-	 * @param list
-	 * @return success
+	 * A minimal element tree, built from the StAX stream for one small part of a file at a time (a &lt;u&gt; turn or a
+	 * &lt;person&gt;), so we never need the whole file in memory. Text and comments are children named #text and
+	 * #comment, as in the DOM
 	 */
-	private boolean getMetadata(String dialogueName, NodeList list) {
-		boolean success = false;
-		for (int i = 0; i < list.getLength(); i++) {
-			if (list.item(i).getNodeName().equals("profileDesc")) {
-				NodeList profile = list.item(i).getChildNodes();
-				for (int j = 0; j < profile.getLength(); j++) {
-					if (profile.item(j).getNodeName().equals("particDesc")) {
-						NodeList partic = profile.item(j).getChildNodes();
-						for (int k = 0; k < partic.getLength(); k++) {
-							if (partic.item(k).getNodeName().equals("person")) {
-								getPerson(dialogueName, partic.item(k));
-							}
-						}
-					} else if (profile.item(j).getNodeName().equals("textClass")) {
-						NodeList textCls = profile.item(j).getChildNodes();
-						for (int k = 0; k < textCls.getLength(); k++) {
-							if (textCls.item(k).getNodeName().equals("catRef")) {
-								String catRef = textCls.item(k).getAttributes().getNamedItem("targets").getNodeValue();
-								for (String cat : catRef.split("\\s+")) {
-									// must be dialogue!
-									if (cat.equalsIgnoreCase(DIALOGUE_TYPE)
-											|| (includeMonologue && cat.equalsIgnoreCase(MONOLOGUE_TYPE))) {
-										success = true;
-									}
-									Matcher m = Pattern.compile("scgdom\\d+", Pattern.CASE_INSENSITIVE).matcher(cat);
-									if (m.matches()) {
-										getGenreMap().put(dialogueName, m.group(0).toUpperCase());
-									}
-								}
-								// if no scgdom genre: demographic
-								if (getGenreMap().get(dialogueName) == null) {
-									getGenreMap().put(dialogueName, "DEMOG");
-								}
-								// set genre count
-								String genre = getGenreMap().get(dialogueName);
-								Integer n = getGenreCounts().get(genre);
-								getGenreCounts().put(genre, (n == null ? 0 : n) + 1);
-							}
-						}
+	private static class XmlNode {
+
+		private final String name;
+		private final HashMap<String, String> attributes = new HashMap<String, String>();
+		private final ArrayList<XmlNode> children = new ArrayList<XmlNode>();
+		private String value;
+
+		private XmlNode(String name, String value) {
+			this.name = name;
+			this.value = value;
+		}
+
+		/**
+		 * @param reader
+		 *            positioned at a START_ELEMENT
+		 * @return the element and all its content; reader is left at the matching END_ELEMENT
+		 * @throws XMLStreamException
+		 */
+		private static XmlNode read(XMLStreamReader reader) throws XMLStreamException {
+			XmlNode node = new XmlNode(reader.getLocalName(), null);
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				String prefix = reader.getAttributePrefix(i);
+				node.attributes.put((prefix == null || prefix.isEmpty() ? "" : prefix + ":")
+						+ reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+			}
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					node.children.add(read(reader));
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					XmlNode last = (node.children.isEmpty() ? null : node.children.get(node.children.size() - 1));
+					if ((last != null) && last.name.equals("#text")) {
+						last.value += reader.getText();
+					} else {
+						node.children.add(new XmlNode("#text", reader.getText()));
 					}
+					break;
+				case XMLStreamConstants.COMMENT:
+					node.children.add(new XmlNode("#comment", reader.getText()));
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					return node;
 				}
 			}
+			return node;
+		}
+
+		/**
+		 * @return the value of the first child (usually the text content)
+		 */
+		private String firstChildValue() {
+			return (children.isEmpty() ? null : children.get(0).value);
+		}
+
+		@Override
+		public String toString() {
+			return "[" + name + ": " + (value == null ? attributes : value) + "]";
 		}
-		return success;
 	}
 
 	/**
-	 * Set speaker info for one &lt;person&gt;
+	 * Skip the rest of the current element
 	 * 
-	 * @param dialogueName
-	 * @param node
-	 * @return success
+	 * @param reader
+	 *            positioned at a START_ELEMENT; left at the matching END_ELEMENT
+	 * @throws XMLStreamException
 	 */
-	private boolean getPerson(String dialogueName, Node node) {
-		boolean success = true;
-		String id = node.getAttributes().getNamedItem("xml:id").getNodeValue();
-		String origId = id;
-		// ensure dialogue ID within speaker ID, as per other corpora + AlignmentTester
-		if (id.startsWith(dialogueName)) {
-			id = id.replaceFirst(dialogueName, dialogueName + ":");
-		} else {
-			id = dialogueName + ":" + id;
-		}
-		String gender = node.getAttributes().getNamedItem("sex").getNodeValue();
-		String name = null;
-		String age = null;
-		String occupation = null;
-		NodeList list = node.getChildNodes();
-		for (int i = 0; i < list.getLength(); i++) {
-			if (list.item(i).getNodeName().equals("age")) {
-				age = list.item(i).getFirstChild().getNodeValue();
-			} else if (list.item(i).getNodeName().equals("occupation")) {
-				occupation = list.item(i).getFirstChild().getNodeValue();
-			} else if (list.item(i).getNodeName().equals("persName")) {
-				name = list.item(i).getFirstChild().getNodeValue();
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while ((depth > 0) && reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
 			}
 		}
-		String firstName = name;
-		String lastName = null;
-		if (name != null) {
-			Matcher m = Pattern.compile("^(.+)\\s+(.+)$").matcher(name);
-			if (m.matches()
-					&& !(id.equalsIgnoreCase(UNKNOWN_SINGLE_SPEAKER) || id.equalsIgnoreCase(UNKNOWN_GROUP_SPEAKER))) {
-				firstName = m.group(1);
-				lastName = m.group(2);
+	}
+
+	private static String firstNonEmptyNodeName(List<XmlNode> list) {
+		for (XmlNode node : list) {
+			if (node.name.equals("#text") && node.value.trim().isEmpty()) {
+				// ignore
+			} else {
+				return node.name;
 			}
 		}
-		DialogueSpeaker spk = new DialogueSpeaker(id, firstName, lastName, gender, age, occupation);
-		getSpeakerMap().put(id, spk);
-		getSpeakerMap().put(origId, spk);
-		// System.out.println("set spk " + id + " " + spk);
-		// System.out.println("set spk " + origId + " " + spk);
-		return success;
+		return null;
 	}
 
-	private class TextGridFileFilter implements FilenameFilter {
-
-		private String pattern;
+	private static File timingIndexFile = new File(TIMING_DIR, "TextGrid.idx");
+	private static TextGridIndex timingIndex = null;
+	private static boolean timingIndexFailed = false;
 
-		private TextGridFileFilter(String a, int b) {
-			this.pattern = ".+" + b + ".+" + a + ".+TextGrid";
-			System.out.println("new file pattern " + pattern);
-		}
+	/**
+	 * @param timingIndexFile
+	 *            the {@link TextGridIndex} file to read word timings from (built from the TextGrid files in the default
+	 *            timing directory if it doesn't exist)
+	 */
+	public static synchronized void setTimingIndexFile(File timingIndexFile) {
+		BNCCorpus.timingIndexFile = timingIndexFile;
+		timingIndex = null;
+		timingIndexFailed = false;
+	}
 
-		@Override
-		public boolean accept(File dir, String name) {
-			return name.matches(pattern);
+	/**
+	 * @return the word timing index, opened (or built) on first use; null if there isn't one
+	 */
+	private static synchronized TextGridIndex getTimingIndex() {
+		if ((timingIndex == null) && !timingIndexFailed) {
+			try {
+				if (!timingIndexFile.exists()) {
+					System.out.println("Building TextGrid index " + timingIndexFile + " ...");
+					TextGridIndex.build(new File(TIMING_DIR), timingIndexFile);
+				}
+				timingIndex = new TextGridIndex(timingIndexFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+				timingIndexFailed = true;
+			}
 		}
-
+		return timingIndex;
 	}
 
-	protected ArrayList<DialogueWord<Word>> wordTimings = null;
-
-	private void getWordTimings(Dialogue dialogue) {
-		String dialogueName = dialogue.getId();
-		int divNo = 1;
-		if (dialogue.getId().contains(":")) {
-			String[] bits = dialogue.getId().split(":");
-			dialogueName = bits[0];
-			divNo = Integer.parseInt(bits[1]);
+	/**
+	 * Reads one BNC XML file as a stream, building its {@link Dialogue}s (one per &lt;div&gt;) and speakers without
+	 * touching the corpus, so several files can be read at once; the results are then added to the corpus in order
+	 * via addFile()
+	 */
+	private class FileLoader {
+
+		private final File file;
+		private final String dialogueName;
+		private final PennTreebankTokenizer tok = new PennTreebankTokenizer(true);
+		private final LinkedHashMap<String, DialogueSpeaker> speakers = new LinkedHashMap<String, DialogueSpeaker>();
+		private final ArrayList<String> genreCounts = new ArrayList<String>();
+		private final ArrayList<Dialogue> dialogues = new ArrayList<Dialogue>();
+		private String genre = null;
+		private boolean success = true;
+
+		private ArrayList<DialogueWord<Word>> wordTimings = null;
+		// lower-cased timing words, whether they're pauses/non-vocal sounds, and the next one to match
+		private String[] timWords = null;
+		private boolean[] timPause = null;
+		private boolean[] timPauseLc = null;
+		private int timPos = 0;
+		private String lastTim = "";
+		private final HashMap<String, Pattern> oovPatterns = new HashMap<String, Pattern>();
+
+		private FileLoader(File file) {
+			this.file = file;
+			this.dialogueName = file.getName().replaceAll("\\.xml", "").toUpperCase();
 		}
-		System.out.println("Looking for Praat TextGrid file for " + dialogueName + " " + divNo + " ...");
-		wordTimings = new ArrayList<DialogueWord<Word>>();
-		File dir = new File(TIMING_DIR);
-		File[] files = dir.listFiles(new TextGridFileFilter(dialogueName, divNo));
-		if (files == null || files.length != 1) {
-			System.out.println("Problem finding files for " + dialogueName + " " + divNo + ": " + files);
-			wordTimings = null;
-		} else {
-			for (File file : files) {
-				System.out.println("Reading Praat TextGrid file " + file + " ...");
-				ArrayList<String> lines = new ArrayList<String>();
+
+		/**
+		 * @return this, with its dialogues etc filled in
+		 */
+		private FileLoader load() {
+			System.out.println("Reading BNC corpus file " + file + " ...");
+			try {
+				InputStream in = new BufferedInputStream(new FileInputStream(file));
+				XMLInputFactory factory = XMLInputFactory.newInstance();
+				factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+				XMLStreamReader reader = factory.createXMLStreamReader(in);
 				try {
-					FileUtils.getFileLines(file, lines);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				boolean found1 = false;
-				boolean found2 = false;
-				boolean started = false;
-				float startTime = -1.0f;
-				float endTime = -1.0f;
-				int num = 1;
-				for (String line : lines) {
-					if (started && line.equals("\"IntervalTier\"")) {
-						found1 = found2 = started = false; // stop at next IntervalTier
-					}
-					if (started) {
-						try {
-							float f = Float.parseFloat(line);
-							if (startTime < 0) {
-								startTime = f;
-							} else {
-								endTime = f;
-							}
-						} catch (NumberFormatException e) {
-							if (line.startsWith("\"")) {
-								line = line.substring(1);
-							}
-							if (line.endsWith("\"")) {
-								line = line.substring(0, line.length() - 1);
-							}
-							DialogueWord<Word> w = new DialogueWord<Word>(dialogue.getId() + " " + num, num++,
-									dialogue, null, new Word(line));
-							w.setStartTime(startTime);
-							w.setEndTime(endTime);
-							// System.out.println("found word " + w);
-							wordTimings.add(w);
-							startTime = -1.0f;
-							endTime = -1.0f;
-						}
-					}
-					found2 = (found1 && line.equals("\"word\""));
-					if (found2) {
-						started = true; // start at IntervalTier followed by "word"
-					}
-					found1 = line.equals("\"IntervalTier\"");
+					success = getXML(reader);
+				} finally {
+					reader.close();
+					in.close();
 				}
-				System.out.println("Read " + wordTimings.size() + " wordTimings " + wordTimings.get(0) + " "
-						+ wordTimings.get(wordTimings.size() - 1));
+			} catch (XMLStreamException e) {
+				e.printStackTrace();
+				success = false;
+			} catch (IOException e) {
+				e.printStackTrace();
+				success = false;
 			}
+			return this;
 		}
-	}
 
-	private boolean getDivs(String dialogueName, NodeList list) {
-		int autoDivNo = 0; // some e.g. KS7 have no <div> numbering
-		if (firstNonEmptyNodeName(list).equals("div")) {
-			for (int i = 0; i < list.getLength(); i++) {
-				if (list.item(i).getNodeName().equals("div")) {
-					Node divN = list.item(i).getAttributes().getNamedItem("n");
-					int divNo = (divN == null ? ++autoDivNo : Integer.parseInt(divN.getNodeValue()));
-					// System.out.println("g " + getGenreMap().get(dialogueName));
-					if (!getSubdialogue(dialogueName + ":" + divNo, getGenreMap().get(dialogueName), list.item(i)
-							.getChildNodes())) {
+		/**
+		 * @param reader
+		 * @return success
+		 * @throws XMLStreamException
+		 */
+		private boolean getXML(XMLStreamReader reader) throws XMLStreamException {
+			reader.nextTag();
+			if (!reader.getLocalName().equals("bncDoc")) {
+				System.err.println("strange top node " + reader.getLocalName());
+				return false;
+			}
+			System.out.println("Processing BNC XML doc " + file + " ...");
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (reader.getLocalName().equals("teiHeader")) {
+					if (!getMetadata(reader)) {
+						System.out.println("Ignoring dialogue " + dialogueName);
+						return true;
+					}
+				} else if (reader.getLocalName().equals("stext")) {
+					if (!getDivs(reader)) {
+						System.err.println("error reading divs " + dialogueName);
 						return false;
 					}
 				} else {
-					System.err.println("not all divs " + list.item(i));
-					System.exit(0);
+					skipElement(reader);
 				}
 			}
-		} else {
-			if (!getSubdialogue(dialogueName, getGenreMap().get(dialogueName), list)) {
-				return false;
-			}
-		}
-		return true;
-	}
-
-	private boolean getSubdialogue(String dialogueName, String genre, NodeList list) {
-		Dialogue dialogue = addDialogue(dialogueName, genre);
-		if (getTimings) {
-			getWordTimings(dialogue);
-		}
-		if (!getTurns(dialogue, list)) {
-			return false;
-		}
-		if (!checkDialogue(dialogue)) {
-			return false;
+			return true;
 		}
-		return true;
-	}
-
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see qmul.corpus.DialogueCorpus#addDialogue(java.lang.String, java.lang.String)
-	 */
-	@Override
-	public Dialogue addDialogue(String id, String genre) {
-		// ensure it's a BNCDialogue that gets added
-		Dialogue dialogue = new BNCDialogue(this, id, genre);
-		this.getDialogues().add(dialogue);
-		this.getGenreMap().put(id, genre);
-		return dialogue;
-	}
 
-	private boolean getTurns(Dialogue dialogue, NodeList list) {
-		boolean success = true;
-		for (int i = 0; i < list.getLength(); i++) {
-			if (list.item(i).getNodeName().equals("u")) {
-				String spkId = list.item(i).getAttributes().getNamedItem("who").getNodeValue();
-				DialogueSpeaker spk = getSpeaker(dialogue.getId(), spkId);
-				DialogueTurn turn = dialogue.addTurn(-1, spk);
-				if (turn != null) {
-					// System.out.println("adding turn for spkid " + spkId);
-					if (!getSentences(dialogue, turn, list.item(i).getChildNodes())) {
-						success = false;
+		/**
+		 * Set speaker information for speaker IDs, and genre
+		 * 
+		 * @param reader
+		 *            positioned at the &lt;teiHeader&gt;
+		 * @return true if this is a dialogue we want
+		 * @throws XMLStreamException
+		 */
+		private boolean getMetadata(XMLStreamReader reader) throws XMLStreamException {
+			boolean success = false;
+			int depth = 1;
+			boolean inProfile = false;
+			while (depth > 0) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+					if (reader.getLocalName().equals("profileDesc")) {
+						inProfile = false;
+					}
+				} else if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = reader.getLocalName();
+					if (name.equals("profileDesc")) {
+						inProfile = true;
+						depth++;
+					} else if (inProfile && name.equals("person")) {
+						getPerson(XmlNode.read(reader));
+					} else if (inProfile && name.equals("catRef")) {
+						String catRef = reader.getAttributeValue(null, "targets");
+						for (String cat : catRef.split("\\s+")) {
+							// must be dialogue!
+							if (cat.equalsIgnoreCase(DIALOGUE_TYPE)
+									|| (includeMonologue && cat.equalsIgnoreCase(MONOLOGUE_TYPE))) {
+								success = true;
+							}
+							Matcher m = GENRE_PAT.matcher(cat);
+							if (m.matches()) {
+								genre = m.group(0).toUpperCase();
+							}
+						}
+						// if no scgdom genre: demographic
+						if (genre == null) {
+							genre = "DEMOG";
+						}
+						genreCounts.add(genre);
+						depth++;
+					} else {
+						depth++;
 					}
-					// System.out.println("turn " + turn);
-					// } else {
-					// System.out.println("null turn for " + spk + " " + removeUnknowns);
 				}
 			}
+			return success;
 		}
-		return success;
-	}
 
-	/**
-	 * @param dialogueId
-	 * @param speakerId
-	 * @return the speaker with this ID in this dialogue, optionally making a new unknown speaker if the BNC people have
-	 *         messed up & left the old SGML PS000/PS001 "unknown" IDs in the XML files
-	 */
-	private DialogueSpeaker getSpeaker(String dialogueId, String speakerId) {
-		DialogueSpeaker speaker = getSpeakerMap().get(speakerId);
-		if (speaker == null) {
-			String test;
-			// for "unknown" speakers only, try to find using the XML "unknown" ID
-			if (speakerId.equals(SGML_UNKNOWN_SINGLE_SPEAKER) || speakerId.endsWith(UNKNOWN_SINGLE_SPEAKER)) {
-				test = UNKNOWN_SINGLE_SPEAKER;
-			} else if (speakerId.equals(SGML_UNKNOWN_GROUP_SPEAKER) || speakerId.endsWith(UNKNOWN_GROUP_SPEAKER)) {
-				test = UNKNOWN_GROUP_SPEAKER;
+		/**
+		 * Set speaker info for one &lt;person&gt;
+		 * 
+		 * @param node
+		 * @return success
+		 */
+		private boolean getPerson(XmlNode node) {
+			boolean success = true;
+			String id = node.attributes.get("xml:id");
+			String origId = id;
+			// ensure dialogue ID within speaker ID, as per other corpora + AlignmentTester
+			if (id.startsWith(dialogueName)) {
+				id = id.replaceFirst(dialogueName, dialogueName + ":");
 			} else {
-				throw new RuntimeException("Can't find speaker for known ID " + speakerId);
+				id = dialogueName + ":" + id;
 			}
-			speaker = getSpeakerMap().get(test);
-			if (speaker == null) {
-				test = (dialogueId.contains(":") ? dialogueId.substring(0, dialogueId.indexOf(":")) : dialogueId) + ":"
-						+ test;
-				speaker = getSpeakerMap().get(test);
+			String gender = node.attributes.get("sex");
+			String name = null;
+			String age = null;
+			String occupation = null;
+			for (XmlNode child : node.children) {
+				if (child.name.equals("age")) {
+					age = child.firstChildValue();
+				} else if (child.name.equals("occupation")) {
+					occupation = child.firstChildValue();
+				} else if (child.name.equals("persName")) {
+					name = child.firstChildValue();
+				}
 			}
-			// if not there because header missing info, create the "unknown" speaker for this dialogue
-			if (speaker == null) {
-				String name = (test.endsWith(UNKNOWN_SINGLE_SPEAKER) ? "Unknown speaker" : "Group of unknown speakers");
-				speaker = new DialogueSpeaker(test, name, null, null, null, null);
-				getSpeakerMap().put(test, speaker);
-				System.err.println("WARNING: creating missing unknown speaker " + speaker + " for " + speakerId);
+			String firstName = name;
+			String lastName = null;
+			if (name != null) {
+				Matcher m = NAME_PAT.matcher(name);
+				if (m.matches()
+						&& !(id.equalsIgnoreCase(UNKNOWN_SINGLE_SPEAKER) || id.equalsIgnoreCase(UNKNOWN_GROUP_SPEAKER))) {
+					firstName = m.group(1);
+					lastName = m.group(2);
+				}
 			}
+			DialogueSpeaker spk = new DialogueSpeaker(id, firstName, lastName, gender, age, occupation);
+			speakers.put(id, spk);
+			speakers.put(origId, spk);
+			return success;
 		}
-		return speaker;
-	}
 
-	private boolean getSentences(Dialogue dialogue, DialogueTurn turn, NodeList list) {
-		DialogueSentence s = null;
-		if (firstNonEmptyNodeName(list).equals("s")) {
-			for (int i = 0; i < list.getLength(); i++) {
-				if (list.item(i).getNodeName().equals("s")) {
-					String sentNoStr = list.item(i).getAttributes().getNamedItem("n").getNodeValue();
-					int sentNo = (sentNoStr.contains("_") ? Integer.parseInt(sentNoStr.replaceFirst("_", ""))
-							: (Integer.parseInt(sentNoStr) * 10));
-					ArrayList<TaggedWord> taggedWords = new ArrayList<TaggedWord>();
-					ArrayList<TaggedWord> taggedLemmas = new ArrayList<TaggedWord>();
-					Pair<String, String> trans = getTranscription(list.item(i).getChildNodes(), taggedWords,
-							taggedLemmas);
-					String transcription = trans.first();
-					List<Word> tokens = tok.getWordsFromString(trans.second());
-					System.out.println(sentNo + " trans " + transcription);
-					System.out.println(sentNo + " toks " + tokens);
-					s = dialogue.addSent(sentNo, turn, transcription, null);
-					s.setTokens(tokens);
-					s.setTaggedWords(taggedWords);
-					s.setTaggedLemmas(taggedLemmas);
-					if (getTimings && (wordTimings != null)) {
-						addTimings(s, turn, dialogue);
-						System.out.println("matched sent " + s.getId() + " " + s.getStartTime() + "-" + s.getEndTime());
-						System.out.println(" so turn " + turn.getId() + " " + turn.getStartTime() + "-"
-								+ turn.getEndTime());
+		/**
+		 * @param reader
+		 *            positioned at the &lt;stext&gt;
+		 * @return success
+		 * @throws XMLStreamException
+		 */
+		private boolean getDivs(XMLStreamReader reader) throws XMLStreamException {
+			int autoDivNo = 0; // some e.g. KS7 have no <div> numbering
+			Boolean divs = null;
+			Dialogue dialogue = null;
+			boolean success = true;
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				String name = reader.getLocalName();
+				if (divs == null) {
+					divs = name.equals("div");
+				}
+				if (divs) {
+					if (!name.equals("div")) {
+						System.err.println("not all divs " + name);
+						System.exit(0);
+					}
+					String divN = reader.getAttributeValue(null, "n");
+					int divNo = (divN == null ? ++autoDivNo : Integer.parseInt(divN));
+					dialogue = getSubdialogue(dialogueName + ":" + divNo);
+					while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+						if (!getTurn(dialogue, reader)) {
+							success = false;
+						}
 					}
 				} else {
-					if (list.item(i).getNodeName().equals("#text") && list.item(i).getNodeValue().trim().isEmpty()) {
-						// just some intervening white space
-					} else {
-						System.err.println("unexpected u child " + list.item(i));
-						System.exit(0);
+					if (dialogue == null) {
+						dialogue = getSubdialogue(dialogueName);
+					}
+					if (!getTurn(dialogue, reader)) {
+						success = false;
 					}
 				}
 			}
-		} else {
-			// System.out.println("no s because " + firstNonEmptyNodeName(list));
-			// whole turn (unclear/laugh etc) without a <s> in
-			ArrayList<TaggedWord> taggedWords = new ArrayList<TaggedWord>();
-			ArrayList<TaggedWord> taggedLemmas = new ArrayList<TaggedWord>();
-			Pair<String, String> trans = getTranscription(list, taggedWords, taggedLemmas);
-			String transcription = trans.first();
-			List<Word> tokens = tok.getWordsFromString(trans.second());
-			System.out.println(-1 + " trans " + transcription);
-			System.out.println(-1 + " toks " + tokens);
-			s = dialogue.addSent(-1, turn, transcription, null);
-			s.setTokens(tokens);
-			s.setTaggedWords(taggedWords);
-			s.setTaggedLemmas(taggedLemmas);
-			// // Looks like nonverbal turns don't have matching TextGrid timings
-			// if (getTimings && (wordTimings != null)) {
-			// addTimings(s, turn, dialogue);
-			// }
-			// System.out.println("Added as " + s.getNum() + " = " + s.getTranscription());
+			if (divs == null) {
+				getSubdialogue(dialogueName);
+			}
+			return success;
 		}
-		return (s != null);
-	}
-
-	/**
-	 * get the corresponding subsequences from head of wordTimings and current position in a token list (timings
-	 * contains e.g. "it's" when tokens have separate "it", "'s")
-	 * 
-	 * @param tokens
-	 * @param iT
-	 * @return the number of members to match, or null if no match
-	 */
-	private Pair<Integer, Integer> matchTimings(List<HasWord> tokens, int iT) {
-		return matchTimings(tokens, iT, 0, 0, "", ""); // yes I know, I used to program in Prolog
-	}
 
-	protected static String lastTim = "";
+		private Dialogue getSubdialogue(String id) {
+			Dialogue dialogue = new BNCDialogue(BNCCorpus.this, id, genre);
+			dialogues.add(dialogue);
+			if (getTimings) {
+				getWordTimings(dialogue);
+			}
+			return dialogue;
+		}
 
-	/**
-	 * @param tim
-	 * @param tok
-	 * @return whether a textgrid token tim matches a BNC token tok
-	 */
-	private boolean matchTokens(String tim, String tok) {
-		if (tim.equals(tok) || tim.replaceAll("['.]", "").equals(tok.replaceAll("['.]", ""))
-				|| (tim.startsWith("{gap_") && tok.startsWith("gap_"))) {
-			return true;
-		} else if (tim.equals("{oov}")
-				|| tim.equals("{ns}")
-				// case for compounds e.g. "d{oov}" matching "d'ya", "bric-{oov}-brac" matching "bric-à-brac"
-				|| (tim.contains("{oov}") && tok.matches(tim.replace("{oov}", ".*").replaceAll("([\\{\\}\\[\\]])",
-						"\\$1")))) {
+		/**
+		 * @param dialogue
+		 * @param reader
+		 *            positioned at a child of &lt;stext&gt; or &lt;div&gt;; turns are built from &lt;u&gt;, anything
+		 *            else is skipped
+		 * @return success
+		 * @throws XMLStreamException
+		 */
+		private boolean getTurn(Dialogue dialogue, XMLStreamReader reader) throws XMLStreamException {
+			if (!reader.getLocalName().equals("u")) {
+				skipElement(reader);
+				return true;
+			}
+			XmlNode u = XmlNode.read(reader);
+			String spkId = u.attributes.get("who");
+			DialogueSpeaker spk = getSpeaker(dialogue.getId(), spkId);
+			DialogueTurn turn = dialogue.addTurn(-1, spk);
+			if (turn != null) {
+				return getSentences(dialogue, turn, u.children);
+			}
 			return true;
-			// } else if (tok.equals("unclear")) { // actually expect this to match {oov}
-			// return true;
 		}
-		return false;
-	}
 
-	/**
-	 * get the corresponding subsequences from head of wordTimings and current position in a token list (timings
-	 * contains e.g. "it's" when tokens have separate "it", "'s"; and tokens have hyphenated e.g. "off-licence" when
-	 * timings have separate "off", "licence")
-	 * 
-	 * @param tokens
-	 * @param iT
-	 * @param iTim
-	 * @param iTok
-	 * @param timSoFar
-	 * @param tokSoFar
-	 * @return the number of members to match, or null if no match
-	 */
-	private Pair<Integer, Integer> matchTimings(List<HasWord> tokens, int iT, int iTim, int iTok, String timSoFar,
-			String tokSoFar) {
-		if ((iTim >= wordTimings.size()) || ((iT + iTok) >= tokens.size())) {
-			return null;
-		}
-		while (wordTimings.get(iTim).getWord().word().equals("sp") // pauses don't match tokens
-				|| wordTimings.get(iTim).getWord().word().matches("^\\{(LG|CG|BR|XX)\\}$")) { // laughter, cough etc
-			iTim++;
-		}
-		String tim = timSoFar + wordTimings.get(iTim).getWord().word().toLowerCase();
-		String tok = tokSoFar + tokens.get(iT + iTok).word().replaceAll("/", "").toLowerCase(); // "ab" matches "a/b"
-		String lastTok = ((iT + iTok) > 0 ? tokens.get(iT + iTok - 1).word().toLowerCase() : ""); // TODO not if
-																									// tokSoFar
-		String nextTok = ((iT + iTok) < (tokens.size() - 1) ? tokens.get(iT + iTok + 1).word().toLowerCase() : "");
-		String nextTim = (iTim < (wordTimings.size() - 1) ? wordTimings.get(iTim + 1).getWord().word().toLowerCase()
-				: "");
-		String nextNonSpTim = nextTim;
-		int iTmp = iTim + 1;
-		while ((nextNonSpTim.equals("sp") || nextNonSpTim.matches("^\\{(lg|cg|br|xx)\\}$"))
-				&& (iTmp < (wordTimings.size() - 1))) {
-			nextNonSpTim = wordTimings.get(iTmp + 1).getWord().word().toLowerCase();
-			iTmp++;
+		/**
+		 * @param dialogueId
+		 * @param speakerId
+		 * @return the speaker with this ID in this dialogue, optionally making a new unknown speaker if the BNC people
+		 *         have messed up & left the old SGML PS000/PS001 "unknown" IDs in the XML files
+		 */
+		private DialogueSpeaker getSpeaker(String dialogueId, String speakerId) {
+			DialogueSpeaker speaker = speakers.get(speakerId);
+			if (speaker == null) {
+				String test;
+				// for "unknown" speakers only, try to find using the XML "unknown" ID
+				if (speakerId.equals(SGML_UNKNOWN_SINGLE_SPEAKER) || speakerId.endsWith(UNKNOWN_SINGLE_SPEAKER)) {
+					test = UNKNOWN_SINGLE_SPEAKER;
+				} else if (speakerId.equals(SGML_UNKNOWN_GROUP_SPEAKER) || speakerId.endsWith(UNKNOWN_GROUP_SPEAKER)) {
+					test = UNKNOWN_GROUP_SPEAKER;
+				} else {
+					throw new RuntimeException("Can't find speaker for known ID " + speakerId);
+				}
+				speaker = speakers.get(test);
+				if (speaker == null) {
+					test = (dialogueId.contains(":") ? dialogueId.substring(0, dialogueId.indexOf(":")) : dialogueId)
+							+ ":" + test;
+					speaker = speakers.get(test);
+				}
+				// if not there because header missing info, create the "unknown" speaker for this dialogue
+				if (speaker == null) {
+					String name = (test.endsWith(UNKNOWN_SINGLE_SPEAKER) ? "Unknown speaker"
+							: "Group of unknown speakers");
+					speaker = new DialogueSpeaker(test, name, null, null, null, null);
+					speakers.put(test, speaker);
+					System.err.println("WARNING: creating missing unknown speaker " + speaker + " for " + speakerId);
+				}
+			}
+			return speaker;
 		}
-		System.out.println("Matching " + tim + " " + tok + " (" + lastTim + " " + lastTok + ") (" + nextTim + " "
-				+ nextNonSpTim + " " + nextTok + ")");
-		if (tim.equals("{oov}")
-				&& !(tok.equals("unclear") || tok.equals("truncated_word"))
-				&& (!nextNonSpTim.isEmpty() && !nextNonSpTim.equals("{oov}") && !nextTok.isEmpty()
-						&& matchTokens(nextNonSpTim, tok) && !matchTokens(nextNonSpTim, nextTok))) {
-			// match 1 against 0 if a (usually sentence-initial) {oov} matches nothing
-			// or a matching {oov} can match more e.g. "bric-{oov}" matching "bric-à-brac" when "brac" is coming next
-			System.out.println("clause 1");
-			return matchTimings(tokens, iT, iTim + 1, iTok, timSoFar, tokSoFar);
-		} else if (tim.contains("{oov}")
-				&& !(tok.equals("unclear") || tok.equals("truncated_word"))
-				&& (!nextNonSpTim.isEmpty() && !nextNonSpTim.equals("{oov}") && !nextTok.isEmpty()
-						&& matchTokens(tim + nextNonSpTim, tok) && !matchTokens(nextNonSpTim, nextTok))) {
-			// match 2 against 1 if {oov} can match more e.g. "bric-{oov}" matching "bric-à-brac" when "brac" is coming
-			System.out.println("clause 1a");
-			return matchTimings(tokens, iT, iTim + 1, iTok, tim, tokSoFar);
-			// TRY WITHOUT: gets to K6J with
-			// } else if (tim.equals("{oov}")
-			// && !(tok.equals("unclear") || tok.equals("truncated_word") || tok.startsWith("gap_"))
-			// && (!nextNonSpTim.isEmpty() && !nextTok.isEmpty() && !matchTokens(nextNonSpTim, nextTok))) {
-			// // match 1 against many if a {oov} has to match more than one token
-			// System.out.println("clause 2a");
-			// return matchTimings(tokens, iT, iTim, iTok + 1, timSoFar, tok);
-		} else if (tim.equals("oov") && lastTok.equals("truncated_word") && nextTok.endsWith(tok)) {
-			// match {oov} 1 against 2 if they are repeated self-repairs
-			System.out.println("clause 2");
-			return new Pair<Integer, Integer>(iTim + 1, iTok + 2);
-		} else if (matchTokens(tim, tok) || (tok.startsWith("'") && matchTokens(tim, lastTok + tok))
-				|| (tim.equals("t") && tok.equals("n't"))) {
-			// standard - match 1 against 1
-			System.out.println("clause 3");
-			return new Pair<Integer, Integer>(iTim + 1, iTok + 1);
-		} else if (tok.equals("unclear")) {
-			// match 0 against 1 for [unclear] token if it didn't match {oov} in clause above
-			System.out.println("clause 4");
-			return new Pair<Integer, Integer>(iTim, iTok + 1);
-		} else if (tok.endsWith("truncated_word")) {
-			// match 2 against 1 for cases where truncated part is split "o'clo[ck]-", "we'v-", "re-lau-", "he's-",
-			System.out.println("clause 5");
-			// if ((tim.equals("o") && nextTim.startsWith("clo")) || (tim.equals("we") && nextTim.equals("v"))
-			// || (tim.equals("re") && nextTim.equals("lau")) || (tim.equals("organo") && nextTim.equals("{oov}"))
-			// || (tim.equals("he") && nextTim.equals("s")) || (tim.equals("non") && nextTim.equals("gav"))
-			// || (tim.equals("re") && nextTim.equals("writ")) || (tim.equals("krook") && nextTim.equals("lo"))
-			// || (tim.equals("multi") && nextNonSpTim.equals("c"))
-			// || (tim.equals("pre") && nextNonSpTim.equals("element"))
-			// || (tim.equals("re") && nextNonSpTim.equals("in")) || (tim.equals("d") && nextNonSpTim.equals("y"))) {
-			if (tok.startsWith(tim + nextNonSpTim)) {
-				return matchTimings(tokens, iT, iTim + 1, iTok, tim + "'", tokSoFar);
+
+		/**
+		 * Read the word timings for a dialogue from its Praat TextGrid file, if there is one
+		 * 
+		 * @param dialogue
+		 */
+		private void getWordTimings(Dialogue dialogue) {
+			String dialogueName = dialogue.getId();
+			int divNo = 1;
+			if (dialogue.getId().contains(":")) {
+				String[] bits = dialogue.getId().split(":");
+				dialogueName = bits[0];
+				divNo = Integer.parseInt(bits[1]);
 			}
-			// else match 1 against 1
-			return new Pair<Integer, Integer>(iTim + 1, iTok + 1);
-		} else if ((tim.contains("'") || nextTok.equals("n't") || nextTok.equals("s"))
-				&& (!tok.contains("'") || tok.startsWith("o'") || tok.equals("'n'") || tok.equals("'em"))
-				&& tim.startsWith(tok.replaceFirst("^'", ""))) {
-			System.out.println("clause 6");
-			// contractions: match 1 in textgrids against 2 in tokenised transcript ("i've" vs "i 've")
-			if (nextTok.matches("^(ve|re|ll|m|s|un|uns|all|dear|er)$")) {
-				tok += "'"; // sometimes BNC transcription misses off '
+			System.out.println("Looking for Praat TextGrid timings for " + dialogueName + " " + divNo + " ...");
+			TextGridIndex index = getTimingIndex();
+			TextGridIndex.Timings timings = (index == null ? null : index.getTimings(dialogueName, divNo));
+			if (timings == null) {
+				System.out.println("Problem finding timings for " + dialogueName + " " + divNo);
+				wordTimings = null;
+				return;
 			}
-			return matchTimings(tokens, iT, iTim, iTok + 1, timSoFar, tok);
-			// } else if (!tim.contains("-") && tok.contains("-") && tok.startsWith(tim)) {
-		} else if (tok.contains("-") && tok.equals(tim + "-")) {
-			System.out.println("clause 7");
-			// hyphenations: occasionally match 2 in textgrids against 2 in tokenised transcript ("anti X" vs "anti- X")
-			return matchTimings(tokens, iT, iTim + 1, iTok + 1, tim + "-", tok);
-		} else if (tok.contains("-") && tok.startsWith(tim + "-")) {
-			// hyphenations: usually match 2 in textgrids against 1 in tokenised transcript ("semi X" vs "semi-X")
-			System.out.println("clause 8");
-			return matchTimings(tokens, iT, iTim + 1, iTok, tim + "-", tokSoFar);
-		} else if (tok.replace(".", "").startsWith(tim)) {
-			// compounds: match 2 in textgrids against 1 in tokenised transcript ("wa n na" vs "wanna")
-			// (including "man/woman" which will then match when / removed)
-			System.out.println("clause 9");
-			if (tok.startsWith(nextNonSpTim)) {
-				// but in some cases, ditch the initial e.g. "s self"
-				return matchTimings(tokens, iT, iTim + 1, iTok, timSoFar, tokSoFar);
-			} else {
-				return matchTimings(tokens, iT, iTim + 1, iTok, tim, tokSoFar);
+			wordTimings = new ArrayList<DialogueWord<Word>>(timings.size());
+			timWords = new String[timings.size()];
+			timPause = new boolean[timings.size()];
+			timPauseLc = new boolean[timings.size()];
+			timPos = 0;
+			for (int i = 0; i < timings.size(); i++) {
+				String word = timings.getWord(i);
+				timWords[i] = word.toLowerCase();
+				timPause[i] = word.equals("sp") || PAUSE_PAT.matcher(word).matches();
+				timPauseLc[i] = timWords[i].equals("sp") || PAUSE_PAT_LC.matcher(timWords[i]).matches();
+				DialogueWord<Word> w = new DialogueWord<Word>(dialogue.getId() + " " + (i + 1), i + 1, dialogue,
+						null, new Word(timings.getWord(i)));
+				w.setStartTime(timings.getStartTime(i));
+				w.setEndTime(timings.getEndTime(i));
+				wordTimings.add(w);
+			}
+			if (!wordTimings.isEmpty()) {
+				System.out.println("Read " + wordTimings.size() + " wordTimings from " + timings.getFileName() + " "
+						+ wordTimings.get(0) + " " + wordTimings.get(wordTimings.size() - 1));
 			}
-		} else if (tim.equals("sa") && tokens.get(iT + iTok - 1).word().toLowerCase().equals("truncated_word")) {
-			// special (because unsafe) case to match truncated & already hyphenated words
-			System.out.println("clause 10");
-			return new Pair<Integer, Integer>(iTim + 1, iTok);
-		} else if (matchTokens(tim, nextTok) || tok.startsWith("gap_") || tok.equals("hunslet")) {
-			// match 0 against 1 for if there's a missing word in the TextGrids (see e.g. JNG, JNH) or "hunslet" in KGP
-			System.out.println("clause 11");
-			return new Pair<Integer, Integer>(iTim, iTok + 1);
 		}
-		return null;
-	}
 
-	/**
-	 * Add start/end times at sentence, turn and dialogue level, from textgrid wordTimings
-	 * 
-	 * @param s
-	 * @param turn
-	 * @param dialogue
-	 */
-	private void addTimings(DialogueSentence s, DialogueTurn turn, Dialogue dialogue) {
-		int iT = 0;
-		ArrayList<HasWord> myTokens = new ArrayList<HasWord>(s.getTokens());
-		if (!removePunctuationTokens) {
-			// if haven't previously removed punctuation-only tokens, remove them now (replacing ampersands)
-			myTokens.clear();
-			for (HasWord token : s.getTokens()) {
-				if (token.word().matches("^&$")) {
-					myTokens.add(new Word("and"));
-				}
-				if (token.word().matches(".*\\w.*")) {
-					myTokens.add(token);
+		private boolean getSentences(Dialogue dialogue, DialogueTurn turn, List<XmlNode> list) {
+			DialogueSentence s = null;
+			if ("s".equals(firstNonEmptyNodeName(list))) {
+				for (int i = 0; i < list.size(); i++) {
+					if (list.get(i).name.equals("s")) {
+						String sentNoStr = list.get(i).attributes.get("n");
+						int sentNo = (sentNoStr.contains("_") ? Integer.parseInt(sentNoStr.replaceFirst("_", ""))
+								: (Integer.parseInt(sentNoStr) * 10));
+						ArrayList<TaggedWord> taggedWords = new ArrayList<TaggedWord>();
+						ArrayList<TaggedWord> taggedLemmas = new ArrayList<TaggedWord>();
+						Pair<String, String> trans = getTranscription(list.get(i).children, taggedWords,
+								taggedLemmas);
+						String transcription = trans.first();
+						List<Word> tokens = tok.getWordsFromString(trans.second());
+						System.out.println(sentNo + " trans " + transcription);
+						System.out.println(sentNo + " toks " + tokens);
+						s = dialogue.addSent(sentNo, turn, transcription, null);
+						s.setTokens(tokens);
+						s.setTaggedWords(taggedWords);
+						s.setTaggedLemmas(taggedLemmas);
+						if (getTimings && (wordTimings != null)) {
+							addTimings(s, turn, dialogue);
+							System.out.println("matched sent " + s.getId() + " " + s.getStartTime() + "-" + s.getEndTime());
+							System.out.println(" so turn " + turn.getId() + " " + turn.getStartTime() + "-"
+									+ turn.getEndTime());
+						}
+					} else {
+						if (list.get(i).name.equals("#text") && list.get(i).value.trim().isEmpty()) {
+							// just some intervening white space
+						} else {
+							System.err.println("unexpected u child " + list.get(i));
+							System.exit(0);
+						}
+					}
 				}
+			} else {
+				// System.out.println("no s because " + firstNonEmptyNodeName(list));
+				// whole turn (unclear/laugh etc) without a <s> in
+				ArrayList<TaggedWord> taggedWords = new ArrayList<TaggedWord>();
+				ArrayList<TaggedWord> taggedLemmas = new ArrayList<TaggedWord>();
+				Pair<String, String> trans = getTranscription(list, taggedWords, taggedLemmas);
+				String transcription = trans.first();
+				List<Word> tokens = tok.getWordsFromString(trans.second());
+				System.out.println(-1 + " trans " + transcription);
+				System.out.println(-1 + " toks " + tokens);
+				s = dialogue.addSent(-1, turn, transcription, null);
+				s.setTokens(tokens);
+				s.setTaggedWords(taggedWords);
+				s.setTaggedLemmas(taggedLemmas);
+				// // Looks like nonverbal turns don't have matching TextGrid timings
+				// if (getTimings && (wordTimings != null)) {
+				// addTimings(s, turn, dialogue);
+				// }
+				// System.out.println("Added as " + s.getNum() + " = " + s.getTranscription());
 			}
+			return (s != null);
 		}
-		while (iT < myTokens.size()) {
-			// System.out.println("iT = " + iT + " len " + wordTimings.size());
-			while ((wordTimings.size() > 0) && (wordTimings.get(0).getWord().word().equals("sp") // pauses don't match
-					|| wordTimings.get(0).getWord().word().matches("^\\{(LG|CG|BR|XX)\\}$"))) { // laughter, cough etc
-				wordTimings.remove(0);
+
+		/**
+		 * @param tim
+		 * @param tok
+		 * @return whether a textgrid token tim matches a BNC token tok
+		 */
+		private boolean matchTokens(String tim, String tok) {
+			if (tim.equals(tok)
+					|| APOS_DOT_PAT.matcher(tim).replaceAll("").equals(APOS_DOT_PAT.matcher(tok).replaceAll(""))
+					|| (tim.startsWith("{gap_") && tok.startsWith("gap_"))) {
+				return true;
+			} else if (tim.equals("{oov}") || tim.equals("{ns}")
+			// case for compounds e.g. "d{oov}" matching "d'ya", "bric-{oov}-brac" matching "bric-à-brac"
+					|| (tim.contains("{oov}") && getOovPattern(tim).matcher(tok).matches())) {
+				return true;
+				// } else if (tok.equals("unclear")) { // actually expect this to match {oov}
+				// return true;
 			}
-			Pair<Integer, Integer> m = matchTimings(myTokens, iT);
-			if (m != null) {
-				float start = wordTimings.get(0).getStartTime();
-				// System.out.println("got start " + start + " vs " + turn.getStartTime() + " " + s.getStartTime());
-				if (Float.isNaN(turn.getStartTime())) {
-					turn.setStartTime(start);
-				}
-				if (Float.isNaN(s.getStartTime())) {
-					s.setStartTime(start);
+			return false;
+		}
+
+		/**
+		 * @param tim
+		 *            a textgrid token containing {oov}
+		 * @return a (cached) pattern for the BNC tokens it can match
+		 */
+		private Pattern getOovPattern(String tim) {
+			Pattern p = oovPatterns.get(tim);
+			if (p == null) {
+				p = Pattern.compile(tim.replace("{oov}", ".*").replaceAll("([\\{\\}\\[\\]])", "\\$1"));
+				oovPatterns.put(tim, p);
+			}
+			return p;
+		}
+
+		/**
+		 * get the corresponding subsequences from the current position in wordTimings and in a token list (timings
+		 * contains e.g. "it's" when tokens have separate "it", "'s"; and tokens have hyphenated e.g. "off-licence" when
+		 * timings have separate "off", "licence"). The rules below are tried in order at each step; those which match
+		 * part of a longer unit move on to the next timing and/or token, carrying the partial match along, until a rule
+		 * decides the whole unit.
+		 * 
+		 * @param tokens
+		 *            the lower-cased tokens
+		 * @param slashless
+		 *            the lower-cased tokens with "/" removed ("ab" matches "a/b")
+		 * @param iT
+		 *            the current position in tokens
+		 * @return the number of timings and tokens to match, or null if no match
+		 */
+		private Pair<Integer, Integer> matchTimings(String[] tokens, String[] slashless, int iT) {
+			int iTim = timPos;
+			int iTok = iT;
+			String timSoFar = "";
+			String tokSoFar = "";
+			while (true) {
+				if ((iTim >= timWords.length) || (iTok >= tokens.length)) {
+					return null;
 				}
-				if (Float.isNaN(dialogue.getStartTime()) || (start < dialogue.getStartTime())) {
-					dialogue.setStartTime(start);
+				while (timPause[iTim]) { // pauses, laughter, cough etc don't match tokens
+					if (++iTim >= timWords.length) {
+						return null;
+					}
 				}
-				float end = wordTimings.get(m.first() > 0 ? m.first() - 1 : 0).getEndTime();
-				turn.setEndTime(end);
-				s.setEndTime(end);
-				if (Float.isNaN(dialogue.getEndTime()) || (end > dialogue.getEndTime())) {
-					dialogue.setEndTime(end);
+				String tim = timSoFar + timWords[iTim];
+				String tok = tokSoFar + slashless[iTok];
+				String lastTok = (iTok > 0 ? tokens[iTok - 1] : ""); // TODO not if tokSoFar
+				String nextTok = (iTok < (tokens.length - 1) ? tokens[iTok + 1] : "");
+				String nextTim = (iTim < (timWords.length - 1) ? timWords[iTim + 1] : "");
+				String nextNonSpTim = nextTim;
+				if (iTim < (timWords.length - 1)) {
+					int iTmp = iTim + 1;
+					while (timPauseLc[iTmp] && (iTmp < (timWords.length - 1))) {
+						iTmp++;
+					}
+					nextNonSpTim = timWords[iTmp];
 				}
-				for (int i = 0; i < m.first(); i++) {
-					lastTim = wordTimings.get(0).getWord().word().toLowerCase();
-					wordTimings.remove(0);
+				if (debugTimings) {
+					System.out.println("Matching " + tim + " " + tok + " (" + lastTim + " " + lastTok + ") (" + nextTim
+							+ " " + nextNonSpTim + " " + nextTok + ")");
 				}
-				iT += m.second();
-			} else {
-				System.out.println("mismatch " + (wordTimings.isEmpty() ? "[]" : wordTimings.get(0).getWord().word())
-						+ " vs " + (myTokens.isEmpty() ? "[]" : myTokens.get(iT)) + " (" + wordTimings.size() + " "
-						+ myTokens.size() + ") " + myTokens.get(0).word().toLowerCase());
-				if (wordTimings.isEmpty() && ((myTokens.size() - iT) < 2)) {
-					// could just have come across a "mute" or similar
-					System.out.println(" " + turn.getStartTime() + " " + turn.getEndTime());
-					return;
+				if (tim.equals("{oov}")
+						&& !(tok.equals("unclear") || tok.equals("truncated_word"))
+						&& (!nextNonSpTim.isEmpty() && !nextNonSpTim.equals("{oov}") && !nextTok.isEmpty()
+								&& matchTokens(nextNonSpTim, tok) && !matchTokens(nextNonSpTim, nextTok))) {
+					// match 1 against 0 if a (usually sentence-initial) {oov} matches nothing
+					// or a matching {oov} can match more e.g. "bric-{oov}" matching "bric-à-brac" when "brac" is coming
+					iTim++;
+				} else if (tim.contains("{oov}")
+						&& !(tok.equals("unclear") || tok.equals("truncated_word"))
+						&& (!nextNonSpTim.isEmpty() && !nextNonSpTim.equals("{oov}") && !nextTok.isEmpty()
+								&& matchTokens(tim + nextNonSpTim, tok) && !matchTokens(nextNonSpTim, nextTok))) {
+					// match 2 against 1 if {oov} can match more e.g. "bric-{oov}" matching "bric-à-brac" when "brac"
+					// is coming
+					iTim++;
+					timSoFar = tim;
+				} else if (tim.equals("oov") && lastTok.equals("truncated_word") && nextTok.endsWith(tok)) {
+					// match {oov} 1 against 2 if they are repeated self-repairs
+					return match(iTim + 1, iTok + 2, iT);
+				} else if (matchTokens(tim, tok) || (tok.startsWith("'") && matchTokens(tim, lastTok + tok))
+						|| (tim.equals("t") && tok.equals("n't"))) {
+					// standard - match 1 against 1
+					return match(iTim + 1, iTok + 1, iT);
+				} else if (tok.equals("unclear")) {
+					// match 0 against 1 for [unclear] token if it didn't match {oov} in clause above
+					return match(iTim, iTok + 1, iT);
+				} else if (tok.endsWith("truncated_word")) {
+					// match 2 against 1 for cases where truncated part is split "o'clo[ck]-", "we'v-", "re-lau-",
+					// "he's-"
+					if (!tok.startsWith(tim + nextNonSpTim)) {
+						// else match 1 against 1
+						return match(iTim + 1, iTok + 1, iT);
+					}
+					iTim++;
+					timSoFar = tim + "'";
+				} else if ((tim.contains("'") || nextTok.equals("n't") || nextTok.equals("s"))
+						&& (!tok.contains("'") || tok.startsWith("o'") || tok.equals("'n'") || tok.equals("'em"))
+						&& tim.startsWith(tok.replaceFirst("^'", ""))) {
+					// contractions: match 1 in textgrids against 2 in tokenised transcript ("i've" vs "i 've")
+					if (CONTRACTION_PAT.matcher(nextTok).matches()) {
+						tok += "'"; // sometimes BNC transcription misses off '
+					}
+					iTok++;
+					tokSoFar = tok;
+				} else if (tok.contains("-") && tok.equals(tim + "-")) {
+					// hyphenations: occasionally match 2 in textgrids against 2 in tokenised transcript ("anti X" vs
+					// "anti- X")
+					iTim++;
+					iTok++;
+					timSoFar = tim + "-";
+					tokSoFar = tok;
+				} else if (tok.contains("-") && tok.startsWith(tim + "-")) {
+					// hyphenations: usually match 2 in textgrids against 1 in tokenised transcript ("semi X" vs "semi-X")
+					iTim++;
+					timSoFar = tim + "-";
+				} else if (tok.replace(".", "").startsWith(tim)) {
+					// compounds: match 2 in textgrids against 1 in tokenised transcript ("wa n na" vs "wanna")
+					// (including "man/woman" which will then match when / removed)
+					// but in some cases, ditch the initial e.g. "s self"
+					if (!tok.startsWith(nextNonSpTim)) {
+						timSoFar = tim;
+					}
+					iTim++;
+				} else if (tim.equals("sa") && lastTok.equals("truncated_word")) {
+					// special (because unsafe) case to match truncated & already hyphenated words
+					return match(iTim + 1, iTok, iT);
+				} else if (matchTokens(tim, nextTok) || tok.startsWith("gap_") || tok.equals("hunslet")) {
+					// match 0 against 1 for if there's a missing word in the TextGrids (see e.g. JNG, JNH) or
+					// "hunslet" in KGP
+					return match(iTim, iTok + 1, iT);
 				} else {
-					// something seriously wrong
-					System.exit(0);
+					return null;
 				}
 			}
 		}
-	}
 
-	/**
-	 * @param list
-	 * @param taggedWords
-	 *            to hold the PoS-tagged & tokenised transcription
-	 * @param taggedLemmas
-	 *            to hold the PoS-tagged & stemmed transcription
-	 * @return a pair of transcriptions: first one is for reading (includes transcriber notes, non-vocal sounds etc),
-	 *         second one is for parsing
-	 */
-	private Pair<String, String> getTranscription(NodeList list, ArrayList<TaggedWord> taggedWords,
-			ArrayList<TaggedWord> taggedLemmas) {
-		String trans1 = "";
-		String trans2 = "";
-		for (int i = 0; i < list.getLength(); i++) {
-			if (list.item(i).getNodeName().equals("w")) {
-				// word
-				String w = list.item(i).getFirstChild().getNodeValue();
-				// fix bug in KC1 s440 he'd've
-				w = w.replaceFirst("^he'd'\\s*$", "he'd");
-				// fix bug in KCS s1976 m=Mm, s22051 y=Yes, KCU s7900 j=Just, s9510 p=bonk, HUW s114 an=and etc etc
-				w = w.replaceFirst("^\\w+=(\\w)", "$1");
-				// fix bug in KDE s1750 then.Come
-				w = w.replaceFirst("([a-z]\\.)([A-Z])", "$1 $2");
-				boolean remove = (removeFilledPauses && w.matches("(?i)^er(m)?$"))
-						|| (removeBackchannels && w.matches("(?i)^(h|m)m+$"));
-				trans1 += (remove ? " " : w);
-				trans2 += (remove ? " " : w);
-				getTagAndHeadWord(list.item(i), w, taggedWords, taggedLemmas);
-			} else if (list.item(i).getNodeName().equals("c")) {
-				// punctuation
-				String w = list.item(i).getFirstChild().getNodeValue();
-				trans1 += w;
-				trans2 += (removePunctuationTokens ? " " : w);
-				if (!removePunctuationTokens) {
-					getTagAndHeadWord(list.item(i), w, taggedWords, taggedLemmas);
-				}
-			} else if (list.item(i).getNodeName().equals("pause")) {
-				trans1 += " [pause] ";
-				trans2 += " ";
-			} else if (list.item(i).getNodeName().equals("unclear")) {
-				trans1 += " [unclear] ";
-				trans2 += " UNCLEAR ";
-			} else if (list.item(i).getNodeName().equals("vocal")) {
-				trans1 += " [" + list.item(i).getAttributes().getNamedItem("desc").getNodeValue() + "] ";
-				trans2 += " ";
-			} else if (list.item(i).getNodeName().equals("gap")) {
-				Node desc = list.item(i).getAttributes().getNamedItem("desc");
-				if (desc == null) {
-					desc = list.item(i).getAttributes().getNamedItem("reason");
+		/**
+		 * @param iTim
+		 *            the position in wordTimings after the match
+		 * @param iTok
+		 *            the position in tokens after the match
+		 * @param iT
+		 *            the position in tokens before the match
+		 * @return the number of timings and tokens matched
+		 */
+		private Pair<Integer, Integer> match(int iTim, int iTok, int iT) {
+			return new Pair<Integer, Integer>(iTim - timPos, iTok - iT);
+		}
+
+		/**
+		 * Add start/end times at sentence, turn and dialogue level, from textgrid wordTimings
+		 * 
+		 * @param s
+		 * @param turn
+		 * @param dialogue
+		 */
+		private void addTimings(DialogueSentence s, DialogueTurn turn, Dialogue dialogue) {
+			int iT = 0;
+			ArrayList<HasWord> myTokens = new ArrayList<HasWord>(s.getTokens());
+			if (!removePunctuationTokens) {
+				// if haven't previously removed punctuation-only tokens, remove them now (replacing ampersands)
+				myTokens.clear();
+				for (HasWord token : s.getTokens()) {
+					if (token.word().equals("&")) {
+						myTokens.add(new Word("and"));
+					}
+					if (WORD_CHAR_PAT.matcher(token.word()).find()) {
+						myTokens.add(token);
+					}
 				}
-				trans1 += " [" + desc.getNodeValue() + "] ";
-				// trans2 += " " + desc.getNodeValue().replaceAll("\\s+", "_").toUpperCase() + " ";
-				// prevent tokeniser splitting entities e.g. TRAVEL_NEWS+WEATHER
-				trans2 += " GAP_" + desc.getNodeValue().replaceAll("(\\s+|\\+)", "_").toUpperCase() + " ";
-			} else if (list.item(i).getNodeName().equals("event")) {
-				trans1 += " [" + list.item(i).getAttributes().getNamedItem("desc").getNodeValue() + "] ";
-				trans2 += " ";
-			} else if (list.item(i).getNodeName().equals("trunc")) {
-				Pair<String, String> trans = getTranscription(list.item(i).getChildNodes(), taggedWords, taggedLemmas);
-				trans1 += " " + trans.first() + "-";
-				trans2 += " "
-						+ (replaceTruncatedTokens ? trans.second().replaceFirst("\\S+\\s*$", "truncated_word") : trans
-								.second()) + " ";
-			} else if (list.item(i).getNodeName().equals("mw")) {
-				Pair<String, String> trans = getTranscription(list.item(i).getChildNodes(), taggedWords, taggedLemmas);
-				trans1 += " " + trans.first() + " ";
-				trans2 += " " + trans.second() + " ";
-			} else if (list.item(i).getNodeName().equals("corr")) {
-				Pair<String, String> trans = getTranscription(list.item(i).getChildNodes(), taggedWords, taggedLemmas);
-				trans1 += " " + trans.first() + " ";
-				trans2 += " " + trans.second() + " ";
-			} else if (list.item(i).getNodeName().equals("align")) {
-				// do nothing for now
-			} else if (list.item(i).getNodeName().equals("shift")) {
-				if (list.item(i).hasAttributes()) {
-					trans1 += " [" + list.item(i).getAttributes().getNamedItem("new").getNodeValue() + "] ";
-					trans2 += " ";
-				} else {
-					// do nothing for now
+			}
+			String[] tokens = new String[myTokens.size()];
+			String[] slashless = new String[myTokens.size()];
+			for (int i = 0; i < tokens.length; i++) {
+				tokens[i] = myTokens.get(i).word().toLowerCase();
+				slashless[i] = myTokens.get(i).word().replace("/", "").toLowerCase();
+			}
+			while (iT < myTokens.size()) {
+				while ((timPos < timWords.length) && timPause[timPos]) {
+					timPos++;
 				}
-			} else {
-				if (list.item(i).getNodeName().equals("#text") && list.item(i).getNodeValue().trim().isEmpty()) {
-					// just some intervening white space
-				} else if (list.item(i).getNodeName().equals("#comment")) {
-					// just an annotator comment
-					System.err.println("Annotator comment: " + list.item(i).getNodeValue());
+				Pair<Integer, Integer> m = matchTimings(tokens, slashless, iT);
+				if (m != null) {
+					float start = wordTimings.get(timPos).getStartTime();
+					if (Float.isNaN(turn.getStartTime())) {
+						turn.setStartTime(start);
+					}
+					if (Float.isNaN(s.getStartTime())) {
+						s.setStartTime(start);
+					}
+					if (Float.isNaN(dialogue.getStartTime()) || (start < dialogue.getStartTime())) {
+						dialogue.setStartTime(start);
+					}
+					float end = wordTimings.get(timPos + (m.first() > 0 ? m.first() - 1 : 0)).getEndTime();
+					turn.setEndTime(end);
+					s.setEndTime(end);
+					if (Float.isNaN(dialogue.getEndTime()) || (end > dialogue.getEndTime())) {
+						dialogue.setEndTime(end);
+					}
+					if (m.first() > 0) {
+						timPos += m.first();
+						lastTim = timWords[timPos - 1];
+					}
+					iT += m.second();
 				} else {
-					System.err.println("unrecognised s child " + list.item(i));
-					System.exit(0);
+					boolean timingsLeft = (timPos < timWords.length);
+					System.out.println("mismatch " + (timingsLeft ? wordTimings.get(timPos).getWord().word() : "[]")
+							+ " vs " + (myTokens.isEmpty() ? "[]" : myTokens.get(iT)) + " ("
+							+ (timWords.length - timPos) + " " + myTokens.size() + ") " + tokens[0]);
+					if (!timingsLeft && ((myTokens.size() - iT) < 2)) {
+						// could just have come across a "mute" or similar
+						System.out.println(" " + turn.getStartTime() + " " + turn.getEndTime());
+						return;
+					} else {
+						// something seriously wrong
+						System.exit(0);
+					}
 				}
 			}
 		}
-		// fix bug in KB7 s8235 (and a few other places) extraneous ) character
-		// System.out.println("raw " + trans1);
-		// System.out.println("raw " + trans2);
-		if (trans1.matches("^[^\\(]*\\).*")) {
-			trans1 = trans1.replaceFirst("\\)", " ");
-			trans2 = trans2.replaceFirst("\\)", " ");
-		}
-		// System.out.println("raww " + trans1);
-		// System.out.println("raww " + trans2);
-		return new Pair<String, String>(trans1.replaceAll("\\s+", " ").trim(), trans2.replaceAll("\\s+", " ").trim());
-	}
 
-	private String firstNonEmptyNodeName(NodeList list) {
-		for (int i = 0; i < list.getLength(); i++) {
-			if (list.item(i).getNodeName().equals("#text") && list.item(i).getNodeValue().trim().isEmpty()) {
-				// ignore
-			} else {
-				return list.item(i).getNodeName();
+		/**
+		 * @param list
+		 * @param taggedWords
+		 *            to hold the PoS-tagged & tokenised transcription
+		 * @param taggedLemmas
+		 *            to hold the PoS-tagged & stemmed transcription
+		 * @return a pair of transcriptions: first one is for reading (includes transcriber notes, non-vocal sounds etc),
+		 *         second one is for parsing
+		 */
+		private Pair<String, String> getTranscription(List<XmlNode> list, ArrayList<TaggedWord> taggedWords,
+				ArrayList<TaggedWord> taggedLemmas) {
+			String trans1 = "";
+			String trans2 = "";
+			for (int i = 0; i < list.size(); i++) {
+				if (list.get(i).name.equals("w")) {
+					// word
+					String w = list.get(i).firstChildValue();
+					// fix bug in KC1 s440 he'd've
+					w = w.replaceFirst("^he'd'\\s*$", "he'd");
+					// fix bug in KCS s1976 m=Mm, s22051 y=Yes, KCU s7900 j=Just, s9510 p=bonk, HUW s114 an=and etc etc
+					w = w.replaceFirst("^\\w+=(\\w)", "$1");
+					// fix bug in KDE s1750 then.Come
+					w = w.replaceFirst("([a-z]\\.)([A-Z])", "$1 $2");
+					boolean remove = (removeFilledPauses && w.matches("(?i)^er(m)?$"))
+							|| (removeBackchannels && w.matches("(?i)^(h|m)m+$"));
+					trans1 += (remove ? " " : w);
+					trans2 += (remove ? " " : w);
+					getTagAndHeadWord(list.get(i), w, taggedWords, taggedLemmas);
+				} else if (list.get(i).name.equals("c")) {
+					// punctuation
+					String w = list.get(i).firstChildValue();
+					trans1 += w;
+					trans2 += (removePunctuationTokens ? " " : w);
+					if (!removePunctuationTokens) {
+						getTagAndHeadWord(list.get(i), w, taggedWords, taggedLemmas);
+					}
+				} else if (list.get(i).name.equals("pause")) {
+					trans1 += " [pause] ";
+					trans2 += " ";
+				} else if (list.get(i).name.equals("unclear")) {
+					trans1 += " [unclear] ";
+					trans2 += " UNCLEAR ";
+				} else if (list.get(i).name.equals("vocal")) {
+					trans1 += " [" + list.get(i).attributes.get("desc") + "] ";
+					trans2 += " ";
+				} else if (list.get(i).name.equals("gap")) {
+					String desc = list.get(i).attributes.get("desc");
+					if (desc == null) {
+						desc = list.get(i).attributes.get("reason");
+					}
+					trans1 += " [" + desc + "] ";
+					// trans2 += " " + desc.replaceAll("\\s+", "_").toUpperCase() + " ";
+					// prevent tokeniser splitting entities e.g. TRAVEL_NEWS+WEATHER
+					trans2 += " GAP_" + desc.replaceAll("(\\s+|\\+)", "_").toUpperCase() + " ";
+				} else if (list.get(i).name.equals("event")) {
+					trans1 += " [" + list.get(i).attributes.get("desc") + "] ";
+					trans2 += " ";
+				} else if (list.get(i).name.equals("trunc")) {
+					Pair<String, String> trans = getTranscription(list.get(i).children, taggedWords, taggedLemmas);
+					trans1 += " " + trans.first() + "-";
+					trans2 += " "
+							+ (replaceTruncatedTokens ? trans.second().replaceFirst("\\S+\\s*$", "truncated_word") : trans
+									.second()) + " ";
+				} else if (list.get(i).name.equals("mw")) {
+					Pair<String, String> trans = getTranscription(list.get(i).children, taggedWords, taggedLemmas);
+					trans1 += " " + trans.first() + " ";
+					trans2 += " " + trans.second() + " ";
+				} else if (list.get(i).name.equals("corr")) {
+					Pair<String, String> trans = getTranscription(list.get(i).children, taggedWords, taggedLemmas);
+					trans1 += " " + trans.first() + " ";
+					trans2 += " " + trans.second() + " ";
+				} else if (list.get(i).name.equals("align")) {
+					// do nothing for now
+				} else if (list.get(i).name.equals("shift")) {
+					if (!list.get(i).attributes.isEmpty()) {
+						trans1 += " [" + list.get(i).attributes.get("new") + "] ";
+						trans2 += " ";
+					} else {
+						// do nothing for now
+					}
+				} else {
+					if (list.get(i).name.equals("#text") && list.get(i).value.trim().isEmpty()) {
+						// just some intervening white space
+					} else if (list.get(i).name.equals("#comment")) {
+						// just an annotator comment
+						System.err.println("Annotator comment: " + list.get(i).value);
+					} else {
+						System.err.println("unrecognised s child " + list.get(i));
+						System.exit(0);
+					}
+				}
+			}
+			// fix bug in KB7 s8235 (and a few other places) extraneous ) character
+			// System.out.println("raw " + trans1);
+			// System.out.println("raw " + trans2);
+			if (trans1.matches("^[^\\(]*\\).*")) {
+				trans1 = trans1.replaceFirst("\\)", " ");
+				trans2 = trans2.replaceFirst("\\)", " ");
 			}
+			// System.out.println("raww " + trans1);
+			// System.out.println("raww " + trans2);
+			return new Pair<String, String>(trans1.replaceAll("\\s+", " ").trim(), trans2.replaceAll("\\s+", " ").trim());
 		}
-		return null;
-	}
 
-	private void getTagAndHeadWord(Node node, String w, ArrayList<TaggedWord> taggedWords,
-			ArrayList<TaggedWord> taggedLemmas) {
-		if (node.getAttributes().getNamedItem("c5") != null) {
-			String tag = node.getAttributes().getNamedItem("c5").getNodeValue();
-			taggedWords.add(new TaggedWord(w.trim(), tag));
-			if (node.getAttributes().getNamedItem("hw") != null) {
-				String hw = node.getAttributes().getNamedItem("hw").getNodeValue();
-				taggedLemmas.add(new TaggedWord(hw.trim(), tag));
+		private void getTagAndHeadWord(XmlNode node, String w, ArrayList<TaggedWord> taggedWords,
+				ArrayList<TaggedWord> taggedLemmas) {
+			if (node.attributes.get("c5") != null) {
+				String tag = node.attributes.get("c5");
+				taggedWords.add(new TaggedWord(w.trim(), tag));
+				if (node.attributes.get("hw") != null) {
+					String hw = node.attributes.get("hw");
+					taggedLemmas.add(new TaggedWord(hw.trim(), tag));
+				}
 			}
 		}
+
 	}
 
 	/*
@@ -1197,6 +1377,7 @@ public class BNCCorpus extends DialogueCorpus {
 		}
 		if (parser != null) {
 			CorpusParser.setParser(parser);
+			CorpusParser.setParseCache(new File(CorpusParser.DEFAULT_PARSE_CACHE));
 			CorpusParser.setLeaveExisting(leaveExisting);
 			if (CorpusParser.parse(bnc) > 0) {
 				bnc.writeToFile(parsedBnc);
@@ -11,9 +11,18 @@
 package qmul.corpus;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import qmul.util.parse.ExternalParserPool;
+import qmul.util.parse.ParseCache;
+import qmul.util.parse.ParserFactory;
 import qmul.util.parse.PennTreebankTokenizer;
 import qmul.util.parse.StanfordParser;
 import qmul.util.parse.TreeParser;
@@ -29,9 +38,20 @@ import edu.stanford.nlp.trees.Tree;
  */
 public class CorpusParser {
 
+	/**
+	 * The default name for a parse cache file, which can be shared between corpora (trees are kept apart by parser
+	 * configuration)
+	 */
+	public static final String DEFAULT_PARSE_CACHE = "parsecache.gz";
+
 	private static Parser parser;
 	private static final PennTreebankTokenizer tok = new PennTreebankTokenizer(true);
 	private static boolean leaveExisting = false;
+	private static ParserFactory parserFactory = null;
+	private static int numThreads = 1;
+	private static ParseCache parseCache = null;
+	private static ParseCheckpoint checkpoint = null;
+	private static int checkpointInterval = 10;
 
 	/**
 	 * Set up the default Stanford parser with default options
@@ -48,6 +68,91 @@ public class CorpusParser {
 		CorpusParser.parser = parser;
 	}
 
+	/**
+	 * @param parserFactory
+	 *            the factory used to create one parser per thread when parsing in parallel (null to use the default
+	 *            Stanford parser)
+	 */
+	public static void setParserFactory(ParserFactory parserFactory) {
+		CorpusParser.parserFactory = parserFactory;
+	}
+
+	/**
+	 * @return the number of parser threads to use (default 1, i.e. parse serially with the single parser set via
+	 *         setParser())
+	 */
+	public static int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * @param numThreads
+	 *            the number of parser threads to use; if more than 1, each thread gets its own parser instance from the
+	 *            {@link ParserFactory}. 0 or less means one per available processor
+	 */
+	public static void setNumThreads(int numThreads) {
+		CorpusParser.numThreads = (numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @return the cache of previously parsed token sequences, or null if not caching (default)
+	 */
+	public static ParseCache getParseCache() {
+		return parseCache;
+	}
+
+	/**
+	 * @param parseCache
+	 *            a cache of previously parsed token sequences, consulted before calling the parser and saved after
+	 *            parsing; null to parse every sentence afresh (default)
+	 */
+	public static void setParseCache(ParseCache parseCache) {
+		CorpusParser.parseCache = parseCache;
+	}
+
+	/**
+	 * Cache parses in a file, keyed by getParserConfig() - so set the parser (or the parser factory and number of
+	 * threads) first
+	 * 
+	 * @param file
+	 *            the file to read the cache from (if it exists) and save it to
+	 */
+	public static void setParseCache(File file) {
+		setParseCache(new ParseCache(file, getParserConfig()));
+	}
+
+	/**
+	 * @return a description of the configuration of the parser(s) that parse() will use, as given by their toString()
+	 */
+	public static String getParserConfig() {
+		if (numThreads > 1) {
+			return (parserFactory == null ? StanfordParser.getDefaultConfig() : parserFactory.toString());
+		}
+		return (parser == null ? StanfordParser.getDefaultConfig() : parser.toString());
+	}
+
+	/**
+	 * @return the checkpoint log used to make parsing resumable, or null if not checkpointing (default)
+	 */
+	public static ParseCheckpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * Make parsing resumable: parses are appended to the log every checkpointInterval dialogues (or the equivalent
+	 * number of sentences when parsing in parallel), and any parses already in the log are restored and not re-done.
+	 * Delete the log (via {@link ParseCheckpoint#delete()}) once the parsed corpus has been saved
+	 * 
+	 * @param checkpoint
+	 *            the log (null to switch checkpointing off)
+	 * @param checkpointInterval
+	 *            the number of dialogues between checkpoints
+	 */
+	public static void setCheckpoint(ParseCheckpoint checkpoint, int checkpointInterval) {
+		CorpusParser.checkpoint = checkpoint;
+		CorpusParser.checkpointInterval = Math.max(1, checkpointInterval);
+	}
+
 	/**
 	 * @return true if the parser should leave existing syntactic info, and only parse where there is none; false if it
 	 *         should overwrite with new parse info (default)
@@ -73,6 +178,29 @@ public class CorpusParser {
 	 * @return the number of {@link DialogueSentence}s actually affected (i.e. successfully parsed)
 	 */
 	public static int parse(DialogueCorpus corpus) {
+		return parse(corpus, corpus.getDialogues());
+	}
+
+	/**
+	 * Parse some of the dialogues in a corpus (e.g. those just added to it), replacing any existing syntactic
+	 * annotation unless isLeaveExisting()
+	 * 
+	 * @param corpus
+	 *            the corpus the dialogues belong to
+	 * @param dialogues
+	 *            the dialogues to parse (which get modified)
+	 * @return the number of {@link DialogueSentence}s actually affected (i.e. successfully parsed), or -1 if the
+	 *         checkpoint log belongs to another corpus, in which case nothing is parsed
+	 */
+	public static int parse(DialogueCorpus corpus, List<Dialogue> dialogues) {
+		HashSet<String> restored = (checkpoint == null ? new HashSet<String>() : checkpoint.restore(corpus));
+		if (restored == null) {
+			System.err.println("Checkpoint log " + checkpoint.getFile() + " is for another corpus, not parsing");
+			return -1;
+		}
+		if (numThreads > 1) {
+			return parseParallel(dialogues, restored);
+		}
 		if (parser == null) {
 			System.err.println("WARNING: null parser, setting default ...");
 			setParser();
@@ -80,15 +208,27 @@ public class CorpusParser {
 		int iD = 0;
 		int iS = 0;
 		int iP = 0;
-		for (Dialogue d : corpus.getDialogues()) {
-			System.out.println("Parsing dialogue " + ++iD + " of " + corpus.getDialogues().size());
+		int iC = 0;
+		for (Dialogue d : dialogues) {
+			System.out.println("Parsing dialogue " + ++iD + " of " + dialogues.size());
+			if ((checkpoint != null) && (iD % checkpointInterval == 0)) {
+				checkpoint.checkpoint();
+			}
 			for (DialogueSentence s : d.getSents()) {
-				if (leaveExisting && (s.getSyntax() != null)) {
+				if (skip(s, restored)) {
 					continue;
 				}
-				List<? extends HasWord> words = s.getTokens();
-				if (words == null) {
-					words = tok.getWordsFromString(s.getTranscription());
+				List<? extends HasWord> words = getWords(s);
+				Tree cached = (parseCache == null ? null : parseCache.get(words));
+				if (cached != null) {
+					iS++;
+					iP++;
+					iC++;
+					s.setSyntax(cached);
+					if (checkpoint != null) {
+						checkpoint.add(s.getId(), cached);
+					}
+					continue;
 				}
 				if ((words == null) || words.isEmpty()) {
 					System.err.println("No words in sentence " + ++iS + " " + s.getNum() + ", skipping ...");
@@ -96,31 +236,286 @@ public class CorpusParser {
 				} else {
 					System.err.print("Parsing sentence " + ++iS + " " + s.getNum() + " " + words + " ...");
 				}
-				boolean success = parser.parse(words);
-				if (success) {
+				Tree t = parse(parser, words);
+				if (t != null) {
 					iP++;
-					Tree t = null;
-					if (parser instanceof LexicalizedParser) {
-						t = ((LexicalizedParser) parser).getBestParse();
-					} else if (parser instanceof TreeParser) {
-						// why doesn't the Stanford Parser interface include a method for returning the tree??
-						t = ((TreeParser) parser).getBestParse();
-					} else {
-						throw new RuntimeException("unknown parser class " + parser);
+					if (parseCache != null) {
+						parseCache.put(words, t);
+					}
+					if (checkpoint != null) {
+						checkpoint.add(s.getId(), t);
 					}
 					System.err.println(" success!\n" + t.pennString());
-					s.setSyntax(t);
 				} else {
 					System.err.println(" failed.");
-					s.setSyntax(null);
 				}
+				s.setSyntax(t);
 				System.out.println("Mem " + Runtime.getRuntime().freeMemory() + " "
 						+ Runtime.getRuntime().totalMemory());
 				System.out.println("Parser done " + iD + " dialogues, " + iS + " sentences ...");
 			}
 		}
-		System.out.println("Finished (parsed " + iP + " sentences)");
-		return iP;
+		if (parseCache != null) {
+			System.out.println("Used " + iC + " cached parses");
+			parseCache.save();
+		}
+		if (checkpoint != null) {
+			checkpoint.checkpoint();
+		}
+		int nRestored = numRestored(dialogues, restored);
+		System.out.println("Finished (parsed " + iP + " sentences, restored " + nRestored + ")");
+		return iP + nRestored;
+	}
+
+	/**
+	 * Parse dialogues using getNumThreads() threads, each with its own parser from the {@link ParserFactory}. Sentences
+	 * are queued longest-first so that the long, slow ones don't all end up at the tail of the run. If there is a
+	 * {@link ParseCache}, cache hits are filled in straight away, and sentences with identical tokens are only queued
+	 * once
+	 * 
+	 * @param dialogues
+	 *            the dialogues to parse (which get modified)
+	 * @param restored
+	 *            the IDs of sentences restored from a checkpoint, which should not be parsed again
+	 * @return the number of {@link DialogueSentence}s actually affected (i.e. successfully parsed)
+	 */
+	private static int parseParallel(List<Dialogue> dialogues, HashSet<String> restored) {
+		if (parserFactory == null) {
+			System.err.println("WARNING: null parser factory, using default ...");
+			parserFactory = new ParserFactory() {
+				@Override
+				public Parser newParser() {
+					return new StanfordParser();
+				}
+
+				@Override
+				public String toString() {
+					return StanfordParser.getDefaultConfig();
+				}
+			};
+		}
+		// tokenise up front: the tokenizer isn't thread-safe, and we need lengths for ordering anyway
+		ArrayList<ParseJob> jobs = new ArrayList<ParseJob>();
+		HashMap<String, ParseJob> jobsByKey = new HashMap<String, ParseJob>();
+		int iS = 0;
+		int iC = 0;
+		for (Dialogue d : dialogues) {
+			for (DialogueSentence s : d.getSents()) {
+				iS++;
+				if (skip(s, restored)) {
+					continue;
+				}
+				List<? extends HasWord> words = getWords(s);
+				if ((words == null) || words.isEmpty()) {
+					System.err.println("No words in sentence " + iS + " " + s.getNum() + ", skipping ...");
+					continue;
+				}
+				if (parseCache == null) {
+					jobs.add(new ParseJob(s, words));
+					continue;
+				}
+				Tree cached = parseCache.get(words);
+				if (cached != null) {
+					s.setSyntax(cached);
+					if (checkpoint != null) {
+						checkpoint.add(s.getId(), cached);
+					}
+					iC++;
+					continue;
+				}
+				String key = parseCache.getKey(words);
+				ParseJob job = jobsByKey.get(key);
+				if (job == null) {
+					job = new ParseJob(s, words);
+					jobsByKey.put(key, job);
+					jobs.add(job);
+				} else {
+					job.sents.add(s);
+				}
+			}
+		}
+		Collections.sort(jobs, new Comparator<ParseJob>() {
+			@Override
+			public int compare(ParseJob a, ParseJob b) {
+				return b.words.size() - a.words.size();
+			}
+		});
+		final int nJobs = jobs.size();
+		final ConcurrentLinkedQueue<ParseJob> queue = new ConcurrentLinkedQueue<ParseJob>(jobs);
+		final AtomicInteger nDone = new AtomicInteger(0);
+		final AtomicInteger nParsed = new AtomicInteger(iC);
+		// checkpoint after roughly the number of sentences in checkpointInterval dialogues
+		final int checkpointSents = checkpointInterval * Math.max(1, iS / Math.max(1, dialogues.size()));
+		if (parseCache != null) {
+			System.out.println("Used " + iC + " cached parses");
+		}
+		if (parserFactory instanceof ExternalParserPool) {
+			// the pool does its own threading, and is much faster given sentences in batches
+			ExternalParserPool pool = (ExternalParserPool) parserFactory;
+			System.out.println("Parsing " + nJobs + " sentences with " + pool.getNumProcesses() + " processes ...");
+			ArrayList<List<? extends HasWord>> words = new ArrayList<List<? extends HasWord>>();
+			// enough per chunk to keep all processes busy, but still checkpoint regularly
+			int chunkSize = Math.max(checkpointSents, pool.getNumProcesses() * pool.getBatchSize());
+			for (int start = 0; start < nJobs; start += chunkSize) {
+				List<ParseJob> chunk = jobs.subList(start, Math.min(start + chunkSize, nJobs));
+				words.clear();
+				for (ParseJob job : chunk) {
+					words.add(job.words);
+				}
+				List<Tree> trees = pool.parseAll(words);
+				for (int i = 0; i < chunk.size(); i++) {
+					setParse(chunk.get(i), trees.get(i), nParsed, checkpointSents);
+				}
+				System.out.println("Parser done " + (start + chunk.size()) + " of " + nJobs + " sentences ...");
+			}
+		} else {
+			System.out.println("Parsing " + nJobs + " sentences with " + numThreads + " threads ...");
+			Thread[] threads = new Thread[numThreads];
+			for (int i = 0; i < threads.length; i++) {
+				final Parser p = parserFactory.newParser();
+				threads[i] = new Thread("CorpusParser-" + i) {
+					@Override
+					public void run() {
+						ParseJob job;
+						while ((job = queue.poll()) != null) {
+							setParse(job, parse(p, job.words), nParsed, checkpointSents);
+							int n = nDone.incrementAndGet();
+							if (n % 1000 == 0) {
+								System.out.println("Parser done " + n + " of " + nJobs + " sentences ...");
+							}
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for (Thread thread : threads) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("interrupted while parsing", e);
+				}
+			}
+		}
+		if (parseCache != null) {
+			parseCache.save();
+		}
+		if (checkpoint != null) {
+			checkpoint.checkpoint();
+		}
+		int nRestored = numRestored(dialogues, restored);
+		System.out.println("Finished (parsed " + nParsed.get() + " sentences, restored " + nRestored + ")");
+		return nParsed.get() + nRestored;
+	}
+
+	/**
+	 * Store the result of a parse job in its sentences, the cache and the checkpoint log as appropriate
+	 * 
+	 * @param job
+	 * @param t
+	 *            the parse (null if failed)
+	 * @param nParsed
+	 *            the count of successfully parsed sentences, to be updated
+	 * @param checkpointSents
+	 *            the number of sentences between checkpoints
+	 */
+	private static void setParse(ParseJob job, Tree t, AtomicInteger nParsed, int checkpointSents) {
+		for (DialogueSentence s : job.sents) {
+			s.setSyntax(t);
+		}
+		if (t == null) {
+			System.err.println("Failed to parse sentence " + job.sents.get(0).getId() + " " + job.words);
+			return;
+		}
+		nParsed.addAndGet(job.sents.size());
+		if (parseCache != null) {
+			parseCache.put(job.words, t);
+		}
+		if (checkpoint != null) {
+			for (DialogueSentence s : job.sents) {
+				checkpoint.add(s.getId(), t);
+			}
+			if (checkpoint.numPending() >= checkpointSents) {
+				checkpoint.checkpoint();
+			}
+		}
+	}
+
+	/**
+	 * @param dialogues
+	 * @param restored
+	 *            the IDs of sentences restored from a checkpoint (which may cover the whole corpus)
+	 * @return the number of sentences in these dialogues which were restored
+	 */
+	private static int numRestored(List<Dialogue> dialogues, HashSet<String> restored) {
+		if (restored.isEmpty()) {
+			return 0;
+		}
+		int n = 0;
+		for (Dialogue d : dialogues) {
+			for (DialogueSentence s : d.getSents()) {
+				if (restored.contains(s.getId())) {
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @param s
+	 * @param restored
+	 *            the IDs of sentences restored from a checkpoint
+	 * @return true if this sentence doesn't need parsing (already restored, or has syntax and isLeaveExisting())
+	 */
+	private static boolean skip(DialogueSentence s, HashSet<String> restored) {
+		return restored.contains(s.getId()) || (leaveExisting && (s.getSyntax() != null));
+	}
+
+	/**
+	 * @param s
+	 * @return the tokens to parse for this sentence: its own tokens if it has any, otherwise a tokenisation of its
+	 *         transcription
+	 */
+	private static List<? extends HasWord> getWords(DialogueSentence s) {
+		List<? extends HasWord> words = s.getTokens();
+		if (words == null) {
+			words = tok.getWordsFromString(s.getTranscription());
+		}
+		return words;
+	}
+
+	/**
+	 * @param parser
+	 * @param words
+	 * @return the best parse of words, or null if parsing failed
+	 */
+	private static Tree parse(Parser parser, List<? extends HasWord> words) {
+		if (!parser.parse(words)) {
+			return null;
+		}
+		if (parser instanceof LexicalizedParser) {
+			return ((LexicalizedParser) parser).getBestParse();
+		} else if (parser instanceof TreeParser) {
+			// why doesn't the Stanford Parser interface include a method for returning the tree??
+			return ((TreeParser) parser).getBestParse();
+		} else {
+			throw new RuntimeException("unknown parser class " + parser);
+		}
+	}
+
+	/**
+	 * A token sequence waiting to be parsed, with the sentence(s) it came from
+	 */
+	private static class ParseJob {
+
+		private final ArrayList<DialogueSentence> sents = new ArrayList<DialogueSentence>(1);
+		private final List<? extends HasWord> words;
+
+		private ParseJob(DialogueSentence sent, List<? extends HasWord> words) {
+			this.sents.add(sent);
+			this.words = words;
+		}
 	}
 
 	/**
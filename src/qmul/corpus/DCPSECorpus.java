@@ -16,10 +16,14 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,6 +51,13 @@ public class DCPSECorpus extends DialogueCorpus {
 	private static final String GENRE_FILE = "Texts.txt";
 	private static final String SPEAKER_FILE = "Dcpse.txt";
 
+	private static final Pattern FILE_PAT = Pattern.compile("(?i)(.+)\\.cor");
+	private static final Pattern SENT_PAT = Pattern.compile("<#(\\d+):(\\d+):(\\w+)>\\s+<sent>");
+	private static final Pattern BRACES_PAT = Pattern.compile("^\\s*\\{(.*)\\}\\s*$");
+	private static final Pattern PUNCT_PAT = Pattern.compile("^\\s*<([,.:;?!]+)>\\s*$");
+
+	private CreateTreeFromDCPSE.Options options;
+
 	/**
 	 * Create a DCPSE corpus, reading data files from the default (unix) directory
 	 */
@@ -61,7 +72,7 @@ public class DCPSECorpus extends DialogueCorpus {
 	 *            override the default (unix) path with your own
 	 */
 	public DCPSECorpus(String baseDir) {
-		super(ID, new File(baseDir, DATA_DIR));
+		this(baseDir, 0, 0, 0, 0);
 	}
 
 	/**
@@ -95,7 +106,71 @@ public class DCPSECorpus extends DialogueCorpus {
 	 *            only read in at most this number of dialogues (0 to allow all)
 	 */
 	public DCPSECorpus(String baseDir, int minSpeakers, int maxSpeakers, int minGenreCount, int maxDialogues) {
-		super(ID, new File(baseDir, DATA_DIR), minSpeakers, maxSpeakers, minGenreCount, maxDialogues);
+		this(baseDir, CreateTreeFromDCPSE.getOptions(), minSpeakers, maxSpeakers, minGenreCount, maxDialogues);
+	}
+
+	/**
+	 * Create a DCPSE corpus, reading data files from the default (unix) directory
+	 * 
+	 * @param options
+	 *            the {@link CreateTreeFromDCPSE.Options} to use when reading trees (a copy is kept, so changing them
+	 *            afterwards has no effect)
+	 * @param minSpeakers
+	 *            discard any dialogue with fewer than this number of speakers (0 to allow all)
+	 * @param maxSpeakers
+	 *            discard any dialogue with more than this number of speakers (0 to allow all)
+	 * @param minGenreCount
+	 *            discard any dialogue whose genre appears in fewer than this number of dialogues (0 to allow all)
+	 * @param maxDialogues
+	 *            only read in at most this number of dialogues (0 to allow all)
+	 */
+	public DCPSECorpus(CreateTreeFromDCPSE.Options options, int minSpeakers, int maxSpeakers, int minGenreCount, int maxDialogues) {
+		this(BASE_DIR, options, minSpeakers, maxSpeakers, minGenreCount, maxDialogues);
+	}
+
+	/**
+	 * Create a DCPSE corpus, reading data files from disk
+	 * 
+	 * @param baseDir
+	 *            override the default (unix) path with your own
+	 * @param options
+	 *            the {@link CreateTreeFromDCPSE.Options} to use when reading trees (a copy is kept, so changing them
+	 *            afterwards has no effect)
+	 * @param minSpeakers
+	 *            discard any dialogue with fewer than this number of speakers (0 to allow all)
+	 * @param maxSpeakers
+	 *            discard any dialogue with more than this number of speakers (0 to allow all)
+	 * @param minGenreCount
+	 *            discard any dialogue whose genre appears in fewer than this number of dialogues (0 to allow all)
+	 * @param maxDialogues
+	 *            only read in at most this number of dialogues (0 to allow all)
+	 */
+	public DCPSECorpus(String baseDir, CreateTreeFromDCPSE.Options options, int minSpeakers, int maxSpeakers,
+			int minGenreCount, int maxDialogues) {
+		this(baseDir, options, minSpeakers, maxSpeakers, minGenreCount, maxDialogues, true);
+	}
+
+	private DCPSECorpus(String baseDir, CreateTreeFromDCPSE.Options options, int minSpeakers, int maxSpeakers,
+			int minGenreCount, int maxDialogues, boolean setup) {
+		super(ID, new File(baseDir, DATA_DIR), minSpeakers, maxSpeakers, minGenreCount, maxDialogues, false, false);
+		this.options = new CreateTreeFromDCPSE.Options(options);
+		if (setup) {
+			setup();
+		}
+	}
+
+	/**
+	 * @return the default (unix) base directory
+	 */
+	public static String getDefaultBaseDir() {
+		return BASE_DIR;
+	}
+
+	/**
+	 * @return the options used when reading trees
+	 */
+	public CreateTreeFromDCPSE.Options getOptions() {
+		return options;
 	}
 
 	/**
@@ -176,55 +251,140 @@ public class DCPSECorpus extends DialogueCorpus {
 	 */
 	@Override
 	public boolean setupCorpus() {
-		getMetaData();
-		File[] files = getDir().listFiles();
+		return setupCorpora(new DCPSECorpus[] { this });
+	}
+
+	/**
+	 * Create several variants of the DCPSE corpus, differing only in their tree options, in a single pass over the
+	 * data files: each file is read once, and each tree's text is then converted once per variant
+	 * 
+	 * @param baseDir
+	 *            override the default (unix) path with your own
+	 * @param options
+	 *            the {@link CreateTreeFromDCPSE.Options} for each variant
+	 * @param minSpeakers
+	 *            discard any dialogue with fewer than this number of speakers (0 to allow all)
+	 * @param maxSpeakers
+	 *            discard any dialogue with more than this number of speakers (0 to allow all)
+	 * @param minGenreCount
+	 *            discard any dialogue whose genre appears in fewer than this number of dialogues (0 to allow all)
+	 * @param maxDialogues
+	 *            only read in at most this number of dialogues (0 to allow all)
+	 * @return the corpora, one per set of options
+	 */
+	public static List<DCPSECorpus> createVariants(String baseDir, List<CreateTreeFromDCPSE.Options> options,
+			int minSpeakers, int maxSpeakers, int minGenreCount, int maxDialogues) {
+		DCPSECorpus[] corpora = new DCPSECorpus[options.size()];
+		for (int i = 0; i < corpora.length; i++) {
+			corpora[i] = new DCPSECorpus(baseDir, options.get(i), minSpeakers, maxSpeakers, minGenreCount,
+					maxDialogues, false);
+		}
+		if (!setupCorpora(corpora)) {
+			throw new RuntimeException("Failed to set up corpus");
+		}
+		return Arrays.asList(corpora);
+	}
+
+	/**
+	 * Set up several variants of the corpus at once
+	 * 
+	 * @param corpora
+	 * @return success
+	 */
+	private static boolean setupCorpora(final DCPSECorpus[] corpora) {
+		// the metadata maps are only read while loading, but take copies so files can be read while we add others
+		final HashMap<String, String> genres = new HashMap<String, String>();
+		final ArrayList<Map<String, DialogueSpeaker>> speakers = new ArrayList<Map<String, DialogueSpeaker>>();
+		for (DCPSECorpus corpus : corpora) {
+			corpus.getMetaData();
+			genres.putAll(corpus.getGenreMap());
+			speakers.add(new HashMap<String, DialogueSpeaker>(corpus.getSpeakerMap()));
+		}
+		DCPSECorpus first = corpora[0];
+		File[] files = first.getDir().listFiles();
 		FilenameToolkit.sortByFileNameIgnoreCase(files);
 		System.out.println("Found " + files.length + " corpus files ...");
+		System.out.println("Limiting number of dialogues: " + first.getMaxDialogues());
+		final boolean[] stopped = new boolean[corpora.length];
+		first.processFiles(Arrays.asList(files), new FileProcessor<FileContents[]>() {
+			@Override
+			public FileContents[] read(File file) {
+				return readFile(file, corpora, genres, speakers);
+			}
+
+			@Override
+			public boolean add(FileContents[] contents) {
+				boolean carryOn = false;
+				for (int i = 0; i < corpora.length; i++) {
+					if (!stopped[i]) {
+						stopped[i] = !corpora[i].addFileContents(contents[i]);
+						carryOn |= !stopped[i];
+					}
+				}
+				return carryOn;
+			}
+		});
 		boolean success = true;
-		System.out.println("Limiting number of dialogues: " + getMaxDialogues());
-		for (File file : files) {
-			if (!processFile(file)) {
-				// failure below this may be due to hitting the dialogue limit
-				success = (numDialogues() >= getMaxDialogues());
-				break;
+		for (int i = 0; i < corpora.length; i++) {
+			if (stopped[i]) {
+				// failure may be due to hitting the dialogue limit
+				success &= (corpora[i].numDialogues() >= corpora[i].getMaxDialogues());
+			}
+			if (!corpora[i].sanityCheck()) {
+				new RuntimeException("Failed sanity check!").printStackTrace();
+				System.exit(0);
 			}
-		}
-		if (!sanityCheck()) {
-			new RuntimeException("Failed sanity check!").printStackTrace();
-			System.exit(0);
 		}
 		return success;
 	}
 
 	/**
 	 * @param file
-	 * @return whether to carry on or not
+	 * @param corpora
+	 *            the corpus variants to read the file for
+	 * @param genres
+	 *            the dialogue genre metadata
+	 * @param speakers
+	 *            the speaker metadata for each corpus
+	 * @return the dialogues in the file, for each corpus
 	 */
-	private boolean processFile(File file) {
-		Pattern p = Pattern.compile("(?i)(.+)\\.cor");
-		Matcher m = p.matcher(file.getName());
+	private static FileContents[] readFile(File file, DCPSECorpus[] corpora, Map<String, String> genres,
+			List<Map<String, DialogueSpeaker>> speakers) {
+		FileContents[] contents = new FileContents[corpora.length];
+		for (int i = 0; i < contents.length; i++) {
+			contents[i] = new FileContents();
+		}
+		Matcher m = FILE_PAT.matcher(file.getName());
 		if (m.matches()) {
 			String dialogueName = m.group(1).toUpperCase();
-			String genre = getGenreMap().get(dialogueName);
+			String genre = genres.get(dialogueName);
 			if (genre == null) {
 				throw new RuntimeException("No metadata for dialogue " + dialogueName);
 			}
-			// Dialogue dialogue = addDialogue(dialogueName, genre);
 			BufferedReader reader;
 			try {
 				reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
 			} catch (FileNotFoundException e) {
 				System.err.println("Error reading DCPSE corpus file " + file + ": " + e.getMessage());
-				return false;
+				for (FileContents c : contents) {
+					c.success = false;
+				}
+				return contents;
 			}
 			System.out.println("Reading DCPSE corpus file " + file + " ...");
-			if (!getSentences(dialogueName, genre, reader)) {
-				return false;
+			boolean success = getSentences(dialogueName, genre, reader, corpora, speakers, contents);
+			for (FileContents c : contents) {
+				c.success = success;
+			}
+			try {
+				reader.close();
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
 		} else {
 			System.out.println("WARNING: NOT processing non-matching corpus file " + file);
 		}
-		return true;
+		return contents;
 	}
 
 	/*
@@ -235,74 +395,133 @@ public class DCPSECorpus extends DialogueCorpus {
 	@Override
 	public boolean loadDialogue(String name) {
 		File file = new File(getDir(), name + ".cor");
-		return processFile(file);
+		ArrayList<Map<String, DialogueSpeaker>> speakers = new ArrayList<Map<String, DialogueSpeaker>>();
+		speakers.add(getSpeakerMap());
+		return addFileContents(readFile(file, new DCPSECorpus[] { this }, getGenreMap(), speakers)[0]);
+	}
+
+	/**
+	 * A {@link Reader} which keeps a copy of what's read from it, so we can read a tree once and then convert it once
+	 * for each corpus variant
+	 */
+	private static class RecordingReader extends Reader {
+
+		private final Reader reader;
+		private final StringBuilder record = new StringBuilder();
+
+		private RecordingReader(Reader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			int n = reader.read(cbuf, off, len);
+			if (n > 0) {
+				record.append(cbuf, off, n);
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+
+		/**
+		 * @return what's been read since the last call
+		 */
+		private String getRecord() {
+			String s = record.toString();
+			record.setLength(0);
+			return s;
+		}
+
 	}
 
 	/**
 	 * @param dialogueName
 	 * @param genre
 	 * @param reader
-	 * @return whether to carry on or not
+	 * @param corpora
+	 *            the corpus variants to read the file for
+	 * @param speakers
+	 *            the speaker metadata for each corpus
+	 * @param contents
+	 *            to hold the dialogues found for each corpus
+	 * @return success
 	 */
-	private boolean getSentences(String dialogueName, String genre, BufferedReader reader) {
-		Pattern p = Pattern.compile("<#(\\d+):(\\d+):(\\w+)>\\s+<sent>");
+	private static boolean getSentences(String dialogueName, String genre, BufferedReader reader,
+			DCPSECorpus[] corpora, List<Map<String, DialogueSpeaker>> speakers, FileContents[] contents) {
+		int n = corpora.length;
 		try {
-			Dialogue dialogue = null;
-			DialogueSpeaker lastSpeaker = null;
-			DialogueTurn currentTurn = null;
+			Dialogue[] dialogue = new Dialogue[n];
+			DialogueSpeaker[] lastSpeaker = new DialogueSpeaker[n];
+			DialogueTurn[] currentTurn = new DialogueTurn[n];
 			int currentSubdialogue = -1;
-			Filter<Tree> nodeFilter = new NodeFilter();
+			ArrayList<Filter<Tree>> nodeFilters = new ArrayList<Filter<Tree>>();
+			for (DCPSECorpus corpus : corpora) {
+				nodeFilters.add(corpus.new NodeFilter());
+			}
+			RecordingReader recorder = (n > 1 ? new RecordingReader(reader) : null);
 			String line = reader.readLine();
 			while (line != null) {
-				Matcher m = p.matcher(line);
+				Matcher m = SENT_PAT.matcher(line);
 				if (m.find()) {
 					// get the metadata
 					int sentNum = Integer.parseInt(m.group(1));
 					int subDialogue = Integer.parseInt(m.group(2));
 					String spk = m.group(3).toUpperCase();
-					// start new dialogue if subdialogue changed
-					if (subDialogue != currentSubdialogue) {
-						if (dialogue != null) {
-							if (!checkDialogue(dialogue)) {
-								return false;
-							}
+					String treeText = null;
+					for (int i = 0; i < n; i++) {
+						// start new dialogue if subdialogue changed
+						if (subDialogue != currentSubdialogue) {
+							dialogue[i] = new Dialogue(corpora[i], dialogueName + ":" + subDialogue, genre);
+							contents[i].dialogues.add(dialogue[i]);
 						}
-						dialogue = addDialogue(dialogueName + ":" + subDialogue, genre);
-					}
-					currentSubdialogue = subDialogue;
-					// set up speaker
-					String spkId = dialogue.getId() + ":" + spk;
-					DialogueSpeaker speaker = getSpeakerMap().get(spkId);
-					// System.out.println("Getting tree for sent " + sentNum + " spk [" + spkId + "]=[" + speaker + "] "
-					// + line);
-					// get the tree and extract the transcription
-					Tree tree = CreateTreeFromDCPSE.makeTree(reader);
-					String trans = "";
-					if (tree != null) {
-						tree = tree.prune(nodeFilter);
+						// set up speaker
+						String spkId = dialogue[i].getId() + ":" + spk;
+						DialogueSpeaker speaker = speakers.get(i).get(spkId);
+						// System.out.println("Getting tree for sent " + sentNum + " spk [" + spkId + "]=[" + speaker
+						// + "] " + line);
+						// get the tree and extract the transcription
+						Tree tree;
+						if (n == 1) {
+							tree = CreateTreeFromDCPSE.makeTree(reader, corpora[i].options);
+						} else if (i == 0) {
+							tree = CreateTreeFromDCPSE.makeTree(recorder, corpora[i].options);
+							treeText = recorder.getRecord();
+						} else {
+							tree = CreateTreeFromDCPSE.makeTree(new StringReader(treeText), corpora[i].options);
+						}
+						String trans = "";
 						if (tree != null) {
-							for (Tree leaf : tree.getLeaves()) {
-								String label = leaf.label().toString();
-								label = label.replaceAll("^\\s*\\{(.*)\\}\\s*$", "$1");
-								label = label.replaceAll("^\\s*<([,.:;?!]+)>\\s*$", "$1");
-								trans += label + " ";
-							}
-							trans = trans.substring(0, trans.length() - 1);
-							// start new turn if speaker has changed
-							if ((lastSpeaker == null) || !speaker.equals(lastSpeaker) || (currentTurn == null)) {
-								currentTurn = dialogue.addTurn(-1, speaker);
-								// System.out.println(currentTurn);
+							tree = tree.prune(nodeFilters.get(i));
+							if (tree != null) {
+								for (Tree leaf : tree.getLeaves()) {
+									String label = leaf.label().toString();
+									label = BRACES_PAT.matcher(label).replaceAll("$1");
+									label = PUNCT_PAT.matcher(label).replaceAll("$1");
+									trans += label + " ";
+								}
+								trans = trans.substring(0, trans.length() - 1);
+								// start new turn if speaker has changed
+								if ((lastSpeaker[i] == null) || !speaker.equals(lastSpeaker[i])
+										|| (currentTurn[i] == null)) {
+									currentTurn[i] = dialogue[i].addTurn(-1, speaker);
+									// System.out.println(currentTurn);
+								}
+								// add sentence
+								dialogue[i].addSent(sentNum, currentTurn[i], trans, tree);
+								// System.out.println(sent);
+								lastSpeaker[i] = speaker;
 							}
-							// add sentence
-							dialogue.addSent(sentNum, currentTurn, trans, tree);
-							// System.out.println(sent);
-							lastSpeaker = speaker;
 						}
 					}
+					currentSubdialogue = subDialogue;
 				}
 				line = reader.readLine();
 			}
-			return checkDialogue(dialogue);
+			return true;
 		} catch (IOException e) {
 			System.err.println("Error reading sentence line" + e.getMessage());
 			return false;
@@ -349,8 +568,8 @@ public class DCPSECorpus extends DialogueCorpus {
 				return false;
 			}
 			// naughty - modifying values when we're really just supposed to be filtering ...
-			if (!CreateTreeFromDCPSE.getOption(CreateTreeFromDCPSE.INCLUDE_NO_BRACKETS)
-					&& CreateTreeFromDCPSE.getOption(CreateTreeFromDCPSE.PP_LEXICAL_FEATURES)) {
+			if (!options.get(CreateTreeFromDCPSE.INCLUDE_NO_BRACKETS)
+					&& options.get(CreateTreeFromDCPSE.PP_LEXICAL_FEATURES)) {
 				// add head prep word to PP mother as the first bracketed feature
 				if (obj.label().value().matches("^PP\\b.*")) {
 					String label = obj.label().value();
@@ -397,7 +616,7 @@ public class DCPSECorpus extends DialogueCorpus {
 				}
 
 			}
-			if (CreateTreeFromDCPSE.getOption(CreateTreeFromDCPSE.INCLUDE_NO_IGNORE)) {
+			if (options.get(CreateTreeFromDCPSE.INCLUDE_NO_IGNORE)) {
 				if (obj.label().value().contains("ignore)")) {
 					return false;
 				}
@@ -10,19 +10,36 @@
  ******************************************************************************/
 package qmul.corpus;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -121,6 +138,31 @@ public abstract class DialogueCorpus implements Serializable {
 	 */
 	public DialogueCorpus(String id, File dir, int minSpeakers, int maxSpeakers, int minGenreCount, int maxDialogues,
 			boolean dynamic) {
+		this(id, dir, minSpeakers, maxSpeakers, minGenreCount, maxDialogues, dynamic, true);
+	}
+
+	/**
+	 * @param id
+	 *            a name for this corpus
+	 * @param dir
+	 *            the base dir for the corpus data
+	 * @param minSpeakers
+	 *            discard any dialogue with fewer than this number of speakers (0 to allow all)
+	 * @param maxSpeakers
+	 *            discard any dialogue with more than this number of speakers (0 to allow all)
+	 * @param minGenreCount
+	 *            discard any dialogue whose genre appears in fewer than this number of dialogues (0 to allow all)
+	 * @param maxDialogues
+	 *            only read in at most this number of dialogues (0 to allow all)
+	 * @param dynamic
+	 *            if true, corpus will read dialogues from file as required, rather than reading all data in when
+	 *            constructed
+	 * @param setup
+	 *            if false, don't set up the corpus yet: for subclasses which need to set their own fields first, and
+	 *            will then call setup() themselves
+	 */
+	protected DialogueCorpus(String id, File dir, int minSpeakers, int maxSpeakers, int minGenreCount,
+			int maxDialogues, boolean dynamic, boolean setup) {
 		this();
 		this.id = id;
 		this.dynamic = dynamic;
@@ -134,6 +176,15 @@ public abstract class DialogueCorpus implements Serializable {
 		this.maxDialogues = maxDialogues;
 		System.out.println("Limits: minSpeakers=" + minSpeakers + ", maxSpeakers=" + maxSpeakers + ", minGenreCount="
 				+ minGenreCount + ", maxDialogues=" + maxDialogues);
+		if (setup) {
+			setup();
+		}
+	}
+
+	/**
+	 * Set up the corpus via setupCorpus()
+	 */
+	protected void setup() {
 		if (!setupCorpus()) {
 			throw new RuntimeException("Failed to set up corpus");
 		}
@@ -163,6 +214,129 @@ public abstract class DialogueCorpus implements Serializable {
 		return false;
 	}
 
+	/**
+	 * Split the dialogues into shards, balanced by number of turns: longest dialogues first, each onto the shard with
+	 * fewest turns so far. Within each shard, dialogues keep their corpus order
+	 * 
+	 * @param numShards
+	 * @return the dialogues in each shard
+	 */
+	public List<ArrayList<Dialogue>> shardDialogues(int numShards) {
+		final ArrayList<Dialogue> all = getDialogues();
+		ArrayList<Integer> bySize = new ArrayList<Integer>();
+		for (int i = 0; i < all.size(); i++) {
+			bySize.add(i);
+		}
+		Collections.sort(bySize, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int diff = all.get(b).numTurns() - all.get(a).numTurns();
+				return (diff == 0 ? a.compareTo(b) : diff);
+			}
+		});
+		int[] shardOf = new int[all.size()];
+		int[] turns = new int[numShards];
+		for (int i : bySize) {
+			int best = 0;
+			for (int s = 1; s < numShards; s++) {
+				if (turns[s] < turns[best]) {
+					best = s;
+				}
+			}
+			shardOf[i] = best;
+			turns[best] += all.get(i).numTurns();
+		}
+		List<ArrayList<Dialogue>> shards = new ArrayList<ArrayList<Dialogue>>();
+		for (int s = 0; s < numShards; s++) {
+			shards.add(new ArrayList<Dialogue>());
+		}
+		for (int i = 0; i < all.size(); i++) {
+			shards.get(shardOf[i]).add(all.get(i));
+		}
+		return shards;
+	}
+
+	/**
+	 * Save this corpus as a number of shard corpus files (see shardDialogues()) which can be processed independently,
+	 * e.g. in separate processes. Each shard keeps this corpus's ID, speaker and genre maps. Also writes a shard order
+	 * file listing the dialogue IDs in corpus order, so that results can be put back in the original order
+	 * 
+	 * @param file
+	 *            the file this corpus is (or would be) saved in, e.g. "dcpse.corpus"
+	 * @param numShards
+	 * @return the shard files (see getShardFile()), or null if they couldn't all be written
+	 */
+	public List<File> writeShards(File file, int numShards) {
+		List<ArrayList<Dialogue>> shards = shardDialogues(numShards);
+		ArrayList<Dialogue> all = getDialogues();
+		List<File> files = new ArrayList<File>();
+		try {
+			for (int s = 0; s < numShards; s++) {
+				File shardFile = getShardFile(file, s, numShards);
+				setDialogues(shards.get(s));
+				System.out.println("Shard " + s + ": " + numDialogues() + " dialogues, " + numTurns() + " turns");
+				if (!writeToFile(shardFile)) {
+					return null;
+				}
+				files.add(shardFile);
+			}
+		} finally {
+			setDialogues(all);
+		}
+		File orderFile = getShardOrderFile(file);
+		try {
+			PrintWriter out = new PrintWriter(new FileWriter(orderFile));
+			for (Dialogue d : all) {
+				out.println(d.getId());
+			}
+			out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		return files;
+	}
+
+	/**
+	 * @param file
+	 *            a corpus file e.g. "dcpse.corpus"
+	 * @param shard
+	 * @param numShards
+	 * @return the file for this shard of that corpus e.g. "dcpse.shard0of4.corpus"
+	 */
+	public static File getShardFile(File file, int shard, int numShards) {
+		String path = file.getPath();
+		String suffix = path.substring(getStem(path).length());
+		return new File(getStem(path) + ".shard" + shard + "of" + numShards + suffix);
+	}
+
+	/**
+	 * @param file
+	 *            a corpus file e.g. "dcpse.corpus"
+	 * @return the shard order file for that corpus e.g. "dcpse.shards"
+	 */
+	public static File getShardOrderFile(File file) {
+		return new File(getStem(file.getPath()) + ".shards");
+	}
+
+	private static String getStem(String path) {
+		return path.replaceFirst("\\.corpus(\\.gz)?$", "");
+	}
+
+	/**
+	 * @param orderFile
+	 *            a shard order file written by writeShards()
+	 * @return the dialogue IDs in original corpus order
+	 */
+	public static List<String> readShardOrder(File orderFile) {
+		try {
+			return readLines(orderFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new ArrayList<String>();
+		}
+	}
+
 	/**
 	 * @param file
 	 * @return a corpus read from a file previously saved by writeToFile(), null if the file doesn't exist or can't be
@@ -212,6 +386,283 @@ public abstract class DialogueCorpus implements Serializable {
 	 */
 	public abstract boolean loadDialogue(String name);
 
+	/**
+	 * The dialogues and speakers read from one corpus file, not yet added to the corpus
+	 */
+	protected static class FileContents {
+
+		protected final ArrayList<Dialogue> dialogues = new ArrayList<Dialogue>();
+		protected final HashMap<String, DialogueSpeaker> speakers = new HashMap<String, DialogueSpeaker>();
+		protected boolean success = true;
+		protected boolean countGenres = false;
+
+		public FileContents() {
+			super();
+		}
+
+		/**
+		 * @param dialogue
+		 *            a dialogue read from the file
+		 */
+		public void addDialogue(Dialogue dialogue) {
+			dialogues.add(dialogue);
+		}
+
+		/**
+		 * @param id
+		 * @param speaker
+		 *            a speaker found in the file
+		 */
+		public void addSpeaker(String id, DialogueSpeaker speaker) {
+			speakers.put(id, speaker);
+		}
+
+		/**
+		 * @return the dialogues read from the file
+		 */
+		public List<Dialogue> getDialogues() {
+			return dialogues;
+		}
+
+		/**
+		 * @return false if the file couldn't be read properly
+		 */
+		public boolean isSuccess() {
+			return success;
+		}
+
+		/**
+		 * @param success
+		 *            false if the file couldn't be read properly
+		 */
+		public void setSuccess(boolean success) {
+			this.success = success;
+		}
+
+		/**
+		 * @param countGenres
+		 *            true if each dialogue should be counted in getGenreCounts() when added, for corpora which don't set
+		 *            their genre counts up front (default false)
+		 */
+		public void setCountGenres(boolean countGenres) {
+			this.countGenres = countGenres;
+		}
+
+	}
+
+	/**
+	 * The speakers found so far while setting up a corpus, shared between files read on different threads so that the
+	 * same speaker ID always gets the same {@link DialogueSpeaker}, whichever file it's first seen in
+	 */
+	protected static class SpeakerRegistry {
+
+		private final ConcurrentHashMap<String, DialogueSpeaker> speakers;
+
+		/**
+		 * @param speakers
+		 *            the speakers already known (i.e. the corpus speaker map)
+		 */
+		public SpeakerRegistry(Map<String, DialogueSpeaker> speakers) {
+			this.speakers = new ConcurrentHashMap<String, DialogueSpeaker>(speakers);
+		}
+
+		/**
+		 * @param id
+		 * @param firstName
+		 * @return the speaker with this ID, created with this first name and no other info if not seen before
+		 */
+		public DialogueSpeaker get(String id, String firstName) {
+			DialogueSpeaker spk = speakers.get(id);
+			if (spk == null) {
+				DialogueSpeaker newSpk = new DialogueSpeaker(id, firstName, null, null, null, null);
+				spk = speakers.putIfAbsent(id, newSpk);
+				if (spk == null) {
+					spk = newSpk;
+				}
+			}
+			return spk;
+		}
+
+	}
+
+	/**
+	 * Reads the dialogues and speakers from one corpus file, see loadFiles()
+	 */
+	protected interface ContentsReader {
+
+		/**
+		 * Read a file (called on a worker thread, so must not change the corpus)
+		 * 
+		 * @param file
+		 * @return the contents
+		 */
+		public FileContents read(File file);
+
+	}
+
+	/**
+	 * Read files in parallel, adding their contents to the corpus in the order given via addFileContents()
+	 * 
+	 * @param files
+	 * @param reader
+	 * @return false if addFileContents() said to stop, true otherwise
+	 */
+	protected boolean loadFiles(List<File> files, final ContentsReader reader) {
+		return processFiles(files, new FileProcessor<FileContents>() {
+			@Override
+			public FileContents read(File file) {
+				return reader.read(file);
+			}
+
+			@Override
+			public boolean add(FileContents contents) {
+				return addFileContents(contents);
+			}
+		});
+	}
+
+	private static final int LINE_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Read all lines of a text file in the platform default encoding, as {@link csli.util.FileUtils}.getFileLines()
+	 * does, but with a larger buffer
+	 * 
+	 * @param file
+	 * @return the lines
+	 * @throws IOException
+	 */
+	protected static List<String> readLines(File file) throws IOException {
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file.toPath())),
+				LINE_BUFFER_SIZE);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	/**
+	 * Add the dialogues and speakers read from a file to the corpus, checking each dialogue as it's added
+	 * 
+	 * @param contents
+	 * @return whether to carry on or not
+	 */
+	protected boolean addFileContents(FileContents contents) {
+		getSpeakerMap().putAll(contents.speakers);
+		for (Dialogue dialogue : contents.dialogues) {
+			getDialogues().add(dialogue);
+			getGenreMap().put(dialogue.getId(), dialogue.getGenre());
+			if (contents.countGenres) {
+				Integer n = getGenreCounts().get(dialogue.getGenre());
+				getGenreCounts().put(dialogue.getGenre(), (n == null ? 0 : n) + 1);
+			}
+			if (!checkDialogue(dialogue)) {
+				return false;
+			}
+		}
+		return contents.success;
+	}
+
+	/**
+	 * Reads a corpus file without touching the corpus, so that several files can be read at once; the results are then
+	 * added to the corpus one by one in the original file order
+	 * 
+	 * @param <T>
+	 *            whatever holds the contents of one file
+	 */
+	protected interface FileProcessor<T> {
+
+		/**
+		 * Read a file (called on a worker thread, so must not change the corpus)
+		 * 
+		 * @param file
+		 * @return the contents
+		 */
+		public T read(File file);
+
+		/**
+		 * Add the contents of a file to the corpus (called on the calling thread, in file order)
+		 * 
+		 * @param contents
+		 * @return whether to carry on or not
+		 */
+		public boolean add(T contents);
+
+	}
+
+	private static int numThreads = 1;
+
+	/**
+	 * @param numThreads
+	 *            the number of corpus files to read in parallel when setting up a corpus (0 or less means one per
+	 *            available processor). Dialogues are still added to the corpus in file order, so the result doesn't
+	 *            depend on this
+	 */
+	public static void setNumThreads(int numThreads) {
+		DialogueCorpus.numThreads = (numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @return the number of corpus files to read in parallel
+	 */
+	public static int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * Read files, up to numThreads at a time, adding their contents to the corpus in the order given
+	 * 
+	 * @param files
+	 * @param processor
+	 * @return false if processor.add() said to stop, true otherwise
+	 */
+	protected <T> boolean processFiles(List<File> files, final FileProcessor<T> processor) {
+		if ((numThreads <= 1) || (files.size() <= 1)) {
+			for (File file : files) {
+				if (!processor.add(processor.read(file))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, files.size()));
+		// don't read too far ahead of what's been added, or we could end up holding most of the corpus twice
+		LinkedList<Future<T>> pending = new LinkedList<Future<T>>();
+		Iterator<File> it = files.iterator();
+		try {
+			while (it.hasNext() || !pending.isEmpty()) {
+				while (it.hasNext() && (pending.size() < (numThreads * 2))) {
+					final File file = it.next();
+					pending.add(executor.submit(new Callable<T>() {
+						@Override
+						public T call() {
+							return processor.read(file);
+						}
+					}));
+				}
+				if (!processor.add(pending.removeFirst().get())) {
+					return false;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted while reading corpus files", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return true;
+	}
+
 	/**
 	 * Create a new {@link Dialogue} and add it to the appropriate list
 	 * 
@@ -42,6 +42,17 @@ public class DialogueSentence extends DialogueUnit implements Serializable {
 
 	private double syntaxProb;
 
+	// lexical forms as ids in LexicalAnnotator.getVocabulary(): not serialized, as ids are only valid within one run
+	private transient int[] wordIds;
+
+	private transient int[] stemIds;
+
+	private transient int[] lemmaIds;
+
+	private transient boolean[] stopWords;
+
+	private transient int[] tokenIds;
+
 	/**
 	 * @deprecated just for serialization, use full constructor instead
 	 */
@@ -100,6 +111,7 @@ public class DialogueSentence extends DialogueUnit implements Serializable {
 	@Deprecated
 	public void setTranscription(String transcription) {
 		this.transcription = transcription;
+		clearLexicalForms();
 	}
 
 	public DialogueTurn getTurn() {
@@ -131,6 +143,7 @@ public class DialogueSentence extends DialogueUnit implements Serializable {
 	 */
 	public void setTokens(List<? extends HasWord> tokens) {
 		this.tokens = new ArrayList<HasWord>(tokens);
+		clearLexicalForms();
 	}
 
 	/**
@@ -148,6 +161,7 @@ public class DialogueSentence extends DialogueUnit implements Serializable {
 	 */
 	public void setTaggedWords(List<? extends TaggedWord> taggedWords) {
 		this.taggedWords = new ArrayList<TaggedWord>(taggedWords);
+		clearLexicalForms();
 	}
 
 	/**
@@ -165,6 +179,96 @@ public class DialogueSentence extends DialogueUnit implements Serializable {
 	 */
 	public void setTaggedLemmas(List<? extends TaggedWord> taggedLemmas) {
 		this.taggedLemmas = new ArrayList<TaggedWord>(taggedLemmas);
+		clearLexicalForms();
+	}
+
+	/**
+	 * @return true if the lexical forms have been set (by {@link LexicalAnnotator}) since the transcription, tokens or
+	 *         tags last changed
+	 */
+	public boolean hasLexicalForms() {
+		return (wordIds != null);
+	}
+
+	/**
+	 * Set the word and token forms, clearing any stems, lemmas and stop-word flags (which {@link LexicalAnnotator}
+	 * derives from them when first asked)
+	 * 
+	 * @param wordIds
+	 *            the lower-cased words of the transcription
+	 * @param tokenIds
+	 *            the lower-cased words of the tokens (the words of the transcription if there are no tokens)
+	 */
+	public void setLexicalForms(int[] wordIds, int[] tokenIds) {
+		this.stemIds = null;
+		this.lemmaIds = null;
+		this.stopWords = null;
+		this.tokenIds = tokenIds;
+		this.wordIds = wordIds;
+	}
+
+	/**
+	 * @param stemIds
+	 *            the stems of getWordIds(), one per word
+	 * @param lemmaIds
+	 *            the lemmas (from the tagged lemmas or tagged words if present, otherwise the stems)
+	 * @param stopWords
+	 *            whether each of getWordIds() is a stop word
+	 */
+	void setLexicalFeatures(int[] stemIds, int[] lemmaIds, boolean[] stopWords) {
+		this.stemIds = stemIds;
+		this.lemmaIds = lemmaIds;
+		this.stopWords = stopWords;
+	}
+
+	private void clearLexicalForms() {
+		this.wordIds = null;
+		this.stemIds = null;
+		this.lemmaIds = null;
+		this.stopWords = null;
+		this.tokenIds = null;
+	}
+
+	/**
+	 * @return the lower-cased words of the transcription, as {@link LexicalAnnotator} vocabulary ids (null if not
+	 *         annotated)
+	 */
+	public int[] getWordIds() {
+		return wordIds;
+	}
+
+	/**
+	 * @return the stems of getWordIds(), as {@link LexicalAnnotator} vocabulary ids (null if not derived yet, see
+	 *         {@link LexicalAnnotator#getStemIds(DialogueSentence)})
+	 */
+	public int[] getStemIds() {
+		return stemIds;
+	}
+
+	/**
+	 * @return the lemmas, as {@link LexicalAnnotator} vocabulary ids (null if not derived yet, see
+	 *         {@link LexicalAnnotator#getLemmaIds(DialogueSentence)}). Not necessarily aligned with getWordIds(), if
+	 *         they come from the tagged lemmas
+	 */
+	public int[] getLemmaIds() {
+		return lemmaIds;
+	}
+
+	/**
+	 * @return whether each of getWordIds() is a stop word (null if not derived yet, see
+	 *         {@link LexicalAnnotator#getStopWords(DialogueSentence)})
+	 */
+	public boolean[] getStopWords() {
+		return stopWords;
+	}
+
+	/**
+	 * @return the lower-cased words of the tokens (the letter/digit sequences in each, with UNCLEAR kept as a token of
+	 *         its own), or the words of the transcription if there are no tokens, as {@link LexicalAnnotator} vocabulary
+	 *         ids (null if not annotated)
+	 */
+	public int[] getTokenIds() {
+		return tokenIds;
 	}
 
 	/**
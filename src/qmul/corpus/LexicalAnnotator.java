@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Matthew Purver, Queen Mary University of London - initial API and implementation
+ ******************************************************************************/
+package qmul.corpus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import qmul.distr.Vocabulary;
+import csli.util.nlp.StopWords;
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.process.Morphology;
+
+/**
+ * Annotate {@link DialogueSentence}s once with the lexical forms the lexical similarity measures compare: lower-cased
+ * words (the letter/digit sequences of the transcription, as split by
+ * {@link qmul.util.similarity.StringSimilarityMeasure#splitIntoWords(String)}) and the same for the tokens, all stored
+ * as int ids in a shared {@link Vocabulary}. Measures then compare int arrays rather than re-splitting strings for every
+ * pair.
+ *
+ * Use annotate() to do a whole corpus up front, in parallel; measures call ensureAnnotated() for anything left over
+ * (e.g. sentences created on the fly). Stems, lemmas and stop-word flags, which cost much more and which the current
+ * measures don't use, are only derived (once) when first asked for via getStemIds(), getLemmaIds() or getStopWords().
+ *
+ * @author mpurver
+ */
+public class LexicalAnnotator {
+
+	/**
+	 * The token form of UNCLEAR, kept upper-case so that it can't be confused with the word "unclear"
+	 */
+	public static final String UNCLEAR = "UNCLEAR";
+
+	private static final Vocabulary vocabulary = new Vocabulary();
+
+	private static int numThreads = Runtime.getRuntime().availableProcessors();
+
+	private static final ThreadLocal<LexicalAnnotator> instance = new ThreadLocal<LexicalAnnotator>() {
+		@Override
+		protected LexicalAnnotator initialValue() {
+			return new LexicalAnnotator();
+		}
+	};
+
+	// not thread-safe, so one per annotator
+	private final Morphology morphology = new Morphology();
+
+	/**
+	 * @return the vocabulary that all lexical form ids refer to
+	 */
+	public static Vocabulary getVocabulary() {
+		return vocabulary;
+	}
+
+	/**
+	 * @return the number of annotation threads to use (default one per available processor)
+	 */
+	public static int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * @param numThreads
+	 *            the number of annotation threads to use; 0 or less means one per available processor. The results
+	 *            don't depend on this (apart from the order ids are assigned in)
+	 */
+	public static void setNumThreads(int numThreads) {
+		LexicalAnnotator.numThreads = (numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Annotate every sentence in a corpus which isn't already annotated
+	 *
+	 * @param corpus
+	 * @return the number of sentences annotated
+	 */
+	public static int annotate(DialogueCorpus corpus) {
+		return annotate(corpus.getDialogues());
+	}
+
+	/**
+	 * Annotate every sentence in some dialogues which isn't already annotated, using getNumThreads() threads
+	 *
+	 * @param dialogues
+	 * @return the number of sentences annotated
+	 */
+	public static int annotate(List<Dialogue> dialogues) {
+		final ConcurrentLinkedQueue<Dialogue> queue = new ConcurrentLinkedQueue<Dialogue>(dialogues);
+		final AtomicInteger nDone = new AtomicInteger(0);
+		long time = System.currentTimeMillis();
+		Thread[] threads = new Thread[Math.max(1, Math.min(numThreads, dialogues.size()))];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread("LexicalAnnotator-" + i) {
+				@Override
+				public void run() {
+					LexicalAnnotator annotator = instance.get();
+					Dialogue d;
+					while ((d = queue.poll()) != null) {
+						for (DialogueSentence s : d.getSents()) {
+							synchronized (s) {
+								if (!s.hasLexicalForms()) {
+									annotator.annotate(s);
+									nDone.incrementAndGet();
+								}
+							}
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("interrupted while annotating", e);
+			}
+		}
+		System.out.println("Annotated lexical forms for " + nDone.get() + " sentences with " + threads.length
+				+ " threads in " + (System.currentTimeMillis() - time) + " ms, vocabulary " + vocabulary.size());
+		return nDone.get();
+	}
+
+	/**
+	 * Annotate a sentence if it isn't already
+	 *
+	 * @param s
+	 */
+	public static void ensureAnnotated(DialogueSentence s) {
+		synchronized (s) {
+			if (!s.hasLexicalForms()) {
+				instance.get().annotate(s);
+			}
+		}
+	}
+
+	/**
+	 * @param s
+	 * @return the stems of s's words, deriving them first if necessary
+	 */
+	public static int[] getStemIds(DialogueSentence s) {
+		ensureFeatures(s);
+		return s.getStemIds();
+	}
+
+	/**
+	 * @param s
+	 * @return the lemmas of s (from its tagged lemmas or tagged words if present, otherwise the stems of its words),
+	 *         deriving them first if necessary
+	 */
+	public static int[] getLemmaIds(DialogueSentence s) {
+		ensureFeatures(s);
+		return s.getLemmaIds();
+	}
+
+	/**
+	 * @param s
+	 * @return whether each of s's words is a stop word, deriving them first if necessary
+	 */
+	public static boolean[] getStopWords(DialogueSentence s) {
+		ensureFeatures(s);
+		return s.getStopWords();
+	}
+
+	/**
+	 * Derive the stems, lemmas and stop-word flags of a sentence if they aren't there already
+	 *
+	 * @param s
+	 */
+	private static void ensureFeatures(DialogueSentence s) {
+		synchronized (s) {
+			if (!s.hasLexicalForms()) {
+				instance.get().annotate(s);
+			}
+			if (s.getStemIds() == null) {
+				instance.get().annotateFeatures(s);
+			}
+		}
+	}
+
+	/**
+	 * Annotate a sentence with its word and token forms, replacing any existing lexical forms
+	 *
+	 * @param s
+	 */
+	public void annotate(DialogueSentence s) {
+		int[] wordIds = getIds(splitIntoWords(s.getTranscription()));
+		int[] tokenIds = wordIds;
+		if (s.getTokens() != null) {
+			ArrayList<String> tokenWords = new ArrayList<String>();
+			for (HasWord tok : s.getTokens()) {
+				if (tok.word().equals(UNCLEAR)) {
+					tokenWords.add(UNCLEAR);
+				} else {
+					tokenWords.addAll(splitIntoWords(tok.word()));
+				}
+			}
+			tokenIds = getIds(tokenWords);
+		}
+		s.setLexicalForms(wordIds, tokenIds);
+	}
+
+	/**
+	 * Annotate an annotated sentence with the stems of its words, its lemmas and its words' stop-word flags
+	 *
+	 * @param s
+	 */
+	public void annotateFeatures(DialogueSentence s) {
+		int[] wordIds = s.getWordIds();
+		int n = wordIds.length;
+		int[] stemIds = new int[n];
+		boolean[] stopWords = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			String word = vocabulary.get(wordIds[i]);
+			stemIds[i] = vocabulary.getIndex(stem(word));
+			stopWords[i] = StopWords.contains(word);
+		}
+		int[] lemmaIds = stemIds;
+		if (s.getTaggedLemmas() != null) {
+			lemmaIds = new int[s.getTaggedLemmas().size()];
+			int i = 0;
+			for (TaggedWord tw : s.getTaggedLemmas()) {
+				lemmaIds[i++] = vocabulary.getIndex(tw.word().toLowerCase());
+			}
+		} else if (s.getTaggedWords() != null) {
+			lemmaIds = new int[s.getTaggedWords().size()];
+			int i = 0;
+			for (TaggedWord tw : s.getTaggedWords()) {
+				lemmaIds[i++] = vocabulary.getIndex(lemma(tw.word().toLowerCase(), tw.tag()));
+			}
+		}
+		s.setLexicalFeatures(stemIds, lemmaIds, stopWords);
+	}
+
+	/**
+	 * @param words
+	 * @return the words' ids in the vocabulary
+	 */
+	private static int[] getIds(List<String> words) {
+		int[] ids = new int[words.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = vocabulary.getIndex(words.get(i));
+		}
+		return ids;
+	}
+
+	/**
+	 * @param word
+	 * @return the stem, or the word itself if the stemmer fails
+	 */
+	public String stem(String word) {
+		try {
+			return morphology.stem(word);
+		} catch (RuntimeException e) {
+			return word;
+		}
+	}
+
+	/**
+	 * @param word
+	 * @param tag
+	 * @return the lemma given the PoS tag, or the word itself if the stemmer fails
+	 */
+	private String lemma(String word, String tag) {
+		try {
+			return morphology.stem(word, tag).word();
+		} catch (RuntimeException e) {
+			return word;
+		}
+	}
+
+	/**
+	 * @param str
+	 * @return the lower-cased letter/digit sequences in str, i.e. the words
+	 *         {@link qmul.util.similarity.StringSimilarityMeasure#splitIntoWords(String)} would give, lower-cased
+	 */
+	public static List<String> splitIntoWords(String str) {
+		ArrayList<String> words = new ArrayList<String>();
+		if (str == null) {
+			return words;
+		}
+		int start = -1;
+		for (int i = 0; i <= str.length(); i++) {
+			if ((i < str.length()) && Character.isLetterOrDigit(str.charAt(i))) {
+				if (start < 0) {
+					start = i;
+				}
+			} else if (start >= 0) {
+				words.add(str.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+		return words;
+	}
+
+}
@@ -97,6 +97,7 @@ public class MapTaskTranscriptCorpus extends TranscriptCorpus {
 				name = "maptask_stanford.corpus.gz";
 			}
 			CorpusParser.setParser(parser);
+			CorpusParser.setParseCache(new File(CorpusParser.DEFAULT_PARSE_CACHE));
 			CorpusParser.setLeaveExisting(leaveExisting);
 			if (CorpusParser.parse(c) > 0) {
 				c.writeToFile(new File(name));
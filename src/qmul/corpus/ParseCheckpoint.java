@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Matthew Purver, Queen Mary University of London - initial API and implementation
+ ******************************************************************************/
+package qmul.corpus;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * An append-only log of parses (sentence ID -> {@link Tree}) written during a long {@link CorpusParser} run, so that a
+ * crashed run can be resumed rather than started again. The log is a header identifying the corpus (its ID and number
+ * of sentences), then a sequence of length-prefixed blocks, each a serialized map of the parses done since the last
+ * checkpoint. A block cut short by a crash is ignored on reading, and cut off before the next block is appended; a log
+ * for a different corpus is rejected.
+ * 
+ * @author mpurver
+ */
+public class ParseCheckpoint {
+
+	private static final int MAGIC = 0x51504c47;
+
+	private final File file;
+	private LinkedHashMap<String, Tree> pending = new LinkedHashMap<String, Tree>();
+	// the corpus identity written to/expected in the header, or null if not known yet
+	private String corpusId = null;
+	// the length of the log up to the end of the last complete block, or -1 if not read yet
+	private long goodLength = -1;
+
+	/**
+	 * @param file
+	 *            the log file (appended to if it already exists)
+	 */
+	public ParseCheckpoint(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the log file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @param corpus
+	 * @return the identity of the corpus as stored in the log header
+	 */
+	public static String getCorpusId(DialogueCorpus corpus) {
+		return corpus.getId() + " " + corpus.numSents();
+	}
+
+	/**
+	 * @param corpusId
+	 *            the corpus identity to write in the log header, and to check existing logs against (see
+	 *            {@link #getCorpusId(DialogueCorpus)}); null to accept any log
+	 */
+	public void setCorpusId(String corpusId) {
+		this.corpusId = corpusId;
+	}
+
+	/**
+	 * Record a parse, to be written at the next checkpoint
+	 * 
+	 * @param id
+	 *            the {@link DialogueSentence} ID
+	 * @param tree
+	 */
+	public synchronized void add(String id, Tree tree) {
+		pending.put(id, tree);
+	}
+
+	/**
+	 * @return the number of parses recorded since the last checkpoint
+	 */
+	public synchronized int numPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Append all parses recorded since the last checkpoint to the log, first cutting off any incomplete block left by a
+	 * crash
+	 * 
+	 * @return success (false if the existing log is for a different corpus, or can't be written; the parses are then
+	 *         kept for the next attempt)
+	 */
+	public boolean checkpoint() {
+		LinkedHashMap<String, Tree> block;
+		synchronized (this) {
+			if (pending.isEmpty()) {
+				return true;
+			}
+			block = pending;
+			pending = new LinkedHashMap<String, Tree>();
+		}
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(block);
+			out.close();
+			synchronized (file) {
+				if ((goodLength < 0) && (read() == null)) {
+					System.err.println("Not checkpointing to " + file + ", which belongs to another corpus");
+					putBack(block);
+					return false;
+				}
+				ByteArrayOutputStream record = new ByteArrayOutputStream();
+				DataOutputStream dos = new DataOutputStream(record);
+				if (goodLength == 0) {
+					writeHeader(dos);
+				}
+				dos.writeInt(bytes.size());
+				bytes.writeTo(dos);
+				dos.close();
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try {
+					raf.getChannel().truncate(goodLength);
+					raf.seek(goodLength);
+					raf.write(record.toByteArray());
+					raf.getFD().sync();
+					goodLength += record.size();
+				} finally {
+					raf.close();
+				}
+			}
+			System.out.println("Checkpointed " + block.size() + " parses to " + file);
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			// so we can try again next time
+			putBack(block);
+		}
+		return false;
+	}
+
+	/**
+	 * Put a block of parses which couldn't be written back in front of any recorded since, so that they aren't lost
+	 * 
+	 * @param block
+	 */
+	private synchronized void putBack(LinkedHashMap<String, Tree> block) {
+		block.putAll(pending);
+		pending = block;
+	}
+
+	/**
+	 * @param out
+	 * @throws IOException
+	 */
+	private void writeHeader(DataOutputStream out) throws IOException {
+		byte[] id = (corpusId == null ? "" : corpusId).getBytes("UTF-8");
+		out.writeInt(MAGIC);
+		out.writeInt(id.length);
+		out.write(id);
+	}
+
+	/**
+	 * Read back all complete blocks in the log, noting where the last one ends so that checkpoint() can append after it
+	 * 
+	 * @return a map of sentence ID -> parse (empty if there is no log yet), or null if the log is for a different
+	 *         corpus (or not a checkpoint log at all)
+	 */
+	@SuppressWarnings("unchecked")
+	public LinkedHashMap<String, Tree> read() {
+		LinkedHashMap<String, Tree> parses = new LinkedHashMap<String, Tree>();
+		long length = 0;
+		if (file.exists()) {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				try {
+					if (in.readInt() != MAGIC) {
+						System.err.println(file + " is not a parse checkpoint log");
+						return null;
+					}
+					byte[] id = new byte[in.readInt()];
+					in.readFully(id);
+					String logId = new String(id, "UTF-8");
+					if ((corpusId != null) && !corpusId.equals(logId)) {
+						System.err.println("Checkpoint log " + file + " is for corpus " + logId + ", not " + corpusId);
+						return null;
+					}
+					length = 8 + id.length;
+					while (true) {
+						int len = in.readInt();
+						byte[] block = new byte[len];
+						in.readFully(block);
+						ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(block));
+						parses.putAll((Map<String, Tree>) oin.readObject());
+						length += 4 + len;
+					}
+				} catch (EOFException e) {
+					// end of log, or a block cut short by a crash - either way we've got everything we can
+				} finally {
+					in.close();
+				}
+			} catch (ClassNotFoundException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				// e.g. a corrupt block - keep what we've got so far
+				e.printStackTrace();
+			}
+		}
+		synchronized (file) {
+			goodLength = length;
+		}
+		System.out.println("Read " + parses.size() + " checkpointed parses from " + file);
+		return parses;
+	}
+
+	/**
+	 * Fill in the syntax of all sentences in the corpus which have a parse in the log, setting the corpus identity to
+	 * check the log against (and to write to a new one)
+	 * 
+	 * @param corpus
+	 * @return the IDs of the {@link DialogueSentence}s restored, or null if the log is for a different corpus
+	 */
+	public HashSet<String> restore(DialogueCorpus corpus) {
+		setCorpusId(getCorpusId(corpus));
+		LinkedHashMap<String, Tree> parses = read();
+		if (parses == null) {
+			return null;
+		}
+		HashSet<String> restored = new HashSet<String>();
+		if (parses.isEmpty()) {
+			return restored;
+		}
+		for (Dialogue d : corpus.getDialogues()) {
+			for (DialogueSentence s : d.getSents()) {
+				Tree t = parses.get(s.getId());
+				if (t != null) {
+					s.setSyntax(t);
+					restored.add(s.getId());
+				}
+			}
+		}
+		System.out.println("Restored " + restored.size() + " parses from checkpoint");
+		return restored;
+	}
+
+	/**
+	 * Remove the log, e.g. once the fully parsed corpus has been safely saved
+	 * 
+	 * @return success
+	 */
+	public boolean delete() {
+		synchronized (file) {
+			goodLength = -1;
+		}
+		return !file.exists() || file.delete();
+	}
+
+}
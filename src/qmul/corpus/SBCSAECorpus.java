@@ -13,7 +13,8 @@ package qmul.corpus;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -21,7 +22,6 @@ import qmul.util.parse.ClarkCurranParser;
 import qmul.util.parse.CreateTreeFromClarkCurranCCGProlog;
 import qmul.util.parse.RASPParser;
 import qmul.util.parse.StanfordParser;
-import csli.util.FileUtils;
 import edu.stanford.nlp.parser.Parser;
 
 /**
@@ -40,6 +40,20 @@ public class SBCSAECorpus extends DialogueCorpus {
 
 	private static final String BASE_DIR = "/import/imc-corpora/corpora/sbcsae";
 
+	private static final Pattern TURN_PAT = Pattern.compile("^\\s*([\\d\\.]+)\\s([\\d\\.]+)\\s(\\S+)?\\s(.*?)\\s*$");
+	private static final Pattern TRN_PAT = Pattern.compile("\\.trn$");
+	private static final Pattern CA_PAT = Pattern
+			.compile("\\.\\.+|<<?(\\S+)|(\\S+)>>?|=|~|@|%|--|\\[\\d?|\\d?\\]|\\(Hx?\\)");
+	private static final Pattern BAD_APOS_PAT = Pattern.compile("\ufffd");
+	private static final Pattern SPACE_PAT = Pattern.compile("\\s+");
+	private static final Pattern SLASH_PAT = Pattern.compile("/.*");
+
+	private static final FilenameFilter TRN_FILTER = new FilenameFilter() {
+		public boolean accept(File dir, String name) {
+			return name.endsWith(".trn");
+		}
+	};
+
 	/**
 	 * @param id
 	 *            an ID for this dataset
@@ -68,88 +82,94 @@ public class SBCSAECorpus extends DialogueCorpus {
 	 */
 	@Override
 	public boolean setupCorpus() {
-		Pattern pTurn = Pattern.compile("^\\s*([\\d\\.]+)\\s([\\d\\.]+)\\s(\\S+)?\\s(.*?)\\s*$");
-		FilenameFilter tmp = new FilenameFilter() {
-			public boolean accept(File dir, String name) {
-				return name.endsWith(".trn");
+		final SpeakerRegistry speakers = new SpeakerRegistry(getSpeakerMap());
+		boolean success = loadFiles(Arrays.asList(getDir().listFiles(TRN_FILTER)), new ContentsReader() {
+			@Override
+			public FileContents read(File file) {
+				return readFile(file, speakers);
 			}
-		};
-		for (File file : getDir().listFiles(tmp)) {
-			System.out.println("File: " + file);
-			ArrayList<String> lines = new ArrayList<String>();
-			try {
-				lines = (ArrayList<String>) FileUtils.getFileLines(file, lines);
-				String genre = "default";
-				Dialogue d = addDialogue(file.getName().replaceFirst("\\.trn$", ""), genre);
-				getGenreCounts()
-						.put(genre, (getGenreCounts().get(genre) == null ? 0 : getGenreCounts().get(genre)) + 1);
-				DialogueTurn turn = null;
-				for (String line : lines) {
-					line = line.trim();
-					Matcher m = pTurn.matcher(line);
-					if (m.matches()) {
-						float startTime = Float.parseFloat(m.group(1));
-						float endTime = Float.parseFloat(m.group(2));
-						String spkName = m.group(3);
-						String trans = m.group(4);
-						if (trans != null && !trans.isEmpty()) {
-							// System.out.println(spkName + ": " + trans);
-							if (REMOVE_CA_NOTATION) {
-								trans = trans.replaceAll(
-										"\\.\\.+|<<?(\\S+)|(\\S+)>>?|=|~|@|%|--|\\[\\d?|\\d?\\]|\\(Hx?\\)", "");
-								trans = trans.replaceAll("�", "'");
-								trans = trans.replaceAll("\\s+", " ");
-							}
+		});
+		if (!success) {
+			return false;
+		}
+		return sanityCheck();
+	}
+
+	/**
+	 * @param file
+	 * @param speakers
+	 *            the speakers found so far
+	 * @return the dialogue and speakers in the file
+	 */
+	private FileContents readFile(File file, SpeakerRegistry speakers) {
+		System.out.println("File: " + file);
+		FileContents contents = new FileContents();
+		contents.setCountGenres(true);
+		try {
+			List<String> lines = readLines(file);
+			String genre = "default";
+			Dialogue d = new Dialogue(this, TRN_PAT.matcher(file.getName()).replaceFirst(""), genre);
+			contents.dialogues.add(d);
+			DialogueTurn turn = null;
+			Matcher m = TURN_PAT.matcher("");
+			for (String line : lines) {
+				line = line.trim();
+				m.reset(line);
+				if (m.matches()) {
+					float startTime = Float.parseFloat(m.group(1));
+					float endTime = Float.parseFloat(m.group(2));
+					String spkName = m.group(3);
+					String trans = m.group(4);
+					if (trans != null && !trans.isEmpty()) {
+						// System.out.println(spkName + ": " + trans);
+						if (REMOVE_CA_NOTATION) {
+							trans = CA_PAT.matcher(trans).replaceAll("");
+							trans = BAD_APOS_PAT.matcher(trans).replaceAll("'");
+							trans = SPACE_PAT.matcher(trans).replaceAll(" ");
 						}
-						if ((spkName != null) && !spkName.isEmpty()) {
-							spkName = spkName.toUpperCase().replace(":", ""); // some occasionally vary case
-							if (spkName.startsWith("$") // comment lines
-									|| (REMOVE_UNKNOWN_TURNS && (spkName.equals("X") || spkName.equals("*X")))
-									|| (REMOVE_ENV_TURNS && spkName.startsWith(">")) // >ENV, >DOG etc
-									|| (REMOVE_MANY_SPEAKER_TURNS && spkName.equals("MANY"))) {
-								System.out.println("Ignoring turn by " + spkName);
-							} else {
-								// sometimes transcriber wasn't sure of speaker - go for first possibility
-								spkName = spkName.replaceAll("/.*", "");
-								// ensure dialogue ID within speaker ID, as per other corpora + AlignmentTester
-								spkName = d.getId() + ":" + spkName;
-								// new speaker turn
-								DialogueSpeaker spk = getSpeakerMap().get(spkName);
-								if (spk == null) {
-									spk = new DialogueSpeaker(spkName, spkName, null, null, null, null);
-									getSpeakerMap().put(spkName, spk);
-								}
-								d.getSpeakers().add(spk);
-								System.out.println("Turn: " + turn);
-								turn = d.addTurn(-1, spk);
-								turn.setStartTime(startTime);
-								turn.setEndTime(endTime);
-								DialogueSentence sent = d.addSent(-1, turn, trans, null);
-								sent.setStartTime(startTime);
-								sent.setEndTime(endTime);
-							}
+					}
+					if ((spkName != null) && !spkName.isEmpty()) {
+						spkName = spkName.toUpperCase().replace(":", ""); // some occasionally vary case
+						if (spkName.startsWith("$") // comment lines
+								|| (REMOVE_UNKNOWN_TURNS && (spkName.equals("X") || spkName.equals("*X")))
+								|| (REMOVE_ENV_TURNS && spkName.startsWith(">")) // >ENV, >DOG etc
+								|| (REMOVE_MANY_SPEAKER_TURNS && spkName.equals("MANY"))) {
+							System.out.println("Ignoring turn by " + spkName);
 						} else {
-							// new sentence in existing speaker turn
+							// sometimes transcriber wasn't sure of speaker - go for first possibility
+							spkName = SLASH_PAT.matcher(spkName).replaceAll("");
+							// ensure dialogue ID within speaker ID, as per other corpora + AlignmentTester
+							spkName = d.getId() + ":" + spkName;
+							// new speaker turn
+							DialogueSpeaker spk = speakers.get(spkName, spkName);
+							contents.speakers.put(spkName, spk);
+							d.getSpeakers().add(spk);
+							System.out.println("Turn: " + turn);
+							turn = d.addTurn(-1, spk);
+							turn.setStartTime(startTime);
+							turn.setEndTime(endTime);
 							DialogueSentence sent = d.addSent(-1, turn, trans, null);
 							sent.setStartTime(startTime);
 							sent.setEndTime(endTime);
-							if (endTime > turn.getEndTime()) {
-								turn.setEndTime(endTime);
-							}
 						}
-					} else if (!line.isEmpty()) {
-						System.out.println("skip line " + line);
+					} else {
+						// new sentence in existing speaker turn
+						DialogueSentence sent = d.addSent(-1, turn, trans, null);
+						sent.setStartTime(startTime);
+						sent.setEndTime(endTime);
+						if (endTime > turn.getEndTime()) {
+							turn.setEndTime(endTime);
+						}
 					}
+				} else if (!line.isEmpty()) {
+					System.out.println("skip line " + line);
 				}
-				if (!checkDialogue(d)) {
-					return false;
-				}
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
 			}
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
 		}
-		return sanityCheck();
+		return contents;
 	}
 
 	/**
@@ -183,6 +203,7 @@ public class SBCSAECorpus extends DialogueCorpus {
 		}
 		if (parser != null) {
 			CorpusParser.setParser(parser);
+			CorpusParser.setParseCache(new File(CorpusParser.DEFAULT_PARSE_CACHE));
 			CorpusParser.setLeaveExisting(leaveExisting);
 			if (CorpusParser.parse(c) > 0) {
 				c.writeToFile(new File("sbcsae_" + parserName + ".corpus.gz"));
@@ -13,12 +13,11 @@ package qmul.corpus;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import csli.util.FileUtils;
-
 /**
  * A {@link DialogueCorpus} implementation for the format SCoRE uses for DiET and AHILab data
  * 
@@ -26,6 +25,17 @@ import csli.util.FileUtils;
  */
 public class SCoRECorpus extends DialogueCorpus {
 
+	// the value computed for the original class, so that corpus files saved before it was declared can still be read
+	private static final long serialVersionUID = 4541536393324561952L;
+
+	private static final Pattern TURN_PAT = Pattern.compile("^##(\\d+)##(([^\\s#][^#]*)##)?(.*)$");
+
+	private static final FilenameFilter EXP_FILTER = new FilenameFilter() {
+		public boolean accept(File dir, String name) {
+			return name.endsWith(".exp");
+		}
+	};
+
 	/**
 	 * @param id
 	 *            an ID for this dataset
@@ -54,53 +64,60 @@ public class SCoRECorpus extends DialogueCorpus {
 	 */
 	@Override
 	public boolean setupCorpus() {
-		Pattern pTurn = Pattern.compile("^##(\\d+)##(([^\\s#][^#]*)##)?(.*)$");
-		FilenameFilter tmp = new FilenameFilter() {
-			public boolean accept(File dir, String name) {
-				return name.endsWith(".exp");
+		final SpeakerRegistry speakers = new SpeakerRegistry(getSpeakerMap());
+		boolean success = loadFiles(Arrays.asList(getDir().listFiles(EXP_FILTER)), new ContentsReader() {
+			@Override
+			public FileContents read(File file) {
+				return readFile(file, speakers);
 			}
-		};
-		for (File file : getDir().listFiles(tmp)) {
-			System.out.println("File: " + file);
-			ArrayList<String> lines = new ArrayList<String>();
-			try {
-				lines = (ArrayList<String>) FileUtils.getFileLines(file, lines);
-				String genre = "default";
-				Dialogue d = addDialogue(file.getName(), genre);
-				getGenreCounts()
-						.put(genre, (getGenreCounts().get(genre) == null ? 0 : getGenreCounts().get(genre)) + 1);
-				DialogueTurn turn = null;
-				for (String line : lines) {
-					line = line.trim();
-					Matcher m = pTurn.matcher(line);
-					if (m.matches()) {
-						if ((m.group(2) != null) && !m.group(2).isEmpty()) {
-							// new speaker turn
-							DialogueSpeaker spk = getSpeakerMap().get(m.group(2));
-							if (spk == null) {
-								spk = new DialogueSpeaker(m.group(2), m.group(2), null, null, null, null);
-								getSpeakerMap().put(m.group(2), spk);
-							}
-							d.getSpeakers().add(spk);
-							turn = d.addTurn(-1, spk);
-							d.addSent(new Integer(m.group(1)), turn, m.group(4), null);
-						} else {
-							// new sentence in existing speaker turn
-							d.addSent(new Integer(m.group(1)), turn, m.group(4), null);
-						}
-					} else if (!line.isEmpty()) {
-						System.out.println("skip line " + line);
+		});
+		if (!success) {
+			return false;
+		}
+		return sanityCheck();
+	}
+
+	/**
+	 * @param file
+	 * @param speakers
+	 *            the speakers found so far
+	 * @return the dialogue and speakers in the file
+	 */
+	private FileContents readFile(File file, SpeakerRegistry speakers) {
+		System.out.println("File: " + file);
+		FileContents contents = new FileContents();
+		contents.setCountGenres(true);
+		try {
+			List<String> lines = readLines(file);
+			String genre = "default";
+			Dialogue d = new Dialogue(this, file.getName(), genre);
+			contents.dialogues.add(d);
+			DialogueTurn turn = null;
+			Matcher m = TURN_PAT.matcher("");
+			for (String line : lines) {
+				line = line.trim();
+				m.reset(line);
+				if (m.matches()) {
+					if ((m.group(2) != null) && !m.group(2).isEmpty()) {
+						// new speaker turn
+						DialogueSpeaker spk = speakers.get(m.group(2), m.group(2));
+						contents.speakers.put(m.group(2), spk);
+						d.getSpeakers().add(spk);
+						turn = d.addTurn(-1, spk);
+						d.addSent(new Integer(m.group(1)), turn, m.group(4), null);
+					} else {
+						// new sentence in existing speaker turn
+						d.addSent(new Integer(m.group(1)), turn, m.group(4), null);
 					}
+				} else if (!line.isEmpty()) {
+					System.out.println("skip line " + line);
 				}
-				if (!checkDialogue(d)) {
-					return false;
-				}
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
 			}
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
 		}
-		return sanityCheck();
+		return contents;
 	}
 
 	/**
@@ -16,8 +16,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,6 +48,11 @@ public class SwitchboardCorpus extends DialogueCorpus {
 
 	private static final String DEFAULT_GENRE = "SWBD_DEFAULT";
 
+	private static final Pattern FILE_PAT = Pattern.compile("(?i)(.+)\\.mrg");
+	private static final Pattern CODE_PAT = Pattern.compile("\\(CODE\\s+(?:\\([A-Z]+\\s+)?Speaker([A-Za-z]+)(\\d+)");
+
+	private CreateTreeFromSWBD.Options options;
+
 	/**
 	 * Create a SWBD corpus, reading data files from the default (unix) directory
 	 */
@@ -60,7 +67,7 @@ public class SwitchboardCorpus extends DialogueCorpus {
 	 *            override the default (unix) path with your own
 	 */
 	public SwitchboardCorpus(String baseDir) {
-		super(ID, new File(baseDir, DATA_DIR));
+		this(baseDir, 0, 0, 0, 0);
 	}
 
 	/**
@@ -94,7 +101,71 @@ public class SwitchboardCorpus extends DialogueCorpus {
 	 *            only read in at most this number of dialogues (0 to allow all)
 	 */
 	public SwitchboardCorpus(String baseDir, int minSpeakers, int maxSpeakers, int minGenreCount, int maxDialogues) {
-		super(ID, new File(baseDir, DATA_DIR), minSpeakers, maxSpeakers, minGenreCount, maxDialogues);
+		this(baseDir, CreateTreeFromSWBD.getOptions(), minSpeakers, maxSpeakers, minGenreCount, maxDialogues);
+	}
+
+	/**
+	 * Create a SWBD corpus, reading data files from the default (unix) directory
+	 * 
+	 * @param options
+	 *            the {@link CreateTreeFromSWBD.Options} to use when reading trees (a copy is kept, so changing them
+	 *            afterwards has no effect)
+	 * @param minSpeakers
+	 *            discard any dialogue with fewer than this number of speakers (0 to allow all)
+	 * @param maxSpeakers
+	 *            discard any dialogue with more than this number of speakers (0 to allow all)
+	 * @param minGenreCount
+	 *            discard any dialogue whose genre appears in fewer than this number of dialogues (0 to allow all)
+	 * @param maxDialogues
+	 *            only read in at most this number of dialogues (0 to allow all)
+	 */
+	public SwitchboardCorpus(CreateTreeFromSWBD.Options options, int minSpeakers, int maxSpeakers, int minGenreCount, int maxDialogues) {
+		this(BASE_DIR, options, minSpeakers, maxSpeakers, minGenreCount, maxDialogues);
+	}
+
+	/**
+	 * Create a SWBD corpus, reading data files from disk
+	 * 
+	 * @param baseDir
+	 *            override the default (unix) path with your own
+	 * @param options
+	 *            the {@link CreateTreeFromSWBD.Options} to use when reading trees (a copy is kept, so changing them
+	 *            afterwards has no effect)
+	 * @param minSpeakers
+	 *            discard any dialogue with fewer than this number of speakers (0 to allow all)
+	 * @param maxSpeakers
+	 *            discard any dialogue with more than this number of speakers (0 to allow all)
+	 * @param minGenreCount
+	 *            discard any dialogue whose genre appears in fewer than this number of dialogues (0 to allow all)
+	 * @param maxDialogues
+	 *            only read in at most this number of dialogues (0 to allow all)
+	 */
+	public SwitchboardCorpus(String baseDir, CreateTreeFromSWBD.Options options, int minSpeakers, int maxSpeakers,
+			int minGenreCount, int maxDialogues) {
+		this(baseDir, options, minSpeakers, maxSpeakers, minGenreCount, maxDialogues, true);
+	}
+
+	private SwitchboardCorpus(String baseDir, CreateTreeFromSWBD.Options options, int minSpeakers, int maxSpeakers,
+			int minGenreCount, int maxDialogues, boolean setup) {
+		super(ID, new File(baseDir, DATA_DIR), minSpeakers, maxSpeakers, minGenreCount, maxDialogues, false, false);
+		this.options = new CreateTreeFromSWBD.Options(options);
+		if (setup) {
+			setup();
+		}
+	}
+
+	/**
+	 * @return the default (unix) base directory
+	 */
+	public static String getDefaultBaseDir() {
+		return BASE_DIR;
+	}
+
+	/**
+	 * @return the options used when reading trees
+	 */
+	public CreateTreeFromSWBD.Options getOptions() {
+		return options;
 	}
 
 	/**
@@ -115,37 +186,106 @@ public class SwitchboardCorpus extends DialogueCorpus {
 	 */
 	@Override
 	public boolean setupCorpus() {
-		getMetaData();
-		File[] subdirs = getDir().listFiles();
+		return setupCorpora(new SwitchboardCorpus[] { this });
+	}
+
+	/**
+	 * Create several variants of the SWBD corpus, differing only in their tree options, in a single pass over the data
+	 * files: each tree is read and parsed once, and then filtered once per variant
+	 * 
+	 * @param baseDir
+	 *            override the default (unix) path with your own
+	 * @param options
+	 *            the {@link CreateTreeFromSWBD.Options} for each variant
+	 * @param minSpeakers
+	 *            discard any dialogue with fewer than this number of speakers (0 to allow all)
+	 * @param maxSpeakers
+	 *            discard any dialogue with more than this number of speakers (0 to allow all)
+	 * @param minGenreCount
+	 *            discard any dialogue whose genre appears in fewer than this number of dialogues (0 to allow all)
+	 * @param maxDialogues
+	 *            only read in at most this number of dialogues (0 to allow all)
+	 * @return the corpora, one per set of options
+	 */
+	public static List<SwitchboardCorpus> createVariants(String baseDir, List<CreateTreeFromSWBD.Options> options,
+			int minSpeakers, int maxSpeakers, int minGenreCount, int maxDialogues) {
+		SwitchboardCorpus[] corpora = new SwitchboardCorpus[options.size()];
+		for (int i = 0; i < corpora.length; i++) {
+			corpora[i] = new SwitchboardCorpus(baseDir, options.get(i), minSpeakers, maxSpeakers, minGenreCount,
+					maxDialogues, false);
+		}
+		if (!setupCorpora(corpora)) {
+			throw new RuntimeException("Failed to set up corpus");
+		}
+		return Arrays.asList(corpora);
+	}
+
+	/**
+	 * Set up several variants of the corpus at once
+	 * 
+	 * @param corpora
+	 * @return success
+	 */
+	private static boolean setupCorpora(final SwitchboardCorpus[] corpora) {
+		for (SwitchboardCorpus corpus : corpora) {
+			corpus.getMetaData();
+		}
+		SwitchboardCorpus first = corpora[0];
+		File[] subdirs = first.getDir().listFiles();
 		FilenameToolkit.sortByFileNameIgnoreCase(subdirs);
-		boolean success = true;
-		System.out.println("Limiting number of dialogues: " + getMaxDialogues());
-		DIR: for (File subdir : subdirs) {
+		System.out.println("Limiting number of dialogues: " + first.getMaxDialogues());
+		ArrayList<File> allFiles = new ArrayList<File>();
+		for (File subdir : subdirs) {
 			File[] files = subdir.listFiles();
 			FilenameToolkit.sortByFileNameIgnoreCase(files);
 			System.out.println("Subdir " + subdir + ", found " + files.length + " corpus files ...");
-			for (File file : files) {
-				if (!processFile(file)) {
-					// failure below this may be due to hitting the dialogue limit
-					success = (numDialogues() >= getMaxDialogues());
-					break DIR;
+			allFiles.addAll(Arrays.asList(files));
+		}
+		final boolean[] stopped = new boolean[corpora.length];
+		first.processFiles(allFiles, new FileProcessor<FileContents[]>() {
+			@Override
+			public FileContents[] read(File file) {
+				return readFile(file, corpora);
+			}
+
+			@Override
+			public boolean add(FileContents[] contents) {
+				boolean carryOn = false;
+				for (int i = 0; i < corpora.length; i++) {
+					if (!stopped[i]) {
+						stopped[i] = !corpora[i].addFileContents(contents[i]);
+						carryOn |= !stopped[i];
+					}
 				}
+				return carryOn;
+			}
+		});
+		boolean success = true;
+		for (int i = 0; i < corpora.length; i++) {
+			if (stopped[i]) {
+				// failure may be due to hitting the dialogue limit
+				success &= (corpora[i].numDialogues() >= corpora[i].getMaxDialogues());
+			}
+			if (!corpora[i].sanityCheck()) {
+				new RuntimeException("Failed sanity check!").printStackTrace();
+				System.exit(0);
 			}
-		}
-		if (!sanityCheck()) {
-			new RuntimeException("Failed sanity check!").printStackTrace();
-			System.exit(0);
 		}
 		return success;
 	}
 
 	/**
 	 * @param file
-	 * @return whether to carry on or not
+	 * @param corpora
+	 *            the corpus variants to read the file for
+	 * @return the dialogues and speakers in the file, for each corpus
 	 */
-	private boolean processFile(File file) {
-		Pattern p = Pattern.compile("(?i)(.+)\\.mrg");
-		Matcher m = p.matcher(file.getName());
+	private static FileContents[] readFile(File file, SwitchboardCorpus[] corpora) {
+		FileContents[] contents = new FileContents[corpora.length];
+		for (int i = 0; i < contents.length; i++) {
+			contents[i] = new FileContents();
+		}
+		Matcher m = FILE_PAT.matcher(file.getName());
 		if (m.matches()) {
 			String dialogueName = m.group(1).toUpperCase();
 			// String genre = getGenreMap().get(dialogueName);
@@ -159,16 +299,25 @@ public class SwitchboardCorpus extends DialogueCorpus {
 				reader = new PennTreeReader(br, new LabeledScoredTreeFactory());
 			} catch (FileNotFoundException e) {
 				System.err.println("Error reading SWBD corpus file " + file + ": " + e.getMessage());
-				return false;
+				for (FileContents c : contents) {
+					c.success = false;
+				}
+				return contents;
 			}
 			System.out.println("Reading SWBD corpus file " + file + " ...");
-			if (!getSentences(dialogueName, genre, reader)) {
-				return false;
+			boolean success = getSentences(dialogueName, genre, reader, corpora, contents);
+			for (FileContents c : contents) {
+				c.success = success;
+			}
+			try {
+				reader.close();
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
 		} else {
 			System.out.println("WARNING: NOT processing non-matching corpus file " + file);
 		}
-		return true;
+		return contents;
 	}
 
 	/*
@@ -179,85 +328,95 @@ public class SwitchboardCorpus extends DialogueCorpus {
 	@Override
 	public boolean loadDialogue(String name) {
 		File file = new File(getDir(), name + ".mrg");
-		return processFile(file);
+		return addFileContents(readFile(file, new SwitchboardCorpus[] { this })[0]);
 	}
 
 	/**
 	 * @param dialogueName
 	 * @param genre
 	 * @param reader
-	 * @return whether to carry on or not
+	 * @param corpora
+	 *            the corpus variants to read the file for
+	 * @param contents
+	 *            to hold the dialogues and speakers found for each corpus
+	 * @return success
 	 */
-	private boolean getSentences(String dialogueName, String genre, TreeReader reader) {
-		Pattern p = Pattern.compile("\\(CODE\\s+(?:\\([A-Z]+\\s+)?Speaker([A-Za-z]+)(\\d+)");
+	private static boolean getSentences(String dialogueName, String genre, TreeReader reader,
+			SwitchboardCorpus[] corpora, FileContents[] contents) {
+		int n = corpora.length;
 		try {
-			Dialogue dialogue = null;
-			DialogueSpeaker speaker = null;
-			DialogueSpeaker lastSpeaker = null;
-			DialogueTurn currentTurn = null;
+			Dialogue[] dialogue = new Dialogue[n];
+			DialogueSpeaker[] speaker = new DialogueSpeaker[n];
+			DialogueSpeaker[] lastSpeaker = new DialogueSpeaker[n];
+			DialogueTurn[] currentTurn = new DialogueTurn[n];
 			int currentSubdialogue = -1;
 			int turnNum = -1;
+			ArrayList<Filter<Tree>> nodeFilters = new ArrayList<Filter<Tree>>();
+			for (SwitchboardCorpus corpus : corpora) {
+				nodeFilters.add(corpus.new NodeFilter());
+			}
 			Tree tree = reader.readTree();
-			Filter<Tree> nodeFilter = new NodeFilter();
 			while (tree != null) {
-				Matcher m = p.matcher(tree.toString());
+				Matcher m = CODE_PAT.matcher(tree.toString());
 				if (m.find()) {
 					// get the metadata
 					turnNum = Integer.parseInt(m.group(2));
 					int subDialogue = 0; // apparently no subdialogues in SWBD ...
 					String spk = m.group(1).toUpperCase();
-					// start new dialogue if subdialogue changed
-					if (subDialogue != currentSubdialogue) {
-						if (dialogue != null) {
-							if (!checkDialogue(dialogue)) {
-								return false;
-							}
+					for (int i = 0; i < n; i++) {
+						// start new dialogue if subdialogue changed
+						if (subDialogue != currentSubdialogue) {
+							// dialogue = new Dialogue(this, dialogueName + ":" + subDialogue, genre);
+							dialogue[i] = new Dialogue(corpora[i], dialogueName, genre);
+							// TODO genre in SWBD?
+							contents[i].dialogues.add(dialogue[i]);
+						}
+						// set up speaker
+						String spkId = dialogue[i].getId() + ":" + spk;
+						if (!contents[i].speakers.containsKey(spkId)) {
+							// TODO speaker info in SWBD?
+							contents[i].speakers.put(spkId, new DialogueSpeaker(spkId, "", "", "", "", ""));
+							// System.out.println("added new speaker " + spkId);
 						}
-						// dialogue = addDialogue(dialogueName + ":" + subDialogue, genre);
-						dialogue = addDialogue(dialogueName, genre);
-						// TODO genre in SWBD?
-						getGenreMap().put(dialogueName, genre);
+						speaker[i] = contents[i].speakers.get(spkId);
 					}
 					currentSubdialogue = subDialogue;
-					// set up speaker
-					String spkId = dialogue.getId() + ":" + spk;
-					if (!getSpeakerMap().containsKey(spkId)) {
-						// TODO speaker info in SWBD?
-						getSpeakerMap().put(spkId, new DialogueSpeaker(spkId, "", "", "", "", ""));
-						// System.out.println("added new speaker " + spkId);
-					}
-					speaker = getSpeakerMap().get(spkId);
 				} else {
-					// get the tree and extract the transcription
-					String trans = "";
 					// SWBD embeds trees within an extra unlabelled level ((S etc))
 					if (((tree.label() == null) || (tree.label().value() == null)) && (tree.children().length == 1)) {
 						tree = tree.getChild(0);
 					}
-					if (tree != null) {
-						tree = tree.prune(nodeFilter);
-						if (tree != null) {
-							for (Tree leaf : tree.getLeaves()) {
-								trans += leaf.label() + " ";
+					for (int i = 0; i < n; i++) {
+						// get the tree and extract the transcription; prune() builds a new tree, but leaves share
+						// labels with the original, so only copy if there's another variant still to come
+						Tree t = ((tree == null) || (i == n - 1) ? tree : tree.deepCopy());
+						String trans = "";
+						if (t != null) {
+							t = t.prune(nodeFilters.get(i));
+							if (t != null) {
+								for (Tree leaf : t.getLeaves()) {
+									trans += leaf.label() + " ";
+								}
+								trans = trans.substring(0, trans.length() - 1);
+								// start new turn if speaker has changed
+								if ((lastSpeaker[i] == null) || !speaker[i].equals(lastSpeaker[i])
+										|| (currentTurn[i] == null)) {
+									currentTurn[i] = dialogue[i].addTurn(turnNum, speaker[i]);
+									// System.out.println("new turn " + turnNum + ", " + speaker + " " + currentTurn);
+									lastSpeaker[i] = speaker[i];
+								}
+								// add sentence
+								dialogue[i].addSent(-1, currentTurn[i], trans, t);
+								// DialogueSentence s = dialogue.addSent(-1, currentTurn, trans, tree);
+								// System.out.println("new sent " + s);
+								// System.out.println(s.getSyntax().pennString());
 							}
-							trans = trans.substring(0, trans.length() - 1);
-							// start new turn if speaker has changed
-							if ((lastSpeaker == null) || !speaker.equals(lastSpeaker) || (currentTurn == null)) {
-								currentTurn = dialogue.addTurn(turnNum, speaker);
-								// System.out.println("new turn " + turnNum + ", " + speaker + " " + currentTurn);
-								lastSpeaker = speaker;
-							}
-							// add sentence
-							dialogue.addSent(-1, currentTurn, trans, tree);
-							// DialogueSentence s = dialogue.addSent(-1, currentTurn, trans, tree);
-							// System.out.println("new sent " + s);
-							// System.out.println(s.getSyntax().pennString());
 						}
 					}
 				}
 				tree = reader.readTree();
 			}
-			return checkDialogue(dialogue);
+			return true;
 		} catch (IOException e) {
 			System.err.println("Error reading sentence line" + e.getMessage());
 			return false;
@@ -377,7 +536,7 @@ public class SwitchboardCorpus extends DialogueCorpus {
 		}
 
 		private boolean getOption(int o) {
-			return CreateTreeFromSWBD.getOption(o);
+			return options.get(o);
 		}
 
 	}
@@ -14,8 +14,10 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -23,7 +25,6 @@ import qmul.util.parse.ClarkCurranParser;
 import qmul.util.parse.CreateTreeFromClarkCurranCCGProlog;
 import qmul.util.parse.RASPParser;
 import qmul.util.parse.StanfordParser;
-import csli.util.FileUtils;
 import edu.stanford.nlp.parser.Parser;
 
 /**
@@ -40,6 +41,22 @@ public class SwitchboardISIPCorpus extends DialogueCorpus {
 
 	private static final String BASE_DIR = "/import/imc-corpora/corpora/switchboard/swb_ms98_transcriptions";
 
+	private static final Pattern WORD_PAT = Pattern.compile("^\\s*(\\S+)\\s+([\\d\\.]+)\\s+([\\d\\.]+)\\s+(.*?)\\s*$");
+	private static final Pattern AB_SUFFIX_PAT = Pattern.compile("[AB]-.*$");
+	private static final Pattern HYPHEN_SUFFIX_PAT = Pattern.compile("-.*$");
+	private static final Pattern REPAIR_PAT = Pattern.compile("(\\w+)\\[\\S+?\\]-");
+	private static final Pattern MARKED_PAT = Pattern.compile("(\\w)_\\d+");
+	private static final Pattern LAUGHTER_PAT = Pattern.compile("\\[laughter-(\\S+?)\\]");
+	private static final Pattern NON_VERBAL_PAT = Pattern.compile("\\[\\S+\\]");
+	private static final Pattern BAD_APOS_PAT = Pattern.compile("\ufffd");
+	private static final Pattern SPACE_PAT = Pattern.compile("\\s+");
+
+	private static final FilenameFilter A_FILTER = new FilenameFilter() {
+		public boolean accept(File dir, String name) {
+			return name.endsWith("A-ms98-a-word.text"); // initially just find speaker A's files
+		}
+	};
+
 	/**
 	 * @param id
 	 *            an ID for this dataset
@@ -66,18 +83,17 @@ public class SwitchboardISIPCorpus extends DialogueCorpus {
 	 * @return a list of {@link TmpUtt}s for later sorting
 	 */
 	public ArrayList<TmpUtt> getUtts(File f) {
-		ArrayList<String> lines = new ArrayList<String>();
 		ArrayList<TmpUtt> u = new ArrayList<TmpUtt>();
-		Pattern pTurn = Pattern.compile("^\\s*(\\S+)\\s+([\\d\\.]+)\\s+([\\d\\.]+)\\s+(.*?)\\s*$");
 		try {
-			lines = (ArrayList<String>) FileUtils.getFileLines(f, lines);
+			List<String> lines = readLines(f);
 			String lastWord = "";
 			String trans = "";
 			float startTime = Float.MIN_VALUE;
 			float endTime = Float.MIN_VALUE;
+			Matcher m = WORD_PAT.matcher("");
 			for (String line : lines) {
 				line = line.trim();
-				Matcher m = pTurn.matcher(line);
+				m.reset(line);
 				if (m.matches()) {
 					if (!m.group(4).equals("[silence]")) {
 						String uttId = m.group(1);
@@ -112,91 +128,102 @@ public class SwitchboardISIPCorpus extends DialogueCorpus {
 	 */
 	@Override
 	public boolean setupCorpus() {
-		FilenameFilter tmp = new FilenameFilter() {
-			public boolean accept(File dir, String name) {
-				return name.endsWith("A-ms98-a-word.text"); // initially just find speaker A's files
-			}
-		};
+		ArrayList<File> files = new ArrayList<File>();
 		File[] subdirs = getDir().listFiles();
 		for (File subdir : subdirs) {
 			if (subdir.isDirectory()) {
 				File[] subsubdirs = subdir.listFiles();
 				for (File subsubdir : subsubdirs) {
 					if (subsubdir.isDirectory()) {
-						for (File file : subsubdir.listFiles(tmp)) {
-							System.out.println("File: " + file);
-							ArrayList<TmpUtt> uttsA = getUtts(file);
-							ArrayList<TmpUtt> uttsB = getUtts(new File(file.getAbsolutePath().replace("A-", "B-")));
-							uttsA.addAll(uttsB);
-							Collections.sort(uttsA, new Comparator<TmpUtt>() {
-								public int compare(TmpUtt o1, TmpUtt o2) {
-									return Float.compare(o1.getStartTime(), o2.getStartTime());
-								}
-							});
-							String genre = "default";
-							Dialogue d = addDialogue(file.getName().replaceFirst("[AB]-.*$", ""), genre);
-							getGenreCounts().put(genre,
-									(getGenreCounts().get(genre) == null ? 0 : getGenreCounts().get(genre)) + 1);
-							DialogueTurn turn = null;
-							String lastSpk = "";
-							for (TmpUtt u : uttsA) {
-								String trans = u.getTrans();
-								// ensure dialogue ID within speaker ID, as per other corpora + AlignmentTester
-								String spkName = d.getId() + ":" + u.getId().replaceFirst("-.*$", "");
-								float startTime = u.getStartTime();
-								float endTime = u.getEndTime();
-								if (trans != null && !trans.isEmpty()) {
-									// hypothesised self-repair continuations
-									trans = trans.replaceAll("(\\w+)\\[\\S+?\\]-", "$1-");
-									// marked words (as discourse markers?)
-									trans = trans.replaceAll("(\\w)_\\d+", "$1");
-									// laughing speech - mark as laughter and keep words
-									trans = trans.replaceAll("\\[laughter-(\\S+?)\\]", "[laughter] $1");
-									if (REMOVE_NON_VERBAL) {
-										trans = trans.replaceAll("\\[\\S+\\]", "");
-										trans = trans.replaceAll("�", "'");
-										trans = trans.replaceAll("\\s+", " ");
-									}
-								}
-								if (!spkName.equals(lastSpk)) {
-									// new speaker turn
-									lastSpk = spkName;
-									DialogueSpeaker spk = getSpeakerMap().get(spkName);
-									if (spk == null) {
-										spk = new DialogueSpeaker(spkName, spkName, null, null, null, null);
-										getSpeakerMap().put(spkName, spk);
-									}
-									d.getSpeakers().add(spk);
-									if (turn != null) {
-										System.out.println(turn.getSpeaker().getId() + " turn: " + turn);
-									}
-									turn = d.addTurn(-1, spk);
-									turn.setStartTime(startTime);
-									turn.setEndTime(endTime);
-									DialogueSentence sent = d.addSent(-1, turn, trans, null);
-									sent.setStartTime(startTime);
-									sent.setEndTime(endTime);
-								} else {
-									// new sentence in existing speaker turn
-									DialogueSentence sent = d.addSent(-1, turn, trans, null);
-									sent.setStartTime(startTime);
-									sent.setEndTime(endTime);
-									if (endTime > turn.getEndTime()) {
-										turn.setEndTime(endTime);
-									}
-								}
-							}
-							if (!checkDialogue(d)) {
-								return false;
-							}
-						}
+						files.addAll(Arrays.asList(subsubdir.listFiles(A_FILTER)));
 					}
 				}
 			}
 		}
+		final SpeakerRegistry speakers = new SpeakerRegistry(getSpeakerMap());
+		boolean success = loadFiles(files, new ContentsReader() {
+			@Override
+			public FileContents read(File file) {
+				return readFile(file, speakers);
+			}
+		});
+		if (!success) {
+			return false;
+		}
 		return sanityCheck();
 	}
 
+	/**
+	 * @param file
+	 *            speaker A's file
+	 * @param speakers
+	 *            the speakers found so far
+	 * @return the dialogue and speakers in speaker A's file and the corresponding speaker B file
+	 */
+	private FileContents readFile(File file, SpeakerRegistry speakers) {
+		System.out.println("File: " + file);
+		FileContents contents = new FileContents();
+		contents.setCountGenres(true);
+		ArrayList<TmpUtt> uttsA = getUtts(file);
+		ArrayList<TmpUtt> uttsB = getUtts(new File(file.getAbsolutePath().replace("A-", "B-")));
+		uttsA.addAll(uttsB);
+		Collections.sort(uttsA, new Comparator<TmpUtt>() {
+			public int compare(TmpUtt o1, TmpUtt o2) {
+				return Float.compare(o1.getStartTime(), o2.getStartTime());
+			}
+		});
+		String genre = "default";
+		Dialogue d = new Dialogue(this, AB_SUFFIX_PAT.matcher(file.getName()).replaceFirst(""), genre);
+		contents.dialogues.add(d);
+		DialogueTurn turn = null;
+		String lastSpk = "";
+		for (TmpUtt u : uttsA) {
+			String trans = u.getTrans();
+			// ensure dialogue ID within speaker ID, as per other corpora + AlignmentTester
+			String spkName = d.getId() + ":" + HYPHEN_SUFFIX_PAT.matcher(u.getId()).replaceFirst("");
+			float startTime = u.getStartTime();
+			float endTime = u.getEndTime();
+			if (trans != null && !trans.isEmpty()) {
+				// hypothesised self-repair continuations
+				trans = REPAIR_PAT.matcher(trans).replaceAll("$1-");
+				// marked words (as discourse markers?)
+				trans = MARKED_PAT.matcher(trans).replaceAll("$1");
+				// laughing speech - mark as laughter and keep words
+				trans = LAUGHTER_PAT.matcher(trans).replaceAll("[laughter] $1");
+				if (REMOVE_NON_VERBAL) {
+					trans = NON_VERBAL_PAT.matcher(trans).replaceAll("");
+					trans = BAD_APOS_PAT.matcher(trans).replaceAll("'");
+					trans = SPACE_PAT.matcher(trans).replaceAll(" ");
+				}
+			}
+			if (!spkName.equals(lastSpk)) {
+				// new speaker turn
+				lastSpk = spkName;
+				DialogueSpeaker spk = speakers.get(spkName, spkName);
+				contents.speakers.put(spkName, spk);
+				d.getSpeakers().add(spk);
+				if (turn != null) {
+					System.out.println(turn.getSpeaker().getId() + " turn: " + turn);
+				}
+				turn = d.addTurn(-1, spk);
+				turn.setStartTime(startTime);
+				turn.setEndTime(endTime);
+				DialogueSentence sent = d.addSent(-1, turn, trans, null);
+				sent.setStartTime(startTime);
+				sent.setEndTime(endTime);
+			} else {
+				// new sentence in existing speaker turn
+				DialogueSentence sent = d.addSent(-1, turn, trans, null);
+				sent.setStartTime(startTime);
+				sent.setEndTime(endTime);
+				if (endTime > turn.getEndTime()) {
+					turn.setEndTime(endTime);
+				}
+			}
+		}
+		return contents;
+	}
+
 	/**
 	 * @param args
 	 */
@@ -228,6 +255,7 @@ public class SwitchboardISIPCorpus extends DialogueCorpus {
 		}
 		if (parser != null) {
 			CorpusParser.setParser(parser);
+			CorpusParser.setParseCache(new File(CorpusParser.DEFAULT_PARSE_CACHE));
 			CorpusParser.setLeaveExisting(leaveExisting);
 			if (CorpusParser.parse(c) > 0) {
 				c.writeToFile(new File("swbd_isip_" + parserName + ".corpus.gz"));
@@ -0,0 +1,407 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Matthew Purver, Queen Mary University of London - initial API and implementation
+ ******************************************************************************/
+package qmul.corpus;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import qmul.util.FilenameToolkit;
+
+/**
+ * A compact binary store of the word tiers of a directory of Praat TextGrid files (as used for the BNC audio
+ * alignments), built once by a single indexing pass (see main()). Each file's words are stored as arrays of start
+ * times, end times and word IDs; the store is memory-mapped, so looking up the timings for a dialogue needs no
+ * directory scan or text parsing.
+ * 
+ * @author mpurver
+ */
+public class TextGridIndex {
+
+	private static final int MAGIC = 0x54474958; // "TGIX"
+	private static final int VERSION = 1;
+
+	/**
+	 * The word tier of one TextGrid file
+	 */
+	public static class Timings {
+
+		private final String fileName;
+		private final float[] startTimes;
+		private final float[] endTimes;
+		private final String[] words;
+
+		private Timings(String fileName, float[] startTimes, float[] endTimes, String[] words) {
+			this.fileName = fileName;
+			this.startTimes = startTimes;
+			this.endTimes = endTimes;
+			this.words = words;
+		}
+
+		/**
+		 * @return the name of the TextGrid file these came from
+		 */
+		public String getFileName() {
+			return fileName;
+		}
+
+		/**
+		 * @return the number of words (including pauses "sp" etc)
+		 */
+		public int size() {
+			return words.length;
+		}
+
+		public float getStartTime(int i) {
+			return startTimes[i];
+		}
+
+		public float getEndTime(int i) {
+			return endTimes[i];
+		}
+
+		public String getWord(int i) {
+			return words[i];
+		}
+
+	}
+
+	private final String[] vocab;
+	private final String[] fileNames;
+	private final int[] numWords;
+	private final long[] offsets;
+	private final MappedByteBuffer data;
+
+	// all 3-char substrings of file names (i.e. possible BNC dialogue names) -> indices of files containing them
+	private final HashMap<String, ArrayList<Integer>> byDialogue = new HashMap<String, ArrayList<Integer>>();
+	private final ConcurrentHashMap<String, Integer> found = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Open an existing index file
+	 * 
+	 * @param indexFile
+	 * @throws IOException
+	 */
+	public TextGridIndex(File indexFile) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(indexFile));
+		try {
+			if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+				throw new IOException("Not a TextGrid index file (or wrong version): " + indexFile);
+			}
+			vocab = new String[in.readInt()];
+			for (int i = 0; i < vocab.length; i++) {
+				vocab[i] = in.readUTF();
+			}
+			int n = in.readInt();
+			fileNames = new String[n];
+			numWords = new int[n];
+			offsets = new long[n];
+			for (int i = 0; i < n; i++) {
+				fileNames[i] = in.readUTF();
+				numWords[i] = in.readInt();
+				offsets[i] = in.readLong();
+			}
+		} finally {
+			in.close();
+		}
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+		try {
+			data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+		for (int i = 0; i < fileNames.length; i++) {
+			String name = fileNames[i];
+			for (int j = 1; j + 3 < name.length(); j++) {
+				String key = name.substring(j, j + 3);
+				ArrayList<Integer> files = byDialogue.get(key);
+				if (files == null) {
+					files = new ArrayList<Integer>();
+					byDialogue.put(key, files);
+				} else if (files.get(files.size() - 1) == i) {
+					continue;
+				}
+				files.add(i);
+			}
+		}
+		System.out.println("Opened TextGrid index " + indexFile + " with " + fileNames.length + " files, "
+				+ vocab.length + " distinct words");
+	}
+
+	/**
+	 * @return the number of TextGrid files in the index
+	 */
+	public int size() {
+		return fileNames.length;
+	}
+
+	/**
+	 * @param dialogueName
+	 *            a BNC dialogue name e.g. KB7
+	 * @param divNo
+	 *            the &lt;div&gt; number within the dialogue
+	 * @return the timings from the (single) TextGrid file whose name matches, or null if there isn't exactly one
+	 */
+	public Timings getTimings(String dialogueName, int divNo) {
+		String key = dialogueName + ":" + divNo;
+		Integer i = found.get(key);
+		if (i == null) {
+			i = find(dialogueName, divNo);
+			found.put(key, i);
+		}
+		return (i < 0 ? null : getTimings(i));
+	}
+
+	/**
+	 * @param dialogueName
+	 * @param divNo
+	 * @return the index of the file matching the TextGrid naming pattern for this dialogue/div, or -1 if there is no
+	 *         such file or more than one
+	 */
+	private int find(String dialogueName, int divNo) {
+		ArrayList<Integer> files = byDialogue.get(dialogueName);
+		if (files == null) {
+			System.out.println("No TextGrid files for " + dialogueName + " " + divNo);
+			return -1;
+		}
+		String pattern = ".+" + divNo + ".+" + dialogueName + ".+TextGrid";
+		int match = -1;
+		for (int i : files) {
+			if (fileNames[i].matches(pattern)) {
+				if (match >= 0) {
+					System.out.println("Multiple TextGrid files for " + dialogueName + " " + divNo + ": "
+							+ fileNames[match] + " " + fileNames[i]);
+					return -1;
+				}
+				match = i;
+			}
+		}
+		if (match < 0) {
+			System.out.println("No TextGrid files for " + dialogueName + " " + divNo);
+		}
+		return match;
+	}
+
+	/**
+	 * @param i
+	 * @return the timings for file i, read from the mapped data
+	 */
+	private Timings getTimings(int i) {
+		int n = numWords[i];
+		ByteBuffer buf = data.duplicate();
+		buf.position((int) offsets[i]);
+		float[] startTimes = new float[n];
+		float[] endTimes = new float[n];
+		int[] ids = new int[n];
+		buf.asFloatBuffer().get(startTimes);
+		buf.position(buf.position() + n * 4);
+		buf.asFloatBuffer().get(endTimes);
+		buf.position(buf.position() + n * 4);
+		buf.asIntBuffer().get(ids);
+		String[] words = new String[n];
+		for (int j = 0; j < n; j++) {
+			words[j] = vocab[ids[j]];
+		}
+		return new Timings(fileNames[i], startTimes, endTimes, words);
+	}
+
+	/**
+	 * Read the "word" IntervalTier from a Praat TextGrid file
+	 * 
+	 * @param file
+	 * @param words
+	 *            to hold the words
+	 * @param startTimes
+	 *            to hold the word start times
+	 * @param endTimes
+	 *            to hold the word end times
+	 * @throws IOException
+	 */
+	public static void readTextGrid(File file, List<String> words, List<Float> startTimes, List<Float> endTimes)
+			throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			boolean found1 = false;
+			boolean found2 = false;
+			boolean started = false;
+			float startTime = -1.0f;
+			float endTime = -1.0f;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (started && line.equals("\"IntervalTier\"")) {
+					found1 = found2 = started = false; // stop at next IntervalTier
+				}
+				if (started) {
+					try {
+						float f = Float.parseFloat(line);
+						if (startTime < 0) {
+							startTime = f;
+						} else {
+							endTime = f;
+						}
+					} catch (NumberFormatException e) {
+						if (line.startsWith("\"")) {
+							line = line.substring(1);
+						}
+						if (line.endsWith("\"")) {
+							line = line.substring(0, line.length() - 1);
+						}
+						words.add(line);
+						startTimes.add(startTime);
+						endTimes.add(endTime);
+						startTime = -1.0f;
+						endTime = -1.0f;
+					}
+				}
+				found2 = (found1 && line.equals("\"word\""));
+				if (found2) {
+					started = true; // start at IntervalTier followed by "word"
+				}
+				found1 = line.equals("\"IntervalTier\"");
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Index all TextGrid files in a directory
+	 * 
+	 * @param dir
+	 *            the directory containing the TextGrid files
+	 * @param indexFile
+	 *            the index file to write
+	 * @throws IOException
+	 */
+	public static void build(File dir, File indexFile) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("Can't read TextGrid directory " + dir);
+		}
+		FilenameToolkit.sortByFileNameIgnoreCase(files);
+		HashMap<String, Integer> vocabMap = new HashMap<String, Integer>();
+		ArrayList<String> vocab = new ArrayList<String>();
+		ArrayList<String> fileNames = new ArrayList<String>();
+		ArrayList<float[]> startTimes = new ArrayList<float[]>();
+		ArrayList<float[]> endTimes = new ArrayList<float[]>();
+		ArrayList<int[]> ids = new ArrayList<int[]>();
+		for (File file : files) {
+			if (!file.isFile() || !file.getName().endsWith("TextGrid")) {
+				continue;
+			}
+			ArrayList<String> w = new ArrayList<String>();
+			ArrayList<Float> s = new ArrayList<Float>();
+			ArrayList<Float> e = new ArrayList<Float>();
+			readTextGrid(file, w, s, e);
+			float[] sa = new float[w.size()];
+			float[] ea = new float[w.size()];
+			int[] ia = new int[w.size()];
+			for (int i = 0; i < w.size(); i++) {
+				sa[i] = s.get(i);
+				ea[i] = e.get(i);
+				Integer id = vocabMap.get(w.get(i));
+				if (id == null) {
+					id = vocab.size();
+					vocabMap.put(w.get(i), id);
+					vocab.add(w.get(i));
+				}
+				ia[i] = id;
+			}
+			fileNames.add(file.getName());
+			startTimes.add(sa);
+			endTimes.add(ea);
+			ids.add(ia);
+			if (fileNames.size() % 100 == 0) {
+				System.out.println("Indexed " + fileNames.size() + " TextGrid files ...");
+			}
+		}
+		// header size doesn't depend on the offsets, so write it once to find out how big it is
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		writeHeader(header, vocab, fileNames, ids, 0);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+		try {
+			writeHeader(out, vocab, fileNames, ids, header.size());
+			for (int i = 0; i < fileNames.size(); i++) {
+				for (float f : startTimes.get(i)) {
+					out.writeFloat(f);
+				}
+				for (float f : endTimes.get(i)) {
+					out.writeFloat(f);
+				}
+				for (int id : ids.get(i)) {
+					out.writeInt(id);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		System.out.println("Wrote TextGrid index " + indexFile + " with " + fileNames.size() + " files, "
+				+ vocab.size() + " distinct words");
+	}
+
+	private static void writeHeader(OutputStream os, List<String> vocab, List<String> fileNames, List<int[]> ids,
+			long dataStart) throws IOException {
+		DataOutputStream out = new DataOutputStream(os);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(vocab.size());
+		for (String w : vocab) {
+			out.writeUTF(w);
+		}
+		out.writeInt(fileNames.size());
+		long offset = dataStart;
+		for (int i = 0; i < fileNames.size(); i++) {
+			int n = ids.get(i).length;
+			out.writeUTF(fileNames.get(i));
+			out.writeInt(n);
+			out.writeLong(offset);
+			offset += n * 12L;
+		}
+		out.flush();
+	}
+
+	/**
+	 * Build an index: args are TextGrid directory, index file
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		try {
+			build(new File(args[0]), new File(args[1]));
+			TextGridIndex index = new TextGridIndex(new File(args[1]));
+			if (args.length > 3) {
+				Timings t = index.getTimings(args[2], Integer.parseInt(args[3]));
+				for (int i = 0; (t != null) && (i < t.size()); i++) {
+					System.out.println(t.getWord(i) + " " + t.getStartTime(i) + "-" + t.getEndTime(i));
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
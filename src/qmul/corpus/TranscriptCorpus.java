@@ -10,11 +10,8 @@
  ******************************************************************************/
 package qmul.corpus;
 
-import csli.util.FileUtils;
-
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -29,6 +26,7 @@ public abstract class TranscriptCorpus extends DialogueCorpus {
 
 	// Pattern:                                                     "DATag speakerID_00_01 [Transcript]"
 	private static final Pattern LINE_PAT = Pattern.compile("^(\\S*)\\s+(\\w+)_\\d+_\\d+\\s+\\[(.*)\\]\\s*$");
+	private static final Pattern TXT_PAT = Pattern.compile("\\.txt");
 
 	public TranscriptCorpus(String id, File file, boolean dynamic) {
 		super(id, file, dynamic);
@@ -57,17 +55,30 @@ public abstract class TranscriptCorpus extends DialogueCorpus {
 	 */
 	@Override
 	public boolean loadDialogue(String name) {
+		return addFileContents(readFile(new File(getDir(), name), new SpeakerRegistry(getSpeakerMap())));
+	}
+
+	/**
+	 * @param file
+	 * @param speakers
+	 *            the speakers found so far
+	 * @return the dialogue and speakers in the file
+	 */
+	private FileContents readFile(File file, SpeakerRegistry speakers) {
+		String name = file.getName();
 		System.out.println("Load dialogue " + name);
-		File file = new File(getDir(), name);
-		ArrayList<String> lines = new ArrayList<String>();
+		FileContents contents = new FileContents();
+		List<String> lines;
 		try {
-			FileUtils.getFileLines(file, lines);
+			lines = readLines(file);
 		} catch (IOException e) {
 			e.printStackTrace();
-			return false;
+			contents.success = false;
+			return contents;
 		}
-		String id = name.replaceAll("\\.txt", "");
-		Dialogue d = addDialogue(id, getGenre());
+		String id = TXT_PAT.matcher(name).replaceAll("");
+		Dialogue d = new Dialogue(this, id, getGenre());
+		contents.dialogues.add(d);
 		DialogueTurn t = null;
 		DialogueSpeaker lastSpk = null;
 		for (String line : lines) {
@@ -79,11 +90,8 @@ public abstract class TranscriptCorpus extends DialogueCorpus {
 				String daTags = matches.get(0);
 				String spkId = matches.get(1);
 				String trans = matches.get(2);
-				DialogueSpeaker spk = getSpeakerMap().get(spkId);
-				if (spk == null) {
-					spk = new DialogueSpeaker(spkId, null, null, null, null, null);
-					getSpeakerMap().put(spkId, spk);
-				}
+				DialogueSpeaker spk = speakers.get(spkId, null);
+				contents.speakers.put(spkId, spk);
 				if ((t == null) || (!spk.equals(lastSpk))) {
 					t = d.addTurn(-1, spk);
 				}
@@ -100,7 +108,7 @@ public abstract class TranscriptCorpus extends DialogueCorpus {
 				System.err.println("WARNING strange line " + line);
 			}
 		}
-		return checkDialogue(d);
+		return contents;
 	}
 
 	/*
@@ -111,10 +119,15 @@ public abstract class TranscriptCorpus extends DialogueCorpus {
 	@Override
 	public boolean setupCorpus() {
 		getGenreCounts().put(getGenre(), Integer.MAX_VALUE);
-		for (File file : getDir().listFiles()) {
-			if (!loadDialogue(file.getName())) {
-				return false;
+		final SpeakerRegistry speakers = new SpeakerRegistry(getSpeakerMap());
+		boolean success = loadFiles(Arrays.asList(getDir().listFiles()), new ContentsReader() {
+			@Override
+			public FileContents read(File file) {
+				return readFile(file, speakers);
 			}
+		});
+		if (!success) {
+			return false;
 		}
 		if (!sanityCheck()) {
 			new RuntimeException("Failed sanity check!").printStackTrace();
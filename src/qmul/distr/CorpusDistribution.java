@@ -13,10 +13,10 @@ package qmul.distr;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 
 import qmul.corpus.Dialogue;
 import qmul.corpus.DialogueCorpus;
@@ -24,13 +24,17 @@ import qmul.corpus.DialogueTurn;
 
 public class CorpusDistribution {
 
+	private static final int WIN = 5;
+
 	private DialogueCorpus corpus;
 
 	private ArrayList<String> turns = new ArrayList<String>();
 	private HashMap<String, TurnDistribution> turnDistr = new HashMap<String, TurnDistribution>();
-	private ArrayList<String> tags = new ArrayList<String>();
 	private HashMap<String, TurnDistribution> tagDistr = new HashMap<String, TurnDistribution>();
-	private HashSet<String> words = new HashSet<String>();
+	// interned vocabularies shared by all distributions
+	private Vocabulary labels = new Vocabulary();
+	private Vocabulary words = new Vocabulary();
+	private Vocabulary tags = new Vocabulary();
 
 	public CorpusDistribution(DialogueCorpus corpus) {
 		this.corpus = corpus;
@@ -41,90 +45,249 @@ public class CorpusDistribution {
 
 	private void getDistr(Dialogue d) {
 		for (DialogueTurn t : d.getTurns()) {
-			TurnDistribution td = new TurnDistribution(t);
-			words.addAll(td.getLex().keySet());
+			TurnDistribution td = new TurnDistribution(t, labels, words, tags);
 			turnDistr.put(t.getId(), td);
 			turns.add(t.getId());
-			for (String tag : td.getTag().keySet()) {
+			for (String tag : td.getTag().labels()) {
 				if (tagDistr.containsKey(tag)) {
 					tagDistr.get(tag).add(td);
 				} else {
 					System.out.println("new tag " + tag);
 					tagDistr.put(tag, td.clone());
-					tags.add(tag);
 				}
 			}
 		}
-		double win = 5.0;
-		for (int i = 0; i < d.numTurns(); i++) {
-			DialogueTurn t = d.getTurns().get(i);
-			int start = Math.max(0, (int) (i - win));
-			int end = Math.min(d.numTurns(), (int) (i + win));
-			for (int j = start; j < i; j++) {
-				DialogueTurn tj = d.getTurns().get(j);
-				double wgt = ((double) (i - j)) / win;
-				turnDistr.get(t.getId()).getPreLex().add(turnDistr.get(tj.getId()).getLex(), wgt);
-				turnDistr.get(t.getId()).getPreTag().add(turnDistr.get(tj.getId()).getTag(), wgt);
-				for (String tag : t.getDaTags()) {
-					tagDistr.get(tag).getPreLex().add(turnDistr.get(tj.getId()).getLex(), wgt);
-					tagDistr.get(tag).getPreTag().add(turnDistr.get(tj.getId()).getTag(), wgt);
+		// context: the previous WIN turns and following WIN-1 turns, weighted by distance/WIN. Kept as running sums
+		// over sliding windows, so each step only adds/removes the turns entering/leaving the windows
+		int n = d.numTurns();
+		TurnDistribution[] tds = new TurnDistribution[n];
+		for (int i = 0; i < n; i++) {
+			tds[i] = turnDistr.get(d.getTurns().get(i).getId());
+		}
+		WindowSum preLex = new WindowSum(words);
+		WindowSum preTag = new WindowSum(tags);
+		WindowSum postLex = new WindowSum(words);
+		WindowSum postTag = new WindowSum(tags);
+		for (int j = 1; j < Math.min(n, WIN); j++) {
+			postLex.add(tds[j].getLex(), j);
+			postTag.add(tds[j].getTag(), j);
+		}
+		for (int i = 0; i < n; i++) {
+			if (i > 0) {
+				preLex.add(tds[i - 1].getLex(), i - 1);
+				preTag.add(tds[i - 1].getTag(), i - 1);
+				postLex.remove(tds[i].getLex(), i);
+				postTag.remove(tds[i].getTag(), i);
+				if (i + WIN - 1 < n) {
+					postLex.add(tds[i + WIN - 1].getLex(), i + WIN - 1);
+					postTag.add(tds[i + WIN - 1].getTag(), i + WIN - 1);
 				}
 			}
-			for (int j = i + 1; j < end; j++) {
-				DialogueTurn tj = d.getTurns().get(j);
-				double wgt = ((double) (j - i)) / win;
-				turnDistr.get(t.getId()).getPostLex().add(turnDistr.get(tj.getId()).getLex(), wgt);
-				turnDistr.get(t.getId()).getPostTag().add(turnDistr.get(tj.getId()).getTag(), wgt);
-				for (String tag : t.getDaTags()) {
-					tagDistr.get(tag).getPostLex().add(turnDistr.get(tj.getId()).getLex(), wgt);
-					tagDistr.get(tag).getPostTag().add(turnDistr.get(tj.getId()).getTag(), wgt);
+			if (i - WIN - 1 >= 0) {
+				preLex.remove(tds[i - WIN - 1].getLex(), i - WIN - 1);
+				preTag.remove(tds[i - WIN - 1].getTag(), i - WIN - 1);
+			}
+			TurnDistribution td = tds[i];
+			preLex.addTo(td.getPreLex(), i, true);
+			preTag.addTo(td.getPreTag(), i, true);
+			postLex.addTo(td.getPostLex(), i, false);
+			postTag.addTo(td.getPostTag(), i, false);
+			for (String tag : d.getTurns().get(i).getDaTags()) {
+				tagDistr.get(tag).getPreLex().add(td.getPreLex());
+				tagDistr.get(tag).getPreTag().add(td.getPreTag());
+				tagDistr.get(tag).getPostLex().add(td.getPostLex());
+				tagDistr.get(tag).getPostTag().add(td.getPostTag());
+			}
+		}
+	}
+
+	/**
+	 * The sums sum(d_j) and sum(j * d_j) of the distributions d_j of the turns j in a window, from which the
+	 * distance-weighted sum for any turn i is (i * sum(d_j) - sum(j * d_j)) / WIN (negated for following turns)
+	 */
+	private static class WindowSum {
+
+		private LabelDistribution sum;
+		private LabelDistribution posSum;
+
+		private WindowSum(Vocabulary vocab) {
+			sum = new LabelDistribution(vocab);
+			posSum = new LabelDistribution(vocab);
+		}
+
+		private void add(LabelDistribution distr, int pos) {
+			for (int index : distr.indices()) {
+				double score = distr.get(index);
+				sum.add(index, score);
+				posSum.add(index, pos * score);
+			}
+		}
+
+		private void remove(LabelDistribution distr, int pos) {
+			for (int index : distr.indices()) {
+				double score = distr.get(index);
+				// scores are counts, so labels no longer in the window come back to (near enough) zero
+				if (Math.abs(sum.add(index, -score)) < 1e-9) {
+					sum.remove(index);
+					posSum.remove(index);
+				} else {
+					posSum.add(index, -pos * score);
 				}
 			}
-			// d.get
+		}
+
+		private void addTo(LabelDistribution target, int i, boolean preceding) {
+			for (int index : sum.indices()) {
+				double score = i * sum.get(index) - posSum.get(index);
+				target.add(index, (preceding ? score : -score) / WIN);
+			}
 		}
 	}
 
+	/**
+	 * Write the distributions out as a MATLAB script which builds sparse matrices (words x turns, words x tags, tags x
+	 * tags) from (row, column, value) triples, with words/turns/tags cell arrays to label rows and columns. Written one
+	 * column at a time, so only non-zero entries are ever output
+	 * 
+	 * @param file
+	 */
 	public void toM(File file) {
 		try {
 			BufferedWriter bw = new BufferedWriter(new FileWriter(file));
 			bw.write("id = '" + corpus.getId() + "';\n");
-			bw.write("words = cell(" + words.size() + ",1);\n");
-			ArrayList<String> sortWords = new ArrayList<String>(words);
-			Collections.sort(sortWords);
-			for (int i = 0; i < sortWords.size(); i++) {
-				bw.write("words{" + (i + 1) + "} = '" + sortWords.get(i).replaceAll("'", "''") + "';\n");
-			}
-			bw.write("turns = cell(" + turns.size() + ",1);\n");
+			writeCell(bw, "words", words);
+			writeCell(bw, "turns", turns);
+			writeCell(bw, "tags", tags);
 			// features x turns matrix
-			bw.write("turnLex = zeros(" + words.size() + "," + turns.size() + ");\n");
-			for (int i = 0; i < turns.size(); i++) {
-				// for (int i = 0; i < 3; i++) {
-				String t = turns.get(i);
-				bw.write("turns{" + (i + 1) + "} = '" + t + "';\n");
-				bw.write("turnLex(:," + (i + 1) + ") = " + turnDistr.get(t).getLex().toM(sortWords) + ".';\n");
-				// bw.write("turnLex(:," + (i + 1) + ") = " + turnDistr.get(t).getLex() + ".';\n");
-			}
-			ArrayList<String> sortTags = new ArrayList<String>(tags);
-			Collections.sort(sortTags);
-			bw.write("tags = cell(" + tags.size() + ",1);\n");
-			// features x tags matrix
-			bw.write("tagLex = zeros(" + words.size() + "," + tags.size() + ");\n");
-			bw.write("tagPretag = zeros(" + tags.size() + "," + tags.size() + ");\n");
-			bw.write("tagPostag = zeros(" + tags.size() + "," + tags.size() + ");\n");
-			for (int i = 0; i < sortTags.size(); i++) {
-				// for (int i = 0; i < 3; i++) {
-				String t = sortTags.get(i);
-				bw.write("tags{" + (i + 1) + "} = '" + t + "';\n");
-				bw.write("tagLex(:," + (i + 1) + ") = " + tagDistr.get(t).getLex().toM(sortWords) + ".';\n");
-				bw.write("tagPretag(:," + (i + 1) + ") = " + tagDistr.get(t).getPreTag().toM(sortTags) + ".';\n");
-				bw.write("tagPostag(:," + (i + 1) + ") = " + tagDistr.get(t).getPostTag().toM(sortTags) + ".';\n");
+			writeM(bw, "turnLex", words.size(), getTurnColumns());
+			// features x tags matrices
+			writeM(bw, "tagLex", words.size(), getTagColumns(TAG_LEX));
+			writeM(bw, "tagPretag", tags.size(), getTagColumns(TAG_PRETAG));
+			writeM(bw, "tagPostag", tags.size(), getTagColumns(TAG_POSTAG));
+			bw.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Write the distributions out as MatrixMarket coordinate files prefix.turnLex.mtx (words x turns),
+	 * prefix.tagLex.mtx (words x tags), prefix.tagPretag.mtx and prefix.tagPostag.mtx (tags x tags), with the row and
+	 * column labels in sidecar files prefix.words, prefix.turns and prefix.tags (one per line, in index order)
+	 * 
+	 * @param prefix
+	 *            path prefix for the output files
+	 */
+	public void toMatrixMarket(String prefix) {
+		try {
+			words.write(new File(prefix + ".words"));
+			BufferedWriter bw = new BufferedWriter(new FileWriter(prefix + ".turns"));
+			for (String t : turns) {
+				bw.write(t);
+				bw.newLine();
 			}
 			bw.close();
+			tags.write(new File(prefix + ".tags"));
+			writeMatrixMarket(new File(prefix + ".turnLex.mtx"), words.size(), getTurnColumns());
+			writeMatrixMarket(new File(prefix + ".tagLex.mtx"), words.size(), getTagColumns(TAG_LEX));
+			writeMatrixMarket(new File(prefix + ".tagPretag.mtx"), tags.size(), getTagColumns(TAG_PRETAG));
+			writeMatrixMarket(new File(prefix + ".tagPostag.mtx"), tags.size(), getTagColumns(TAG_POSTAG));
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	private static final int TAG_LEX = 0;
+	private static final int TAG_PRETAG = 1;
+	private static final int TAG_POSTAG = 2;
+
+	/**
+	 * @return the lexical distribution for each turn, in turn order
+	 */
+	private List<LabelDistribution> getTurnColumns() {
+		ArrayList<LabelDistribution> cols = new ArrayList<LabelDistribution>();
+		for (String t : turns) {
+			cols.add(turnDistr.get(t).getLex());
+		}
+		return cols;
+	}
+
+	/**
+	 * @param type
+	 *            TAG_LEX, TAG_PRETAG or TAG_POSTAG
+	 * @return the relevant distribution for each tag, in tag vocabulary order
+	 */
+	private List<LabelDistribution> getTagColumns(int type) {
+		ArrayList<LabelDistribution> cols = new ArrayList<LabelDistribution>();
+		for (int i = 0; i < tags.size(); i++) {
+			TurnDistribution td = tagDistr.get(tags.get(i));
+			cols.add(type == TAG_LEX ? td.getLex() : (type == TAG_PRETAG ? td.getPreTag() : td.getPostTag()));
+		}
+		return cols;
+	}
+
+	private static int numNonZero(List<LabelDistribution> cols) {
+		int n = 0;
+		for (LabelDistribution col : cols) {
+			n += col.size();
+		}
+		return n;
+	}
+
+	private static void writeCell(BufferedWriter bw, String name, Vocabulary vocab) throws IOException {
+		bw.write(name + " = cell(" + vocab.size() + ",1);\n");
+		for (int i = 0; i < vocab.size(); i++) {
+			bw.write(name + "{" + (i + 1) + "} = '" + vocab.get(i).replaceAll("'", "''") + "';\n");
+		}
+	}
+
+	private static void writeCell(BufferedWriter bw, String name, List<String> list) throws IOException {
+		bw.write(name + " = cell(" + list.size() + ",1);\n");
+		for (int i = 0; i < list.size(); i++) {
+			bw.write(name + "{" + (i + 1) + "} = '" + list.get(i).replaceAll("'", "''") + "';\n");
+		}
+	}
+
+	/**
+	 * Write a MATLAB sparse matrix as a list of (1-based) row, column, value triples
+	 */
+	private static void writeM(BufferedWriter bw, String name, int numRows, List<LabelDistribution> cols)
+			throws IOException {
+		String ijv = name + "IJV";
+		if (numNonZero(cols) == 0) {
+			bw.write(ijv + " = zeros(0,3);\n");
+		} else {
+			bw.write(ijv + " = [\n");
+			for (int j = 0; j < cols.size(); j++) {
+				LabelDistribution col = cols.get(j);
+				for (int i : col.indices()) {
+					bw.write((i + 1) + " " + (j + 1) + " " + col.get(i) + "\n");
+				}
+			}
+			bw.write("];\n");
+		}
+		bw.write(name + " = sparse(" + ijv + "(:,1), " + ijv + "(:,2), " + ijv + "(:,3), " + numRows + ", "
+				+ cols.size() + ");\n");
+		bw.write("clear " + ijv + ";\n");
+	}
+
+	/**
+	 * Write a sparse matrix in MatrixMarket coordinate format
+	 */
+	private static void writeMatrixMarket(File file, int numRows, List<LabelDistribution> cols) throws IOException {
+		BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+		bw.write("%%MatrixMarket matrix coordinate real general\n");
+		bw.write(numRows + " " + cols.size() + " " + numNonZero(cols) + "\n");
+		for (int j = 0; j < cols.size(); j++) {
+			LabelDistribution col = cols.get(j);
+			for (int i : col.indices()) {
+				bw.write((i + 1) + " " + (j + 1) + " " + col.get(i) + "\n");
+			}
+		}
+		bw.close();
+		System.out.println("Wrote " + numRows + "x" + cols.size() + " matrix to " + file);
+	}
+
 	public static void main(String[] args) {
 
 		DialogueCorpus c = DialogueCorpus.readFromFile(new File("/import/imc-corpora/data/distr/ami.corpus"));
@@ -133,6 +296,7 @@ public class CorpusDistribution {
 		}
 		CorpusDistribution d = new CorpusDistribution(c);
 		d.toM(new File("ami.m"));
+		d.toMatrixMarket("ami");
 
 	}
 
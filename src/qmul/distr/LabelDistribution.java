@@ -10,15 +10,60 @@
  ******************************************************************************/
 package qmul.distr;
 
+import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
 
-public class LabelDistribution extends HashMap<String, Double> {
+/**
+ * A sparse distribution (label -> score) over the labels in a {@link Vocabulary}, held as an open-addressed hash of
+ * primitive label indices and scores
+ * 
+ * @author mpurver
+ */
+public class LabelDistribution implements Serializable, Cloneable {
+
+	private static final long serialVersionUID = 935378696352833145L;
+
+	private static final int EMPTY = -1;
 
-	private static final long serialVersionUID = 935378696352833144L;
+	private Vocabulary vocab;
+	private int[] keys;
+	private double[] values;
+	private int size = 0;
 
 	public LabelDistribution() {
+		this(new Vocabulary());
+	}
+
+	/**
+	 * @param vocab
+	 *            the vocabulary of labels, which may be shared with other distributions
+	 */
+	public LabelDistribution(Vocabulary vocab) {
 		super();
+		this.vocab = vocab;
+		keys = new int[8];
+		Arrays.fill(keys, EMPTY);
+		values = new double[8];
+	}
+
+	/**
+	 * @return the vocabulary of labels
+	 */
+	public Vocabulary getVocabulary() {
+		return vocab;
+	}
+
+	/**
+	 * @return the number of labels with (non-default) scores
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return (size == 0);
 	}
 
 	public double add(String label) {
@@ -26,12 +71,54 @@ public class LabelDistribution extends HashMap<String, Double> {
 	}
 
 	public double add(String label, double score) {
-		if (!containsKey(label)) {
-			put(label, 0.0);
+		return add(vocab.getIndex(label), score);
+	}
+
+	/**
+	 * @param index
+	 *            the label's index in the vocabulary
+	 * @param score
+	 * @return the new score for this label
+	 */
+	public double add(int index, double score) {
+		int slot = slot(index);
+		if (keys[slot] != EMPTY) {
+			values[slot] += score;
+			return values[slot];
+		}
+		keys[slot] = index;
+		values[slot] = score;
+		if (++size * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+		return score;
+	}
+
+	/**
+	 * @param index
+	 *            the label's index in the vocabulary
+	 * @return the score this label had, 0 if none
+	 */
+	public double remove(int index) {
+		int slot = slot(index);
+		if (keys[slot] == EMPTY) {
+			return 0.0;
+		}
+		double value = values[slot];
+		// shift back any later entries in the same probe run, so lookups don't stop at the gap
+		int mask = keys.length - 1;
+		int gap = slot;
+		for (int next = (gap + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+			if (((next - home(keys[next])) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
 		}
-		double s = get(label) + score;
-		put(label, s);
-		return s;
+		keys[gap] = EMPTY;
+		values[gap] = 0.0;
+		size--;
+		return value;
 	}
 
 	public void add(LabelDistribution distr) {
@@ -39,23 +126,117 @@ public class LabelDistribution extends HashMap<String, Double> {
 	}
 
 	public void add(LabelDistribution distr, double weight) {
-		for (String label : distr.keySet()) {
-			add(label, distr.get(label) * weight);
+		for (int i = 0; i < distr.keys.length; i++) {
+			if (distr.keys[i] != EMPTY) {
+				if (distr.vocab == vocab) {
+					add(distr.keys[i], distr.values[i] * weight);
+				} else {
+					add(distr.vocab.get(distr.keys[i]), distr.values[i] * weight);
+				}
+			}
 		}
 	}
 
+	/**
+	 * @param label
+	 * @return true if this label has a score
+	 */
+	public boolean containsKey(String label) {
+		int index = vocab.lookup(label);
+		return (index >= 0) && (keys[slot(index)] != EMPTY);
+	}
+
+	/**
+	 * @param label
+	 * @return the score for this label, 0 if none
+	 */
+	public double get(String label) {
+		int index = vocab.lookup(label);
+		return (index < 0 ? 0.0 : get(index));
+	}
+
+	/**
+	 * @param index
+	 *            the label's index in the vocabulary
+	 * @return the score for this label, 0 if none
+	 */
+	public double get(int index) {
+		int slot = slot(index);
+		return (keys[slot] == EMPTY ? 0.0 : values[slot]);
+	}
+
+	/**
+	 * @return the vocabulary indices of the labels with scores, in ascending order
+	 */
+	public int[] indices() {
+		int[] indices = new int[size];
+		int n = 0;
+		for (int key : keys) {
+			if (key != EMPTY) {
+				indices[n++] = key;
+			}
+		}
+		Arrays.sort(indices);
+		return indices;
+	}
+
+	/**
+	 * @return the labels with scores, in vocabulary order
+	 */
+	public List<String> labels() {
+		ArrayList<String> labels = new ArrayList<String>(size);
+		for (int index : indices()) {
+			labels.add(vocab.get(index));
+		}
+		return labels;
+	}
+
 	public LabelDistribution clone() {
-		return (LabelDistribution) super.clone();
+		try {
+			LabelDistribution d = (LabelDistribution) super.clone();
+			d.keys = keys.clone();
+			d.values = values.clone();
+			return d;
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @param index
+	 * @return the slot which holds this index, or the empty slot where it would go
+	 */
+	private int slot(int index) {
+		int mask = keys.length - 1;
+		int slot = home(index);
+		while ((keys[slot] != EMPTY) && (keys[slot] != index)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @param index
+	 * @return the slot this index hashes to
+	 */
+	private int home(int index) {
+		int h = index * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (keys.length - 1);
 	}
 
-	public String toM(ArrayList<String> sortLabels) {
-		StringBuffer sb = new StringBuffer("[");
-		for (String l : sortLabels) {
-			sb.append((containsKey(l) ? get(l) : "0") + ",");
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		double[] oldValues = values;
+		keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new double[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = slot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
 		}
-		sb.deleteCharAt(sb.length() - 1);
-		sb.append("]");
-		return sb.toString();
 	}
 
 }
@@ -19,15 +19,28 @@ public class TurnDistribution extends LabelDistribution {
 
 	private static final long serialVersionUID = 7975225170240780022L;
 
-	private LabelDistribution lex = new LabelDistribution();
-	private LabelDistribution preLex = new LabelDistribution();
-	private LabelDistribution postLex = new LabelDistribution();
-	private LabelDistribution tag = new LabelDistribution();
-	private LabelDistribution preTag = new LabelDistribution();
-	private LabelDistribution postTag = new LabelDistribution();
+	private LabelDistribution lex;
+	private LabelDistribution preLex;
+	private LabelDistribution postLex;
+	private LabelDistribution tag;
+	private LabelDistribution preTag;
+	private LabelDistribution postTag;
 
 	public TurnDistribution(DialogueTurn t) {
-		super();
+		this(t, new Vocabulary(), new Vocabulary(), new Vocabulary());
+	}
+
+	/**
+	 * @param t
+	 * @param labelVocab
+	 *            the vocabulary for the combined LEX:/DATAG: labels
+	 * @param wordVocab
+	 *            the vocabulary for the lexical distributions
+	 * @param tagVocab
+	 *            the vocabulary for the tag distributions
+	 */
+	public TurnDistribution(DialogueTurn t, Vocabulary labelVocab, Vocabulary wordVocab, Vocabulary tagVocab) {
+		this(labelVocab, wordVocab, tagVocab);
 		for (DialogueSentence s : t.getSents()) {
 			// lexical
 			String[] words;
@@ -55,11 +68,21 @@ public class TurnDistribution extends LabelDistribution {
 	}
 
 	public TurnDistribution(LabelDistribution lex, LabelDistribution tag) {
-		super();
+		this(new Vocabulary(), lex.getVocabulary(), tag.getVocabulary());
 		this.lex = lex.clone();
 		this.tag = tag.clone();
 	}
 
+	private TurnDistribution(Vocabulary labelVocab, Vocabulary wordVocab, Vocabulary tagVocab) {
+		super(labelVocab);
+		lex = new LabelDistribution(wordVocab);
+		preLex = new LabelDistribution(wordVocab);
+		postLex = new LabelDistribution(wordVocab);
+		tag = new LabelDistribution(tagVocab);
+		preTag = new LabelDistribution(tagVocab);
+		postTag = new LabelDistribution(tagVocab);
+	}
+
 	/**
 	 * @return the lex
 	 */
@@ -103,7 +126,10 @@ public class TurnDistribution extends LabelDistribution {
 	}
 
 	public TurnDistribution clone() {
-		return new TurnDistribution(lex, tag);
+		TurnDistribution td = new TurnDistribution(getVocabulary(), lex.getVocabulary(), tag.getVocabulary());
+		td.lex = lex.clone();
+		td.tag = tag.clone();
+		return td;
 	}
 
 	public void add(TurnDistribution td) {
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Matthew Purver, Queen Mary University of London - initial API and implementation
+ ******************************************************************************/
+package qmul.distr;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * An interned set of labels (words, tags etc), each with a fixed integer index in order of first appearance. Safe for
+ * use by several threads at once
+ * 
+ * @author mpurver
+ */
+public class Vocabulary implements Serializable {
+
+	private static final long serialVersionUID = -3719278211482766393L;
+
+	private HashMap<String, Integer> indices = new HashMap<String, Integer>();
+	private ArrayList<String> labels = new ArrayList<String>();
+
+	/**
+	 * @param label
+	 * @return the index of this label, adding it if not already present
+	 */
+	public synchronized int getIndex(String label) {
+		Integer i = indices.get(label);
+		if (i == null) {
+			i = labels.size();
+			indices.put(label, i);
+			labels.add(label);
+		}
+		return i;
+	}
+
+	/**
+	 * @param label
+	 * @return the index of this label, or -1 if not present
+	 */
+	public synchronized int lookup(String label) {
+		Integer i = indices.get(label);
+		return (i == null ? -1 : i);
+	}
+
+	/**
+	 * @param index
+	 * @return the label with this index
+	 */
+	public synchronized String get(int index) {
+		return labels.get(index);
+	}
+
+	/**
+	 * @return the number of labels
+	 */
+	public synchronized int size() {
+		return labels.size();
+	}
+
+	/**
+	 * Write the labels to file, one per line in index order (so line n is the label with index n-1)
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public synchronized void write(File file) throws IOException {
+		BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+		for (String label : labels) {
+			bw.write(label.replaceAll("\\s", "_"));
+			bw.newLine();
+		}
+		bw.close();
+	}
+
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (c) 2009, 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ ******************************************************************************/
+package qmul.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A mergeable streaming quantile sketch (after Karnin, Lang & Liberty's KLL sketch), held in primitive arrays. Values
+ * are added to level 0; when a level fills up it is sorted and every other value (starting at a random offset) is
+ * promoted to the next level with twice the weight. Level capacities shrink geometrically going down, so the whole
+ * sketch holds O(k) values however many are added, with rank error roughly proportional to 1/k. Sketches built over
+ * different data (e.g. corpus shards or threads) can be merged.
+ *
+ * @author mpurver
+ */
+public class QuantileSketch implements Serializable {
+
+	private static final long serialVersionUID = -6279064812513945391L;
+
+	private static final int MIN_CAPACITY = 8;
+
+	// so that sketches which will be merged don't all make the same random choices
+	private static final AtomicLong seeds = new AtomicLong();
+
+	private int k;
+	private double[][] levels = new double[1][];
+	private int[] sizes = new int[1];
+	private long n = 0;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+	private long random = 0x2545F4914F6CDD1DL ^ (seeds.incrementAndGet() * 0x9E3779B97F4A7C15L);
+
+	/**
+	 * A sketch with the default accuracy parameter k=200 (rank error around 1%)
+	 */
+	public QuantileSketch() {
+		this(200);
+	}
+
+	/**
+	 * @param k
+	 *            the accuracy parameter: the top level's capacity
+	 */
+	public QuantileSketch(int k) {
+		this.k = Math.max(k, MIN_CAPACITY);
+		levels[0] = new double[this.k];
+	}
+
+	/**
+	 * A copy of another sketch, which can then be added to without affecting the original
+	 * 
+	 * @param other
+	 */
+	public QuantileSketch(QuantileSketch other) {
+		k = other.k;
+		levels = new double[other.levels.length][];
+		for (int h = 0; h < levels.length; h++) {
+			levels[h] = other.levels[h].clone();
+		}
+		sizes = other.sizes.clone();
+		n = other.n;
+		min = other.min;
+		max = other.max;
+	}
+
+	/**
+	 * @param value
+	 *            a value to add (NaNs are ignored)
+	 */
+	public void addValue(double value) {
+		if (Double.isNaN(value)) {
+			return;
+		}
+		if (n == 0) {
+			min = value;
+			max = value;
+		} else {
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+		n++;
+		append(0, value);
+		if (sizes[0] >= capacity(0)) {
+			compress();
+		}
+	}
+
+	/**
+	 * Merge another sketch into this one
+	 *
+	 * @param other
+	 */
+	public void addAll(QuantileSketch other) {
+		if (other.n == 0) {
+			return;
+		}
+		if (n == 0) {
+			min = other.min;
+			max = other.max;
+		} else {
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+		}
+		n += other.n;
+		for (int h = 0; h < other.levels.length; h++) {
+			for (int i = 0; i < other.sizes[h]; i++) {
+				append(h, other.levels[h][i]);
+			}
+		}
+		compress();
+	}
+
+	/**
+	 * @return the number of values added
+	 */
+	public long getN() {
+		return n;
+	}
+
+	/**
+	 * @param q
+	 *            a quantile between 0 and 1 (e.g. 0.5 for the median)
+	 * @return the approximate q-quantile of the values added, NaN if none
+	 */
+	public double getQuantile(double q) {
+		if ((n == 0) || (q < 0.0) || (q > 1.0)) {
+			return Double.NaN;
+		}
+		if (q == 0.0) {
+			return min;
+		}
+		if (q == 1.0) {
+			return max;
+		}
+		// sort each level, then walk through them all in value order accumulating weights
+		double[][] sorted = new double[levels.length][];
+		long total = 0;
+		for (int h = 0; h < levels.length; h++) {
+			sorted[h] = Arrays.copyOf(levels[h], sizes[h]);
+			Arrays.sort(sorted[h]);
+			total += ((long) sizes[h]) << h;
+		}
+		double target = q * total;
+		int[] next = new int[levels.length];
+		long weight = 0;
+		while (true) {
+			int best = -1;
+			for (int h = 0; h < sorted.length; h++) {
+				if ((next[h] < sorted[h].length) && ((best < 0) || (sorted[h][next[h]] < sorted[best][next[best]]))) {
+					best = h;
+				}
+			}
+			if (best < 0) {
+				return max;
+			}
+			double value = sorted[best][next[best]++];
+			weight += 1L << best;
+			if (weight >= target) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of values actually held
+	 */
+	public int size() {
+		int size = 0;
+		for (int s : sizes) {
+			size += s;
+		}
+		return size;
+	}
+
+	private int capacity(int h) {
+		int depth = levels.length - 1 - h;
+		return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+	}
+
+	private void append(int h, double value) {
+		if (h >= levels.length) {
+			levels = Arrays.copyOf(levels, h + 1);
+			sizes = Arrays.copyOf(sizes, h + 1);
+			for (int i = 0; i < levels.length; i++) {
+				if (levels[i] == null) {
+					levels[i] = new double[MIN_CAPACITY];
+				}
+			}
+		}
+		if (sizes[h] == levels[h].length) {
+			levels[h] = Arrays.copyOf(levels[h], 2 * levels[h].length);
+		}
+		levels[h][sizes[h]++] = value;
+	}
+
+	/**
+	 * Promote half of each full level to the one above
+	 */
+	private void compress() {
+		for (int h = 0; h < levels.length; h++) {
+			if (sizes[h] < capacity(h)) {
+				continue;
+			}
+			double[] items = levels[h];
+			int size = sizes[h];
+			Arrays.sort(items, 0, size);
+			// with an odd number, the smallest stays behind so total weight is conserved
+			int start = size % 2;
+			for (int i = start + nextBit(); i < size; i += 2) {
+				append(h + 1, items[i]);
+			}
+			sizes[h] = start;
+		}
+	}
+
+	private int nextBit() {
+		random ^= random << 13;
+		random ^= random >>> 7;
+		random ^= random << 17;
+		return (int) (random & 1);
+	}
+
+}
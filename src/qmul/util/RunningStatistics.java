@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (c) 2009, 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ ******************************************************************************/
+package qmul.util;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * Single-pass summary statistics (count, sum, mean, variance, min, max) via Welford's algorithm, without storing the
+ * values (unlike {@link ApacheStatistics}), plus optional approximate quantiles via a {@link QuantileSketch}.
+ * Accumulators built over different data (e.g. corpus shards or threads) can be merged.
+ *
+ * @author mpurver
+ */
+public class RunningStatistics implements Serializable {
+
+	private static final long serialVersionUID = 3389212563209531370L;
+
+	private long n = 0;
+	private double sum = 0.0;
+	private double mean = 0.0;
+	private double m2 = 0.0;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+	private QuantileSketch sketch = null;
+
+	public RunningStatistics() {
+		this(false);
+	}
+
+	/**
+	 * @param quantiles
+	 *            whether to keep a {@link QuantileSketch} for getPercentile()
+	 */
+	public RunningStatistics(boolean quantiles) {
+		if (quantiles) {
+			sketch = new QuantileSketch();
+		}
+	}
+
+	/**
+	 * A copy of another set of statistics, which can then be added to without affecting the original
+	 * 
+	 * @param other
+	 */
+	public RunningStatistics(RunningStatistics other) {
+		n = other.n;
+		sum = other.sum;
+		mean = other.mean;
+		m2 = other.m2;
+		min = other.min;
+		max = other.max;
+		if (other.sketch != null) {
+			sketch = new QuantileSketch(other.sketch);
+		}
+	}
+
+	public RunningStatistics(Collection<Double> data) {
+		this();
+		addValues(data);
+	}
+
+	public void addValue(double value) {
+		n++;
+		sum += value;
+		double delta = value - mean;
+		mean += delta / n;
+		m2 += delta * (value - mean);
+		min = ((n == 1) ? value : Math.min(min, value));
+		max = ((n == 1) ? value : Math.max(max, value));
+		if (sketch != null) {
+			sketch.addValue(value);
+		}
+	}
+
+	/**
+	 * @param data
+	 *            a collection of values to be added
+	 */
+	public void addValues(Collection<Double> data) {
+		for (Double datum : data) {
+			addValue(datum);
+		}
+	}
+
+	/**
+	 * @param data
+	 *            an array of values to be added
+	 */
+	public void addValues(double[] data) {
+		for (double datum : data) {
+			addValue(datum);
+		}
+	}
+
+	/**
+	 * Merge in the statistics for another set of values (Chan et al's parallel variance formula). If this keeps
+	 * quantiles but other doesn't, the quantiles can't cover the merged values, so they are dropped
+	 *
+	 * @param other
+	 */
+	public void addAll(RunningStatistics other) {
+		if (other.n == 0) {
+			return;
+		}
+		if (n == 0) {
+			min = other.min;
+			max = other.max;
+		} else {
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+		}
+		long total = n + other.n;
+		double delta = other.mean - mean;
+		mean += delta * other.n / total;
+		m2 += other.m2 + delta * delta * ((double) n * other.n / total);
+		n = total;
+		sum += other.sum;
+		if (sketch != null) {
+			if (other.sketch == null) {
+				System.err.println("WARNING merging statistics without quantiles, dropping them");
+				sketch = null;
+			} else {
+				sketch.addAll(other.sketch);
+			}
+		}
+	}
+
+	public long getN() {
+		return n;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return the mean, NaN if no values
+	 */
+	public double getMean() {
+		return ((n == 0) ? Double.NaN : mean);
+	}
+
+	/**
+	 * @return the (bias-corrected, n-1) sample variance, NaN if no values and 0 if one
+	 */
+	public double getVariance() {
+		return ((n == 0) ? Double.NaN : ((n == 1) ? 0.0 : m2 / (n - 1)));
+	}
+
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * @return the minimum, NaN if no values
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return the maximum, NaN if no values
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @param p
+	 *            a percentile between 0 and 100
+	 * @return the approximate p-th percentile, NaN if no values or not keeping quantiles
+	 */
+	public double getPercentile(double p) {
+		return ((sketch == null) ? Double.NaN : sketch.getQuantile(p / 100.0));
+	}
+
+}
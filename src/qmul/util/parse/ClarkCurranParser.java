@@ -61,19 +61,7 @@ public class ClarkCurranParser implements TreeParser {
 				p.destroy();
 			}
 			System.out.print("Loading parser " + executable + " ... ");
-			if (System.getProperty("os.name").matches("(?i).*windows.*")) {
-				// C&C assume / directory separator, so we'll have to run via cygwin under Windows
-				p = Runtime.getRuntime().exec(
-						new String[] {
-								"c:\\cygwin\\bin\\bash.exe",
-								"-c",
-								executable + " --models " + models
-										+ " --candc-printer prolog --candc-maxwords_policy warn" });
-			} else {
-				p = Runtime.getRuntime().exec(
-						new String[] { executable, "--models", models, "--candc-printer", "prolog",
-								"--candc-maxwords_policy", "warn" });
-			}
+			p = Runtime.getRuntime().exec(getCommand(executable, models));
 			out = new BufferedWriter(new OutputStreamWriter(p.getOutputStream()));
 			in = new BufferedReader(new InputStreamReader(p.getInputStream()));
 			err = new BufferedReader(new InputStreamReader(p.getErrorStream()));
@@ -98,13 +86,49 @@ public class ClarkCurranParser implements TreeParser {
 		numParsed = 0;
 	}
 
+	/**
+	 * @param executable
+	 * @param models
+	 * @return the command line to start C&C with prolog output
+	 */
+	static String[] getCommand(String executable, String models) {
+		if (System.getProperty("os.name").matches("(?i).*windows.*")) {
+			// C&C assume / directory separator, so we'll have to run via cygwin under Windows
+			return new String[] { "c:\\cygwin\\bin\\bash.exe", "-c",
+					executable + " --models " + models + " --candc-printer prolog --candc-maxwords_policy warn" };
+		} else {
+			return new String[] { executable, "--models", models, "--candc-printer", "prolog",
+					"--candc-maxwords_policy", "warn" };
+		}
+	}
+
+	/**
+	 * @param executable
+	 * @param models
+	 * @return a description of the parser configuration, including the current tree conversion options, e.g. for
+	 *         keying a {@link ParseCache}
+	 */
+	static String getConfig(String executable, String models) {
+		return "ClarkCurranParser " + executable + " " + models + " "
+				+ CreateTreeFromClarkCurranCCGProlog.getOptions();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see qmul.corpus.TreeParser#getBestParse()
+	 * @see java.lang.Object#toString()
 	 */
 	@Override
-	public Tree getBestParse() {
+	public String toString() {
+		return getConfig(executable, models);
+	}
+
+	/**
+	 * @param buffer
+	 *            C&C prolog output
+	 * @return the first {@link Tree} in the output, or null if none
+	 */
+	static Tree makeTree(String buffer) {
 		List<Tree> trees = CreateTreeFromClarkCurranCCGProlog.makeTrees(buffer);
 		if (trees.size() > 0) {
 			return trees.get(0);
@@ -113,6 +137,16 @@ public class ClarkCurranParser implements TreeParser {
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see qmul.corpus.TreeParser#getBestParse()
+	 */
+	@Override
+	public Tree getBestParse() {
+		return makeTree(buffer);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
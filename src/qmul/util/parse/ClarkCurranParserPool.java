@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2009, 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ ******************************************************************************/
+package qmul.util.parse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stanford.nlp.ling.Word;
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * A pool of Clark & Curran CCG parser processes - see {@link ClarkCurranParser}, {@link ExternalParserPool}
+ * 
+ * @author mpurver
+ */
+public class ClarkCurranParserPool extends ExternalParserPool {
+
+	private static final String DEFAULT_EXECUTABLE = "/import/imc-corpora/tools/parsers/candc-1.00/bin/candc";
+	private static final String DEFAULT_MODELS = "/import/imc-corpora/tools/parsers/candc-1.00/models";
+	private static final int MAX_WORDS = 250; // C&C ignores longer sentences without telling STDOUT
+
+	private String executable;
+	private String models;
+
+	public ClarkCurranParserPool(int numProcesses) {
+		this(numProcesses, DEFAULT_EXECUTABLE, DEFAULT_MODELS);
+	}
+
+	public ClarkCurranParserPool(int numProcesses, String executable, String models) {
+		super(numProcesses);
+		this.executable = executable;
+		this.models = models;
+		setMaxWords(MAX_WORDS);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see qmul.util.parse.ExternalParserPool#getCommand()
+	 */
+	@Override
+	protected String[] getCommand() {
+		return ClarkCurranParser.getCommand(executable, models);
+	}
+
+	/**
+	 * @return the same description as the equivalent single parser, as the trees are the same
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return ClarkCurranParser.getConfig(executable, models);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see qmul.util.parse.ExternalParserPool#readHeader(java.io.BufferedReader)
+	 */
+	@Override
+	protected void readHeader(BufferedReader in) throws IOException {
+		// prolog header comment, then prolog header declarations
+		readBlock(in);
+		readBlock(in);
+	}
+
+	/**
+	 * A successful parse gives a ccg/2 block followed by a block of w/8 word facts; anything else is a single block
+	 * 
+	 * @see qmul.util.parse.ExternalParserPool#readResponse(java.io.BufferedReader)
+	 */
+	@Override
+	protected String readResponse(BufferedReader in) throws IOException {
+		String block = readBlock(in);
+		if ((block != null) && block.startsWith("ccg(")) {
+			String words = readBlock(in);
+			if (words != null) {
+				block += words;
+			}
+		}
+		return block;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see qmul.util.parse.ExternalParserPool#makeTree(java.lang.String)
+	 */
+	@Override
+	protected Tree makeTree(String response) {
+		if (!response.startsWith("ccg(")) {
+			// there wasn't a ccg/2 tree, so nothing to produce a Tree from
+			return null;
+		}
+		return ClarkCurranParser.makeTree(response);
+	}
+
+	/**
+	 * C&C numbers its sentences ccg(1, ... ), ccg(2, ... ) etc; failures aren't numbered
+	 * 
+	 * @see qmul.util.parse.ExternalParserPool#getResponseNumber(java.lang.String)
+	 */
+	@Override
+	protected int getResponseNumber(String response) {
+		if (!response.startsWith("ccg(")) {
+			return -1;
+		}
+		int comma = response.indexOf(',');
+		try {
+			return Integer.parseInt(response.substring(4, (comma < 0 ? response.length() : comma)).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see qmul.util.parse.ExternalParserPool#isPipelined()
+	 */
+	@Override
+	protected boolean isPipelined() {
+		return true;
+	}
+
+	/**
+	 * @param in
+	 * @return the lines up to the next empty line (skipping any leading empty lines), or null at end of stream
+	 * @throws IOException
+	 */
+	static String readBlock(BufferedReader in) throws IOException {
+		String line = in.readLine();
+		while ((line != null) && line.isEmpty()) {
+			line = in.readLine();
+		}
+		if (line == null) {
+			return null;
+		}
+		StringBuilder block = new StringBuilder();
+		while ((line != null) && !line.isEmpty()) {
+			block.append(line).append('\n');
+			line = in.readLine();
+		}
+		return block.toString();
+	}
+
+	/**
+	 * Parse a few sentences. Give the executable and models dir as args, or -stub to use {@link ParserStub}'s canned
+	 * C&C prolog output, to test without a real parser
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		ClarkCurranParserPool pool;
+		if ((args.length > 0) && args[0].equals("-stub")) {
+			pool = new ClarkCurranParserPool(2) {
+				@Override
+				protected String[] getCommand() {
+					return ParserStub.getCommand("ccg");
+				}
+			};
+		} else if (args.length > 1) {
+			pool = new ClarkCurranParserPool(2, args[0], args[1]);
+		} else {
+			pool = new ClarkCurranParserPool(2);
+		}
+		PennTreebankTokenizer tok = new PennTreebankTokenizer(true);
+		List<List<Word>> sents = new ArrayList<List<Word>>();
+		sents.add(tok.getWordsFromString("john likes mary."));
+		sents.add(tok.getWordsFromString("john likes mary because she is nice."));
+		sents.add(tok.getWordsFromString("john likes mary, his neighbour, because (I think) she is nice!"));
+		List<Tree> trees = pool.parseAll(sents);
+		for (int i = 0; i < sents.size(); i++) {
+			System.out.println(sents.get(i) + " -> " + (trees.get(i) == null ? "failed!" : trees.get(i).pennString()));
+		}
+		pool.close();
+	}
+
+}
@@ -86,6 +86,14 @@ public class CreateTreeFromClarkCurranCCGProlog {
 		return options.get(option);
 	}
 
+	/**
+	 * @return the current option values, as these change the {@link Tree}s produced
+	 */
+	public static String getOptions() {
+		return "REMOVE_SQUARE_BRACKET_SUBCATS=" + getOption(REMOVE_SQUARE_BRACKET_SUBCATS) + " REMOVE_PUNCTUATION="
+				+ getOption(REMOVE_PUNCTUATION);
+	}
+
 	/**
 	 * For testing: use the default file
 	 * 
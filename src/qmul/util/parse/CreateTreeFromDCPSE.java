@@ -18,6 +18,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.Serializable;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -35,7 +36,7 @@ public class CreateTreeFromDCPSE {
 
 	private static TreeFactory tf = new LabeledScoredTreeFactory();
 
-	private static HashMap<Integer, Boolean> options = null;
+	private static Options options = null;
 	public static final int INCLUDE_NO_BRACKETS = 0;
 	public static final int INCLUDE_NO_PAUSE = 1;
 	public static final int INCLUDE_NO_IGNORE = 2;
@@ -54,21 +55,72 @@ public class CreateTreeFromDCPSE {
 	private static final String IGNORE_MARKER = "ooo";
 
 	/**
-	 * Set INCLUDE_NO_ options to default values (all true)
+	 * A set of INCLUDE_NO_ etc options. Corpora hold their own copy, so differently-configured corpora can be built at
+	 * the same time; the static setOption()/getOption() methods just set/get the defaults for new corpora
 	 */
-	public static void setDefaultOptions() {
-		if (options == null) {
-			options = new HashMap<Integer, Boolean>();
+	public static class Options implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final HashMap<Integer, Boolean> values = new HashMap<Integer, Boolean>();
+
+		/**
+		 * Create a set of options with default values
+		 */
+		public Options() {
+			values.put(INCLUDE_NO_BRACKETS, true); // set flag to true to remove all bracketed features
+			values.put(INCLUDE_NO_PAUSE, false); // set flag to true to remove pauses
+			values.put(INCLUDE_NO_IGNORE, false); // set to true to remove repaired
+			values.put(INCLUDE_NO_UMM, false); // set to true to remove interjections (includes oh, mm, um, er)
+			values.put(INCLUDE_NO_UNCLEAR, false); // set to true to remove indet,?
+			values.put(INCLUDE_NO_REACT, false); // set to true to remove backchannels (includes yes, yeah, ok, mm)
+			values.put(CATEGORIES_NOT_FUNCTIONS, true); // cats are second caps item: FUNCTION,CAT
+			values.put(PP_LEXICAL_FEATURES, false); // if true, add head prep word to PP as first bracketed feature
+		}
+
+		/**
+		 * Create a copy of a set of options
+		 * 
+		 * @param options
+		 */
+		public Options(Options options) {
+			values.putAll(options.values);
+		}
+
+		/**
+		 * Set an INCLUDE_NO_ option
+		 * 
+		 * @param option
+		 * @param value
+		 * @return this, for chaining
+		 */
+		public Options set(int option, boolean value) {
+			values.put(option, value);
+			return this;
 		}
-		options.clear();
-		options.put(INCLUDE_NO_BRACKETS, true); // set flag to true to remove all bracketed features
-		options.put(INCLUDE_NO_PAUSE, false); // set flag to true to remove pauses
-		options.put(INCLUDE_NO_IGNORE, false); // set to true to remove repaired
-		options.put(INCLUDE_NO_UMM, false); // set to true to remove interjections (includes oh, mm, um, er)
-		options.put(INCLUDE_NO_UNCLEAR, false); // set to true to remove indet,?
-		options.put(INCLUDE_NO_REACT, false); // set to true to remove backchannels (includes yes, yeah, ok, mm)
-		options.put(CATEGORIES_NOT_FUNCTIONS, true); // cats are second caps item: FUNCTION,CAT
-		options.put(PP_LEXICAL_FEATURES, false); // if true, add head prep word to PP as first bracketed feature
+
+		/**
+		 * Get an INCLUDE_NO_ option
+		 * 
+		 * @param option
+		 * @return value
+		 */
+		public boolean get(int option) {
+			return values.get(option);
+		}
+
+		@Override
+		public String toString() {
+			return values.toString();
+		}
+
+	}
+
+	/**
+	 * Set INCLUDE_NO_ options to default values
+	 */
+	public static void setDefaultOptions() {
+		options = new Options();
 	}
 
 	/**
@@ -79,10 +131,9 @@ public class CreateTreeFromDCPSE {
 	 */
 	public static void setOption(int option, boolean value) {
 		if (options == null) {
-			options = new HashMap<Integer, Boolean>();
 			setDefaultOptions();
 		}
-		options.put(option, value);
+		options.set(option, value);
 	}
 
 	/**
@@ -93,12 +144,21 @@ public class CreateTreeFromDCPSE {
 	 */
 	public static boolean getOption(int option) {
 		if (options == null) {
-			options = new HashMap<Integer, Boolean>();
 			setDefaultOptions();
 		}
 		return options.get(option);
 	}
 
+	/**
+	 * @return a copy of the current options as set via setOption()
+	 */
+	public static Options getOptions() {
+		if (options == null) {
+			setDefaultOptions();
+		}
+		return new Options(options);
+	}
+
 	/**
 	 * For testing: use the default file
 	 * 
@@ -192,6 +252,17 @@ public class CreateTreeFromDCPSE {
 		if (options == null) {
 			setDefaultOptions();
 		}
+		return makeTree(reader, options);
+	}
+
+	/**
+	 * @param reader
+	 *            a {@link Reader}
+	 * @param options
+	 *            the {@link Options} to use
+	 * @return the Stanford {@link Tree}
+	 */
+	public static Tree makeTree(Reader reader, Options options) {
 		List<Tree> children = new ArrayList<Tree>();
 		Tree t0 = null;
 		Tree tPrev = null;
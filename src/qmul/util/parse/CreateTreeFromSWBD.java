@@ -18,6 +18,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.Serializable;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -36,7 +37,7 @@ public class CreateTreeFromSWBD {
 
 	private static TreeFactory tf = new LabeledScoredTreeFactory();
 
-	private static HashMap<Integer, Boolean> options = null;
+	private static Options options = null;
 	public static final int INCLUDE_NO_SELFREPAIR_BRACKETS = 0;
 	/**
 	 * INTJ backchannels, openings, closings, filled pauses, e.g. uh, uh-huh, oh, yeah, okay, well, like, right, huh,
@@ -52,20 +53,71 @@ public class CreateTreeFromSWBD {
 	private static final String IGNORE_MARKER = "ooo";
 
 	/**
-	 * Set INCLUDE_NO_ options to default values (all true)
+	 * A set of INCLUDE_NO_ etc options. Corpora hold their own copy, so differently-configured corpora can be built at
+	 * the same time; the static setOption()/getOption() methods just set/get the defaults for new corpora
 	 */
-	public static void setDefaultOptions() {
-		if (options == null) {
-			options = new HashMap<Integer, Boolean>();
+	public static class Options implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final HashMap<Integer, Boolean> values = new HashMap<Integer, Boolean>();
+
+		/**
+		 * Create a set of options with default values
+		 */
+		public Options() {
+			values.put(INCLUDE_NO_SELFREPAIR_BRACKETS, true); // set to true to remove repair markers [X + Y] -> X Y
+			values.put(INCLUDE_NO_INTJ, false); // set to true to remove INTJs (filled pauses, backchannels, closings)
+			values.put(INCLUDE_NO_E_S, true); // set to true to remove E_S end-S-unit markers
+			values.put(INCLUDE_NO_TRACES, true); // set to true to remove *T*-2, 0 syn traces
+			values.put(INCLUDE_NO_PUNCTUATION, true); // set to true to remove punctuation nodes
+			values.put(REPAIR_SELFREPAIRS, false); // set to true to replace EDITED([ X +) Y ] with Y
+			values.put(SIMPLIFY_CATEGORIES, false); // trim e.g. PP-LOC, NP-SBJ to PP, NP
+		}
+
+		/**
+		 * Create a copy of a set of options
+		 * 
+		 * @param options
+		 */
+		public Options(Options options) {
+			values.putAll(options.values);
+		}
+
+		/**
+		 * Set an INCLUDE_NO_ option
+		 * 
+		 * @param option
+		 * @param value
+		 * @return this, for chaining
+		 */
+		public Options set(int option, boolean value) {
+			values.put(option, value);
+			return this;
+		}
+
+		/**
+		 * Get an INCLUDE_NO_ option
+		 * 
+		 * @param option
+		 * @return value
+		 */
+		public boolean get(int option) {
+			return values.get(option);
+		}
+
+		@Override
+		public String toString() {
+			return values.toString();
 		}
-		options.clear();
-		options.put(INCLUDE_NO_SELFREPAIR_BRACKETS, true); // set to true to remove repair markers [X + Y] -> X Y
-		options.put(INCLUDE_NO_INTJ, false); // set to true to remove INTJs (filled pauses, backchannels, closings)
-		options.put(INCLUDE_NO_E_S, true); // set to true to remove E_S end-S-unit markers
-		options.put(INCLUDE_NO_TRACES, true); // set to true to remove *T*-2, 0 syn traces
-		options.put(INCLUDE_NO_PUNCTUATION, true); // set to true to remove punctuation nodes
-		options.put(REPAIR_SELFREPAIRS, false); // set to true to replace EDITED([ X +) Y ] with Y
-		options.put(SIMPLIFY_CATEGORIES, false); // trim e.g. PP-LOC, NP-SBJ to PP, NP
+
+	}
+
+	/**
+	 * Set INCLUDE_NO_ options to default values
+	 */
+	public static void setDefaultOptions() {
+		options = new Options();
 	}
 
 	/**
@@ -76,10 +128,9 @@ public class CreateTreeFromSWBD {
 	 */
 	public static void setOption(int option, boolean value) {
 		if (options == null) {
-			options = new HashMap<Integer, Boolean>();
 			setDefaultOptions();
 		}
-		options.put(option, value);
+		options.set(option, value);
 	}
 
 	/**
@@ -90,12 +141,21 @@ public class CreateTreeFromSWBD {
 	 */
 	public static boolean getOption(int option) {
 		if (options == null) {
-			options = new HashMap<Integer, Boolean>();
 			setDefaultOptions();
 		}
 		return options.get(option);
 	}
 
+	/**
+	 * @return a copy of the current options as set via setOption()
+	 */
+	public static Options getOptions() {
+		if (options == null) {
+			setDefaultOptions();
+		}
+		return new Options(options);
+	}
+
 	/**
 	 * For testing: use the default file
 	 * 
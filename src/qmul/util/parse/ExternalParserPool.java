@@ -0,0 +1,555 @@
+/*******************************************************************************
+ * Copyright (c) 2009, 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ ******************************************************************************/
+package qmul.util.parse;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.parser.Parser;
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * A pool of long-lived external parser processes (e.g. C&C, RASP). Each process has its own threads pumping STDOUT
+ * (into a queue of responses) and STDERR (to the log), so nobody has to poll; sentences are sent to a process in
+ * batches, and responses are matched to sentences by order. That order is checked where possible: against the sentence
+ * number echoed in each response, if the parser gives one (see getResponseNumber()), and for parsers which take a whole
+ * batch at a time, against the number of responses in the batch. A process which dies or stops responding is
+ * restarted, the sentence it was working on is given up on, and the rest of its batch is sent again; if a process
+ * can't be started at all (within the timeout), parsing fails straight away.
+ * 
+ * Thread-safe: can be shared between several {@link qmul.corpus.CorpusParser} threads (it is its own
+ * {@link ParserFactory}), though parsing a whole list at once via parseAll() makes better use of batching.
+ * 
+ * Subclasses define how to start the parser, and how to read its output.
+ * 
+ * @author mpurver
+ */
+public abstract class ExternalParserPool implements TreeParser, ParserFactory {
+
+	private static final String EOF = new String("EOF"); // marker for end of STDOUT, compared by identity
+	private static final String READY = new String("READY"); // marker for end of header, compared by identity
+
+	private final int numProcesses;
+	private int batchSize = 100;
+	private int maxWords = Integer.MAX_VALUE;
+	private long timeout = 600000;
+
+	private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+	private ExecutorService executor = null;
+	private final ThreadLocal<Tree> bestParse = new ThreadLocal<Tree>();
+	private volatile IOException startFailure = null;
+
+	/**
+	 * @param numProcesses
+	 *            the number of parser processes to run (0 or less means one per available processor)
+	 */
+	public ExternalParserPool(int numProcesses) {
+		this.numProcesses = (numProcesses > 0 ? numProcesses : Runtime.getRuntime().availableProcessors());
+		for (int i = 0; i < this.numProcesses; i++) {
+			idle.add(new Worker(i));
+		}
+	}
+
+	/**
+	 * @return the command line used to start a parser process
+	 */
+	protected abstract String[] getCommand();
+
+	/**
+	 * Read any header the parser prints on STDOUT when it starts up, before it reads any input
+	 * 
+	 * @param in
+	 *            the parser's STDOUT
+	 * @throws IOException
+	 */
+	protected abstract void readHeader(BufferedReader in) throws IOException;
+
+	/**
+	 * Read the parser's complete response to one input sentence
+	 * 
+	 * @param in
+	 *            the parser's STDOUT
+	 * @return the response, or null at end of stream
+	 * @throws IOException
+	 */
+	protected abstract String readResponse(BufferedReader in) throws IOException;
+
+	/**
+	 * @param response
+	 *            a response as returned by readResponse()
+	 * @return the best {@link Tree} in the response, or null if the parse failed
+	 */
+	protected abstract Tree makeTree(String response);
+
+	/**
+	 * @param response
+	 *            a response as returned by readResponse()
+	 * @return the number of the sentence it is a response to, counting from 1 since the process started, if the
+	 *         parser says; otherwise -1 (the default)
+	 */
+	protected int getResponseNumber(String response) {
+		return -1;
+	}
+
+	/**
+	 * @return true if the parser will respond to each sentence as it is written; false if it only produces output once
+	 *         its STDIN is closed, in which case a new process is started for every batch
+	 */
+	protected abstract boolean isPipelined();
+
+	/**
+	 * @param sentence
+	 * @return the line to send to the parser: the words separated by spaces
+	 */
+	protected String formatInput(List<? extends HasWord> sentence) {
+		StringBuilder input = new StringBuilder();
+		for (HasWord w : sentence) {
+			if (input.length() > 0) {
+				input.append(' ');
+			}
+			input.append(w.word());
+		}
+		return input.toString().trim();
+	}
+
+	/**
+	 * @param batchSize
+	 *            the max number of sentences sent to one process in one go (default 100)
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * @return the max number of sentences sent to one process in one go
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @param maxWords
+	 *            sentences longer than this are failed without being sent (some parsers ignore them silently, which
+	 *            would break the matching of responses to sentences)
+	 */
+	public void setMaxWords(int maxWords) {
+		this.maxWords = maxWords;
+	}
+
+	/**
+	 * @param timeout
+	 *            how long to wait (in ms) for a process to start up, or for a response, before deciding it has hung
+	 *            (and restarting it, or failing if it hasn't started)
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return the number of parser processes
+	 */
+	public int getNumProcesses() {
+		return numProcesses;
+	}
+
+	/**
+	 * Parse a list of sentences, spreading them over the processes in batches
+	 * 
+	 * @param sentences
+	 * @return the best parse for each sentence, in the same order (null where parsing failed)
+	 * @throws RuntimeException
+	 *             if a parser process couldn't be started
+	 */
+	public List<Tree> parseAll(List<? extends List<? extends HasWord>> sentences) {
+		checkStarted();
+		final Tree[] trees = new Tree[sentences.size()];
+		final ArrayList<Integer> indices = new ArrayList<Integer>();
+		final ArrayList<String> inputs = new ArrayList<String>();
+		for (int i = 0; i < sentences.size(); i++) {
+			List<? extends HasWord> sentence = sentences.get(i);
+			if (sentence.size() > maxWords) {
+				System.err.println("Skipping over-length sentence " + i + " (" + sentence.size() + " words)");
+				continue;
+			}
+			String input = formatInput(sentence);
+			// we get no output for empty lines, so don't send them
+			if (!input.isEmpty()) {
+				indices.add(i);
+				inputs.add(input);
+			}
+		}
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int start = 0; start < inputs.size(); start += batchSize) {
+			final int from = start;
+			final int to = Math.min(start + batchSize, inputs.size());
+			futures.add(getExecutor().submit(new Runnable() {
+				@Override
+				public void run() {
+					Worker worker;
+					try {
+						worker = idle.take();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+					try {
+						String[] responses = worker.process(inputs.subList(from, to));
+						for (int i = 0; i < responses.length; i++) {
+							trees[indices.get(from + i)] = (responses[i] == null ? null : makeTree(responses[i]));
+						}
+					} finally {
+						idle.add(worker);
+					}
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("interrupted while parsing", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("parser worker failed", e.getCause());
+			}
+		}
+		checkStarted();
+		ArrayList<Tree> result = new ArrayList<Tree>(trees.length);
+		Collections.addAll(result, trees);
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.stanford.nlp.parser.Parser#parse(java.util.List)
+	 */
+	@Override
+	public boolean parse(List<? extends HasWord> sentence) {
+		Tree t = parseAll(Collections.singletonList(sentence)).get(0);
+		bestParse.set(t);
+		return (t != null);
+	}
+
+	/**
+	 * Not supported: the external parsers can't be given a goal category, so this just warns and fails (use
+	 * parse(sentence) instead)
+	 * 
+	 * @see edu.stanford.nlp.parser.Parser#parse(java.util.List, java.lang.String)
+	 */
+	@Override
+	public boolean parse(List<? extends HasWord> sentence, String goal) {
+		System.err.println("WARNING: " + getPoolName() + " can't parse with a goal category ("
+				+ goal + "), failing");
+		bestParse.set(null);
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see qmul.util.parse.TreeParser#getBestParse()
+	 */
+	@Override
+	public Tree getBestParse() {
+		return bestParse.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see qmul.util.parse.ParserFactory#newParser()
+	 */
+	@Override
+	public Parser newParser() {
+		return this;
+	}
+
+	/**
+	 * Stop all parser processes and threads. The pool can still be used afterwards; processes will be restarted as
+	 * needed (and starting them tried again, if it failed before)
+	 */
+	public synchronized void close() {
+		startFailure = null;
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		for (Worker worker : idle) {
+			worker.stop();
+		}
+	}
+
+	/**
+	 * @return the name of this (or, if anonymous, the nearest named) pool class, for thread names and messages
+	 */
+	private String getPoolName() {
+		Class<?> c = getClass();
+		while (c.getSimpleName().isEmpty()) {
+			c = c.getSuperclass();
+		}
+		return c.getSimpleName();
+	}
+
+	/**
+	 * @throws RuntimeException
+	 *             if a parser process has failed to start
+	 */
+	private void checkStarted() {
+		if (startFailure != null) {
+			throw new RuntimeException("couldn't start parser", startFailure);
+		}
+	}
+
+	/**
+	 * Record that a process couldn't be started, so that no more are tried
+	 * 
+	 * @param name
+	 * @param e
+	 */
+	private synchronized void startFailed(String name, IOException e) {
+		if (startFailure == null) {
+			System.err.println("Couldn't start parser " + name + ": " + e.getMessage());
+			startFailure = e;
+		}
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(numProcesses, new ThreadFactory() {
+				private int n = 0;
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, getPoolName() + "-" + n++);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Starts a daemon thread which copies lines from a stream to STDERR, so the parser never blocks on a full pipe
+	 */
+	private static void pumpToStderr(final BufferedReader err, final String prefix) {
+		Thread t = new Thread(prefix + "-stderr") {
+			@Override
+			public void run() {
+				try {
+					String line;
+					while ((line = err.readLine()) != null) {
+						System.err.println(prefix + ": " + line);
+					}
+				} catch (IOException e) {
+					// process has gone
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * One parser process, with its STDOUT/STDERR pump threads
+	 */
+	private class Worker {
+
+		private final String name;
+		private Process p;
+		private BufferedWriter out;
+		private BlockingQueue<String> responses;
+		private int numSent;
+
+		private Worker(int num) {
+			this.name = getPoolName() + "-" + num;
+		}
+
+		/**
+		 * Start the process, and wait for it to get through its header
+		 * 
+		 * @throws IOException
+		 *             if it can't be started, or doesn't get through its header within the timeout
+		 * @throws InterruptedException
+		 */
+		private void start() throws IOException, InterruptedException {
+			System.out.print("Loading parser " + name + " ... ");
+			p = Runtime.getRuntime().exec(getCommand());
+			out = new BufferedWriter(new OutputStreamWriter(p.getOutputStream()));
+			final BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+			pumpToStderr(new BufferedReader(new InputStreamReader(p.getErrorStream())), name);
+			numSent = 0;
+			final BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+			responses = queue;
+			// the header is read in the pump thread too, so that we can give up if it never comes
+			Thread pump = new Thread(name + "-stdout") {
+				@Override
+				public void run() {
+					try {
+						readHeader(in);
+						queue.add(READY);
+						String response;
+						while ((response = readResponse(in)) != null) {
+							queue.add(response);
+						}
+					} catch (IOException e) {
+						// process has gone
+					} finally {
+						queue.add(EOF);
+					}
+				}
+			};
+			pump.setDaemon(true);
+			pump.start();
+			String ready = queue.poll(timeout, TimeUnit.MILLISECONDS);
+			if (ready != READY) {
+				stop();
+				throw new IOException(ready == null ? "no header after " + timeout + " ms" : "exited during header");
+			}
+			System.out.println("done.");
+		}
+
+		private void stop() {
+			if (p != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// already closed
+				}
+				p.destroy();
+				p = null;
+			}
+		}
+
+		/**
+		 * @param inputs
+		 * @return the response to each input, null if the process crashed or hung on it, or if its response couldn't
+		 *         be matched to it
+		 */
+		private String[] process(List<String> inputs) {
+			String[] results = new String[inputs.size()];
+			int next = 0;
+			while (next < inputs.size()) {
+				if (startFailure != null) {
+					return results;
+				}
+				boolean crashed = false;
+				boolean ended = false;
+				try {
+					if (p == null) {
+						try {
+							start();
+						} catch (IOException e) {
+							startFailed(name, e);
+							return results;
+						}
+					}
+					// the process's number for inputs[from]
+					int from = next;
+					int first = numSent + 1;
+					for (int i = next; i < inputs.size(); i++) {
+						out.write(inputs.get(i));
+						out.newLine();
+						numSent++;
+						if (!isPipelined()) {
+							// blank line between sentences so a non-pipelined parser doesn't run them together
+							out.newLine();
+						}
+					}
+					if (isPipelined()) {
+						out.flush();
+					} else {
+						out.close();
+					}
+					while (next < inputs.size()) {
+						String response = responses.poll(timeout, TimeUnit.MILLISECONDS);
+						if ((response == null) || (response == EOF)) {
+							crashed = true;
+							ended = (response == EOF);
+							break;
+						}
+						int num = getResponseNumber(response);
+						if (num >= 0) {
+							int index = from + num - first;
+							if ((index < next) || (index >= inputs.size())) {
+								System.err.println("Parser " + name + " gave an unexpected response for sentence " + num
+										+ ", ignoring it");
+								continue;
+							}
+							if (index > next) {
+								System.err.println("Parser " + name + " gave no response for " + (index - next)
+										+ " sentence(s) from: " + inputs.get(next));
+								next = index;
+							}
+						}
+						results[next++] = response;
+					}
+					if (!isPipelined()) {
+						// the whole batch went to one process, so check it gave exactly one response per sentence
+						if (!crashed && (responses.poll(timeout, TimeUnit.MILLISECONDS) != EOF)) {
+							mismatch(results, from, "more responses than sentences");
+							next = inputs.size();
+						} else if (ended && (p.waitFor() == 0)) {
+							mismatch(results, from, "fewer responses than sentences");
+							next = inputs.size();
+							crashed = false;
+						}
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+					crashed = true;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					stop();
+					return results;
+				}
+				if (crashed || !isPipelined()) {
+					stop();
+				}
+				if (crashed) {
+					System.err.println("Parser " + name + " died or hung on: " + inputs.get(next) + " - restarting");
+					next++;
+				}
+			}
+			return results;
+		}
+
+		/**
+		 * Give up on a batch whose responses can't be matched to its sentences
+		 * 
+		 * @param results
+		 * @param from
+		 *            the index of the first sentence sent to this process
+		 * @param reason
+		 */
+		private void mismatch(String[] results, int from, String reason) {
+			System.err.println("Parser " + name + " gave " + reason + " in a batch of " + (results.length - from)
+					+ ", discarding them");
+			for (int i = from; i < results.length; i++) {
+				results[i] = null;
+			}
+		}
+	}
+
+}
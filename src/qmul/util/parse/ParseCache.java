@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2009, 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ ******************************************************************************/
+package qmul.util.parse;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * A persistent cache of parse {@link Tree}s, keyed by parser configuration and token sequence. Spoken corpora are
+ * dominated by repeated short utterances ("yeah", "mm", "I don't know"), so most sentences never need to go near the
+ * parser. Cached trees are shared between all sentences with the same tokens, so must not be modified. Safe for use by
+ * several parser threads at once.
+ * 
+ * @author mpurver
+ */
+public class ParseCache {
+
+	private final File file;
+	private final String config;
+	private final ConcurrentHashMap<String, Tree> cache = new ConcurrentHashMap<String, Tree>();
+	private volatile boolean changed = false;
+
+	/**
+	 * @param file
+	 *            the file to read the cache from (if it exists) and save it to (null for an in-memory cache only). Use a
+	 *            .gz suffix for compression
+	 * @param config
+	 *            a description of the parser configuration (model, options etc) - trees are only shared between
+	 *            identical configurations
+	 */
+	public ParseCache(File file, String config) {
+		this.file = file;
+		this.config = config;
+		if ((file != null) && file.exists()) {
+			load();
+		}
+	}
+
+	/**
+	 * @param words
+	 * @return the cached parse for this token sequence under this configuration, or null if there isn't one
+	 */
+	public Tree get(List<? extends HasWord> words) {
+		return cache.get(getKey(words));
+	}
+
+	/**
+	 * @param words
+	 * @param tree
+	 *            the parse for this token sequence (ignored if null)
+	 */
+	public void put(List<? extends HasWord> words, Tree tree) {
+		if (tree == null) {
+			return;
+		}
+		if (cache.putIfAbsent(getKey(words), tree) == null) {
+			changed = true;
+		}
+	}
+
+	/**
+	 * @param words
+	 * @return the key for this token sequence under this configuration: word forms separated by single spaces
+	 */
+	public String getKey(List<? extends HasWord> words) {
+		StringBuilder key = new StringBuilder(config);
+		key.append('\t');
+		for (int i = 0; i < words.size(); i++) {
+			if (i > 0) {
+				key.append(' ');
+			}
+			key.append(words.get(i).word().trim());
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return the number of cached trees (across all configurations)
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Save the cache to file, if it has changed since it was read, via a temporary file so a crash can't leave it
+	 * truncated
+	 * 
+	 * @return success
+	 */
+	public synchronized boolean save() {
+		if ((file == null) || !changed) {
+			return true;
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			OutputStream outs = new FileOutputStream(tmp);
+			if (file.getName().endsWith(".gz")) {
+				outs = new GZIPOutputStream(outs);
+			}
+			ObjectOutputStream out = new ObjectOutputStream(outs);
+			changed = false;
+			out.writeObject(new HashMap<String, Tree>(cache));
+			out.close();
+			// renaming over an existing file fails on some platforms, so delete it first if need be
+			if (!tmp.renameTo(file) && (!file.delete() || !tmp.renameTo(file))) {
+				throw new IOException("Can't rename " + tmp + " to " + file);
+			}
+			System.out.println("Saved " + cache.size() + " cached parses to file " + file);
+			return true;
+		} catch (IOException e) {
+			changed = true;
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void load() {
+		try {
+			InputStream ins = new FileInputStream(file);
+			if (file.getName().endsWith(".gz")) {
+				ins = new GZIPInputStream(ins);
+			}
+			ObjectInputStream in = new ObjectInputStream(ins);
+			cache.putAll((HashMap<String, Tree>) in.readObject());
+			in.close();
+			System.out.println("Read " + cache.size() + " cached parses from file " + file);
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
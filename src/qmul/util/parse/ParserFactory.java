@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * Copyright (c) 2009, 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ ******************************************************************************/
+package qmul.util.parse;
+
+import edu.stanford.nlp.parser.Parser;
+
+/**
+ * Creates new {@link Parser} instances. Needed wherever we parse in parallel, as most parsers (e.g. the Stanford
+ * {@link edu.stanford.nlp.parser.lexparser.LexicalizedParser}) are not thread-safe, so each thread needs its own.
+ * Implementations should override toString() to describe the configuration of the parsers they create, as this keys
+ * any {@link ParseCache}
+ * 
+ * @author mpurver
+ */
+public interface ParserFactory {
+
+	/**
+	 * @return a new, independent {@link Parser} instance
+	 */
+	public Parser newParser();
+
+}
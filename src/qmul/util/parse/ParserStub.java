@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ ******************************************************************************/
+package qmul.util.parse;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+/**
+ * A stand-in for the C&C or RASP executables, which reads sentences on STDIN and writes canned output in the same
+ * format, so that {@link ClarkCurranParserPool} and {@link RASPParserPool} can be tried out without the real parsers
+ * (see their main methods). Like C&C, "ccg" mode answers each line as it arrives, numbering the sentences; like RASP,
+ * "rasp" mode only answers once STDIN is closed.
+ *
+ * Sentences can provoke misbehaviour: one containing CRASH kills the process, HANG makes it stop responding, SKIP gets
+ * no output at all (as C&C does for over-length sentences), and FAIL gets a failed parse.
+ *
+ * @author mpurver
+ */
+public class ParserStub {
+
+	/**
+	 * @param mode
+	 *            "ccg" or "rasp"
+	 * @return the command line to run the stub in a new JVM with the current classpath
+	 */
+	public static String[] getCommand(String mode) {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		return new String[] { java, "-cp", System.getProperty("java.class.path"), ParserStub.class.getName(), mode };
+	}
+
+	private static void hang() {
+		while (true) {
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				// keep hanging
+			}
+		}
+	}
+
+	private static void ccg(BufferedReader in, PrintStream out) throws IOException {
+		out.print("% this is a stub C&C\n\n:- op(601, xfx, (/)).\n\n");
+		out.flush();
+		String line;
+		int n = 0;
+		while ((line = in.readLine()) != null) {
+			n++;
+			if (line.contains("CRASH")) {
+				System.exit(1);
+			} else if (line.contains("HANG")) {
+				hang();
+			} else if (line.contains("SKIP")) {
+				continue;
+			} else if (line.contains("FAIL")) {
+				out.print("% fail\n\n");
+			} else {
+				String word = line.trim().split("\\s+")[0].replaceAll("'", "");
+				out.print("ccg(" + n + ",\n lf(" + n + ",1,'N')).\n\n");
+				out.print("w(" + n + ", 1, '" + word + "', '" + word + "', 'NN', 'I-NP', 'O', 'N').\n\n");
+			}
+			out.flush();
+		}
+	}
+
+	private static void rasp(BufferedReader in, PrintStream out) throws IOException {
+		StringBuilder output = new StringBuilder();
+		String line;
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty() || line.contains("SKIP")) {
+				continue;
+			} else if (line.contains("CRASH")) {
+				out.print(output);
+				out.flush();
+				System.exit(1);
+			} else if (line.contains("HANG")) {
+				hang();
+			}
+			output.append("(|" + line.replaceAll("\\s+", "| |") + "|) 1 ; (-1.0)\n");
+			if (!line.contains("FAIL")) {
+				output.append("(T (X " + line.replaceAll("[()\\s]+", "_") + "))\n");
+			}
+			output.append("\n");
+		}
+		out.print(output);
+		out.flush();
+	}
+
+	/**
+	 * @param args
+	 *            the mode, "ccg" or "rasp"
+	 */
+	public static void main(String[] args) {
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		try {
+			if ((args.length > 0) && args[0].equals("rasp")) {
+				rasp(in, System.out);
+			} else if ((args.length > 0) && args[0].equals("ccg")) {
+				ccg(in, System.out);
+			} else {
+				System.err.println("Usage: ParserStub ccg|rasp");
+				System.exit(1);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+}
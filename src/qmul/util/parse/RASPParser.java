@@ -61,14 +61,7 @@ public class RASPParser implements TreeParser {
 				p.destroy();
 			}
 			System.out.print("Loading parser " + executable + " -p\"" + options + "\" ... ");
-			if (System.getProperty("os.name").matches("(?i).*windows.*")) {
-				// need to run via .sh script, so we'll have to run via cygwin under Windows
-				p = Runtime.getRuntime().exec(
-						new String[] { "c:\\cygwin\\bin\\bash.exe", "-c", executable + " -p\"" + options + "\"" });
-			} else {
-				// p = Runtime.getRuntime().exec(new String[] { executable, options });
-				p = Runtime.getRuntime().exec(new String[] { executable, "-p", options });
-			}
+			p = Runtime.getRuntime().exec(getCommand(executable, options));
 			out = new BufferedWriter(new OutputStreamWriter(p.getOutputStream()));
 			in = new BufferedReader(new InputStreamReader(p.getInputStream()));
 			err = new BufferedReader(new InputStreamReader(p.getErrorStream()));
@@ -84,6 +77,40 @@ public class RASPParser implements TreeParser {
 		numParsed = 0;
 	}
 
+	/**
+	 * @param executable
+	 * @param options
+	 * @return the command line to start RASP with these parse options
+	 */
+	static String[] getCommand(String executable, String options) {
+		if (System.getProperty("os.name").matches("(?i).*windows.*")) {
+			// need to run via .sh script, so we'll have to run via cygwin under Windows
+			return new String[] { "c:\\cygwin\\bin\\bash.exe", "-c", executable + " -p\"" + options + "\"" };
+		} else {
+			// return new String[] { executable, options };
+			return new String[] { executable, "-p", options };
+		}
+	}
+
+	/**
+	 * @param executable
+	 * @param options
+	 * @return a description of the parser configuration, e.g. for keying a {@link ParseCache}
+	 */
+	static String getConfig(String executable, String options) {
+		return "RASPParser " + executable + " " + options;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getConfig(executable, options);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -91,6 +118,15 @@ public class RASPParser implements TreeParser {
 	 */
 	@Override
 	public Tree getBestParse() {
+		return makeTree(buffer);
+	}
+
+	/**
+	 * @param buffer
+	 *            RASP tree output
+	 * @return the first {@link Tree} in the output, or null if none
+	 */
+	static Tree makeTree(String buffer) {
 		PennTreeReader ptr = new PennTreeReader(new StringReader(buffer), new LabeledScoredTreeFactory());
 		ArrayList<Tree> trees = new ArrayList<Tree>();
 		try {
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2009, 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ ******************************************************************************/
+package qmul.util.parse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stanford.nlp.ling.Word;
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * A pool of RASP parser processes - see {@link RASPParser}, {@link ExternalParserPool}. RASP won't (easily) run in
+ * pipeline mode, so each process parses one batch and is then restarted - still far cheaper than one process per
+ * sentence
+ * 
+ * @author mpurver
+ */
+public class RASPParserPool extends ExternalParserPool {
+
+	private static final String DEFAULT_EXECUTABLE = "/import/imc-corpora/tools/parsers/rasp/scripts/rasp.sh";
+	private static final String DEFAULT_PARSE_OPTIONS = "-ou -t120";
+
+	private String executable;
+	private String options;
+
+	public RASPParserPool(int numProcesses) {
+		this(numProcesses, DEFAULT_EXECUTABLE, DEFAULT_PARSE_OPTIONS);
+	}
+
+	public RASPParserPool(int numProcesses, String executable, String options) {
+		super(numProcesses);
+		this.executable = executable;
+		this.options = options;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see qmul.util.parse.ExternalParserPool#getCommand()
+	 */
+	@Override
+	protected String[] getCommand() {
+		return RASPParser.getCommand(executable, options);
+	}
+
+	/**
+	 * @return the same description as the equivalent single parser, as the trees are the same
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return RASPParser.getConfig(executable, options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see qmul.util.parse.ExternalParserPool#readHeader(java.io.BufferedReader)
+	 */
+	@Override
+	protected void readHeader(BufferedReader in) throws IOException {
+		// no header
+	}
+
+	/**
+	 * One block per sentence; the (|word| ...) token line is dropped, so a failed parse gives an empty response
+	 * 
+	 * @see qmul.util.parse.ExternalParserPool#readResponse(java.io.BufferedReader)
+	 */
+	@Override
+	protected String readResponse(BufferedReader in) throws IOException {
+		String block = ClarkCurranParserPool.readBlock(in);
+		if (block == null) {
+			return null;
+		}
+		StringBuilder response = new StringBuilder();
+		for (String line : block.split("\n")) {
+			if (!line.trim().startsWith("(|")) {
+				response.append(line).append('\n');
+			}
+		}
+		return response.toString();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see qmul.util.parse.ExternalParserPool#makeTree(java.lang.String)
+	 */
+	@Override
+	protected Tree makeTree(String response) {
+		if (response.trim().isEmpty()) {
+			// there wasn't a tree, so nothing to produce a Tree from
+			return null;
+		}
+		return RASPParser.makeTree(response);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see qmul.util.parse.ExternalParserPool#isPipelined()
+	 */
+	@Override
+	protected boolean isPipelined() {
+		return false;
+	}
+
+	/**
+	 * Parse a few sentences. Give the executable as arg, or -stub to use {@link ParserStub}'s canned RASP output, to
+	 * test without a real parser
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		RASPParserPool pool;
+		if ((args.length > 0) && args[0].equals("-stub")) {
+			pool = new RASPParserPool(2) {
+				@Override
+				protected String[] getCommand() {
+					return ParserStub.getCommand("rasp");
+				}
+			};
+		} else if (args.length > 0) {
+			pool = new RASPParserPool(2, args[0], DEFAULT_PARSE_OPTIONS);
+		} else {
+			pool = new RASPParserPool(2);
+		}
+		PennTreebankTokenizer tok = new PennTreebankTokenizer(true);
+		List<List<Word>> sents = new ArrayList<List<Word>>();
+		sents.add(tok.getWordsFromString("john likes mary."));
+		sents.add(tok.getWordsFromString("No."));
+		sents.add(tok.getWordsFromString("john likes mary, his neighbour, because (I think) she is nice!"));
+		List<Tree> trees = pool.parseAll(sents);
+		for (int i = 0; i < sents.size(); i++) {
+			System.out.println(sents.get(i) + " -> " + (trees.get(i) == null ? "failed!" : trees.get(i).pennString()));
+		}
+		pool.close();
+	}
+
+}
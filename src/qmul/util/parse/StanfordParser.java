@@ -8,6 +8,7 @@
 package qmul.util.parse;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -35,6 +36,8 @@ public class StanfordParser implements TreeParser {
 
 	LexicalizedParser lp;
 
+	private final String config;
+
 	public StanfordParser() {
 		this(DEFAULT_FILE, DEFAULT_OPTIONS);
 	}
@@ -46,6 +49,33 @@ public class StanfordParser implements TreeParser {
 	public StanfordParser(String parserFileOrUrl, String[] options) {
 		lp = new LexicalizedParser(parserFileOrUrl);
 		lp.setOptionFlags(options);
+		config = getConfig(parserFileOrUrl, options);
+	}
+
+	/**
+	 * @param parserFileOrUrl
+	 * @param options
+	 * @return a description of this parser configuration, e.g. for keying a {@link ParseCache}
+	 */
+	public static String getConfig(String parserFileOrUrl, String[] options) {
+		return "StanfordParser " + parserFileOrUrl + " " + Arrays.toString(options);
+	}
+
+	/**
+	 * @return a description of the default parser configuration
+	 */
+	public static String getDefaultConfig() {
+		return getConfig(DEFAULT_FILE, DEFAULT_OPTIONS);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return config;
 	}
 
 	/*
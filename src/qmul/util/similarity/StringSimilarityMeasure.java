@@ -16,6 +16,7 @@ import java.util.HashMap;
 import java.util.Vector;
 
 import qmul.util.MapUtil;
+import csli.util.nlp.EditDistance;
 
 /**
  * 
@@ -192,55 +193,24 @@ public class StringSimilarityMeasure implements SimilarityMeasure<String> {
 
 	}
 
+	/**
+	 * @param str_
+	 * @param toCompare_
+	 * @return the length of the longest common substring, using a single reusable DP row
+	 */
 	public static int longestSubstr(String str_, String toCompare_) {
 		if (str_.length() == 0 || toCompare_.length() == 0)
 			return 0;
-
-		int[][] compareTable = new int[str_.length()][toCompare_.length()];
-		int maxLen = 0;
-
-		for (int m = 0; m < str_.length(); m++) {
-			for (int n = 0; n < toCompare_.length(); n++) {
-				compareTable[m][n] = (str_.charAt(m) != toCompare_.charAt(n)) ? 0 : (((m == 0) || (n == 0)) ? 1
-						: compareTable[m - 1][n - 1] + 1);
-				maxLen = (compareTable[m][n] > maxLen) ? compareTable[m][n] : maxLen;
-			}
-		}
-		return maxLen;
+		return EditDistance.getInstance().longestCommonSubstring(str_, toCompare_);
 	}
 
+	/**
+	 * @param x
+	 * @param y
+	 * @return the longest common subsequence, recovered from bit-parallel LCS rows rather than an int table
+	 */
 	public static String calculatesLongestCommonSubSequence(String x, String y) {
-		int M = x.length();
-		int N = y.length();
-		String longestSequence = "";
-
-		// opt[i][j] = length of LCS of x[i..M] and y[j..N]
-		int[][] opt = new int[M + 1][N + 1];
-
-		// compute length of LCS and all subproblems via dynamic programming
-		for (int i = M - 1; i >= 0; i--) {
-			for (int j = N - 1; j >= 0; j--) {
-				if (x.charAt(i) == y.charAt(j))
-					opt[i][j] = opt[i + 1][j + 1] + 1;
-				else
-					opt[i][j] = Math.max(opt[i + 1][j], opt[i][j + 1]);
-			}
-		}
-
-		// recover LCS itself and print it to standard output
-		int i = 0, j = 0;
-		while (i < M && j < N) {
-			if (x.charAt(i) == y.charAt(j)) {
-				longestSequence = longestSequence + (x.charAt(i));
-				i++;
-				j++;
-			} else if (opt[i + 1][j] >= opt[i][j + 1])
-				i++;
-			else
-				j++;
-		}
-		System.out.println();
-		return longestSequence;
+		return EditDistance.getInstance().lcs(x, y);
 	}
 
 	/**
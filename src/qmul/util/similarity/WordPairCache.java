@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * Copyright (c) 2009, 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ ******************************************************************************/
+package qmul.util.similarity;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A persistent cache of word-pair similarity scores, keyed by similarity mode (e.g. WordNet vs LSA) and word pair, so
+ * that different modes can share one cache and warm runs over the same vocabulary need no lookups at all. Optionally
+ * bounded in size, with a pluggable {@link EvictionPolicy} deciding what goes when it is full. Safe for use by several
+ * scoring threads at once.
+ *
+ * @author mpurver
+ */
+public class WordPairCache {
+
+	/**
+	 * Decides which key to evict when a bounded cache is full. Calls are synchronized on the policy by the cache.
+	 */
+	public interface EvictionPolicy {
+
+		/**
+		 * @param key
+		 *            a key which has just been added
+		 */
+		public void added(String key);
+
+		/**
+		 * @param key
+		 *            a key which has just been read
+		 */
+		public void accessed(String key);
+
+		/**
+		 * @return the key to evict (and forget), or null if there are none
+		 */
+		public String evict();
+
+	}
+
+	/**
+	 * Evict the oldest pair, regardless of use (cheaper than LRU, as reads need no bookkeeping)
+	 */
+	public static class FIFOPolicy implements EvictionPolicy {
+
+		protected LinkedHashMap<String, Boolean> order;
+
+		public FIFOPolicy() {
+			this(false);
+		}
+
+		/**
+		 * @param accessOrder
+		 *            whether reads count as use
+		 */
+		protected FIFOPolicy(boolean accessOrder) {
+			order = new LinkedHashMap<String, Boolean>(16, 0.75f, accessOrder);
+		}
+
+		@Override
+		public void added(String key) {
+			order.put(key, Boolean.TRUE);
+		}
+
+		@Override
+		public void accessed(String key) {
+			// nothing to do
+		}
+
+		@Override
+		public String evict() {
+			Iterator<String> it = order.keySet().iterator();
+			if (!it.hasNext()) {
+				return null;
+			}
+			String key = it.next();
+			it.remove();
+			return key;
+		}
+
+	}
+
+	/**
+	 * Evict the least recently used pair
+	 */
+	public static class LRUPolicy extends FIFOPolicy {
+
+		public LRUPolicy() {
+			super(true);
+		}
+
+		@Override
+		public void accessed(String key) {
+			order.get(key);
+		}
+
+	}
+
+	private final File file;
+	private final int maxSize;
+	private final EvictionPolicy policy;
+	private final ConcurrentHashMap<String, Double> cache = new ConcurrentHashMap<String, Double>();
+	private volatile boolean changed = false;
+
+	/**
+	 * An unbounded cache
+	 *
+	 * @param file
+	 *            the file to read the cache from (if it exists) and save it to (null for an in-memory cache only). Use a
+	 *            .gz suffix for compression
+	 */
+	public WordPairCache(File file) {
+		this(file, 0, null);
+	}
+
+	/**
+	 * @param file
+	 *            the file to read the cache from (if it exists) and save it to (null for an in-memory cache only). Use a
+	 *            .gz suffix for compression
+	 * @param maxSize
+	 *            the maximum number of pairs to keep (0 for no limit)
+	 * @param policy
+	 *            the eviction policy when bounded (if null, LRU)
+	 */
+	public WordPairCache(File file, int maxSize, EvictionPolicy policy) {
+		this.file = file;
+		this.maxSize = maxSize;
+		this.policy = ((maxSize > 0) ? (policy == null ? new LRUPolicy() : policy) : null);
+		if ((file != null) && file.exists()) {
+			load();
+		}
+	}
+
+	/**
+	 * @param mode
+	 *            the similarity mode
+	 * @param a
+	 * @param b
+	 * @return the cached score (possibly NaN) for this pair under this mode, or null if there isn't one
+	 */
+	public Double get(String mode, String a, String b) {
+		String key = getKey(mode, a, b);
+		Double sim = cache.get(key);
+		if ((sim != null) && (policy != null)) {
+			synchronized (policy) {
+				policy.accessed(key);
+			}
+		}
+		return sim;
+	}
+
+	/**
+	 * @param mode
+	 *            the similarity mode
+	 * @param a
+	 * @param b
+	 * @param sim
+	 *            the score for this pair under this mode (ignored if null)
+	 */
+	public void put(String mode, String a, String b, Double sim) {
+		if (sim == null) {
+			return;
+		}
+		String key = getKey(mode, a, b);
+		boolean added = (cache.put(key, sim) == null);
+		changed = true;
+		if (added && (policy != null)) {
+			synchronized (policy) {
+				policy.added(key);
+				while (cache.size() > maxSize) {
+					String victim = policy.evict();
+					if (victim == null) {
+						break;
+					}
+					cache.remove(victim);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param mode
+	 * @param a
+	 * @param b
+	 * @return the key for this pair under this mode, with the words in alphabetical order
+	 */
+	public String getKey(String mode, String a, String b) {
+		if (a.compareTo(b) > 0) {
+			return mode + "\t" + b + "\t" + a;
+		} else {
+			return mode + "\t" + a + "\t" + b;
+		}
+	}
+
+	/**
+	 * @return the number of cached pairs (across all modes)
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Save the cache to file, if it has changed since it was read, via a temporary file so a crash can't leave it
+	 * half-written
+	 *
+	 * @return success
+	 */
+	public synchronized boolean save() {
+		if ((file == null) || !changed) {
+			return true;
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			OutputStream outs = new FileOutputStream(tmp);
+			if (file.getName().endsWith(".gz")) {
+				outs = new GZIPOutputStream(outs);
+			}
+			ObjectOutputStream out = new ObjectOutputStream(outs);
+			changed = false;
+			out.writeObject(new HashMap<String, Double>(cache));
+			out.close();
+			// renaming over an existing file fails on some platforms, so delete it first if need be
+			if (!tmp.renameTo(file) && (!file.delete() || !tmp.renameTo(file))) {
+				throw new IOException("Can't rename " + tmp + " to " + file);
+			}
+			System.out.println("Saved " + cache.size() + " cached word pairs to file " + file);
+			return true;
+		} catch (IOException e) {
+			changed = true;
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void load() {
+		try {
+			InputStream ins = new FileInputStream(file);
+			if (file.getName().endsWith(".gz")) {
+				ins = new GZIPInputStream(ins);
+			}
+			ObjectInputStream in = new ObjectInputStream(ins);
+			HashMap<String, Double> saved = (HashMap<String, Double>) in.readObject();
+			in.close();
+			for (String key : saved.keySet()) {
+				if ((maxSize > 0) && (cache.size() >= maxSize)) {
+					break;
+				}
+				cache.put(key, saved.get(key));
+				if (policy != null) {
+					policy.added(key);
+				}
+			}
+			System.out.println("Read " + cache.size() + " cached word pairs from file " + file);
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
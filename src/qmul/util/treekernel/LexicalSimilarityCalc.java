@@ -16,10 +16,11 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringReader;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
 
+import qmul.corpus.LexicalAnnotator;
+import qmul.distr.Vocabulary;
 import edu.stanford.nlp.ling.Word;
 import edu.stanford.nlp.process.Morphology;
 import edu.stanford.nlp.process.PTBTokenizer;
@@ -30,47 +31,62 @@ public class LexicalSimilarityCalc {
 	private static Morphology m = new Morphology();
 
 	private static float lexSimilarity(String s1, String s2) {
-		String[] split1 = s1.split("[.?!]");
-		String[] split2 = s2.split("[.?!]");
-		Set<String> stemsInFirst = new HashSet<String>();
-		Set<String> stemsInSecond = new HashSet<String>();
-		for (int i = 0; i < split1.length; i++) {
-			PTBTokenizer<Word> tokenizer1 = new PTBTokenizer<Word>(new StringReader(split1[i]), new WordTokenFactory(),
-					"tokenizeNLs=false");
-			while (tokenizer1.hasNext()) {
-				Word w = tokenizer1.next();
-				String stem = m.stem(w).word();
+		return lexSimilarity(getStems(s1), getStems(s2));
+	}
 
-				stemsInFirst.add(stem);
+	/**
+	 * @param stems1
+	 *            stem ids
+	 * @param stems2
+	 *            stem ids
+	 * @return the proportion of the distinct stems in stems2 which are also in stems1
+	 */
+	private static float lexSimilarity(int[] stems1, int[] stems2) {
+		int[] first = stems1.clone();
+		int[] second = stems2.clone();
+		Arrays.sort(first);
+		Arrays.sort(second);
+		float commonStems = 0;
+		int secondSize = 0;
+		for (int i = 0, j = 0; j < second.length; j++) {
+			if ((j > 0) && (second[j] == second[j - 1])) {
+				continue;
 			}
-		}
-
-		for (int j = 0; j < split2.length; j++) {
-			PTBTokenizer<Word> tokenizer2 = new PTBTokenizer<Word>(new StringReader(split2[j]), new WordTokenFactory(),
-					"tokenizeNLs=false");
-			while (tokenizer2.hasNext()) {
-				Word w = tokenizer2.next();
-				String stem = m.stem(w).word();
-
-				stemsInSecond.add(stem);
+			secondSize++;
+			while ((i < first.length) && (first[i] < second[j])) {
+				i++;
 			}
-		}
-
-		Iterator<String> i = stemsInSecond.iterator();
-		float commonStems = 0;
-		while (i.hasNext()) {
-			String curStem = i.next();
-			// System.out.println(curStem);
-			if (stemsInFirst.contains(curStem))
+			if ((i < first.length) && (first[i] == second[j])) {
 				commonStems++;
+			}
 		}
-		int secondSize = stemsInSecond.size();
 		if (secondSize > 0)
 			return commonStems / (float) (secondSize);
 		else
 			return 0;
 	}
 
+	/**
+	 * @param s
+	 * @return the ids (in the {@link LexicalAnnotator} vocabulary) of the stems of the PTB tokens in s
+	 */
+	private static int[] getStems(String s) {
+		Vocabulary vocab = LexicalAnnotator.getVocabulary();
+		ArrayList<Integer> stems = new ArrayList<Integer>();
+		for (String split : s.split("[.?!]")) {
+			PTBTokenizer<Word> tokenizer = new PTBTokenizer<Word>(new StringReader(split), new WordTokenFactory(),
+					"tokenizeNLs=false");
+			while (tokenizer.hasNext()) {
+				stems.add(vocab.getIndex(m.stem(tokenizer.next()).word()));
+			}
+		}
+		int[] ids = new int[stems.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = stems.get(i);
+		}
+		return ids;
+	}
+
 	public static void computeWriteSimilaritiesToFile(String inputFileName, String outputFileName) throws IOException {
 
 		FileInputStream fstream = new FileInputStream(inputFileName);
@@ -89,6 +105,8 @@ public class LexicalSimilarityCalc {
 		int totalTurns2 = 0;
 		String line = reader.readLine();
 		String[] values1 = line.split("\t");
+		// stem each line once, not once as each member of a pair
+		int[] stems1 = getStems(values1[2]);
 		boolean flag = true;// totalsimmilarity1 is being incremented
 
 		while ((line = reader.readLine()) != null) {
@@ -110,12 +128,14 @@ public class LexicalSimilarityCalc {
 				totalTurns1 = 0;
 				totalTurns2 = 0;
 				values1 = values2;
+				stems1 = getStems(values1[2]);
 
 				flag = true;
 				continue;
 			}
 
-			float similarity = lexSimilarity(values1[2], values2[2]);
+			int[] stems2 = getStems(values2[2]);
+			float similarity = lexSimilarity(stems1, stems2);
 			String lineWritten = values1[0] + "\t" + values1[1] + "\t" + values2[1] + "\t" + values1[2] + "\t"
 					+ values2[2] + "\t" + similarity;
 			if (flag) {
@@ -130,6 +150,7 @@ public class LexicalSimilarityCalc {
 			writer.flush();
 			// //
 			values1 = values2;
+			stems1 = stems2;
 			flag = !flag;
 
 		}
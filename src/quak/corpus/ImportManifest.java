@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (c) 2013, 2014 Matthew Purver, Queen Mary University of London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * <p/>
+ * Contributors:
+ * Matthew Purver, Queen Mary University of London - initial API and implementation
+ ******************************************************************************/
+package quak.corpus;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * A record of the transcript files imported into a corpus (name, size, last modified time and content hash), kept in a
+ * text file next to the corpus file, so that new or changed transcripts can be found and imported without re-importing
+ * everything.
+ *
+ * @author mpurver
+ */
+public class ImportManifest {
+
+    private final File file;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    /**
+     * The recorded state of one imported file
+     */
+    private static class Entry {
+        private long size;
+        private long lastModified;
+        private String hash;
+
+        private Entry(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * @param file
+     *            the manifest file (read in if it already exists)
+     */
+    public ImportManifest(File file) {
+        this.file = file;
+        if (file.exists()) {
+            read();
+        }
+    }
+
+    /**
+     * @param corpusFile
+     * @return the manifest for this corpus file
+     */
+    public static ImportManifest forCorpus(File corpusFile) {
+        return new ImportManifest(new File(corpusFile.getPath() + ".imports"));
+    }
+
+    /**
+     * @return the manifest file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @param name
+     *            the file name (relative to the transcript dir)
+     * @return true if this file has been recorded as imported
+     */
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * @return the names of all the files recorded as imported
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * @return the number of files recorded as imported
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * A file has changed if its size or modification time differ from those recorded, and its content hash does too
+     * (so files which have just been touched or copied don't count as changed)
+     *
+     * @param name
+     *            the file name (relative to the transcript dir)
+     * @param f
+     *            the file
+     * @return true if the file is not recorded, or has changed since it was
+     * @throws IOException
+     */
+    public boolean isChanged(String name, File f) throws IOException {
+        Entry e = entries.get(name);
+        if (e == null) {
+            return true;
+        }
+        if ((e.size == f.length()) && (e.lastModified == f.lastModified())) {
+            return false;
+        }
+        String hash = hash(f);
+        if (!hash.equals(e.hash)) {
+            return true;
+        }
+        // same contents, so just remember the new timestamp to save hashing it again next time
+        e.size = f.length();
+        e.lastModified = f.lastModified();
+        return false;
+    }
+
+    /**
+     * Record a file as imported, in its current state
+     *
+     * @param name
+     *            the file name (relative to the transcript dir)
+     * @param f
+     *            the file
+     * @throws IOException
+     */
+    public void put(String name, File f) throws IOException {
+        entries.put(name, new Entry(f.length(), f.lastModified(), hash(f)));
+    }
+
+    /**
+     * Forget all recorded files
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Write the manifest to its file, via a temporary file so a crash can't leave it half-written
+     *
+     * @return success
+     */
+    public boolean save() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            PrintWriter out = new PrintWriter(new FileWriter(tmp));
+            for (String name : entries.keySet()) {
+                Entry e = entries.get(name);
+                out.println(name + "\t" + e.size + "\t" + e.lastModified + "\t" + e.hash);
+            }
+            out.close();
+            if (out.checkError()) {
+                throw new IOException("Error writing " + tmp);
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Can't replace " + file);
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Can't rename " + tmp + " to " + file);
+            }
+            System.out.println("Wrote import manifest for " + entries.size() + " files to " + file);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void read() {
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] f = line.split("\t");
+                    if (f.length != 4) {
+                        System.err.println("WARNING strange line in " + file + ": " + line);
+                        continue;
+                    }
+                    entries.put(f[0], new Entry(Long.parseLong(f[1]), Long.parseLong(f[2]), f[3]));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Read import manifest for " + entries.size() + " files from " + file);
+    }
+
+    /**
+     * @param f
+     * @return the SHA-1 hash of the file contents, as a hex string
+     * @throws IOException
+     */
+    public static String hash(File f) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buf = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+}
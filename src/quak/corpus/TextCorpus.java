@@ -11,18 +11,20 @@
  ******************************************************************************/
 package quak.corpus;
 
-import csli.util.FileUtils;
 import qmul.corpus.*;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import csli.util.Pair;
+
 /**
  * Simple corpora created from transcript text files.
  *
@@ -31,8 +33,12 @@ import java.util.regex.Pattern;
  */
 public class TextCorpus extends DialogueCorpus {
 
+    // the value computed for the original class, so that corpus files saved before it was declared can still be read
+    private static final long serialVersionUID = -5592812531294705451L;
+
     // Pattern:                                                     "00:00 SpeakerID: Transcript"
     private static final Pattern LINE_PAT = Pattern.compile("(?:[0-9]{2}:[0-9]{2}) ([\\S][^:]+): ([\\S \t]+)");
+    private static final Pattern TXT_PAT = Pattern.compile("\\.txt");
 
     private final String GENRE = "QU_Genre";
 
@@ -46,8 +52,7 @@ public class TextCorpus extends DialogueCorpus {
     protected List<String> matchLine(String line, String dialogueId) {
         Matcher m = LINE_PAT.matcher(line);
         if (m.matches()) {
-            // Use to create hashcode for daTags. Just a placeholder - we don't need Dialogue Act tags.
-            Date d = new Date();
+            // we don't need Dialogue Act tags
             String daTags = null;
 
             String spkId = m.group(1);
@@ -66,17 +71,30 @@ public class TextCorpus extends DialogueCorpus {
      */
     @Override
     public boolean loadDialogue(String name) {
+        return addFileContents(readFile(new File(getDir(), name), new SpeakerRegistry(getSpeakerMap())));
+    }
+
+    /**
+     * @param file
+     * @param speakers
+     *            the speakers found so far
+     * @return the dialogue and speakers in the file
+     */
+    private FileContents readFile(File file, SpeakerRegistry speakers) {
+        String name = file.getName();
         System.out.println("Load dialogue " + name);
-        File file = new File(getDir(), name);
-        ArrayList<String> lines = new ArrayList<String>();
+        FileContents contents = new FileContents();
+        List<String> lines;
         try {
-            FileUtils.getFileLines(file, lines);
+            lines = readLines(file);
         } catch (IOException e) {
             e.printStackTrace();
-            return false;
+            contents.setSuccess(false);
+            return contents;
         }
-        String id = name.replaceAll("\\.txt", "");
-        Dialogue d = addDialogue(id, getGenre());
+        String id = getDialogueId(name);
+        Dialogue d = new Dialogue(this, id, getGenre());
+        contents.addDialogue(d);
         DialogueTurn t = null;
         DialogueSpeaker lastSpk = null;
         for (String line : lines) {
@@ -85,31 +103,20 @@ public class TextCorpus extends DialogueCorpus {
             }
             List<String> matches = matchLine(line, id);
             if (matches != null) {
-                String daTags = null;
                 String spkId = matches.get(1);
                 String trans = matches.get(2);
-                DialogueSpeaker spk = getSpeakerMap().get(spkId);
-                if (spk == null) {
-                    spk = new DialogueSpeaker(spkId, null, null, null, null, null);
-                    getSpeakerMap().put(spkId, spk);
-                }
+                DialogueSpeaker spk = speakers.get(spkId, null);
+                contents.addSpeaker(spkId, spk);
                 if ((t == null) || (!spk.equals(lastSpk))) {
                     t = d.addTurn(-1, spk);
                 }
-                DialogueSentence s = d.addSent(-1, t, trans, null);
-                if (daTags != null && !daTags.isEmpty()) {
-                    for (String daTag : daTags.split(",")) {
-                        s.getDaTags().add(daTag);
-                        t.getDaTags().add(daTag);
-                    }
-                }
+                d.addSent(-1, t, trans, null);
                 lastSpk = spk;
-                // System.out.println(s.getId() + " " + s.getDaTags());
             } else {
                 System.err.println("WARNING strange line " + line);
             }
         }
-        return checkDialogue(d);
+        return contents;
     }
 
     /*
@@ -120,10 +127,15 @@ public class TextCorpus extends DialogueCorpus {
     @Override
     public boolean setupCorpus() {
         getGenreCounts().put(getGenre(), Integer.MAX_VALUE);
-        for (File file : getDir().listFiles()) {
-            if (!loadDialogue(file.getName())) {
-                return false;
+        final SpeakerRegistry speakers = new SpeakerRegistry(getSpeakerMap());
+        boolean success = loadFiles(Arrays.asList(getDir().listFiles()), new ContentsReader() {
+            @Override
+            public FileContents read(File file) {
+                return readFile(file, speakers);
             }
+        });
+        if (!success) {
+            return false;
         }
         if (!sanityCheck()) {
             new RuntimeException("Failed sanity check!").printStackTrace();
@@ -132,6 +144,121 @@ public class TextCorpus extends DialogueCorpus {
         return true;
     }
 
+    /**
+     * @param fileName
+     * @return the ID of the dialogue read from this file
+     */
+    private static String getDialogueId(String fileName) {
+        return TXT_PAT.matcher(fileName).replaceAll("");
+    }
+
+    /**
+     * Import any transcript files which are new or have changed since they were recorded in the manifest, leaving all
+     * other dialogues (and their syntax) as they are. The dialogue from a changed file replaces the old one, once the
+     * new version has been read; a file which can't be read leaves any old version in place. Files with
+     * no manifest entry whose dialogue is already in the corpus (e.g. if the corpus was created without a manifest) are
+     * assumed to be unchanged, and just recorded, with a warning. Files recorded in the manifest which are no longer in
+     * dir are reported, but their dialogues are left in the corpus (so dir can be a new location, or hold just the new
+     * transcripts); remove those dialogues explicitly if they should go.
+     *
+     * @param dir
+     *            the transcript dir
+     * @param manifest
+     *            the files already imported (updated to include the new ones, but not saved)
+     * @return the dialogues added
+     */
+    public List<Dialogue> importFiles(File dir, ImportManifest manifest) {
+        HashMap<String, Dialogue> dialogues = new HashMap<String, Dialogue>();
+        for (Dialogue d : getDialogues()) {
+            dialogues.put(d.getId(), d);
+        }
+        ArrayList<File> files = new ArrayList<File>();
+        HashSet<String> missing = new HashSet<String>(manifest.getNames());
+        for (File file : dir.listFiles()) {
+            String name = file.getName();
+            missing.remove(name);
+            try {
+                if (!manifest.contains(name) && dialogues.containsKey(getDialogueId(name))) {
+                    System.out.println("WARNING: no import record for " + name + ", assuming dialogue "
+                            + getDialogueId(name) + " is unchanged");
+                    manifest.put(name, file);
+                } else if (manifest.isChanged(name, file)) {
+                    files.add(file);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        System.out.println("Found " + files.size() + " new or changed files in " + dir);
+        for (String name : missing) {
+            System.out.println("WARNING: imported file " + name + " is no longer in " + dir + ", leaving dialogue "
+                    + getDialogueId(name) + " in the corpus");
+        }
+        final HashMap<String, Dialogue> oldDialogues = dialogues;
+        final ArrayList<Dialogue> added = new ArrayList<Dialogue>();
+        final ArrayList<File> loaded = new ArrayList<File>();
+        final SpeakerRegistry speakers = new SpeakerRegistry(getSpeakerMap());
+        processFiles(files, new FileProcessor<Pair<File, FileContents>>() {
+            @Override
+            public Pair<File, FileContents> read(File file) {
+                return new Pair<File, FileContents>(file, readFile(file, speakers));
+            }
+
+            @Override
+            public boolean add(Pair<File, FileContents> result) {
+                FileContents contents = result.second();
+                if (!contents.isSuccess()) {
+                    // keep any old version, and leave the file unrecorded so it's tried again next time
+                    System.out.println("WARNING: couldn't read " + result.first() + ", not importing it");
+                    return true;
+                }
+                // only now that the new version has been read, swap it in for the old one
+                for (Dialogue d : contents.getDialogues()) {
+                    Dialogue old = oldDialogues.get(d.getId());
+                    if (old != null) {
+                        System.out.println("Replacing changed dialogue " + old.getId());
+                        removeDialogue(old);
+                    }
+                }
+                boolean carryOn = addFileContents(contents);
+                for (Dialogue d : contents.getDialogues()) {
+                    if (getDialogues().contains(d)) {
+                        added.add(d);
+                    }
+                }
+                loaded.add(result.first());
+                return carryOn;
+            }
+        });
+        for (File file : loaded) {
+            try {
+                manifest.put(file.getName(), file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Record all transcript files as imported, e.g. after creating the corpus from them
+     *
+     * @param dir
+     *            the transcript dir
+     * @param manifest
+     *            (updated, but not saved)
+     */
+    public static void recordFiles(File dir, ImportManifest manifest) {
+        manifest.clear();
+        for (File file : dir.listFiles()) {
+            try {
+                manifest.put(file.getName(), file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     /**
      * @return the default genre for this corpus
      */
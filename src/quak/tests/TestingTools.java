@@ -2,8 +2,13 @@ package quak.tests;
 
 import qmul.align.AlignmentTester;
 import qmul.corpus.CorpusParser;
+import qmul.corpus.Dialogue;
+import qmul.corpus.DialogueCorpus;
+import qmul.corpus.ParseCheckpoint;
+import quak.corpus.ImportManifest;
 import quak.corpus.TextCorpus;
 import java.io.File;
+import java.util.List;
 
 /**
  * Provides a tool-set to execute and evaluate Alignment Tests using the DIASIM Library
@@ -13,29 +18,109 @@ import java.io.File;
 public abstract class TestingTools {
 
     /**
-     * Call this method to import a directory of transcripts.
+     * The number of dialogues parsed between checkpoints in ParseCorpus
+     */
+    public static final int CHECKPOINT_INTERVAL = 10;
+
+    /**
+     * Call this method to import a directory of transcripts. Files are read in parallel, one thread per processor.
      * @param TranscriptsDirectory
      *      The directory where all the transcripts are saved
      * @return
      *      A TextCorpus object
      */
     public static TextCorpus CreateCorpus(File TranscriptsDirectory) {
-        return new TextCorpus("QuakCorpus",TranscriptsDirectory,false);
+        int numThreads = DialogueCorpus.getNumThreads();
+        DialogueCorpus.setNumThreads(0);
+        try {
+            return new TextCorpus("QuakCorpus",TranscriptsDirectory,false);
+        } finally {
+            DialogueCorpus.setNumThreads(numThreads);
+        }
     }
     /**
      * Call this method to import a directory of transcripts and save them as a corpus file.
+     * The imported files are recorded in a ".imports" file next to the corpus, for UpdateCorpus.
      * @param TranscriptsDirectory
      *          The directory where all the transcripts are saved
      */
     public static TextCorpus CreateCorpus(File TranscriptsDirectory, File CorpusFile) {
         TextCorpus corpus = CreateCorpus(TranscriptsDirectory);
-        corpus.writeToFile(CorpusFile);
+        if (corpus.writeToFile(CorpusFile)) {
+            ImportManifest manifest = ImportManifest.forCorpus(CorpusFile);
+            TextCorpus.recordFiles(TranscriptsDirectory, manifest);
+            manifest.save();
+        }
+        return corpus;
+    }
+
+    /**
+     * Call this method to add new or changed transcripts to an existing corpus file, without re-importing (or
+     * re-parsing) the rest. Transcripts are compared by name, size, modification time and content hash against the
+     * ".imports" file written when the corpus was created or last updated.
+     * If the corpus file doesn't exist yet, it is created from all the transcripts.
+     * Transcripts which have been deleted since are reported, but their dialogues stay in the corpus. Transcripts with
+     * no ".imports" entry whose dialogue ID is already in the corpus (e.g. a corpus created before there were
+     * ".imports" files) are assumed to be unchanged; delete the corpus file to re-import everything.
+     * @param TranscriptsDirectory
+     *          The directory where all the transcripts are saved
+     * @param CorpusFile
+     *          The corpus file to update
+     * @param parse
+     *          If true, parse the new dialogues (only) with the stanford parser
+     * @return the updated corpus, or null if it couldn't be parsed because the ".parselog" file next to it was left
+     *          by an interrupted ParseCorpus run (nothing is saved; finish that run first, or delete the log)
+     */
+    public static TextCorpus UpdateCorpus(File TranscriptsDirectory, File CorpusFile, boolean parse) {
+        if (!CorpusFile.exists()) {
+            TextCorpus corpus = CreateCorpus(TranscriptsDirectory, CorpusFile);
+            if (parse) {
+                return ParseCorpus(CorpusFile);
+            }
+            return corpus;
+        }
+        TextCorpus corpus = (TextCorpus) TextCorpus.readFromFile(CorpusFile);
+        ImportManifest manifest = ImportManifest.forCorpus(CorpusFile);
+        int numThreads = DialogueCorpus.getNumThreads();
+        DialogueCorpus.setNumThreads(0);
+        List<Dialogue> added;
+        try {
+            added = corpus.importFiles(TranscriptsDirectory, manifest);
+        } finally {
+            DialogueCorpus.setNumThreads(numThreads);
+        }
+        System.out.println("Added " + added.size() + " new or changed dialogues");
+        if (added.isEmpty()) {
+            manifest.save(); // may have recorded files with new timestamps but unchanged contents
+            return corpus;
+        }
+        if (parse) {
+            CorpusParser.setParser();           // Run with default stanford settings
+            CorpusParser.setParseCache(new File(CorpusFile.getParentFile(), CorpusParser.DEFAULT_PARSE_CACHE));
+            ParseCheckpoint checkpoint = new ParseCheckpoint(new File(CorpusFile.getPath() + ".parselog"));
+            CorpusParser.setCheckpoint(checkpoint, CHECKPOINT_INTERVAL);
+            if (CorpusParser.parse(corpus, added) < 0) {
+                System.out.println("Not updating " + CorpusFile + ": " + checkpoint.getFile()
+                        + " is from an unfinished parse of the corpus as it was before. Run ParseCorpus to finish it"
+                        + " (or delete it to start that parse again), then update the corpus again.");
+                return null;
+            }
+            if (corpus.writeToFile(CorpusFile)) {
+                checkpoint.delete();
+                manifest.save();
+            }
+        } else if (corpus.writeToFile(CorpusFile)) {
+            manifest.save();
+        }
         return corpus;
     }
 
     /**
      * This method will parse the corpus and calculate syntactic information via the stanford parser.
      * It will re-save the corpus back to disk with syntactic information.
+     * Progress is checkpointed to a ".parselog" file next to the corpus, so if parsing is interrupted,
+     * calling this again will pick up where it left off. Parses are also cached in a "parsecache.gz" file
+     * next to the corpus, so sentences seen before (in this or any other corpus there) aren't parsed again.
      * @param corpusFile
      *      The corpus to parse
      */
@@ -44,8 +129,12 @@ public abstract class TestingTools {
 
         CorpusParser parser = new CorpusParser();
         parser.setParser();                     // Run with default stanford settings
+        CorpusParser.setParseCache(new File(corpusFile.getParentFile(), CorpusParser.DEFAULT_PARSE_CACHE));
+        ParseCheckpoint checkpoint = new ParseCheckpoint(new File(corpusFile.getPath() + ".parselog"));
+        CorpusParser.setCheckpoint(checkpoint, CHECKPOINT_INTERVAL);
         if (parser.parse(corpus) > 0) {         // Only write to file if it actually parsed something
-            corpus.writeToFile(corpusFile);     // Modifies corpus by adding syntactic information.
+            if (corpus.writeToFile(corpusFile)) // Modifies corpus by adding syntactic information.
+                checkpoint.delete();            // Safely saved, so no need to resume any more
             return corpus;
         }
         else